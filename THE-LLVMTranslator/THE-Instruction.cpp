@@ -63,6 +63,7 @@ THEInstructionType parseCommand(std::string c) {
     if ( c == "EndBlock" )        return THEInstructionType::EndBlock;
     if ( c == "Loop" )            return THEInstructionType::Loop;
     if ( c == "Break" )           return THEInstructionType::Break;
+    if ( c == "Phi" )             return THEInstructionType::Phi;
     return THEInstructionType::UNKNOWN;
 }
 
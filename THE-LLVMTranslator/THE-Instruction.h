@@ -51,6 +51,7 @@ enum THEInstructionType {
     EndBlock,
     Loop,
     Break,
+    Phi,
 
     UNKNOWN
 };
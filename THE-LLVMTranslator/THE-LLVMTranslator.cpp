@@ -219,6 +219,10 @@ void generateModule() {
     //         }
     //         case THEInstructionType::Else: {
     //             //TODO
+    //         }
+    //         case THEInstructionType::Phi: {
+    //             //TODO: builder.CreatePHI, with one incoming value for the block of each "from" instruction
+    //             //(and the block before this one for a value without one)
     //         }
             default: {
                 std::cout << "Unknown instruction type encountered\n";
@@ -15,4 +15,8 @@ public class AllocArrInstr extends Instruction {
 		return dimensionSizes;
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		replaceAllIfSame(dimensionSizes, oldArg, newArg);
+	}
+	
 }
@@ -19,4 +19,7 @@ public class AllocVarInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+	}
+	
 }
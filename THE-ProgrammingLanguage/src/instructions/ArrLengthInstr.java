@@ -40,4 +40,9 @@ public class ArrLengthInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		pointerInstr = (IdentityInstr)replaceIfSame(pointerInstr, oldArg, newArg);
+		dimensionToRead = replaceIfSame(dimensionToRead, oldArg, newArg);
+	}
+	
 }
@@ -20,4 +20,9 @@ public class BoolAndInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		arg1 = replaceIfSame(arg1, oldArg, newArg);
+		arg2 = replaceIfSame(arg2, oldArg, newArg);
+	}
+	
 }
@@ -18,4 +18,8 @@ public class BoolNotInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		arg = replaceIfSame(arg, oldArg, newArg);
+	}
+	
 }
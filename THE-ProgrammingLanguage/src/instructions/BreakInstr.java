@@ -14,4 +14,8 @@ public class BreakInstr extends Instruction {
 				loopStartInstr
 		};
 	}
+	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		// The loop to break out of is part of the structure, not a value
+	}
 }
@@ -14,4 +14,8 @@ public class ContinueInstr extends Instruction {
 				loopStartInstr
 		};
 	}
+	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		// The loop to continue is part of the structure, not a value
+	}
 }
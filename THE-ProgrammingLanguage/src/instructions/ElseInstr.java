@@ -19,4 +19,8 @@ public class ElseInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		// The if and the end of the block are part of the structure, not values
+	}
+	
 }
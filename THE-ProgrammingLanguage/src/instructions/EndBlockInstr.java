@@ -12,4 +12,7 @@ public class EndBlockInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+	}
+	
 }
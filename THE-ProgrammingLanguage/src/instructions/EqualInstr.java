@@ -19,4 +19,9 @@ public class EqualInstr extends Instruction {
 				arg1, arg2
 		};
 	}
+	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		arg1 = replaceIfSame(arg1, oldArg, newArg);
+		arg2 = replaceIfSame(arg2, oldArg, newArg);
+	}
 }
@@ -20,4 +20,8 @@ public class FunctionCallInstr extends Instruction {
 		return args;
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		replaceAllIfSame(args, oldArg, newArg);
+	}
+	
 }
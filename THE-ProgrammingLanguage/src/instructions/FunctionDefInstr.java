@@ -19,4 +19,8 @@ public class FunctionDefInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		// The end of the function is part of the structure, not a value
+	}
+	
 }
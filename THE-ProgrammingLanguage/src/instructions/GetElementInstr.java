@@ -8,6 +8,9 @@ public class GetElementInstr extends Instruction {
 	
 	public Instruction[] instructionsForIndices; // Which index in each dimension to read from the array
 	
+	// Whether every index is known to be in range, so it doesn't need to be checked (see BoundsCheckEliminationPass)
+	public boolean isInBounds = false;
+	
 	public GetElementInstr(Instruction parentInstruction, String debugString,
 			AllocVarInstr declareInstr, Instruction[] instructionsForIndices) {
 		
@@ -35,4 +38,9 @@ public class GetElementInstr extends Instruction {
 		return instructions;
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		// The array variable is part of the structure, not a value
+		replaceAllIfSame(instructionsForIndices, oldArg, newArg);
+	}
+	
 }
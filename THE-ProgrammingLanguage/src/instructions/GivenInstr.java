@@ -17,4 +17,7 @@ public class GivenInstr extends Instruction {
 				
 		};
 	}
+	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+	}
 }
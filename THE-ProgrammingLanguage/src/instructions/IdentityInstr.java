@@ -15,4 +15,8 @@ public class IdentityInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		arg = replaceIfSame(arg, oldArg, newArg);
+	}
+	
 }
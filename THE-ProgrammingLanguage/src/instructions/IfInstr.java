@@ -60,4 +60,9 @@ public class IfInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		// The blocks that this jumps to are part of the structure, not values
+		conditionInstr = replaceIfSame(conditionInstr, oldArg, newArg);
+	}
+	
 }
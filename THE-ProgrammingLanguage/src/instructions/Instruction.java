@@ -1,18 +1,21 @@
 package instructions;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 
+import parsing.CompilationContext;
+import parsing.Function;
+import parsing.SideEffect;
 import parsing.Type;
 
 // This class contains information about a single instruction (add, sub, mov, math, if, while, ...)
 
-public abstract class Instruction {
+public abstract class Instruction implements Cloneable {
 	
-	// The global instruction id counter
-	private static int nextInstructionNum = 0;
-	
-	// The local instruction id
-	public final int id;
+	// The local instruction id (unique within one compilation).
+	// Instructions that were parsed separately are given new ids when they are put together.
+	public int id;
 	
 	// The original line number that this instruction was created from.
 	public int originalLineNumber = -999;
@@ -27,10 +30,15 @@ public abstract class Instruction {
 	// This may be null for instructions not in any conditional structure or method.
 	public Instruction parentInstruction = null;
 	
+	// The instructions that have this instruction as an argument (see getAllArgs),
+	// each with the number of times it is an argument, in the order they started using it.
+	// Instructions don't override equals, so this is keyed by identity.
+	// This is filled in for a whole program by linkUsers, and then kept up to date by the pass that called it.
+	private LinkedHashMap<Instruction, Integer> users = new LinkedHashMap<Instruction, Integer>();
+	
 	// Create an instruction of a given type, and give it a unique id
 	public Instruction(Instruction parentInstruction, Type returnType, String debugString) {
-		this.id = nextInstructionNum;
-		nextInstructionNum++;
+		this.id = CompilationContext.getCurrent().takeNextInstructionNum();
 		
 		this.parentInstruction = parentInstruction;
 		this.returnType = returnType;
@@ -40,6 +48,18 @@ public abstract class Instruction {
 		}
 	}
 	
+	// Return a new instruction with the same id and fields as this one.
+	// The copy refers to the same instructions as this one (see InstructionCopier).
+	public Instruction shallowCopy() {
+		try {
+			Instruction copy = (Instruction)super.clone();
+			copy.users = new LinkedHashMap<Instruction, Integer>(); // Nothing uses the copy yet
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e); // Not possible, since every instruction is Cloneable
+		}
+	}
+	
 	// Beautiful representation of this instruction
 	@Override
 	public String toString() {
@@ -171,6 +191,20 @@ public abstract class Instruction {
 			IfInstr instr = (IfInstr)this;
 			s += "(" + instr.conditionInstr.returnType + " " + instr.conditionInstr.id + ")";
 		}
+		if (this instanceof PhiInstr) {
+			PhiInstr instr = (PhiInstr)this;
+			s += "(";
+			for (int i = 0; i < instr.values.length; i++) {
+				if (i != 0) {
+					s += ", ";
+				}
+				s += instr.values[i].returnType + " " + instr.values[i].id;
+				if (instr.fromInstrs[i] != null) {
+					s += " from " + instr.fromInstrs[i].id;
+				}
+			}
+			s += ")";
+		}
 		
 		// Other types of instructions
 		if (this instanceof StoreInstr) {
@@ -298,6 +332,12 @@ public abstract class Instruction {
 				s += " (all elements)";
 			}
 		}
+		if (this instanceof GetElementInstr) {
+			GetElementInstr instr = (GetElementInstr)this;
+			if (instr.isInBounds) {
+				s += " (in bounds)";
+			}
+		}
 		s += " Line " + originalLineNumber;
 		
 		return s;
@@ -384,45 +424,34 @@ public abstract class Instruction {
 	
 	// Return true if this instruction has undetectable consequences.
 	// For example, system calls, print, and file manipulation.
-	public boolean hasGlobalSideEffect(ArrayList<Instruction> instructions) {
+	// The effects of the functions must have been found since the program last changed (see SideEffectAnalysis).
+	public boolean hasGlobalSideEffect() {
 		
 		if (this instanceof PrintInstr) {
 			return true; // Print always has side effects
 		}
 		
-		// If this is a function call, determine if it has any side effects inside it
+		// If this is a function call, then it has the side effects of the function it calls
 		if (this instanceof FunctionCallInstr) {
-			FunctionCallInstr funcCallInstr = (FunctionCallInstr)this;
-			FunctionDefInstr funcDefInstr = funcCallInstr.functionThatWasCalled.functionDefInstr;
-			
-			// Find the index of the instruction that defined the function
-			int i;
-			for (i = 0; i < instructions.size(); i++) {
-				if (instructions.get(i) == funcDefInstr) {
-					break;
-				}
-			}
+			Function calledFunction = ((FunctionCallInstr)this).functionThatWasCalled;
 			
-			// Iterate over all instructions in this function
-			if (i < instructions.size() - 1) {
-				i++;
-				for (; i < instructions.size(); i++) {
-					Instruction instr = instructions.get(i);
-					if (funcDefInstr.isAncestorOf(instr)) {
-						if (instr.hasGlobalSideEffect(instructions)) {
-							return true;
-						}
-					} else {
-						// Once we leave the function, then we don't need to search any further
-						break;
-					}
-				}
-			}
+			// A function that wasn't analyzed may do anything
+			return calledFunction.sideEffect == null || calledFunction.sideEffect.isAtLeast(SideEffect.WritesMemory);
 		}
 		
 		return false;
 	}
 	
+	// Return true if this instruction may never finish, so it can't be removed even if nothing uses it.
+	// The effects of the functions must have been found since the program last changed (see SideEffectAnalysis).
+	public boolean mayNotReturn() {
+		if (this instanceof FunctionCallInstr) {
+			Function calledFunction = ((FunctionCallInstr)this).functionThatWasCalled;
+			return calledFunction.sideEffect == null || calledFunction.sideEffect.isAtLeast(SideEffect.MayNotReturn);
+		}
+		return false;
+	}
+	
 	public boolean isAncestorOf(Instruction childInstr) {
 		while (childInstr != null && childInstr.parentInstruction != this) {
 			childInstr = childInstr.parentInstruction;
@@ -445,6 +474,73 @@ public abstract class Instruction {
 	// Return all instructions that this instruction depends on.
 	public abstract Instruction[] getAllArgs();
 	
+	// Return the instructions that use this instruction as an argument, each once (see linkUsers)
+	public Collection<Instruction> getUsers() {
+		return users.keySet();
+	}
+	
+	// Record that the given instruction uses this instruction as an argument
+	public void addUser(Instruction user) {
+		users.merge(user, 1, Integer::sum);
+	}
+	
+	// Record that the given instruction uses this instruction as an argument one less time
+	public void removeUser(Instruction user) {
+		Integer count = users.get(user);
+		if (count == null) {
+			return;
+		}
+		if (count == 1) {
+			users.remove(user);
+		} else {
+			users.put(user, count - 1);
+		}
+	}
+	
+	// Make every instruction that uses this instruction as an argument use the given instruction instead
+	public void replaceAllUsesWith(Instruction newInstr) {
+		for (Instruction user : new ArrayList<Instruction>(users.keySet())) {
+			user.replaceArg(this, newInstr);
+		}
+	}
+	
+	// Make this instruction use newArg as an argument wherever it used oldArg, and update the users of both.
+	// Only the values that this instruction computes with are replaced, never the instructions
+	// that only give the structure of the program (such as the end of a block, or a loop to break out of).
+	public abstract void replaceArg(Instruction oldArg, Instruction newArg);
+	
+	// Return newArg if the given argument of this instruction is oldArg, and move the use from oldArg to newArg.
+	// Otherwise return the argument unchanged.
+	protected Instruction replaceIfSame(Instruction arg, Instruction oldArg, Instruction newArg) {
+		if (arg != oldArg) {
+			return arg;
+		}
+		oldArg.removeUser(this);
+		newArg.addUser(this);
+		return newArg;
+	}
+	
+	// Replace every oldArg in the given arguments of this instruction by newArg (see replaceIfSame)
+	protected void replaceAllIfSame(Instruction[] args, Instruction oldArg, Instruction newArg) {
+		for (int i = 0; i < args.length; i++) {
+			args[i] = replaceIfSame(args[i], oldArg, newArg);
+		}
+	}
+	
+	// Find the users of every instruction in the given program, from the arguments of each instruction
+	public static void linkUsers(ArrayList<Instruction> instructions) {
+		for (Instruction instr : instructions) {
+			instr.users.clear();
+		}
+		for (Instruction instr : instructions) {
+			for (Instruction arg : instr.getAllArgs()) {
+				if (arg != null) {
+					arg.addUser(instr);
+				}
+			}
+		}
+	}
+	
 	// Convenient print
 	protected static void print(Object o) {
 		System.out.println(o);
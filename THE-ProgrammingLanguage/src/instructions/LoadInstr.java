@@ -27,4 +27,8 @@ public class LoadInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		instrThatReturnedPointer = replaceIfSame(instrThatReturnedPointer, oldArg, newArg);
+	}
+	
 }
@@ -27,4 +27,8 @@ public class LoopInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		// The end of the loop is part of the structure, not a value
+	}
+	
 }
@@ -0,0 +1,72 @@
+package instructions;
+
+import parsing.Type;
+
+// A phi is the value of a variable at a place where control flow joins (see SSAConstructionPass),
+// such as the start of a loop or the end of an if-else chain.
+// It has one value for each way that control can get there:
+// when control gets there by a jump from fromInstrs[i] (an If, Break, Continue, or the EndBlock of a loop
+// or an if with an else), the phi's value is values[i].
+// When control gets there by running on from the instruction before it, fromInstrs[i] is null.
+
+public class PhiInstr extends Instruction {
+	
+	public Instruction[] values = new Instruction[0];
+	
+	public Instruction[] fromInstrs = new Instruction[0];
+	
+	public PhiInstr(Instruction parentInstruction, String debugString, Type type) {
+		super(parentInstruction, type, debugString);
+	}
+	
+	// Add the value that this phi has when control gets here from the given instruction
+	public void addIncoming(Instruction value, Instruction fromInstr) {
+		final int count = values.length;
+		
+		Instruction[] newValues = new Instruction[count + 1];
+		Instruction[] newFromInstrs = new Instruction[count + 1];
+		System.arraycopy(values, 0, newValues, 0, count);
+		System.arraycopy(fromInstrs, 0, newFromInstrs, 0, count);
+		newValues[count] = value;
+		newFromInstrs[count] = fromInstr;
+		
+		values = newValues;
+		fromInstrs = newFromInstrs;
+	}
+	
+	// Remove the value at the given index, when control can no longer get here that way
+	public void removeIncoming(int index) {
+		final int count = values.length;
+		
+		Instruction[] newValues = new Instruction[count - 1];
+		Instruction[] newFromInstrs = new Instruction[count - 1];
+		System.arraycopy(values, 0, newValues, 0, index);
+		System.arraycopy(fromInstrs, 0, newFromInstrs, 0, index);
+		System.arraycopy(values, index + 1, newValues, index, count - index - 1);
+		System.arraycopy(fromInstrs, index + 1, newFromInstrs, index, count - index - 1);
+		
+		values = newValues;
+		fromInstrs = newFromInstrs;
+	}
+	
+	// Return the value that this phi has when control gets here from the given instruction
+	// (or by running on from the instruction before it, if null), or null if it can't get here that way
+	public Instruction getValueFrom(Instruction fromInstr) {
+		for (int i = 0; i < fromInstrs.length; i++) {
+			if (fromInstrs[i] == fromInstr) {
+				return values[i];
+			}
+		}
+		return null;
+	}
+	
+	public Instruction[] getAllArgs() {
+		return values;
+	}
+	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		// Only the values are replaced, not the instructions that control comes from
+		replaceAllIfSame(values, oldArg, newArg);
+	}
+
+}
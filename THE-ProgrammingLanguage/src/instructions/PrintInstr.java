@@ -14,4 +14,8 @@ public class PrintInstr extends Instruction {
 				stringArg
 		};
 	}
+	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		stringArg = (ToStringInstr)replaceIfSame(stringArg, oldArg, newArg);
+	}
 }
@@ -14,4 +14,8 @@ public class ReturnInstr extends Instruction {
 				arg0
 		};
 	}
+	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		arg0 = replaceIfSame(arg0, oldArg, newArg);
+	}
 }
@@ -12,4 +12,7 @@ public class StartBlockInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+	}
+	
 }
@@ -28,4 +28,9 @@ public class StoreInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		instrThatReturnedPointer = replaceIfSame(instrThatReturnedPointer, oldArg, newArg);
+		valueToStore = replaceIfSame(valueToStore, oldArg, newArg);
+	}
+	
 }
@@ -17,4 +17,8 @@ public class ToStringInstr extends Instruction {
 		};
 	}
 	
+	public void replaceArg(Instruction oldArg, Instruction newArg) {
+		arg = replaceIfSame(arg, oldArg, newArg);
+	}
+	
 }
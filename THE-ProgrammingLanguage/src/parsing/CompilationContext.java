@@ -0,0 +1,74 @@
+package parsing;
+
+import java.util.ArrayList;
+
+// This class holds the state of a single compilation that is needed outside of CompilePass:
+// the tokens of the source (for printing errors), the line being parsed, the errors found,
+// and the next instruction id.
+// Each thread has a current context, which Compiler sets while it compiles a program,
+// so that several programs can be compiled at the same time on different threads.
+
+public class CompilationContext {
+
+	// The context of the compilation running on each thread (null if there is none)
+	private static final ThreadLocal<CompilationContext> currentContext = new ThreadLocal<CompilationContext>();
+
+	// The current line that is being parsed
+	public int currentParsingLineNumber = -1;
+
+	// The tokens of the source code to be parsed, or null before parsing starts
+	public TokenStream tokens = null;
+
+	// Every error found in this compilation
+	public final ArrayList<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+
+	// The id to give the next instruction created in this compilation
+	private int nextInstructionNum = 0;
+
+	// Return the number of lines in the source code
+	public int getLineCount() {
+		return (tokens != null) ? tokens.lineCount() : 0;
+	}
+
+	// Return the normalized text of the given line of the source code, or null if there is no such line
+	public String getLine(int lineNumber) {
+		if (lineNumber < 0 || lineNumber >= getLineCount()) {
+			return null;
+		}
+		return tokens.lineText(lineNumber);
+	}
+
+	// Return the id for a new instruction.  Ids start at 0 in every compilation.
+	public int takeNextInstructionNum() {
+		int num = nextInstructionNum;
+		nextInstructionNum++;
+		return num;
+	}
+
+	// Set the id that the next instruction created in this compilation will get
+	void setNextInstructionNum(int num) {
+		nextInstructionNum = num;
+	}
+
+	// Return the context of the compilation running on this thread.
+	// Instructions and errors always belong to a compilation, so it is a bug to ask when none is running.
+	public static CompilationContext getCurrent() {
+		CompilationContext context = currentContext.get();
+		if (context == null) {
+			throw new IllegalStateException("No compilation is running on this thread");
+		}
+		return context;
+	}
+
+	// Make the given context the current one on this thread (or none, if it is null),
+	// and return the one it replaced (which may be null)
+	static CompilationContext setCurrent(CompilationContext context) {
+		CompilationContext previousContext = currentContext.get();
+		if (context == null) {
+			currentContext.remove();
+		} else {
+			currentContext.set(context);
+		}
+		return previousContext;
+	}
+}
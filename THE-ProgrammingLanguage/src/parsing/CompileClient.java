@@ -0,0 +1,58 @@
+package parsing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+// This class is a command line client for CompileServer.
+// Usage: CompileClient <source file> [port]
+// It prints the compiled instructions (or the error), and exits with 1 if the compile failed.
+// The server must already be running (see Main -server).
+
+public class CompileClient {
+
+	public static void main(String[] args) {
+
+		if (args.length < 1) {
+			System.out.println("Usage: CompileClient <source file> [port]");
+			System.exit(2);
+		}
+
+		// The server may have been started in a different directory
+		final String path = new File(args[0]).getAbsolutePath();
+		final int port = args.length > 1 ? Integer.parseInt(args[1]) : CompileServer.DEFAULT_PORT;
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+			writer.write(path + "\n");
+			writer.flush();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			final String statusLine = reader.readLine();
+			if (statusLine == null) {
+				System.out.println("No response from compile server");
+				System.exit(1);
+			}
+
+			// The status and the time the server took go to stderr, so only the output is on stdout
+			System.err.println(statusLine + " ms");
+			
+			String line;
+			while ((line = reader.readLine()) != null) {
+				System.out.println(line);
+			}
+
+			System.exit(statusLine.startsWith("OK") ? 0 : 1);
+
+		} catch (IOException e) {
+			System.out.println("Cannot reach compile server on port " + port + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
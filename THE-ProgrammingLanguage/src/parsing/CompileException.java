@@ -0,0 +1,16 @@
+package parsing;
+
+// This exception stops the compilation of a program when an error is found in it.
+// It doesn't affect any other compilations, so the caller can go on to compile something else.
+
+public class CompileException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public final Diagnostic diagnostic;
+
+	public CompileException(Diagnostic diagnostic) {
+		super(diagnostic.message);
+		this.diagnostic = diagnostic;
+	}
+}
@@ -1,6 +1,10 @@
 package parsing;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import instructions.AddInstr;
 import instructions.AllocArrInstr;
@@ -52,46 +56,107 @@ import static parsing.ErrorHandler.*;
 
 public class CompilePass {
 	
-	// The current line that is being parsed
-	static int currentParsingLineNumber = -1;
+	// The compilation that this pass belongs to.
+	// It holds the tokens of the source, and the line that is being parsed.
+	private final CompilationContext context;
 	
 	// The list of instructions as they are compiled
-	private static ArrayList<Instruction> instructions;
-	
-	// List of literal instructions from the source code to be parsed
-	static String[] lines = null;
+	private final ArrayList<Instruction> instructions = new ArrayList<Instruction>();
 	
 	// List of all functions in the source for the program, found ahead-of-time.
-	private static ArrayList<Function> functions;
+	private final ArrayList<Function> functions;
+	
+	// The same functions, indexed by name and number of arguments
+	private final FunctionIndex functionIndex;
+	
+	// The pool to parse the bodies of top-level functions on at the same time,
+	// or null to parse every line of the program in order.
+	private final ForkJoinPool functionPool;
+	
+	// The bodies of top-level functions parsed by earlier compiles, or null to parse every function
+	private final FunctionBodyCache bodyCache;
+	
+	// The variables declared in each open scope
+	private final SymbolTable symbolTable = new SymbolTable();
+	
+	// The scopes that are open at the end of the instructions parsed so far
+	private final ScopeStack scopeStack = new ScopeStack();
+	
+	// The index of the definition of the top-level function that is being parsed.
+	// Generated names count from it, so they don't depend on how the program was split up.
+	private int topLevelFunctionIndex = 0;
 	
 	// Whether to view debug printing or not
 	static final boolean debugPrintOn = true;
 	
+	// Create a pass that parses one program.
+	// Each program needs its own CompilePass.
+	public CompilePass(CompilationContext context) {
+		this(context, null);
+	}
+	
+	// Create a pass that parses one program, and parses the bodies of its
+	// top-level functions at the same time on the given pool.
+	// The instructions are the same as if every line was parsed in order.
+	public CompilePass(CompilationContext context, ForkJoinPool functionPool) {
+		this(context, functionPool, null);
+	}
+	
+	// Create a pass that parses one program, and reuses the instructions of every top-level
+	// function that is in the given cache instead of parsing it again.
+	// Either the pool or the cache may be null.
+	public CompilePass(CompilationContext context, ForkJoinPool functionPool, FunctionBodyCache bodyCache) {
+		this.context = context;
+		this.functions = new ArrayList<Function>();
+		this.functionIndex = new FunctionIndex();
+		this.functionPool = functionPool;
+		this.bodyCache = bodyCache;
+	}
+	
+	// Create a pass that parses one function body of the given program into its own list.
+	// It shares the functions of the program, which must already have been found.
+	private CompilePass(CompilePass program, CompilationContext context) {
+		this.context = context;
+		this.functions = program.functions;
+		this.functionIndex = program.functionIndex;
+		this.functionPool = null;
+		this.bodyCache = program.bodyCache;
+	}
+	
 	// Main public call to this pass.
 	// Parse all the lines in the given text file.
 	// Return a list of instructions that were compiled.
-	public static ArrayList<Instruction> initialParsingPass(String text) {
-		
-		instructions = new ArrayList<Instruction>();
-		functions = new ArrayList<Function>();
+	public ArrayList<Instruction> initialParsingPass(String text) {
 		
 		// Prepare the text file for parsing
-		lines = ParseUtil.breakIntoLines(text);
-		lines = ParseUtil.removeWhiteSpace(lines);
-		lines = ParseUtil.stripComments(lines);
+		context.tokens = Tokenizer.tokenize(text);
 		
 		// Find all functions defined in this file (and put them in 'functions' ArrayList)
-		currentParsingLineNumber = 0;
+		context.currentParsingLineNumber = 0;
 		findAllDeclaredFunctions();
 		
 		// Inject a main-function
 		parseLine("int main()");
 		
 		// Parse all the lines in the program
-		currentParsingLineNumber = 0;
-		for (int i = 0; i < lines.length; i++) {
-			parseLine(lines[i]);
-			currentParsingLineNumber++;
+		ArrayList<FunctionBody> functionBodies = null;
+		if (functionPool != null || bodyCache != null) {
+			functionBodies = findTopLevelFunctionBodies();
+		}
+		if (functionBodies != null) {
+			if (!parseFunctionBodiesSeparately(functionBodies)) {
+				
+				// Some function couldn't be parsed apart from the rest of the program (it may have an error),
+				// so parse the whole program again in order, to get exactly the same result or error.
+				context.setNextInstructionNum(0);
+				return new CompilePass(context).initialParsingPass(text);
+			}
+		} else {
+			context.currentParsingLineNumber = 0;
+			for (int i = 0; i < context.getLineCount(); i++) {
+				parseLine(i);
+				context.currentParsingLineNumber++;
+			}
 		}
 		
 		Instruction lastInstruction = instructions.get(instructions.size() - 1);
@@ -110,7 +175,7 @@ public class CompilePass {
 			if (mainFuncDefInstr.functionThatWasDefined.name.equals("main")) {
 				EndBlockInstr mainEnd = new EndBlockInstr(lastParent, "end main");
 				mainFuncDefInstr.endInstr = mainEnd;
-				mainEnd.originalLineNumber = currentParsingLineNumber;
+				mainEnd.originalLineNumber = context.currentParsingLineNumber;
 				instructions.add(mainEnd);
 				lastInstruction = mainEnd;
 			}
@@ -127,7 +192,7 @@ public class CompilePass {
 		}
 		
 		// We are done performing line-by-line parsing.
-		currentParsingLineNumber = -1;
+		context.currentParsingLineNumber = -1;
 		
 		// Verify that all paths through a function return the proper type
 		ReturnPathsAndDeadCodePass.checkReturnPaths(instructions);
@@ -135,48 +200,561 @@ public class CompilePass {
 		return instructions;
 	}
 	
-	// Parse a single line of code.
+	// The lines of one top-level function, from its declaration to its closing bracket
+	private static class FunctionBody {
+		final int firstLine;
+		final int lastLine;
+		
+		FunctionBody(int firstLine, int lastLine) {
+			this.firstLine = firstLine;
+			this.lastLine = lastLine;
+		}
+	}
+	
+	// Find the lines of every function that is declared outside of any other function.
+	// Return null if the program can't be split up into the main program followed by these functions:
+	// if it has no functions, if there is code after the first function that isn't inside a function,
+	// or if two functions have the same name and arguments (which has to be reported in order).
+	private ArrayList<FunctionBody> findTopLevelFunctionBodies() {
+		
+		for (Function function : functions) {
+			for (Function other : functionIndex.getCandidates(function.name, function.argTypes.length)) {
+				if (other != function && !other.isDistinguisable(function)) {
+					return null;
+				}
+			}
+		}
+		
+		ArrayList<FunctionBody> bodies = new ArrayList<FunctionBody>();
+		int depth = 0; // The number of blocks open at the start of each line, not counting main
+		int firstLine = -1;
+		
+		final TokenStream tokens = context.tokens;
+		for (int i = 0; i < tokens.lineCount(); i++) {
+			final int from = tokens.firstTokenOfLine(i);
+			final int to = tokens.endTokenOfLine(i);
+			
+			if (depth == 0) {
+				if (findFunctionDeclarationName(tokens, from, to) != -1) {
+					firstLine = i;
+				} else if (!bodies.isEmpty() && from < to) {
+					return null;
+				}
+			}
+			
+			depth += getBlockDepthChange(tokens, from, to);
+			if (depth < 0) {
+				return null;
+			}
+			
+			// If this line closed the function
+			if (depth == 0 && firstLine != -1) {
+				bodies.add(new FunctionBody(firstLine, i));
+				firstLine = -1;
+			}
+		}
+		
+		if (bodies.isEmpty() || depth != 0) {
+			return null;
+		}
+		return bodies;
+	}
+	
+	// Return 1 if the line of tokens [from, to) opens a block, -1 if it closes one, and 0 otherwise.
+	// Like parseLine, this only looks at how the line starts.
+	private static int getBlockDepthChange(TokenStream tokens, int from, int to) {
+		if (isSingleToken(tokens, from, to, TokenStream.OPEN_BRACKET) || isSingleWord(tokens, from, to, "do") ||
+				doesLineStartWith(tokens, from, to, "for") ||
+				doesLineStartWith(tokens, from, to, "while") ||
+				doesLineStartWith(tokens, from, to, "if")) {
+			return 1;
+		}
+		if (isSingleToken(tokens, from, to, TokenStream.CLOSE_BRACKET) || isDoWhileFooter(tokens, from, to)) {
+			return -1;
+		}
+		if (findFunctionDeclarationName(tokens, from, to) != -1) {
+			return 1;
+		}
+		return 0; // elseif and else close one block and open another
+	}
+	
+	// Return true if the line of tokens [from, to) is only the given token kind
+	private static boolean isSingleToken(TokenStream tokens, int from, int to, int kind) {
+		return to - from == 1 && tokens.kind(from) == kind;
+	}
+	
+	// Return true if the line of tokens [from, to) is only the given word
+	private static boolean isSingleWord(TokenStream tokens, int from, int to, String word) {
+		return to - from == 1 && tokens.isWord(from, word);
+	}
+	
+	// Return true if the line of tokens [from, to) starts with the given word,
+	// and the word is followed by a space, a parenthesis, or nothing.
+	private static boolean doesLineStartWith(TokenStream tokens, int from, int to, String word) {
+		return from < to && tokens.isWord(from, word) && (from + 1 == to ||
+				tokens.isSeparatedFromPrevious(from + 1) || tokens.kind(from + 1) == TokenStream.OPEN_PAREN);
+	}
+	
+	// Return true if the line of tokens [from, to) is the end of a do-while loop ("] while ...")
+	private static boolean isDoWhileFooter(TokenStream tokens, int from, int to) {
+		return from + 1 < to && tokens.kind(from) == TokenStream.CLOSE_BRACKET &&
+				tokens.isSeparatedFromPrevious(from + 1) && doesLineStartWith(tokens, from + 1, to, "while");
+	}
+	
+	// Give an error if there are any tokens in [end, to), after what the line of tokens [from, to) should end with
+	private static void checkForExcessTokens(TokenStream tokens, int from, int end, int to) {
+		if (end < to) {
+			final int excessLength = tokens.text(end - 1, to).length() - tokens.text(end - 1).length();
+			if (excessLength == 1) {
+				printError("Excess character at end of line '" + tokens.text(from, to) + "'");
+			} else {
+				printError("Excess characters at end of line '" + tokens.text(from, to) + "'");
+			}
+		}
+	}
+	
+	// Return true if the given token is a valid variable (or function) name
+	private static boolean isVariableName(TokenStream tokens, int i) {
+		if (tokens.kind(i) != TokenStream.IDENTIFIER) {
+			return false;
+		}
+		for (int j = tokens.start(i); j < tokens.end(i); j++) {
+			final char c = tokens.source.charAt(j);
+			if (!ParseUtil.isLetter(c) && !ParseUtil.isDigit(c) && c != '_' && c != '$') {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// Return true if the given token is a word made of only letters and digits
+	private static boolean isLettersAndDigits(TokenStream tokens, int i) {
+		if (tokens.kind(i) != TokenStream.IDENTIFIER && tokens.kind(i) != TokenStream.NUMBER) {
+			return false;
+		}
+		for (int j = tokens.start(i); j < tokens.end(i); j++) {
+			final char c = tokens.source.charAt(j);
+			if (!ParseUtil.isLetter(c) && !ParseUtil.isDigit(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// Return true if the tokens [from, to) are a function call (a name followed by an opening parenthesis)
+	private static boolean isFunctionCall(TokenStream tokens, int from, int to) {
+		return from + 1 < to && isVariableName(tokens, from) && tokens.kind(from + 1) == TokenStream.OPEN_PAREN;
+	}
+	
+	// Return the data type that the tokens [from, to) start with, and the index of the token after it,
+	// or null if they don't start with a data type followed by a space (or an array type).
+	private static TypeAndEnd findFirstDataType(TokenStream tokens, int from, int to) {
+		if (from + 1 >= to) {
+			return null;
+		}
+		
+		// Special case for void
+		if (tokens.isWord(from, "void") && tokens.isSeparatedFromPrevious(from + 1)) {
+			return new TypeAndEnd(null, from + 1);
+		}
+		
+		for (int i = 0; i < ParseUtil.dataTypes.length; i++) {
+			if (!tokens.isWord(from, ParseUtil.dataTypes[i])) {
+				continue;
+			}
+			
+			if (tokens.isSeparatedFromPrevious(from + 1)) {
+				return new TypeAndEnd(Type.fromString(ParseUtil.dataTypes[i]), from + 1);
+			} else if (tokens.kind(from + 1) == TokenStream.OPEN_BRACKET) { // This must be an array
+				for (int j = from + 2; j < to; j++) {
+					if (tokens.kind(j) == TokenStream.CLOSE_BRACKET) {
+						return new TypeAndEnd(Type.fromString(tokens.text(from, j + 1)), j + 1);
+					}
+				}
+				return new TypeAndEnd(Type.fromString(""), from);
+			}
+		}
+		
+		return null;
+	}
+	
+	// Return the index of the token that names the function, if the line of tokens [from, to)
+	// is a function declaration: a type (with any array brackets), a name, and an opening parenthesis.
+	// Otherwise return -1.
+	private static int findFunctionDeclarationName(TokenStream tokens, int from, int to) {
+		if (from >= to || !isLettersAndDigits(tokens, from)) {
+			return -1;
+		}
+		
+		// Skip the array brackets of the type, up to the first space outside of them
+		int i = from + 1;
+		int depth = 0;
+		while (i < to && (depth > 0 || !tokens.isSeparatedFromPrevious(i))) {
+			final int kind = tokens.kind(i);
+			if (kind == TokenStream.OPEN_BRACKET) {
+				depth++;
+			} else if (kind == TokenStream.CLOSE_BRACKET) {
+				depth--;
+			} else if (depth <= 0) {
+				return -1;
+			}
+			i++;
+		}
+		
+		// The name comes next, and then the arguments
+		if (i + 1 >= to || !isLettersAndDigits(tokens, i) || tokens.kind(i + 1) != TokenStream.OPEN_PAREN) {
+			return -1;
+		}
+		return i;
+	}
+	
+	// Return the index of the parenthesis that closes the one at index 'open'.
+	// The tokens [from, to) are the whole line (for error messages).
+	private static int findClosingParenthesis(TokenStream tokens, int from, int open, int to) {
+		if (open + 1 >= to) {
+			printError("Function is missing arguments in '" + tokens.text(from, to) + "'");
+		}
+		
+		int numParentheses = 0;
+		int numBrackets = 0;
+		for (int i = open; i < to; i++) {
+			final int kind = tokens.kind(i);
+			if (kind == TokenStream.OPEN_PAREN) {
+				numParentheses++;
+			} else if (kind == TokenStream.CLOSE_PAREN) {
+				numParentheses--;
+				if (numParentheses == 0 && numBrackets == 0) {
+					return i;
+				}
+			} else if (kind == TokenStream.OPEN_BRACKET) {
+				numBrackets++;
+			} else if (kind == TokenStream.CLOSE_BRACKET) {
+				numBrackets--;
+			}
+		}
+		
+		if (numParentheses > 0) {
+			printError("Missing closing parenthesis in '" + tokens.text(from, to) + "'");
+		}
+		if (numBrackets > 0) {
+			printError("Missing closing square brackets in '" + tokens.text(from, to) + "'");
+		}
+		printError("Malformed arguments in '" + tokens.text(from, to) + "'");
+		return -1;
+	}
+	
+	// Separate the tokens [from, to) into arguments at the commas that aren't nested in parentheses or brackets.
+	// Return the index of each separating comma, after from - 1 and before to,
+	// so argument i is the tokens between bounds i and i + 1.  There are no arguments if [from, to) is empty.
+	private static IntStack separateArguments(TokenStream tokens, int from, int to) {
+		IntStack bounds = new IntStack(4);
+		bounds.push(from - 1);
+		if (from >= to) {
+			return bounds;
+		}
+		
+		int numParentheses = 0;
+		int numBrackets = 0;
+		
+		// Search for commas at the lowest level
+		for (int i = from; i < to; i++) {
+			final int kind = tokens.kind(i);
+			if (kind == TokenStream.OPEN_BRACKET) {
+				numBrackets++;
+			} else if (kind == TokenStream.CLOSE_BRACKET) {
+				numBrackets--;
+			} else if (kind == TokenStream.OPEN_PAREN) {
+				numParentheses++;
+			} else if (kind == TokenStream.CLOSE_PAREN) {
+				numParentheses--;
+			} else if (kind == TokenStream.COMMA && numParentheses == 0 && numBrackets == 0) {
+				bounds.push(i);
+			} else if (kind == TokenStream.STRING && (tokens.length(i) == 1 || tokens.source.charAt(tokens.end(i) - 1) != '"')) {
+				printError("Missing quotation in expression '" + tokens.text(from, to) + "'");
+			}
+		}
+		
+		if (numParentheses != 0) {
+			printError("Missing parentheses in expression '" + tokens.text(from, to) + "'");
+		}
+		if (numBrackets != 0) {
+			printError("Missing bracket in expression '" + tokens.text(from, to) + "'");
+		}
+		
+		bounds.push(to);
+		return bounds;
+	}
+	
+	// Return the assignment operator that the given token starts with, or null if it doesn't start with one
+	private static String findAssignmentOperatorAtStart(TokenStream tokens, int i) {
+		if (tokens.kind(i) != TokenStream.OPERATOR) {
+			return null;
+		}
+		for (String operator : ParseUtil.assignmentOperators) {
+			if (operator.length() <= tokens.length(i) && tokens.source.startsWith(operator, tokens.start(i))) {
+				return operator;
+			}
+		}
+		return null;
+	}
+	
+	// Return the index of the assignment operator token in the line of tokens [from, to), or -1 if there isn't one.
+	// This is the last one outside of any parentheses or brackets, which is a whole operator on its own
+	// (not part of a longer run of operator symbols), and isn't at the start or the very end of the line.
+	private static int findAssignmentOperator(TokenStream tokens, int from, int to) {
+		int numParentheses = 0;
+		int numBrackets = 0;
+		
+		for (int i = to - 1; i > from; i--) {
+			final int kind = tokens.kind(i);
+			if (kind == TokenStream.CLOSE_PAREN) {
+				numParentheses--;
+			} else if (kind == TokenStream.OPEN_PAREN) {
+				numParentheses++;
+			} else if (kind == TokenStream.CLOSE_BRACKET) {
+				numBrackets--;
+			} else if (kind == TokenStream.OPEN_BRACKET) {
+				numBrackets++;
+			} else if (kind == TokenStream.OPERATOR && numParentheses == 0 && numBrackets == 0 &&
+					isAssignmentOperator(tokens, i) && !(i == to - 1 && tokens.length(i) == 1) &&
+					!isJoinedToOperator(tokens, i) && (i + 1 == to || !isJoinedToOperator(tokens, i + 1))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	// Return true if the given token is exactly one of the assignment operators
+	private static boolean isAssignmentOperator(TokenStream tokens, int i) {
+		for (String operator : ParseUtil.assignmentOperators) {
+			if (operator.length() == tokens.length(i) && tokens.source.startsWith(operator, tokens.start(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// Return true if the given operator token and the one before it touch in the normalized text,
+	// and both are operator symbols (so they would be read as one longer operator).
+	private static boolean isJoinedToOperator(TokenStream tokens, int i) {
+		if (tokens.isSeparatedFromPrevious(i)) {
+			return false;
+		}
+		final int previousKind = tokens.kind(i - 1);
+		final int kind = tokens.kind(i);
+		return (previousKind == TokenStream.OPERATOR || previousKind == TokenStream.COMMA) &&
+				(kind == TokenStream.OPERATOR || kind == TokenStream.NEGATE || kind == TokenStream.COMMA);
+	}
+	
+	// Parse each of the given function bodies into its own list (or copy it from the body cache),
+	// at the same time on the function pool if there is one, while the main program
+	// before the first function is parsed here.
+	// Then add the instructions of each function after main, in the order of the source.
+	// Return false if any function couldn't be parsed apart from the rest of the program.
+	private boolean parseFunctionBodiesSeparately(ArrayList<FunctionBody> bodies) {
+		
+		// Start parsing each function in its own pass
+		ArrayList<ForkJoinTask<ArrayList<Instruction>>> tasks = new ArrayList<ForkJoinTask<ArrayList<Instruction>>>();
+		for (final FunctionBody body : bodies) {
+			
+			final String hash = (bodyCache != null) ? hashFunctionBody(body) : null;
+			final ArrayList<Instruction> cachedInstructions = (hash != null) ? bodyCache.get(hash) : null;
+			
+			if (cachedInstructions != null) {
+				ForkJoinTask<ArrayList<Instruction>> task = ForkJoinTask.adapt(() -> copyCachedFunctionBody(cachedInstructions, body));
+				task.invoke();
+				tasks.add(task);
+				continue;
+			}
+			
+			final CompilePass bodyPass = new CompilePass(this, new CompilationContext());
+			bodyPass.context.tokens = context.tokens;
+			final Callable<ArrayList<Instruction>> parseBody = () -> bodyPass.parseFunctionBody(body, hash);
+			
+			if (functionPool != null) {
+				tasks.add(functionPool.submit(parseBody));
+			} else {
+				ForkJoinTask<ArrayList<Instruction>> task = ForkJoinTask.adapt(parseBody);
+				task.invoke();
+				tasks.add(task);
+			}
+		}
+		
+		// Parse the main program
+		final int firstFunctionLine = bodies.get(0).firstLine;
+		context.currentParsingLineNumber = 0;
+		for (int i = 0; i < firstFunctionLine; i++) {
+			parseLine(i);
+			context.currentParsingLineNumber++;
+		}
+		
+		// The declaration of the first function ends main (see parseLine).
+		// Anything else still open would make that declaration an error.
+		final Instruction parentInstruction = findParentInstruction();
+		boolean didParseAll = parentInstruction == instructions.get(0);
+		if (didParseAll) {
+			FunctionDefInstr mainFuncDefInstr = (FunctionDefInstr)parentInstruction;
+			EndBlockInstr mainEnd = new EndBlockInstr(parentInstruction, "end main");
+			mainFuncDefInstr.endInstr = mainEnd;
+			mainEnd.originalLineNumber = firstFunctionLine;
+			instructions.add(mainEnd);
+		}
+		
+		// Wait for every function, and add its instructions
+		for (ForkJoinTask<ArrayList<Instruction>> task : tasks) {
+			ArrayList<Instruction> bodyInstructions = task.join();
+			if (bodyInstructions == null) {
+				didParseAll = false;
+			} else if (didParseAll) {
+				instructions.addAll(bodyInstructions);
+			}
+		}
+		if (!didParseAll) {
+			return false;
+		}
+		
+		// Parsing the lines in order numbers each instruction by its index,
+		// so number the instructions from every pass the same way.
+		for (int i = 0; i < instructions.size(); i++) {
+			instructions.get(i).id = i;
+		}
+		context.setNextInstructionNum(instructions.size());
+		context.currentParsingLineNumber = context.getLineCount();
+		return true;
+	}
+	
+	// Parse the lines of one top-level function, from its declaration to its closing bracket.
+	// If a hash is given, then store a copy of the instructions in the body cache under it.
+	// Return the instructions, or null if the function can't be parsed apart from the rest of
+	// the program: if it has an error, or if it isn't closed by exactly its last line.
+	private ArrayList<Instruction> parseFunctionBody(FunctionBody body, String hash) {
+		CompilationContext previousContext = CompilationContext.setCurrent(context);
+		try {
+			for (int i = body.firstLine; i <= body.lastLine; i++) {
+				context.currentParsingLineNumber = i;
+				parseLine(i);
+				
+				final boolean isFunctionOpen = findParentInstruction() != null;
+				if (isFunctionOpen != (i < body.lastLine)) {
+					return null;
+				}
+			}
+			
+			if (hash != null) {
+				bodyCache.put(hash, InstructionCopier.copyDetached(instructions, -body.firstLine));
+			}
+			return instructions;
+			
+		} catch (RuntimeException e) { // The error will be found again when the program is parsed in order
+			return null;
+		} finally {
+			CompilationContext.setCurrent(previousContext);
+		}
+	}
+	
+	// Return a copy of the cached instructions of the given function,
+	// the same as the instructions that parsing its lines would give
+	private ArrayList<Instruction> copyCachedFunctionBody(ArrayList<Instruction> cachedInstructions, FunctionBody body) {
+		ArrayList<Instruction> copies = InstructionCopier.copy(cachedInstructions, body.firstLine, functionIndex);
+		
+		// The copied functions were defined by the copied instructions
+		for (Instruction instr : copies) {
+			if (instr instanceof FunctionDefInstr) {
+				FunctionDefInstr funcDefInstr = (FunctionDefInstr)instr;
+				funcDefInstr.functionThatWasDefined.functionDefInstr = funcDefInstr;
+			}
+		}
+		return copies;
+	}
+	
+	// Return a hash of everything that parsing the given function depends on:
+	// its lines, and the signature of every function that has a name used in it.
+	// (A function body can't see the variables of main, or of any other function.)
+	private String hashFunctionBody(FunctionBody body) {
+		StringBuilder sb = new StringBuilder();
+		HashSet<String> namesUsed = new HashSet<String>();
+		final TokenStream tokens = context.tokens;
+		
+		for (int i = body.firstLine; i <= body.lastLine; i++) {
+			final int from = tokens.firstTokenOfLine(i);
+			final int to = tokens.endTokenOfLine(i);
+			for (int j = from; j < to; j++) {
+				if (j > from && tokens.hasSpaceBefore(j)) {
+					sb.append(' ');
+				}
+				sb.append(tokens.source, tokens.start(j), tokens.end(j));
+			}
+			sb.append('\n');
+			
+			// Add the signatures of every function named by a word on this line
+			for (int j = from; j < to; j++) {
+				if (tokens.kind(j) != TokenStream.IDENTIFIER) {
+					continue;
+				}
+				final String word = tokens.text(j);
+				if (namesUsed.add(word)) {
+					for (Function function : functionIndex.getFunctionsNamed(word)) {
+						sb.append(function.returnType + " " + function.name + "(");
+						for (Type argType : function.argTypes) {
+							sb.append(argType + ",");
+						}
+						sb.append(")\n");
+					}
+				}
+			}
+		}
+		return FunctionBodyCache.hash(sb.toString());
+	}
+	
+	// Parse the given line of the source code.
+	// Return the last instruction that was created from parsing the line.
+	private Instruction parseLine(int lineNumber) {
+		final TokenStream tokens = context.tokens;
+		return parseLine(tokens, tokens.firstTokenOfLine(lineNumber), tokens.endTokenOfLine(lineNumber));
+	}
+	
+	// Parse a line of code that doesn't come from the source (like the parts of a for-loop header).
+	// Return the last instruction that was created from parsing the given line.
+	private Instruction parseLine(String line) {
+		final TokenStream lineTokens = Tokenizer.tokenize(line);
+		return parseLine(lineTokens, 0, lineTokens.size());
+	}
+	
+	// Parse a single line of code, made of the tokens [from, to).
 	// Return the last instruction that was created from parsing the given line.
-	private static Instruction parseLine(String line) {
+	private Instruction parseLine(final TokenStream tokens, final int from, final int to) {
 		
-		final Instruction parentInstruction = findParentInstruction(instructions.size() - 1);
+		final Instruction parentInstruction = findParentInstruction();
 		final int previousInstructionsLength = instructions.size();
 		
-		if (line.trim().isEmpty()) {
+		if (from == to) {
 			// Empty line.  Nothing to do here.
 			
-		} else if (line.equals("break") || line.equals("continue")) { // Break or continue in loop
+		} else if (isSingleWord(tokens, from, to, "break") || isSingleWord(tokens, from, to, "continue")) { // Break or continue in loop
 			
 			// Find the nearest ancestor loop that contains this statement
 			LoopInstr parentLoop = findNearestAncestorOfType(parentInstruction, LoopInstr.class);
 			if (parentLoop == null) {
-				printError(ParseUtil.capitalize(line) + "-statement must be within a loop");
+				printError(ParseUtil.capitalize(tokens.text(from)) + "-statement must be within a loop");
 			}
 			
-			if (line.equals("break")) {
+			if (tokens.isWord(from, "break")) {
 				BreakInstr instr = new BreakInstr(parentInstruction, "break", parentLoop);
-				instr.originalLineNumber = currentParsingLineNumber;
+				instr.originalLineNumber = context.currentParsingLineNumber;
 				instructions.add(instr);
 			} else {
 				ContinueInstr instr = new ContinueInstr(parentInstruction, "continue", parentLoop);
-				instr.originalLineNumber = currentParsingLineNumber;
+				instr.originalLineNumber = context.currentParsingLineNumber;
 				instructions.add(instr);
 			}
 			
-		} else if (line.equals("[")) { // Start a deeper scope
+		} else if (isSingleToken(tokens, from, to, TokenStream.OPEN_BRACKET)) { // Start a deeper scope
 			
 			StartBlockInstr startBlockInstr = new StartBlockInstr(parentInstruction, "scope start");
-			startBlockInstr.originalLineNumber = currentParsingLineNumber;
+			startBlockInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(startBlockInstr);
 			
-		} else if (ParseUtil.doesLineStartWith(line, "return")) { // Return
-			
-			// Get the contents of the expression being returned
-			int expressionStartIndex = "return ".length();
-			String expressionContent = "";
-			if (expressionStartIndex < line.length()) {
-				expressionContent = line.substring(expressionStartIndex).trim();
-			}
+		} else if (doesLineStartWith(tokens, from, to, "return")) { // Return
 			
 			// Determine the return type of the function we're in
 			FunctionDefInstr parentFunc = findNearestAncestorOfType(parentInstruction, FunctionDefInstr.class);
@@ -187,9 +765,9 @@ public class CompilePass {
 			
 			Type statementReturnType = null;
 			Instruction lastInstruction = null;
-			if (!expressionContent.isEmpty()) {
+			if (from + 1 < to) {
 				// Get the instructions for the content of this assignment
-				lastInstruction = parseExpression(parentInstruction, expressionContent);
+				lastInstruction = parseExpression(parentInstruction, tokens, from + 1, to);
 				statementReturnType = lastInstruction.returnType;
 			}
 			
@@ -210,21 +788,23 @@ public class CompilePass {
 				}
 			}
 			
-			ReturnInstr returnInstr = new ReturnInstr(parentInstruction, line.trim(), lastInstruction);
-			returnInstr.originalLineNumber = currentParsingLineNumber;
+			ReturnInstr returnInstr = new ReturnInstr(parentInstruction, tokens.text(from, to), lastInstruction);
+			returnInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(returnInstr);
 			
-		} else if (ParseUtil.doesLineStartWith(line, "for")) { // For-loop
+		} else if (doesLineStartWith(tokens, from, to, "for")) { // For-loop
 			
 			// This instruction restricts the scope of the whole for-loop and initialization
 			StartBlockInstr startBlockInstr = new StartBlockInstr(parentInstruction, "for-loop scope start");
-			startBlockInstr.originalLineNumber = currentParsingLineNumber;
+			startBlockInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(startBlockInstr);
 			
 			// Get the contents of the for-loop header
-			final int conditionsStartIndex = 3;
-			String expressionContent = line.substring(conditionsStartIndex);
-			String[] args = ParseUtil.separateArguments(expressionContent);
+			final IntStack argBounds = separateArguments(tokens, from + 1, to);
+			String[] args = new String[argBounds.size() - 1];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = tokens.text(argBounds.get(i) + 1, argBounds.get(i + 1)).trim();
+			}
 			
 			// Create the increment, start bound, and stop bound instructions
 			Type arrayVarType;
@@ -248,8 +828,10 @@ public class CompilePass {
 					printError("For-each loop missing arguments after 'in' keyword");
 				}
 				
-				// Generate a unique loop variable name to use as the loop iterator
-				final String loopVarName = "GENERATED_index" + instructions.size();
+				// Generate a unique loop variable name to use as the loop iterator.
+				// It counts from the start of the function, which is the same whether the
+				// function is parsed with the rest of the program, on its own, or copied from the body cache.
+				final String loopVarName = "GENERATED_index" + (instructions.size() - topLevelFunctionIndex);
 				startBoundVariableString = "int " + loopVarName + " = 0";
 				incrementString = loopVarName + "++";
 				
@@ -262,7 +844,7 @@ public class CompilePass {
 				}
 				
 				String forEachVarTypeString = loopVarDeclarationString.substring(0, firstSpaceIndex);
-				Type forEachVarType = new Type(forEachVarTypeString);
+				Type forEachVarType = Type.fromString(forEachVarTypeString);
 				String forEachVarName = loopVarDeclarationString.substring(firstSpaceIndex).trim();
 				
 				// Try to find an existing variable in this scope with the same name
@@ -303,10 +885,10 @@ public class CompilePass {
 				if (firstSpaceIndex == -1) {
 					printError("For-loop variable type missing");
 				}
-
+				
 				// Get the type of variable that is being used to iterate
 				String loopVarTypeString = startBoundVariableString.substring(0, firstSpaceIndex);
-				Type varType = new Type(loopVarTypeString);
+				Type varType = Type.fromString(loopVarTypeString);
 				
 				// Make sure the loop variable is an integer type
 				if (!varType.isNumberType()) {
@@ -345,7 +927,7 @@ public class CompilePass {
 			// Create the looping construct.
 			// This instruction precedes all content of the loop that is repeated.
 			LoopInstr loopStartLabel = new LoopInstr(startBlockInstr, "for-loop start", false);
-			loopStartLabel.originalLineNumber = currentParsingLineNumber;
+			loopStartLabel.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(loopStartLabel);
 			
 			// Create the loop break condition.
@@ -361,11 +943,11 @@ public class CompilePass {
 			IfInstr lastInstructionFromIfCondition = (IfInstr)lastInstructionFromIfConditionAny;
 			
 			BreakInstr boundBreak = new BreakInstr(lastInstructionFromIfCondition, "break for", loopStartLabel);
-			boundBreak.originalLineNumber = currentParsingLineNumber;
+			boundBreak.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(boundBreak);
 			
 			EndBlockInstr ifBoundEnd = new EndBlockInstr(lastInstructionFromIfCondition, "end if");
-			ifBoundEnd.originalLineNumber = currentParsingLineNumber;
+			ifBoundEnd.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(ifBoundEnd);
 			
 			lastInstructionFromIfCondition.endOfBlockInstr = ifBoundEnd;
@@ -379,26 +961,25 @@ public class CompilePass {
 			loopStartLabel.codeToInjectBeforeEndOfBlock = incrementString;
 			loopStartLabel.codeToInjectAfterEndOfBlock = "]"; // Close the "StartBlock" instruction
 			
-		} else if (line.equals("do")) { // Do-while loop (header part)
+		} else if (isSingleWord(tokens, from, to, "do")) { // Do-while loop (header part)
 			
 			// Create the loop header instruction (generic for all loops)
 			LoopInstr instr = new LoopInstr(parentInstruction, "do loop start", true);
-			instr.originalLineNumber = currentParsingLineNumber;
+			instr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(instr);
 			
-		} else if (ParseUtil.doesLineStartWith(line, "] while")) { // Do-while loop (end part)
+		} else if (isDoWhileFooter(tokens, from, to)) { // Do-while loop (end part)
 			
 			// Check that this block was opened by a do-while loop header
 			if (!(parentInstruction instanceof LoopInstr) ||
 					!((LoopInstr)parentInstruction).wasThisADoWhileLoop) {
 				printError("Do-While footer must be preceded by a Do-While header");
 			}
-
+			
 			LoopInstr doStartInstruction = (LoopInstr)parentInstruction;
 			
 			// Get the contents of the conditional
-			int conditionStartIndex = 7;
-			String expressionContent = line.substring(conditionStartIndex).trim();
+			String expressionContent = tokens.text(from + 2, to).trim();
 			
 			// Detect an empty conditional statement
 			if (expressionContent.isEmpty()) {
@@ -406,26 +987,26 @@ public class CompilePass {
 			}
 			
 			// Get the instructions for the content of this assignment
-			Instruction lastInstruction = parseExpression(parentInstruction, expressionContent);
+			Instruction lastInstruction = parseExpression(parentInstruction, tokens, from + 2, to);
 			
 			// Invert the truth of the last instruction in the break condition
 			BoolNotInstr notInstr = new BoolNotInstr(doStartInstruction, "!(" + expressionContent + ")", lastInstruction);
-			notInstr.originalLineNumber = currentParsingLineNumber;
+			notInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(notInstr);
 			
 			// Build the if-statement for the while loop
 			IfInstr ifInstr = new IfInstr(doStartInstruction, "if " + notInstr.debugString, notInstr, false);
-			ifInstr.originalLineNumber = currentParsingLineNumber;
+			ifInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(ifInstr);
 			
 			// Create a break statement for this while loop
 			BreakInstr breakInstr = new BreakInstr(ifInstr, "break", doStartInstruction);
-			breakInstr.originalLineNumber = currentParsingLineNumber;
+			breakInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(breakInstr);
 			
 			// Create the EndBlock for this If-block
 			EndBlockInstr endIf = new EndBlockInstr(ifInstr, "end if");
-			endIf.originalLineNumber = currentParsingLineNumber;
+			endIf.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(endIf);
 			
 			ifInstr.endOfBlockInstr = endIf;
@@ -437,21 +1018,20 @@ public class CompilePass {
 			}
 			
 			EndBlockInstr doEndInstr = new EndBlockInstr(doStartInstruction, "end do-while");
-			doEndInstr.originalLineNumber = currentParsingLineNumber;
+			doEndInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(doEndInstr);
 			
 			// Mark this as the end of the Loop instruction
 			doStartInstruction.endInstr = doEndInstr;
 			
-		} else if (ParseUtil.doesLineStartWith(line, "while")) { // While loop
+		} else if (doesLineStartWith(tokens, from, to, "while")) { // While loop
 			
 			LoopInstr loopStartLabel = new LoopInstr(parentInstruction, "while loop start", false);
-			loopStartLabel.originalLineNumber = currentParsingLineNumber;
+			loopStartLabel.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(loopStartLabel);
 			
 			// Get the contents of the conditional
-			int conditionStartIndex = 5;
-			String expressionContent = line.substring(conditionStartIndex).trim();
+			String expressionContent = tokens.text(from + 1, to).trim();
 			
 			// Detect an empty conditional statement
 			if (expressionContent.isEmpty()) {
@@ -459,7 +1039,7 @@ public class CompilePass {
 			}
 			
 			// Get the instructions for the content of this assignment
-			Instruction lastInstruction = parseExpression(loopStartLabel, expressionContent);
+			Instruction lastInstruction = parseExpression(loopStartLabel, tokens, from + 1, to);
 			
 			if (lastInstruction.returnType == null) {
 				printError("Loop condition must return a " + Type.Bool);
@@ -473,30 +1053,30 @@ public class CompilePass {
 			
 			// Invert the truth of the last instruction in the break condition
 			BoolNotInstr notInstr = new BoolNotInstr(loopStartLabel, "!(" + expressionContent + ")", lastInstruction);
-			notInstr.originalLineNumber = currentParsingLineNumber;
+			notInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(notInstr);
 			
 			// Build the if-statement for the while loop
 			IfInstr ifInstr = new IfInstr(loopStartLabel, "if !(" + expressionContent + ")", notInstr, false);
-			ifInstr.originalLineNumber = currentParsingLineNumber;
+			ifInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(ifInstr);
 			
 			// Create a break statement for this while loop
 			BreakInstr breakInstr = new BreakInstr(ifInstr, "break while", loopStartLabel);
-			breakInstr.originalLineNumber = currentParsingLineNumber;
+			breakInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(breakInstr);
 			
 			// Create the EndBlock for this If-block
 			EndBlockInstr endIf = new EndBlockInstr(ifInstr, "end if");
-			endIf.originalLineNumber = currentParsingLineNumber;
+			endIf.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(endIf);
 			
 			ifInstr.endOfBlockInstr = endIf;
 			
-		} else if (ParseUtil.doesLineStartWith(line, "if")) { // If-statement
+		} else if (doesLineStartWith(tokens, from, to, "if")) { // If-statement
 		
 			// Get the contents of the conditional
-			String expressionContent = line.substring("if".length()).trim();
+			String expressionContent = tokens.text(from + 1, to).trim();
 			
 			// Detect an empty conditional statement
 			if (expressionContent.isEmpty()) {
@@ -504,7 +1084,7 @@ public class CompilePass {
 			}
 			
 			// Get the instructions for the content of this assignment
-			Instruction lastInstruction = parseExpression(parentInstruction, expressionContent);
+			Instruction lastInstruction = parseExpression(parentInstruction, tokens, from + 1, to);
 			
 			// Make sure the return type of an "if" condition is a boolean
 			Type operandType = lastInstruction.returnType;
@@ -513,10 +1093,10 @@ public class CompilePass {
 			}
 			
 			IfInstr ifInstr = new IfInstr(parentInstruction, expressionContent, lastInstruction, false);
-			ifInstr.originalLineNumber = currentParsingLineNumber;
+			ifInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(ifInstr);
 			
-		} else if (ParseUtil.doesLineStartWith(line, "elseif")) { // ElseIf-statement
+		} else if (doesLineStartWith(tokens, from, to, "elseif")) { // ElseIf-statement
 			
 			if (!(parentInstruction instanceof IfInstr)) {
 				printError("Else-if condition must be preceded by an if-block");
@@ -524,15 +1104,15 @@ public class CompilePass {
 			
 			// Inject an end-block to close the if-statement first if this is an else-if statement.
 			EndBlockInstr previousEndInstr = new EndBlockInstr(parentInstruction, "end " + parentInstruction.name());
-			previousEndInstr.originalLineNumber = currentParsingLineNumber;
+			previousEndInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(previousEndInstr);
 			
 			ElseInstr elseInstr = new ElseInstr(parentInstruction.parentInstruction, "", (IfInstr)parentInstruction);
-			elseInstr.originalLineNumber = currentParsingLineNumber;
+			elseInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(elseInstr);
 			
 			// Get the contents of the conditional
-			String expressionContent = line.substring("elseif".length()).trim();
+			String expressionContent = tokens.text(from + 1, to).trim();
 			
 			// Detect an empty conditional statement
 			if (expressionContent.isEmpty()) {
@@ -540,7 +1120,7 @@ public class CompilePass {
 			}
 			
 			// Get the instructions for the content of this assignment
-			Instruction lastInstruction = parseExpression(elseInstr, expressionContent);
+			Instruction lastInstruction = parseExpression(elseInstr, tokens, from + 1, to);
 			
 			// Make sure the return type of an "if" condition is a boolean
 			Type operandType = lastInstruction.returnType;
@@ -549,7 +1129,7 @@ public class CompilePass {
 			}
 			
 			IfInstr ifInstr = new IfInstr(elseInstr, "elseif " + expressionContent, lastInstruction, true);
-			ifInstr.originalLineNumber = currentParsingLineNumber;
+			ifInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(ifInstr);
 			
 			// Mark the end of the previous chaining instruction and
@@ -557,7 +1137,7 @@ public class CompilePass {
 			((IfInstr)parentInstruction).endOfBlockInstr = previousEndInstr;
 			((IfInstr)parentInstruction).elseInstr = elseInstr;
 			
-		} else if (line.equals("else")) { // This is an else chained onto an if
+		} else if (isSingleWord(tokens, from, to, "else")) { // This is an else chained onto an if
 			
 			if (!(parentInstruction instanceof IfInstr)) {
 				printError("Else block not preceded by If or Else-if block");
@@ -567,12 +1147,12 @@ public class CompilePass {
 			// Create the EndBlock to end of the previous chained instruction
 			EndBlockInstr previousEndInstr = new EndBlockInstr(
 					ifInstr, "end " + ifInstr.name());
-			previousEndInstr.originalLineNumber = currentParsingLineNumber;
+			previousEndInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(previousEndInstr);
 			
 			// Create the Else block
 			ElseInstr elseInstr = new ElseInstr(parentInstruction.parentInstruction, "else", ifInstr);
-			elseInstr.originalLineNumber = currentParsingLineNumber;
+			elseInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(elseInstr);
 			
 			// Mark the end of the previous chaining instruction and
@@ -580,7 +1160,7 @@ public class CompilePass {
 			ifInstr.endOfBlockInstr = previousEndInstr;
 			ifInstr.elseInstr = elseInstr;
 		
-		} else if (line.equals("]")) { // EndBlock (for closing a loop, if, elseif, etc.)
+		} else if (isSingleToken(tokens, from, to, TokenStream.CLOSE_BRACKET)) { // EndBlock (for closing a loop, if, elseif, etc.)
 			
 			// Find the instruction that starts this scope-block
 			Instruction openingBlockInstr = parentInstruction;
@@ -601,7 +1181,7 @@ public class CompilePass {
 					
 					// Prevent this from being parsed multiple lines
 					loopInstr.codeToInjectBeforeEndOfBlock = null;
-
+					
 					// Parse the line that increments the loop variable
 					for (int i = 0; i < lines.length; i++) {
 						parseLine(lines[i]);
@@ -615,12 +1195,12 @@ public class CompilePass {
 			
 			// Create the EndBlock
 			EndBlockInstr endInstr = new EndBlockInstr(openingBlockInstr, "end " + openingBlockInstr.debugString);
-			endInstr.originalLineNumber = currentParsingLineNumber;
+			endInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(endInstr);
 			
 			if (openingBlockInstr instanceof LoopInstr) {
 				LoopInstr loopInstr = (LoopInstr)openingBlockInstr;
-
+				
 				// Mark a reference to the end of the loop
 				loopInstr.endInstr = endInstr;
 				
@@ -632,7 +1212,7 @@ public class CompilePass {
 					
 					// Prevent this from being parsed multiple lines
 					loopInstr.codeToInjectAfterEndOfBlock = null;
-
+					
 					// Parse the line that increments the loop variable
 					for (int i = 0; i < lines.length; i++) {
 						parseLine(lines[i]);
@@ -663,28 +1243,22 @@ public class CompilePass {
 				((FunctionDefInstr)openingBlockInstr).endInstr = endInstr;
 			}
 			
-		} else if (ParseUtil.getFirstDataType(line) != null) { // If this is a declaration of some sort
+		} else if (findFirstDataType(tokens, from, to) != null) { // If this is a declaration of some sort
 			
-			TypeAndEnd typeData = ParseUtil.getFirstDataType(line);
+			TypeAndEnd typeData = findFirstDataType(tokens, from, to);
 			Type varType = typeData.type;
-			int typeEndIndex = typeData.endIndex;
-			
-			// Make sure there is a space after the variable type
-			if (line.charAt(typeEndIndex) != ' ') {
-				printError("Declaration name missing");
-			}
+			int typeEnd = typeData.endIndex;
 			
-			// Get the first variable name on this line at this index, and its end index
-			Object[] varData = ParseUtil.getVariableName(line, typeEndIndex+1);
-			if (varData == null) {
+			// Make sure there is a space after the variable type, and then a name
+			if (typeEnd == from || typeEnd >= to || !tokens.isSeparatedFromPrevious(typeEnd) || !isVariableName(tokens, typeEnd)) {
 				printError("Declaration name missing");
 			}
-			String varName = (String)varData[0];
-			int varEndIndex = (int)varData[1];
+			String varName = tokens.text(typeEnd);
+			int varEnd = typeEnd + 1;
 			
 			// Determine whether this is a variable, or function declaration
 			boolean isFunctionDeclaration = false;
-			if (varEndIndex < line.length() && line.charAt(varEndIndex) == '(') {
+			if (varEnd < to && tokens.kind(varEnd) == TokenStream.OPEN_PAREN && !tokens.hasSpaceBefore(varEnd)) {
 				isFunctionDeclaration = true;
 			}
 			
@@ -696,19 +1270,20 @@ public class CompilePass {
 				}
 				
 				// Parse the types of the parameters to this function
-				String paramString = ParseUtil.getFunctionArguments(line, typeEndIndex);
-				String[] params = ParseUtil.separateArguments(paramString);
-				Type[] paramTypes = new Type[params.length];
-				String[] paramNames = new String[params.length];
-				
-				for (int i = 0; i < params.length; i++) {
-					TypeAndEnd data = ParseUtil.getFirstDataType(params[i]);
+				final int paramsEnd = findClosingParenthesis(tokens, from, varEnd, to);
+				IntStack paramBounds = separateArguments(tokens, varEnd + 1, paramsEnd);
+				Type[] paramTypes = new Type[paramBounds.size() - 1];
+				String[] paramNames = new String[paramTypes.length];
+				
+				for (int i = 0; i < paramTypes.length; i++) {
+					final int paramFrom = paramBounds.get(i) + 1;
+					final int paramTo = paramBounds.get(i + 1);
+					TypeAndEnd data = findFirstDataType(tokens, paramFrom, paramTo);
 					if (data != null) {
 						paramTypes[i] = data.type;
-						int endIndex = data.endIndex;
-						paramNames[i] = params[i].substring(endIndex).trim();
+						paramNames[i] = tokens.text(data.endIndex, paramTo).trim();
 					} else {
-						printError("Invalid parameter declaration or type in '" + params[i] + "'");
+						printError("Invalid parameter declaration or type in '" + tokens.text(paramFrom, paramTo).trim() + "'");
 					}
 				}
 				
@@ -727,21 +1302,26 @@ public class CompilePass {
 				}
 				
 				// If we are inside the main function, then manually inject an end-block
+				boolean isTopLevel = parentInstruction == null;
 				if (parentInstruction instanceof FunctionDefInstr) {
 					FunctionDefInstr mainFuncDefInstr = (FunctionDefInstr)parentInstruction;
 					if (mainFuncDefInstr.functionThatWasDefined.name.equals("main")) {
 						EndBlockInstr mainEnd = new EndBlockInstr(parentInstruction, "end main");
 						mainFuncDefInstr.endInstr = mainEnd;
-						mainEnd.originalLineNumber = currentParsingLineNumber;
+						mainEnd.originalLineNumber = context.currentParsingLineNumber;
 						instructions.add(mainEnd);
+						isTopLevel = true;
 					}
 				}
 				
 				// Create the function definition.
 				// TODO add multiple returns.
-				FunctionDefInstr funcDefInstr = new FunctionDefInstr(null, line, function);
+				FunctionDefInstr funcDefInstr = new FunctionDefInstr(null, tokens.text(from, to), function);
 				function.functionDefInstr = funcDefInstr;
-				funcDefInstr.originalLineNumber = currentParsingLineNumber;
+				funcDefInstr.originalLineNumber = context.currentParsingLineNumber;
+				if (isTopLevel) {
+					topLevelFunctionIndex = instructions.size();
+				}
 				instructions.add(funcDefInstr);
 				
 				// TODO study LLVM to figure out how to pass arguments into the function
@@ -754,31 +1334,30 @@ public class CompilePass {
 					printError("Variable '" + varName + "' has already been declared in this scope");
 				}
 				
-				StringStartEnd assignmentInfo = ParseUtil.getFirstAssignmentOperator(line, varEndIndex);
-				String operator = null;
-				int operatorEndIndex;
-				String expressionContent = null;
-				
-				// There may not be any assignment on this line (only declaration)
-				if (assignmentInfo != null) {
-					operator = assignmentInfo.string;
-					operatorEndIndex = assignmentInfo.endIndex;
-					expressionContent = line.substring(operatorEndIndex).trim();
-				}
+				// There may not be any assignment on this line (only declaration).
+				// The operator is only the start of its token when the value starts with
+				// operator symbols too (like "=-1").
+				String operator = (varEnd < to) ? findAssignmentOperatorAtStart(tokens, varEnd) : null;
 				
 				// If this is an scope declaration only (no value assigned, and no allocation)
-				if (assignmentInfo == null) {
+				if (operator == null) {
 					// Make sure there aren't excess characters at the end of this line
-					ParseUtil.checkForExcessCharacters(line, varName);
+					if (varEnd < to) {
+						ParseUtil.checkForExcessCharacters(tokens.text(from, to), varName);
+					}
 					
 					AllocVarInstr instr = new AllocVarInstr(parentInstruction, varType + " " + varName, varType, varName);
-					instr.originalLineNumber = currentParsingLineNumber;
+					instr.originalLineNumber = context.currentParsingLineNumber;
 					instructions.add(instr);
 					
 				} else if (operator.equals("=")) { // If this is an allocation and assignment
 					
 					// Get the instructions for the content of this assignment
-					Instruction lastInstruction = parseExpression(parentInstruction, expressionContent);
+					final boolean isWholeToken = operator.length() == tokens.length(varEnd);
+					final int expressionFrom = isWholeToken ? varEnd + 1 : varEnd;
+					final int skippedChars = isWholeToken ? 0 : operator.length();
+					Instruction lastInstruction = parseExpression(parentInstruction, tokens, expressionFrom, to, skippedChars);
+					String expressionContent = tokens.text(varEnd, to).substring(operator.length()).trim();
 					
 					// Get the operand type
 					Type operandType = lastInstruction.returnType;
@@ -787,12 +1366,12 @@ public class CompilePass {
 					}
 					
 					AllocVarInstr declareInstr = new AllocVarInstr(parentInstruction, varType + " " + varName, varType, varName);
-					declareInstr.originalLineNumber = currentParsingLineNumber;
+					declareInstr.originalLineNumber = context.currentParsingLineNumber;
 					instructions.add(declareInstr);
 					
 					StoreInstr storeInstr = new StoreInstr(parentInstruction,
 							varName + " = " + expressionContent, declareInstr, lastInstruction);
-					storeInstr.originalLineNumber = currentParsingLineNumber;
+					storeInstr.originalLineNumber = context.currentParsingLineNumber;
 					instructions.add(storeInstr);
 				} else {
 					printError("Invalid assignment operator");
@@ -800,18 +1379,14 @@ public class CompilePass {
 			}
 			
 			// If this is some form of reassignment
-		} else if (ParseUtil.findLowestPrecedenceOperatorAtLowestLevel(line, ParseUtil.assignmentOperators) != null) {
+		} else if (findAssignmentOperator(tokens, from, to) != -1) {
 			
 			// Find the position of the assignment operator on this line
-			StringStartEnd assignmentInfo = ParseUtil.findLowestPrecedenceOperatorAtLowestLevel(line, ParseUtil.assignmentOperators);
-			
-			if (assignmentInfo == null) {
-				printError("Assignment expected");
-			}
+			final int operatorIndex = findAssignmentOperator(tokens, from, to);
 			
-			final String assignmentOp = assignmentInfo.string;
-			final String leftHandString = line.substring(0, assignmentInfo.startIndex).trim();
-			final String rightHandString = line.substring(assignmentInfo.endIndex).trim();
+			final String assignmentOp = tokens.text(operatorIndex);
+			final String leftHandString = tokens.text(from, operatorIndex).trim();
+			final String rightHandString = tokens.text(operatorIndex + 1, to).trim();
 			
 			Instruction lastInstructionFromRightHand = null;
 			
@@ -819,11 +1394,11 @@ public class CompilePass {
 			if (!rightHandString.isEmpty()) {
 			
 				// Parse out the value to assign to the variable
-				lastInstructionFromRightHand = parseExpression(parentInstruction, rightHandString);
+				lastInstructionFromRightHand = parseExpression(parentInstruction, tokens, operatorIndex + 1, to);
 			}
-
+			
 			// Parse out the variable or object to assign to
-			Instruction lastInstructionFromLeftHand = parseExpression(parentInstruction, leftHandString);
+			Instruction lastInstructionFromLeftHand = parseExpression(parentInstruction, tokens, from, operatorIndex);
 			
 			// We expect the last instruction from the left-hand-side to read some variable
 			if (lastInstructionFromLeftHand.returnType == null ||
@@ -868,8 +1443,8 @@ public class CompilePass {
 				
 				// Write to the pointer
 				StoreInstr assignment = new StoreInstr(parentInstruction,
-						line, instrThatDeclaredVar, lastInstructionFromRightHand);
-				assignment.originalLineNumber = currentParsingLineNumber;
+						tokens.text(from, to), instrThatDeclaredVar, lastInstructionFromRightHand);
+				assignment.originalLineNumber = context.currentParsingLineNumber;
 				instructions.add(assignment);
 				
 			} else { // This was a compound or shorthand assignment (like i++ or i*=2)
@@ -897,17 +1472,17 @@ public class CompilePass {
 					}
 					
 					GivenInstr one = new GivenInstr(parentInstruction, "1", 1, Type.Int);
-					one.originalLineNumber = currentParsingLineNumber;
+					one.originalLineNumber = context.currentParsingLineNumber;
 					instructions.add(one);
 					
 					Instruction addOrSubtract;
 					if (assignmentOp.equals("++")) {
 						addOrSubtract = new AddInstr(parentInstruction, leftHandString + " + 1", loadInstr, one);
-						addOrSubtract.originalLineNumber = currentParsingLineNumber;
+						addOrSubtract.originalLineNumber = context.currentParsingLineNumber;
 						instructions.add(addOrSubtract);
 					} else if (assignmentOp.equals("--")) {
 						addOrSubtract = new SubInstr(parentInstruction, leftHandString + " + 1", loadInstr, one);
-						addOrSubtract.originalLineNumber = currentParsingLineNumber;
+						addOrSubtract.originalLineNumber = context.currentParsingLineNumber;
 						instructions.add(addOrSubtract);
 					} else {
 						new Exception("Invalid operator: " + assignmentOp).printStackTrace();
@@ -917,7 +1492,7 @@ public class CompilePass {
 					// Write to the pointer
 					StoreInstr writeToFirstHalf = new StoreInstr(parentInstruction,
 							leftHandString + " = " + addOrSubtract.debugString, instrThatDeclaredVar, addOrSubtract);
-					writeToFirstHalf.originalLineNumber = currentParsingLineNumber;
+					writeToFirstHalf.originalLineNumber = context.currentParsingLineNumber;
 					instructions.add(writeToFirstHalf);
 					
 				} else if (assignmentOp.equals("+=")  || assignmentOp.equals("-=") || // If this is a shorthand operator
@@ -955,13 +1530,13 @@ public class CompilePass {
 						printError("Invalid operator: " + assignmentOp);
 						return null;
 					}
-					binaryOp.originalLineNumber = currentParsingLineNumber;
+					binaryOp.originalLineNumber = context.currentParsingLineNumber;
 					instructions.add(binaryOp);
 					
 					// Write to the pointer
 					StoreInstr writeToFirstHalf = new StoreInstr(parentInstruction,
 							leftHandString, instrThatDeclaredVar, binaryOp);
-					writeToFirstHalf.originalLineNumber = currentParsingLineNumber;
+					writeToFirstHalf.originalLineNumber = context.currentParsingLineNumber;
 					instructions.add(writeToFirstHalf);
 					
 				} else {
@@ -969,12 +1544,12 @@ public class CompilePass {
 				}
 			}
 			
-		} else if (ParseUtil.isFunctionCall(line)) { // If this is a function call alone on a line
+		} else if (isFunctionCall(tokens, from, to)) { // If this is a function call alone on a line
 			
-			parseFunctionCall(parentInstruction, line, true);
+			parseFunctionCall(parentInstruction, tokens, from, to, true);
 			
 		} else {
-			printError("Invalid line: " + line);
+			printError("Invalid line: " + tokens.text(from, to));
 			return null;
 		}
 		
@@ -987,281 +1562,214 @@ public class CompilePass {
 		}
 	}
 	
-	// Recursively parse an expression (no assignment allowed)
+	// Parse the tokens [from, to) as an expression (no assignment allowed).
+	// Return the last instruction created from parsing this expression.
+	private Instruction parseExpression(Instruction parentInstruction, TokenStream tokens, final int from, final int to) {
+		return parseExpression(parentInstruction, tokens, from, to, 0);
+	}
+	
+	// Parse the tokens [from, to) as an expression (no assignment allowed) with an
+	// operator-precedence (Pratt) parser.  Operands and operators are kept on explicit stacks,
+	// so long operator chains and deeply nested parentheses are parsed in one pass without recursion.
+	// The array dimensions, array indices, and function arguments inside an operand are parsed
+	// the same way: the expression around the operand waits on a stack while each of them is parsed.
+	// Instructions are created in the same order as splitting the expression recursively
+	// at its lowest precedence operator would create them.
+	// The first 'skippedChars' characters of the first token are not part of the expression
+	// (like the '=' of a declaration written as "int x =-1").
 	// Return the last instruction created from parsing this expression.
-	private static Instruction parseExpression(Instruction parentInstruction, String text) {
+	private Instruction parseExpression(Instruction parentInstruction, TokenStream tokens,
+			int from, int to, int skippedChars) {
 		
 		final int previousInstructionsLength = instructions.size();
+		final String source = tokens.source;
+		ExpressionStack stack = new ExpressionStack();
 		
-		// Remove whitespace and extra parentheses around expressions
-		text = ParseUtil.removeUnnecessaryParentheses(text.trim());
-		
-		// TODO test function scope rules
-		
-		if (text.isEmpty()) {
-			printError("Empty expression encountered (value expected)");
-			return null;
-		}
+		// The operands whose inner expressions are being parsed, innermost last
+		final ArrayList<PendingOperand> pendingOperands = new ArrayList<PendingOperand>();
 		
-		// If this contains a binary operator (on this level)
-		StringStartEnd operatorInfo = ParseUtil.findLowestPrecedenceOperatorAtLowestLevel(text, ParseUtil.binaryOperators);
-		if (operatorInfo != null) {
-			
-			String binaryOpStr = operatorInfo.string;
-			int start = operatorInfo.startIndex;
-			int end = operatorInfo.endIndex;
-			
-			String firstHalf = text.substring(0, start).trim();
-			String lastHalf = text.substring(end).trim();
-			
-			// Recursively parse the expressions
-			Instruction lastInstruction1 = parseExpression(parentInstruction, firstHalf);
-			Instruction lastInstruction2 = parseExpression(parentInstruction, lastHalf);
-			
-			// Get the types of each operand to this operator
-			Type operandType1 = lastInstruction1.returnType;
-			Type operandType2 = lastInstruction2.returnType;
-			
-			if (operandType1 == null) {
-				printError("Expression returns nothing: '" + firstHalf + "'");
-			}
-			if (operandType2 == null) {
-				printError("Expression returns nothing: '" + lastHalf + "'");
-			}
-			
-			Instruction instr;
-			if (binaryOpStr.equals("=")) {
-				instr = new EqualInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("!=")) {
-				instr = new NotEqualInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("@=")) {
-				instr = new RefEqualInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("!@=")) {
-				instr = new RefNotEqualInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("<")) {
-				instr = new LessInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals(">")) {
-				instr = new GreaterInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("<=")) {
-				instr = new LessEqualInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals(">=")) {
-				instr = new GreaterEqualInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("&")) {
-				instr = new BitAndInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("|")) {
-				instr = new BitOrInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("&&")) {
-				instr = new BoolAndInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("||")) {
-				instr = new BoolOrInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("+")) {
-				instr = new AddInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("-")) {
-				instr = new SubInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("*")) {
-				instr = new MultInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("/")) {
-				instr = new DivideInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("%")) {
-				instr = new ModuloInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else if (binaryOpStr.equals("^")) {
-				instr = new PowerInstr(parentInstruction, firstHalf + " " + binaryOpStr + " " + lastHalf, lastInstruction1, lastInstruction2);
-			} else {
-				new Exception("Invalid binary operator: " + binaryOpStr).printStackTrace();
-				return null;
-			}
-			instr.originalLineNumber = currentParsingLineNumber;
-			instructions.add(instr);
+		boolean expectingOperand = true;
+		int i = from;
+		while (i < to || !pendingOperands.isEmpty()) {
 			
-		} else { // There are no more binary operators in this expression
+			if (i == to) { // The end of an inner expression of the innermost pending operand
+				
+				finishExpression(parentInstruction, stack, tokens, from, to, expectingOperand);
+				
+				final PendingOperand operand = pendingOperands.get(pendingOperands.size() - 1);
+				addOperandArgument(operand, instructions.get(instructions.size() - 1));
+				
+				if (operand.hasMoreArguments()) {
+					stack = new ExpressionStack();
+					from = operand.nextArgumentFrom();
+					to = operand.nextArgumentTo();
+					skippedChars = 0;
+					expectingOperand = true;
+					i = from;
+					continue;
+				}
+				
+				// Go back to the expression around the operand
+				pendingOperands.remove(pendingOperands.size() - 1);
+				stack = operand.outerStack;
+				from = operand.outerFrom;
+				to = operand.outerTo;
+				skippedChars = operand.outerSkippedChars;
+				i = operand.to;
+				
+				finishOperand(parentInstruction, tokens, operand);
+				stack.pushOperand(instructions.get(instructions.size() - 1), operand.from, operand.to, null);
+				reduceUnaryOperators(parentInstruction, stack, tokens);
+				expectingOperand = false;
+				continue;
+			}
 			
-			final char opChar = text.charAt(0);
+			final int kind = tokens.kind(i);
 			
-			// If it's an BitNot, BoolNot, or ArrLength, then add a unary instruction
-			if (opChar == '!' || opChar == '~' || opChar == '#') {
-
-				// Recursively parse the expressions
-				String content = ParseUtil.getUnaryFunctionArgument(text, 0);
-				Instruction lastInstruction = parseExpression(parentInstruction, content);
-				
-				Instruction instr;
-				if (opChar == '!') {
-					instr = new BoolNotInstr(parentInstruction, opChar + content, lastInstruction);
-				} else if (opChar == '~') {
-					instr = new BitNotInstr(parentInstruction, opChar + content, lastInstruction);
-				} else if (opChar == '#') {
+			if (expectingOperand) {
+				
+				if (kind == TokenStream.OPEN_PAREN) { // Start of a group
+					stack.pushOperator("(", ExpressionStack.OPEN_GROUP, i);
+					i++;
+				
+				} else if (kind == TokenStream.CLOSE_PAREN) { // Empty group
+					printError("Empty expression encountered (value expected)");
+					return null;
+				
+				} else if (kind == TokenStream.NEGATE) { // A negative sign is the same as "-1 *"
+					GivenInstr negativeOne = new GivenInstr(parentInstruction, "-1", -1, Type.Int);
+					negativeOne.originalLineNumber = context.currentParsingLineNumber;
+					instructions.add(negativeOne);
+					stack.pushOperand(negativeOne, i, i + 1, "-1");
+					pushBinaryOperator(parentInstruction, stack, tokens, "*");
+					i++;
+				
+				} else if (kind == TokenStream.OPERATOR) { // Unary operators, or the sign of a number
+					final int tokenStart = tokens.start(i);
+					final int runStart = (i == from) ? tokenStart + skippedChars : tokenStart;
+					final int runEnd = tokens.end(i);
+					boolean foundSignedNumber = false;
 					
-					if (!(lastInstruction instanceof IdentityInstr)) {
-						printError("# expected a reference to an array, but got " + lastInstruction.returnType);
+					for (int c = runStart; c < runEnd; c++) {
+						char opChar = source.charAt(c);
+						if (opChar == '!' || opChar == '~' || opChar == '#') {
+							// An operator in the middle of a token can't start an operand of the source text
+							final int start = (c == tokenStart) ? i : ExpressionStack.NOT_IN_SOURCE;
+							stack.pushOperator(String.valueOf(opChar), ExpressionStack.UNARY, start);
+						} else if ((opChar == '-' || opChar == '+') && c == runEnd - 1 && i + 1 < to &&
+								tokens.kind(i + 1) == TokenStream.NUMBER && tokens.start(i + 1) == runEnd) {
+							foundSignedNumber = true;
+						} else {
+							printInvalidExpressionError(tokens.text(from, to));
+							return null;
+						}
 					}
 					
-					// We have to get the pointer to an array before we can get the length of it
-					IdentityInstr pointerInstr = (IdentityInstr)lastInstruction;
-					
-					boolean countAllElements = true;
-					instr = new ArrLengthInstr(parentInstruction, opChar + content, pointerInstr, null, countAllElements);
-				} else {
-					new Exception("Invalid binary operator: " + opChar).printStackTrace();
-					return null;
-				}
-				instr.originalLineNumber = currentParsingLineNumber;
-				instructions.add(instr);
-			} else {
+					if (foundSignedNumber) {
+						final String text = source.substring(runEnd - 1, tokens.end(i + 1));
+						if (!parseLiteral(parentInstruction, text)) {
+							printError("Undeclared variable '" + text + "'");
+						}
+						
+						// The signed number is its own token range if the sign is the whole operator token
+						if (runEnd - 1 == tokenStart) {
+							stack.pushOperand(instructions.get(instructions.size() - 1), i, i + 2, null);
+						} else {
+							stack.pushOperand(instructions.get(instructions.size() - 1), i, i + 2, text);
+						}
+						reduceUnaryOperators(parentInstruction, stack, tokens);
+						expectingOperand = false;
+						i += 2;
+					} else {
+						i++;
+					}
 				
-				// If this is a literal
-				if (ParseUtil.isSignedInteger(text)) {
-					GivenInstr instr = new GivenInstr(parentInstruction, text, ParseUtil.parseInt(text), Type.Int);
-					instr.originalLineNumber = currentParsingLineNumber;
-					instructions.add(instr);
-				} else if (ParseUtil.isSignedLong(text)) {
-					GivenInstr instr = new GivenInstr(parentInstruction, text, ParseUtil.parseLong(text), Type.Long);
-					instr.originalLineNumber = currentParsingLineNumber;
-					instructions.add(instr);
-				} else if (ParseUtil.isDouble(text)) {
-					GivenInstr instr = new GivenInstr(parentInstruction, text, ParseUtil.parseDouble(text), Type.Double);
-					instr.originalLineNumber = currentParsingLineNumber;
-					instructions.add(instr);
-				} else if (ParseUtil.isFloat(text)) {
-					GivenInstr instr = new GivenInstr(parentInstruction, text, ParseUtil.parseFloat(text), Type.Float);
-					instr.originalLineNumber = currentParsingLineNumber;
-					instructions.add(instr);
-				} else if (ParseUtil.isBool(text)) {
-					GivenInstr instr = new GivenInstr(parentInstruction, text, ParseUtil.parseBool(text), Type.Bool);
-					instr.originalLineNumber = currentParsingLineNumber;
-					instructions.add(instr);
-				} else if (ParseUtil.isString(text)) {
-					GivenInstr instr = new GivenInstr(parentInstruction, text, text, Type.String);
-					instr.originalLineNumber = currentParsingLineNumber;
-					instructions.add(instr);
-				} else if (ParseUtil.isArrayDefinition(text)) {
+				} else if (kind == TokenStream.IDENTIFIER || kind == TokenStream.NUMBER || kind == TokenStream.STRING) {
 					
-					Object[] arrayData = ParseUtil.getArrayDefinitionInfo(text);
-					if (arrayData == null) {
-						printError("Malformed array definition in '" + text + "'");
-					}
-					Type arrayElementType = (Type)arrayData[0];
-					String[] dimensions = (String[])arrayData[1];
+					// The operand includes any argument list or array index that follows it
+					final int operandEnd = findOperandEnd(tokens, i, to);
 					
-					// Parse each of the arguments to the array dimension
-					Instruction[] args = new Instruction[dimensions.length];
-					for (int i = 0; i < dimensions.length; i++) {
-						
-						// Recursively parse the expressions
-						Instruction lastInstruction = parseExpression(parentInstruction, dimensions[i]);
+					final int instructionsLength = instructions.size();
+					final PendingOperand operand = startOperand(parentInstruction, tokens, i, operandEnd);
+					if (operand != null && operand.hasMoreArguments()) {
 						
-						if (!lastInstruction.returnType.isA(BaseType.Int)) {
-							printError("Array dimension must be of type " + Type.Int);
-						}
+						// Parse the first inner expression, and come back to this one after the last
+						operand.outerStack = stack;
+						operand.outerFrom = from;
+						operand.outerTo = to;
+						operand.outerSkippedChars = skippedChars;
+						pendingOperands.add(operand);
 						
-						args[i] = lastInstruction;
+						stack = new ExpressionStack();
+						from = operand.nextArgumentFrom();
+						to = operand.nextArgumentTo();
+						skippedChars = 0;
+						i = from;
+						continue;
 					}
-					
-					AllocArrInstr instr = new AllocArrInstr(parentInstruction, text, arrayElementType, args);
-					instr.originalLineNumber = currentParsingLineNumber;
-					instructions.add(instr);
-					
-				} else if (ParseUtil.isArrayElementAccess(text)) {
-					
-					Object[] arrayData = ParseUtil.getArrayReadInfo(text);
-					if (arrayData == null) {
-						printError("Malformed array in '" + text + "'");
+					if (operand != null) {
+						finishOperand(parentInstruction, tokens, operand);
 					}
-					String arrName = (String)arrayData[0];
-					String[] dimensions = (String[])arrayData[1];
-					
-					AllocVarInstr instrThatDeclaredVar = findInstructionThatDeclaredVariable(parentInstruction, arrName);
-					if (instrThatDeclaredVar == null) {
-						printError("Unknown array '" + arrName + "'");
+					if (instructions.size() == instructionsLength) {
+						printError("Expression returns nothing: '" + tokens.text(i, operandEnd) + "'");
 					}
 					
-					final String varName = instrThatDeclaredVar.varName;
-					final Type varType = instrThatDeclaredVar.varType;
+					stack.pushOperand(instructions.get(instructions.size() - 1), i, operandEnd, null);
+					reduceUnaryOperators(parentInstruction, stack, tokens);
+					expectingOperand = false;
+					i = operandEnd;
+				
+				} else {
+					printInvalidExpressionError(tokens.text(from, to));
+					return null;
+				}
+			
+			} else { // Expecting a binary operator or the end of a group
+				
+				if (kind == TokenStream.CLOSE_PAREN) {
 					
-					// Make sure the number of dimensions accessed matches the dimension of the array
-					if (varType.dimensions != dimensions.length) {
-						String plural = " index.";
-						if (dimensions.length != 1) {
-							plural = " indices.";
-						}
-						printError("'" + varName + "' is " + varType.dimensions + "-dimensional, but was accessed with " +
-									dimensions.length + plural);
+					// Finish everything inside the group
+					while (!stack.operatorPrecedences.isEmpty() &&
+							stack.operatorPrecedences.peek() != ExpressionStack.OPEN_GROUP) {
+						reduceBinaryOperator(parentInstruction, stack, tokens);
 					}
-					
-					// Find the all previous instructions that assigned this variable, and reference them
-					boolean foundLastWriteInstruction = wasAssignmentGuaranteed(parentInstruction, varName);
-					if (!foundLastWriteInstruction) {
-						printError("Array '" + varName + "' was never initialized");
+					if (stack.operatorPrecedences.isEmpty()) {
+						printError("Missing opening parenthesis in '" + tokens.text(from, to) + "'");
 					}
 					
-					// Parse each of the arguments to the array index
-					Instruction[] args = new Instruction[dimensions.length];
-					for (int i = 0; i < dimensions.length; i++) {
-						
-						// Recursively parse the expressions
-						Instruction lastInstruction = parseExpression(parentInstruction, dimensions[i]);
-						
-						if (!lastInstruction.returnType.isA(BaseType.Int)) {
-							printError("Array dimension must be of type " + Type.Int);
-						}
-						
-						args[i] = lastInstruction;
+					// The group's value now covers its parentheses too
+					final int groupStart = stack.operatorStarts.peek();
+					stack.popOperator();
+					String innerText = stack.operandTexts.get(stack.operandTexts.size() - 1);
+					stack.operandStarts.set(groupStart);
+					stack.operandEnds.set(i + 1);
+					if (innerText != null) {
+						stack.setOperandText("(" + innerText + ")");
 					}
 					
-					// Get the address of the element
-					GetElementInstr getElementInstr = new GetElementInstr(parentInstruction, text, instrThatDeclaredVar, args);
-					getElementInstr.originalLineNumber = currentParsingLineNumber;
-					instructions.add(getElementInstr);
-					
-					// Read from the element itself
-					LoadInstr loadInstr = new LoadInstr(parentInstruction, text, getElementInstr);
-					loadInstr.originalLineNumber = currentParsingLineNumber;
-					instructions.add(loadInstr);
-					
-				} else if (text.indexOf('(') != -1 && text.indexOf(')') != -1) { // Function call
-					
-					parseFunctionCall(parentInstruction, text, false);
-					
-				} else if (text.contains(" ")) { // This must be garbage
-					
-					if (text.contains("==")) {
-						printError("Invalid expression: '" + text + "'. Did you mean '='?");
-					} else {
-						printError("Invalid expression: '" + text + "'");
-					}
-					
-				} else { // This must be a variable, or garbage
+					reduceUnaryOperators(parentInstruction, stack, tokens);
+					i++;
 				
-					// Check if this is a recognized variable
-					AllocVarInstr instrThatDeclaredVar = findInstructionThatDeclaredVariable(parentInstruction, text);
-					if (instrThatDeclaredVar == null) {
-						printError("Undeclared variable '" + text + "'");
-					}
-					
-					final String varName = instrThatDeclaredVar.varName;
-					final Type varType = instrThatDeclaredVar.varType;
+				} else if (kind == TokenStream.OPERATOR) {
 					
-					// If it is an array
-					if (varType.isArray) {
-						IdentityInstr instr = new IdentityInstr(parentInstruction, text, instrThatDeclaredVar);
-						instr.originalLineNumber = currentParsingLineNumber;
-						instructions.add(instr);
-						
-					} else { // If this is a primitive type
-						
-						// Find the all previous instructions that assigned this variable, and reference them
-						boolean wasInitialized = wasAssignmentGuaranteed(parentInstruction, varName);
-						if (!wasInitialized) {
-							printError("Variable '" + varName + "' was never initialized");
-						}
-						
-						LoadInstr instr = new LoadInstr(parentInstruction, text, instrThatDeclaredVar);
-						instr.originalLineNumber = currentParsingLineNumber;
-						instructions.add(instr);
+					final String op = ParseUtil.findBinaryOperator(source, tokens.start(i), tokens.end(i));
+					if (op == null) {
+						printInvalidExpressionError(tokens.text(from, to));
+						return null;
 					}
+					pushBinaryOperator(parentInstruction, stack, tokens, op);
+					expectingOperand = true;
+					i++;
+				
+				} else {
+					printInvalidExpressionError(tokens.text(from, to));
+					return null;
 				}
 			}
 		}
 		
+		finishExpression(parentInstruction, stack, tokens, from, to, expectingOperand);
+		
 		// Return the last instruction added, if any.
 		boolean didAddInstruction = instructions.size() > previousInstructionsLength;
 		if (didAddInstruction) {
@@ -1271,75 +1779,490 @@ public class CompilePass {
 		}
 	}
 	
-	// Parse the calling of a function.
-	// 'text' should look like "myFunction(arg1, arg2, arg3)"
-	private static void parseFunctionCall(Instruction parentInstruction, final String text, final boolean isAloneOnALine) {
+	// Finish the expression [from, to) once all of its tokens are on the given stack,
+	// by applying all of its remaining operators
+	private void finishExpression(Instruction parentInstruction, ExpressionStack stack, TokenStream tokens,
+			final int from, final int to, final boolean expectingOperand) {
 		
-		String[] nameAndArgs = ParseUtil.getFunctionNameAndArgs(text);
+		// The expression can't end with an operator
+		if (expectingOperand) {
+			if (from == to) {
+				printError("Empty expression encountered (value expected)");
+			} else {
+				printInvalidExpressionError(tokens.text(from, to));
+			}
+		}
 		
-		if (nameAndArgs == null) {
-			printError("Cannot parse function call '" + text + "'");
+		// Finish all remaining operators
+		while (!stack.operatorPrecedences.isEmpty()) {
+			if (stack.operatorPrecedences.peek() == ExpressionStack.OPEN_GROUP) {
+				printError("Missing closing parenthesis in '" + tokens.text(from, to) + "'");
+			}
+			reduceBinaryOperator(parentInstruction, stack, tokens);
+		}
+	}
+	
+	// Push a binary operator onto the expression stack, after first finishing every
+	// operator on the stack that has the same or higher precedence (all operators are left-associative).
+	private void pushBinaryOperator(Instruction parentInstruction, ExpressionStack stack, TokenStream tokens, String op) {
+		final int precedence = ParseUtil.getBinaryOperatorPrecedence(op);
+		while (!stack.operatorPrecedences.isEmpty() && stack.operatorPrecedences.peek() >= precedence) {
+			reduceBinaryOperator(parentInstruction, stack, tokens);
 		}
+		stack.pushOperator(op, precedence, ExpressionStack.NOT_IN_SOURCE);
+	}
+	
+	// Pop the top binary operator and its two operands, and replace them with the instruction that combines them
+	private void reduceBinaryOperator(Instruction parentInstruction, ExpressionStack stack, TokenStream tokens) {
 		
-		final String functionName = nameAndArgs[0];
-		final String argsString = nameAndArgs[1];
+		final String op = stack.operators.get(stack.operators.size() - 1);
+		stack.popOperator();
 		
-		// If this function is alone on a line, then make sure there are no characters after it
-		if (isAloneOnALine) {
-			ParseUtil.checkForExcessCharacters(text, argsString);
+		final String lastHalf = stack.operandText(tokens);
+		final int end = stack.operandEnds.peek();
+		final boolean isLastHalfSynthetic = stack.isSyntheticOperand();
+		final Instruction lastInstruction2 = stack.popOperand();
+		
+		final String firstHalf = stack.operandText(tokens);
+		final int start = stack.operandStarts.peek();
+		final boolean isFromSource = !stack.isSyntheticOperand() && !isLastHalfSynthetic;
+		final Instruction lastInstruction1 = stack.popOperand();
+		
+		if (lastInstruction1.returnType == null) {
+			printError("Expression returns nothing: '" + firstHalf + "'");
+		}
+		if (lastInstruction2.returnType == null) {
+			printError("Expression returns nothing: '" + lastHalf + "'");
 		}
 		
-		final String[] argStrings = ParseUtil.separateArguments(argsString);
+		final String debugString = firstHalf + " " + op + " " + lastHalf;
+		Instruction instr = createBinaryInstruction(parentInstruction, op, debugString, lastInstruction1, lastInstruction2);
+		instr.originalLineNumber = context.currentParsingLineNumber;
+		instructions.add(instr);
 		
-		// If this is the built-in print function
-		if (functionName.equals("print")) {
+		stack.pushOperand(instr, start, end, isFromSource ? null : debugString);
+	}
+	
+	// Apply every unary operator on top of the stack to the operand on top of the stack
+	private void reduceUnaryOperators(Instruction parentInstruction, ExpressionStack stack, TokenStream tokens) {
+		while (!stack.operatorPrecedences.isEmpty() && stack.operatorPrecedences.peek() == ExpressionStack.UNARY) {
+			
+			final char opChar = stack.operators.get(stack.operators.size() - 1).charAt(0);
+			final int start = stack.operatorStarts.peek();
+			stack.popOperator();
+			
+			final String content = stack.operandText(tokens);
+			final int end = stack.operandEnds.peek();
+			final boolean isFromSource = !stack.isSyntheticOperand() && start != ExpressionStack.NOT_IN_SOURCE;
+			final Instruction operand = stack.popOperand();
+			
+			Instruction instr = createUnaryInstruction(parentInstruction, opChar, content, operand);
+			instr.originalLineNumber = context.currentParsingLineNumber;
+			instructions.add(instr);
+			
+			stack.pushOperand(instr, start, end, isFromSource ? null : opChar + content);
+		}
+	}
+	
+	// Return the index just past the operand that starts at the given token.
+	// A name may be followed by an argument list or array index, like "f(a, b)" or "arr[i]".
+	private static int findOperandEnd(TokenStream tokens, int i, final int to) {
+		i++;
+		while (i < to && (tokens.kind(i) == TokenStream.OPEN_PAREN || tokens.kind(i) == TokenStream.OPEN_BRACKET)) {
+			int depth = 0;
+			do {
+				int kind = tokens.kind(i);
+				if (kind == TokenStream.OPEN_PAREN || kind == TokenStream.OPEN_BRACKET || kind == TokenStream.OPEN_BRACE) {
+					depth++;
+				} else if (kind == TokenStream.CLOSE_PAREN || kind == TokenStream.CLOSE_BRACKET || kind == TokenStream.CLOSE_BRACE) {
+					depth--;
+				}
+				i++;
+			} while (i < to && depth > 0);
+		}
+		return i;
+	}
+	
+	// Return the index of the bracket that closes the one at index 'open', or -1 if it isn't closed before 'to'
+	private static int findClosingBracket(TokenStream tokens, int open, final int to) {
+		int depth = 0;
+		for (int i = open; i < to; i++) {
+			final int kind = tokens.kind(i);
+			if (kind == TokenStream.OPEN_BRACKET) {
+				depth++;
+			} else if (kind == TokenStream.CLOSE_BRACKET) {
+				depth--;
+				if (depth == 0) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+	
+	// Print an error for an expression that can't be parsed
+	private static void printInvalidExpressionError(String text) {
+		if (text.contains("==")) {
+			printError("Invalid expression: '" + text + "'. Did you mean '='?");
+		} else {
+			printError("Invalid expression: '" + text + "'");
+		}
+	}
+	
+	// Return a new (not yet added) instruction for the given binary operator
+	private Instruction createBinaryInstruction(Instruction parentInstruction, String binaryOpStr,
+			String debugString, Instruction arg1, Instruction arg2) {
+		
+		if (binaryOpStr.equals("=")) {
+			return new EqualInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("!=")) {
+			return new NotEqualInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("@=")) {
+			return new RefEqualInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("!@=")) {
+			return new RefNotEqualInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("<")) {
+			return new LessInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals(">")) {
+			return new GreaterInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("<=")) {
+			return new LessEqualInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals(">=")) {
+			return new GreaterEqualInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("&")) {
+			return new BitAndInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("|")) {
+			return new BitOrInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("&&")) {
+			return new BoolAndInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("||")) {
+			return new BoolOrInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("+")) {
+			return new AddInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("-")) {
+			return new SubInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("*")) {
+			return new MultInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("/")) {
+			return new DivideInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("%")) {
+			return new ModuloInstr(parentInstruction, debugString, arg1, arg2);
+		} else if (binaryOpStr.equals("^")) {
+			return new PowerInstr(parentInstruction, debugString, arg1, arg2);
+		} else {
+			new Exception("Invalid binary operator: " + binaryOpStr).printStackTrace();
+			return null;
+		}
+	}
+	
+	// Return a new (not yet added) instruction for the given unary operator (!, ~, or #)
+	private Instruction createUnaryInstruction(Instruction parentInstruction, char opChar,
+			String content, Instruction operand) {
+		
+		if (opChar == '!') {
+			return new BoolNotInstr(parentInstruction, opChar + content, operand);
+		} else if (opChar == '~') {
+			return new BitNotInstr(parentInstruction, opChar + content, operand);
+		} else if (opChar == '#') {
 			
-			if (argStrings.length != 1) {
-				printError("print(args) expects one argument; Got " + argStrings.length + " arguments.");
+			if (!(operand instanceof IdentityInstr)) {
+				printError("# expected a reference to an array, but got " + operand.returnType);
 			}
 			
-			Instruction lastInstruction = parseExpression(parentInstruction, argStrings[0]);
+			// We have to get the pointer to an array before we can get the length of it
+			IdentityInstr pointerInstr = (IdentityInstr)operand;
 			
-			// First convert the argument to a string
-			ToStringInstr toStringInstr = new ToStringInstr(parentInstruction, argStrings[0], lastInstruction);
-			toStringInstr.originalLineNumber = currentParsingLineNumber;
-			instructions.add(toStringInstr);
+			boolean countAllElements = true;
+			return new ArrLengthInstr(parentInstruction, opChar + content, pointerInstr, null, countAllElements);
+		} else {
+			new Exception("Invalid unary operator: " + opChar).printStackTrace();
+			return null;
+		}
+	}
+	
+	// Start parsing a single operand, the tokens [from, to), that contains no operators at its top level:
+	// a literal, a variable, an array allocation or access, or a function call.
+	// Return null if the operand was parsed completely.  Otherwise return the operand, whose inner
+	// expressions (array dimensions, array indices, or function arguments) are to be parsed and added
+	// to it (see addOperandArgument), before finishing it (see finishOperand).
+	private PendingOperand startOperand(Instruction parentInstruction, TokenStream tokens, final int from, final int to) {
+		
+		// The whole of a single token, since it may be a literal or a name
+		final String text = (to - from == 1) ? tokens.text(from) : tokens.text(from, to, ExpressionStack.MAX_TEXT_LENGTH);
+		
+		// If this is a literal
+		if (to - from == 1 && parseLiteral(parentInstruction, text)) {
+			return null;
+		}
+		
+		if (isArrayDefinition(tokens, from, to)) {
 			
-			PrintInstr instr = new PrintInstr(parentInstruction, argStrings[0], toStringInstr);
-			instr.originalLineNumber = currentParsingLineNumber;
-			instructions.add(instr);
+			final int dimensionsEnd = findClosingBracket(tokens, from + 1, to);
+			if (dimensionsEnd == -1) {
+				printError("Missing end bracket in expression '" + text + "'");
+			}
+			IntStack dimensionBounds = separateArguments(tokens, from + 2, dimensionsEnd);
+			return new PendingOperand(PendingOperand.ARRAY_DEFINITION, from, to, dimensionBounds);
+		
+		} else if (isArrayElementAccess(tokens, from, to)) {
 			
-		} else { // Some user-defined function
+			final int indicesEnd = findClosingBracket(tokens, from + 1, to);
+			if (indicesEnd == -1) {
+				printError("Missing end bracket in expression '" + text + "'");
+			}
+			String arrName = tokens.text(from);
+			IntStack indexBounds = separateArguments(tokens, from + 2, indicesEnd);
+			final int indexCount = indexBounds.size() - 1;
+			
+			AllocVarInstr instrThatDeclaredVar = findInstructionThatDeclaredVariable(parentInstruction, arrName);
+			if (instrThatDeclaredVar == null) {
+				printError("Unknown array '" + arrName + "'");
+			}
+			
+			final String varName = instrThatDeclaredVar.varName;
+			final Type varType = instrThatDeclaredVar.varType;
+			
+			// Make sure the number of dimensions accessed matches the dimension of the array
+			if (varType.dimensions != indexCount) {
+				String plural = " index.";
+				if (indexCount != 1) {
+					plural = " indices.";
+				}
+				printError("'" + varName + "' is " + varType.dimensions + "-dimensional, but was accessed with " +
+							indexCount + plural);
+			}
+			
+			// Find the all previous instructions that assigned this variable, and reference them
+			boolean foundLastWriteInstruction = wasAssignmentGuaranteed(parentInstruction, varName);
+			if (!foundLastWriteInstruction) {
+				printError("Array '" + varName + "' was never initialized");
+			}
+			
+			PendingOperand operand = new PendingOperand(PendingOperand.ARRAY_ELEMENT, from, to, indexBounds);
+			operand.arrayDeclaration = instrThatDeclaredVar;
+			return operand;
 		
-			// Recursively parse each function argument
-			Instruction[] args = new Instruction[argStrings.length];
-			Type[] argTypes = new Type[args.length];
-			for (int i = 0; i < argStrings.length; i++) {
-				Instruction lastInstruction = parseExpression(parentInstruction, argStrings[i]);
-				args[i] = lastInstruction;
-				argTypes[i] = lastInstruction.returnType;
+		} else if (from + 1 < to && tokens.kind(from + 1) == TokenStream.OPEN_PAREN &&
+				!tokens.hasSpaceBefore(from + 1)) { // Function call
+			
+			return startFunctionCall(tokens, from, to, false);
+		
+		} else if (to - from > 1 || text.contains(" ")) { // This must be garbage
+			
+			printInvalidExpressionError(text);
+			return null;
+		
+		} else { // This must be a variable, or garbage
+			
+			// Check if this is a recognized variable
+			AllocVarInstr instrThatDeclaredVar = findInstructionThatDeclaredVariable(parentInstruction, text);
+			if (instrThatDeclaredVar == null) {
+				printError("Undeclared variable '" + text + "'");
+			}
+			
+			final String varName = instrThatDeclaredVar.varName;
+			final Type varType = instrThatDeclaredVar.varType;
+			
+			// If it is an array
+			if (varType.isArray) {
+				IdentityInstr instr = new IdentityInstr(parentInstruction, text, instrThatDeclaredVar);
+				instr.originalLineNumber = context.currentParsingLineNumber;
+				instructions.add(instr);
+			
+			} else { // If this is a primitive type
 				
-				if (lastInstruction.returnType == null) {
-					printError("Function argument must return a value");
+				// Find the all previous instructions that assigned this variable, and reference them
+				boolean wasInitialized = wasAssignmentGuaranteed(parentInstruction, varName);
+				if (!wasInitialized) {
+					printError("Variable '" + varName + "' was never initialized");
 				}
 				
-				if (lastInstruction.returnType == null) {
-					printError("Cannot pass void into function");
-				}
+				LoadInstr instr = new LoadInstr(parentInstruction, text, instrThatDeclaredVar);
+				instr.originalLineNumber = context.currentParsingLineNumber;
+				instructions.add(instr);
 			}
+			return null;
+		}
+	}
+	
+	// Add the last instruction of the next inner expression of the given operand to it
+	private static void addOperandArgument(PendingOperand operand, Instruction lastInstruction) {
+		
+		if (operand.kind == PendingOperand.ARRAY_DEFINITION || operand.kind == PendingOperand.ARRAY_ELEMENT) {
+			if (!lastInstruction.returnType.isA(BaseType.Int)) {
+				printError("Array dimension must be of type " + Type.Int);
+			}
+		
+		} else if (operand.kind == PendingOperand.FUNCTION_CALL) {
+			if (lastInstruction.returnType == null) {
+				printError("Function argument must return a value");
+			}
+		}
+		
+		operand.args[operand.argCount] = lastInstruction;
+		operand.argCount++;
+	}
+	
+	// Add the instructions of the given operand, once all of its inner expressions have been added to it
+	private void finishOperand(Instruction parentInstruction, TokenStream tokens, PendingOperand operand) {
+		
+		final String text = tokens.text(operand.from, operand.to, ExpressionStack.MAX_TEXT_LENGTH);
+		final Instruction[] args = operand.args;
+		
+		if (operand.kind == PendingOperand.ARRAY_DEFINITION) {
 			
-			Function func = findFunctionByNameAndArgs(functionName, argTypes);
+			Type arrayElementType = Type.fromString(tokens.text(operand.from));
+			AllocArrInstr instr = new AllocArrInstr(parentInstruction, text, arrayElementType, args);
+			instr.originalLineNumber = context.currentParsingLineNumber;
+			instructions.add(instr);
+		
+		} else if (operand.kind == PendingOperand.ARRAY_ELEMENT) {
+			
+			// Get the address of the element
+			GetElementInstr getElementInstr = new GetElementInstr(parentInstruction, text, operand.arrayDeclaration, args);
+			getElementInstr.originalLineNumber = context.currentParsingLineNumber;
+			instructions.add(getElementInstr);
+			
+			// Read from the element itself
+			LoadInstr loadInstr = new LoadInstr(parentInstruction, text, getElementInstr);
+			loadInstr.originalLineNumber = context.currentParsingLineNumber;
+			instructions.add(loadInstr);
+		
+		} else if (operand.kind == PendingOperand.PRINT_CALL) {
+			
+			final IntStack argBounds = operand.argBounds;
+			final String argString = tokens.text(argBounds.get(0) + 1, argBounds.get(1), ExpressionStack.MAX_TEXT_LENGTH).trim();
+			
+			// First convert the argument to a string
+			ToStringInstr toStringInstr = new ToStringInstr(parentInstruction, argString, args[0]);
+			toStringInstr.originalLineNumber = context.currentParsingLineNumber;
+			instructions.add(toStringInstr);
+			
+			PrintInstr instr = new PrintInstr(parentInstruction, argString, toStringInstr);
+			instr.originalLineNumber = context.currentParsingLineNumber;
+			instructions.add(instr);
+		
+		} else { // Some user-defined function
+			
+			Type[] argTypes = new Type[args.length];
+			for (int i = 0; i < args.length; i++) {
+				argTypes[i] = args[i].returnType;
+			}
+			
+			Function func = findFunctionByNameAndArgs(tokens.text(operand.from), argTypes);
 			
 			// Create the function Call instruction
 			FunctionCallInstr callInstr = new FunctionCallInstr(parentInstruction, text, func, args);
-			callInstr.originalLineNumber = currentParsingLineNumber;
+			callInstr.originalLineNumber = context.currentParsingLineNumber;
 			instructions.add(callInstr);
 		}
 	}
 	
+	// If the given text is a literal value, add the instruction that gives it and return true.
+	// Otherwise return false.
+	private boolean parseLiteral(Instruction parentInstruction, String text) {
+		
+		GivenInstr instr;
+		if (ParseUtil.isSignedInteger(text)) {
+			instr = new GivenInstr(parentInstruction, text, ParseUtil.parseInt(text), Type.Int);
+		} else if (ParseUtil.isSignedLong(text)) {
+			instr = new GivenInstr(parentInstruction, text, ParseUtil.parseLong(text), Type.Long);
+		} else if (ParseUtil.isDouble(text)) {
+			instr = new GivenInstr(parentInstruction, text, ParseUtil.parseDouble(text), Type.Double);
+		} else if (ParseUtil.isFloat(text)) {
+			instr = new GivenInstr(parentInstruction, text, ParseUtil.parseFloat(text), Type.Float);
+		} else if (ParseUtil.isBool(text)) {
+			instr = new GivenInstr(parentInstruction, text, ParseUtil.parseBool(text), Type.Bool);
+		} else if (ParseUtil.isString(text)) {
+			instr = new GivenInstr(parentInstruction, text, text, Type.String);
+		} else {
+			return false;
+		}
+		
+		instr.originalLineNumber = context.currentParsingLineNumber;
+		instructions.add(instr);
+		return true;
+	}
+	
+	// Return true if the tokens [from, to) allocate an array, like "int[5]"
+	private static boolean isArrayDefinition(TokenStream tokens, final int from, final int to) {
+		if (from + 1 >= to || tokens.kind(from + 1) != TokenStream.OPEN_BRACKET || tokens.hasSpaceBefore(from + 1)) {
+			return false;
+		}
+		for (int i = 0; i < ParseUtil.dataTypes.length; i++) {
+			if (tokens.isWord(from, ParseUtil.dataTypes[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// Return true if the tokens [from, to) are (probably) an array element access, like "arr[i]"
+	private static boolean isArrayElementAccess(TokenStream tokens, final int from, final int to) {
+		return from + 1 < to && tokens.kind(from + 1) == TokenStream.OPEN_BRACKET && !tokens.hasSpaceBefore(from + 1);
+	}
+	
+	// Parse the calling of a function.
+	// The tokens [from, to) should look like "myFunction(arg1, arg2, arg3)"
+	private void parseFunctionCall(Instruction parentInstruction, TokenStream tokens,
+			final int from, final int to, final boolean isAloneOnALine) {
+		
+		final PendingOperand call = startFunctionCall(tokens, from, to, isAloneOnALine);
+		while (call.hasMoreArguments()) {
+			addOperandArgument(call, parseExpression(parentInstruction, tokens, call.nextArgumentFrom(), call.nextArgumentTo()));
+		}
+		finishOperand(parentInstruction, tokens, call);
+	}
+	
+	// Start parsing the calling of a function, the tokens [from, to).
+	// Return the call, with its arguments still to be parsed (see startOperand).
+	private static PendingOperand startFunctionCall(TokenStream tokens, final int from, final int to, final boolean isAloneOnALine) {
+		
+		final String functionName = tokens.text(from);
+		final int argsEnd = findClosingParenthesis(tokens, from, from + 1, to);
+		
+		// If this function is alone on a line, then make sure there are no tokens after it
+		if (isAloneOnALine) {
+			checkForExcessTokens(tokens, from, argsEnd + 1, to);
+		}
+		
+		final IntStack argBounds = separateArguments(tokens, from + 2, argsEnd);
+		final int argCount = argBounds.size() - 1;
+		
+		// If this is the built-in print function
+		if (functionName.equals("print")) {
+			
+			if (argCount != 1) {
+				printError("print(args) expects one argument; Got " + argCount + " arguments.");
+			}
+			return new PendingOperand(PendingOperand.PRINT_CALL, from, to, argBounds);
+		}
+		
+		return new PendingOperand(PendingOperand.FUNCTION_CALL, from, to, argBounds);
+	}
+	
 	// Return the return data type for the given instruction type and operands
 	public static Type getReturnTypeFromInstructionAndOperands(Instruction instr, Type op1, Type op2) {
 		
+		if (op1 == null) {
+			return findReturnTypeFromInstructionAndOperands(instr, op1, op2);
+		}
+		
+		// Each combination of instruction and operand types only has to be checked once
+		Type returnType = TypeTable.getResultType(instr.getClass(), op1, op2);
+		if (returnType == null) {
+			returnType = findReturnTypeFromInstructionAndOperands(instr, op1, op2);
+			if (returnType != null) {
+				TypeTable.setResultType(instr.getClass(), op1, op2, returnType);
+			}
+		}
+		return returnType;
+	}
+	
+	// Work out the return type of the given instruction from the types of its operands,
+	// or print an error if the instruction can't be performed on those types.
+	private static Type findReturnTypeFromInstructionAndOperands(Instruction instr, Type op1, Type op2) {
+		
 		// TODO need to change all these tests to the .isA(baseType) function.
 		
 		if (instr instanceof AddInstr ||
@@ -1593,7 +2516,7 @@ public class CompilePass {
 	}
 	
 	// Return true if the given function was previously declared in the given scope
-	private static boolean findConflictingFunction(Instruction parentInstr, Function function) {
+	private boolean findConflictingFunction(Instruction parentInstr, Function function) {
 		
 		// Iterate backward to find a function
 		for (int i = instructions.size()-1; i >= 0; i--) {
@@ -1644,57 +2567,62 @@ public class CompilePass {
 	}
 	
 	// Return the instruction that declared the routine of the given name and argument types
-	private static Function findFunctionByNameAndArgs(String functionName, Type[] argTypes) {
+	private Function findFunctionByNameAndArgs(String functionName, Type[] argTypes) {
+		
+		// If a call with these argument types was already resolved
+		Function previousMatchingFunction = functionIndex.getResolvedCall(functionName, argTypes);
+		if (previousMatchingFunction != null) {
+			return previousMatchingFunction;
+		}
 		
 		Function bestMatchingFunction = null;
 		int minimumImplicitCasts = Integer.MAX_VALUE;
 		
 		// For error printing only
-		Function nameOnlyMatchingFunction = null;
+		Function nameOnlyMatchingFunction = functionIndex.getLastFunctionNamed(functionName);
+		
+		// Only functions with the same name and number of arguments can match
+		ArrayList<Function> candidates = functionIndex.getCandidates(functionName, argTypes.length);
 		
-		// Iterate backward to find a routine
 		outerLoop:
-		for (int i = 0; i < functions.size(); i++) {
-			Function otherFunction = functions.get(i);
+		for (int i = 0; i < candidates.size(); i++) {
+			Function otherFunction = candidates.get(i);
 			
-			// If they have matching names
-			if (otherFunction.name.equals(functionName)) {
-				
-				nameOnlyMatchingFunction = otherFunction;
+			// If they have matching parameters
+			Type[] otherArgTypes = otherFunction.argTypes;
+			
+			// Make sure each of the arguments can be cast to the others
+			int implicitCastCount = 0;
+			for (int j = 0; j < argTypes.length; j++) {
+				if (argTypes[j].equals(otherArgTypes[j])) {
+					// Good exact match
+				} else if (argTypes[j].canImplicitlyCastTo(otherArgTypes[j])) {
+					implicitCastCount++; // Match, but requiring cast
+				} else {
+					// Doesn't match this function.
+					continue outerLoop; // continue searching for another routine
+				}
+			}
+			
+			// If we found a better matching function
+			if (implicitCastCount < minimumImplicitCasts) {
 				
-				// If they have matching parameters
-				Type[] otherArgTypes = otherFunction.argTypes;
+				bestMatchingFunction = otherFunction;
+				minimumImplicitCasts = implicitCastCount;
 				
-				// Make sure each of the arguments can be cast to the others
-				if (otherArgTypes.length == argTypes.length) {
-					int implicitCastCount = 0;
-					for (int j = 0; j < argTypes.length; j++) {
-						if (argTypes[j].equals(otherArgTypes[j])) {
-							// Good exact match
-						} else if (argTypes[j].canImplicitlyCastTo(otherArgTypes[j])) {
-							implicitCastCount++; // Match, but requiring cast
-						} else {
-							// Doesn't match this function.
-							continue outerLoop; // continue searching for another routine
-						}
-					}
-					
-					// If we found a better matching function
-					if (implicitCastCount < minimumImplicitCasts) {
-						
-						bestMatchingFunction = otherFunction;
-						minimumImplicitCasts = implicitCastCount;
-						
-						// If we found another function that has the same name and same implicit casting,
-						// then can't tell which function to call (ambiguous case).
-					} else if (implicitCastCount == minimumImplicitCasts) {
-						printError("Function '" + functionName +
-								"' cannot be differentiated from function '" + otherFunction.name + "'");
-					}
-				}
+				// If we found another function that has the same name and same implicit casting,
+				// then can't tell which function to call (ambiguous case).
+			} else if (implicitCastCount == minimumImplicitCasts) {
+				printError("Function '" + functionName +
+						"' cannot be differentiated from function '" + otherFunction.name + "'");
 			}
 		}
-
+		
+		// Remember this result for later calls with the same argument types
+		if (bestMatchingFunction != null) {
+			functionIndex.setResolvedCall(functionName, argTypes, bestMatchingFunction);
+		}
+		
 		// If we found an implicit match, then that is good enough
 		if (bestMatchingFunction != null) {
 			return bestMatchingFunction;
@@ -1731,40 +2659,18 @@ public class CompilePass {
 	
 	// Return the instruction that declared a variable by the given name
 	// if it was previously used in the given scope.
-	private static AllocVarInstr findInstructionThatDeclaredVariable(Instruction parentInstr, String varName) {
+	private AllocVarInstr findInstructionThatDeclaredVariable(Instruction parentInstr, String varName) {
 		
-		// Iterate backward to find the assignment of this variable
-		for (int i = instructions.size() - 1; i >= 0; i--) {
-			Instruction instr = instructions.get(i);
-			
-			if (instr instanceof AllocVarInstr) {
-				AllocVarInstr declareInstr = (AllocVarInstr)instr;
-				
-				// If this instruction used the given variable
-				if (declareInstr.varName.equals(varName)) {
-					
-					Instruction otherParent = declareInstr.parentInstruction; // May be null
-					
-					// If this instruction is a child of an instruction that is a ancestor of the
-					//	given instruction, then it must be true that that instruction executed if the
-					//	given instruction executed, so we can stop searching.
-					Instruction nextParent = parentInstr;
-					while (nextParent != otherParent && nextParent != null) {
-						nextParent = nextParent.parentInstruction;
-					}
-					if (nextParent == otherParent) {
-						return declareInstr;
-					}
-				}
-			}
-		}
-		return null;
+		// Declare any variables from instructions that were added since the last search
+		symbolTable.update(instructions);
+		
+		return symbolTable.find(parentInstr, varName);
 	}
 	
 	// Add references to all instructions that may have assigned to the given variable
 	//	until we find an instruction that is guaranteed to have assigned the given variable.
 	// Return true if a guaranteed assignment was found.
-	private static boolean wasAssignmentGuaranteed(Instruction parentInstruction, String varName) {
+	private boolean wasAssignmentGuaranteed(Instruction parentInstruction, String varName) {
 		
 		// Iterate backward to find the assignment of this variable
 		for (int i = instructions.size()-1; i >= 0; i--) {
@@ -1817,7 +2723,7 @@ public class CompilePass {
 	
 	// Return true if an assignment of the given variable was guaranteed between the given
 	//	 start and stop instruction index within the enclosing scope of parentInstruction
-	private static boolean wasAssignmentGuaranteedHelper(int startIndex, int stopIndex,
+	private boolean wasAssignmentGuaranteedHelper(int startIndex, int stopIndex,
 				String varName, Instruction parentInstruction) {
 		
 		StoreInstr storeInstr = null;
@@ -1866,7 +2772,7 @@ public class CompilePass {
 					if (currentInstr == currentParent) {
 						break;
 					}
-
+					
 					LoopInstr loopStartInstr = null;
 					if (currentInstr instanceof BreakInstr) {
 						loopStartInstr = ((BreakInstr)currentInstr).loopStartInstr;
@@ -1919,8 +2825,8 @@ public class CompilePass {
 					if (currentIf instanceof IfInstr) {
 						endChainInstruction = ((IfInstr)currentIf).endOfBlockInstr;
 					}
-					int startInstructionIndex = instructions.indexOf(currentIf) + 1;
-					int endChainInstructionIndex = instructions.indexOf(endChainInstruction);
+					int startInstructionIndex = getIndexOfInstruction(currentIf) + 1;
+					int endChainInstructionIndex = getIndexOfInstruction(endChainInstruction);
 					
 					// Recursively check for guaranteed assignment.
 					// If any one was not guaranteed, then return false
@@ -1937,36 +2843,32 @@ public class CompilePass {
 			}
 			
 			// We are still safe, so check the next parent now
-			currentInstructionIndex = instructions.indexOf(currentParent);
+			currentInstructionIndex = getIndexOfInstruction(currentParent);
 			currentParent = currentParent.parentInstruction;
 		} 
 		
 		return true;
 	}
 	
-	// Return the previous instruction that opened the scope of the given instruction
-	private static Instruction findParentInstruction(int instructionIndex) {
-		
-		int currentScopeDepth = 1;
-		
-		for (int i = instructionIndex; i >= 0; i--) {
-			
-			Instruction instr = instructions.get(i);
-			if (instr.doesStartScope()) {
-				currentScopeDepth--;
-			}
-			
-			if (currentScopeDepth == 0) {
-				return instr;
-			}
-			
-			// It is possible for an instruction to both increase and decrease scope (such as ElseIf)
-			if (instr.doesEndScope()) {
-				currentScopeDepth++;
-			}
+	// Return the position of the given instruction in the list of instructions, or -1 if it isn't in the list.
+	// While a program is being parsed, each instruction's id is its position, so this doesn't have to search.
+	private int getIndexOfInstruction(Instruction instr) {
+		if (instr == null) {
+			return -1;
 		}
+		if (instr.id >= 0 && instr.id < instructions.size() && instructions.get(instr.id) == instr) {
+			return instr.id;
+		}
+		return instructions.indexOf(instr);
+	}
+	
+	// Return the instruction that opened the innermost scope that is still open
+	private Instruction findParentInstruction() {
 		
-		return null;
+		// Open and close scopes for any instructions that were added since the last line
+		scopeStack.update(instructions);
+		
+		return scopeStack.getInnermostScope();
 	}
 	
 	// Return the closest ancestor instruction of the given type, or null if none is found
@@ -1981,56 +2883,63 @@ public class CompilePass {
 	}
 	
 	// Find every function declaration in the program, and add it to the list, 'functions'
-	private static void findAllDeclaredFunctions() {
+	private void findAllDeclaredFunctions() {
 		
 		// Add the main function manually
 		Function mainFunction = new Function("main", null, new Type[] {}, new String[] {});
 		functions.add(mainFunction);
+		functionIndex.add(mainFunction);
 		
 		// Iterate over every line in the program
-		for (int i = 0; i < lines.length; i++) {
-			currentParsingLineNumber = i;
-			final String line = lines[i];
+		final TokenStream tokens = context.tokens;
+		for (int i = 0; i < tokens.lineCount(); i++) {
+			context.currentParsingLineNumber = i;
+			final int from = tokens.firstTokenOfLine(i);
+			final int to = tokens.endTokenOfLine(i);
 			
 			// Check if this is a function declaration,
-			// and get the starting index of the function's name.
-			final int nameStartIndex = ParseUtil.findFunctionDeclarationNameStartIndex(line);
-			if (nameStartIndex != -1) {
-				TypeAndEnd typeData = ParseUtil.getFirstDataType(line);
+			// and get the index of the function's name.
+			final int nameIndex = findFunctionDeclarationName(tokens, from, to);
+			if (nameIndex != -1) {
+				TypeAndEnd typeData = findFirstDataType(tokens, from, to);
 				
-				String[] nameAndArgs = ParseUtil.getFunctionNameAndArgs(line);
-				final String functionName = nameAndArgs[0];
-				final String argsString = nameAndArgs[1];
+				final String functionName = tokens.text(nameIndex);
+				final int argsEnd = findClosingParenthesis(tokens, from, nameIndex + 1, to);
 				
 				if (typeData == null) {
-					String typeString = line.substring(0, nameStartIndex - 1).trim();
+					String typeString = tokens.text(from, nameIndex).trim();
 					printError("Invalid type '" + typeString + "' function declaration");
 				}
 				
 				// Check for extraneous character after the end of the function declaration
-				ParseUtil.checkForExcessCharacters(line, argsString);
+				checkForExcessTokens(tokens, from, argsEnd + 1, to);
 				
 				Type returnType = typeData.type;
 				
-				String[] argStrings = ParseUtil.separateArguments(argsString);
-				Type[] argTypes = new Type[argStrings.length];
-				String[] argNames = new String[argStrings.length];
+				IntStack argBounds = separateArguments(tokens, nameIndex + 2, argsEnd);
+				Type[] argTypes = new Type[argBounds.size() - 1];
+				String[] argNames = new String[argTypes.length];
 				for (int j = 0; j < argTypes.length; j++) {
-					int firstSpaceIndex = argStrings[j].indexOf(' ');
-					if (firstSpaceIndex == -1) {
+					final int argFrom = argBounds.get(j) + 1;
+					final int argTo = argBounds.get(j + 1);
+					
+					// The type is everything up to the first space
+					int nameStart = argFrom + 1;
+					while (nameStart < argTo && !tokens.isSeparatedFromPrevious(nameStart)) {
+						nameStart++;
+					}
+					if (argFrom == argTo || nameStart >= argTo) {
 						printError("Missing argument name or type in function declaration");
 					}
 					
-					String typeString = argStrings[j].substring(0, firstSpaceIndex);
-					argTypes[j] = new Type(typeString);
-					
-					String argName = argStrings[j].substring(firstSpaceIndex + 1).trim();
-					argNames[j] = argName;
+					argTypes[j] = Type.fromString(tokens.text(argFrom, nameStart));
+					argNames[j] = tokens.text(nameStart, argTo).trim();
 				}
 				
 				// TODO add multiple returns
 				Function function = new Function(functionName, returnType, argTypes, argNames);
 				functions.add(function);
+				functionIndex.add(function);
 			}
 		}
 	}
@@ -2041,3 +2950,137 @@ public class CompilePass {
 		}
 	}
 }
+
+// The operand and operator stacks used while parsing one expression.
+// An operand's text is normally the text of its [start, end) range of tokens,
+// but operands that don't appear in the source (like the -1 of a negative sign) carry their own text.
+class ExpressionStack {
+	
+	// Operator precedences that aren't binary operators
+	static final int OPEN_GROUP = -1;
+	static final int UNARY = -2;
+	
+	// The start of an operator that isn't at the start of a token
+	static final int NOT_IN_SOURCE = -1;
+	
+	// The most characters of an operand's text to use in the debug strings of the instructions made from it.
+	// Otherwise every instruction of a long chain like "1 + 1 + ... + 1" would hold the text of all
+	// the operands before it, and parsing the chain would take time and memory quadratic in its length.
+	static final int MAX_TEXT_LENGTH = 500;
+	
+	final ArrayList<Instruction> operands = new ArrayList<Instruction>();
+	final ArrayList<String> operandTexts = new ArrayList<String>();
+	final IntStack operandStarts = new IntStack();
+	final IntStack operandEnds = new IntStack();
+	
+	final ArrayList<String> operators = new ArrayList<String>();
+	final IntStack operatorPrecedences = new IntStack();
+	final IntStack operatorStarts = new IntStack();
+	
+	void pushOperand(Instruction instr, int start, int end, String text) {
+		operands.add(instr);
+		operandTexts.add(shorten(text));
+		operandStarts.push(start);
+		operandEnds.push(end);
+	}
+	
+	Instruction popOperand() {
+		operandTexts.remove(operandTexts.size() - 1);
+		operandStarts.pop();
+		operandEnds.pop();
+		return operands.remove(operands.size() - 1);
+	}
+	
+	// Return the text of the operand on top of the stack
+	String operandText(TokenStream tokens) {
+		String text = operandTexts.get(operandTexts.size() - 1);
+		if (text != null) {
+			return text;
+		}
+		return tokens.text(operandStarts.peek(), operandEnds.peek(), MAX_TEXT_LENGTH);
+	}
+	
+	void setOperandText(String text) {
+		operandTexts.set(operandTexts.size() - 1, shorten(text));
+	}
+	
+	// Return the given text, or its first MAX_TEXT_LENGTH characters followed by "..." if it is longer
+	static String shorten(String text) {
+		if (text == null || text.length() <= MAX_TEXT_LENGTH) {
+			return text;
+		}
+		return text.substring(0, MAX_TEXT_LENGTH) + "...";
+	}
+	
+	// Return true if the operand on top of the stack doesn't come directly from the source
+	boolean isSyntheticOperand() {
+		return operandTexts.get(operandTexts.size() - 1) != null;
+	}
+	
+	void pushOperator(String op, int precedence, int start) {
+		operators.add(op);
+		operatorPrecedences.push(precedence);
+		operatorStarts.push(start);
+	}
+	
+	void popOperator() {
+		operators.remove(operators.size() - 1);
+		operatorPrecedences.pop();
+		operatorStarts.pop();
+	}
+}
+
+// An operand with inner expressions: the dimensions of an array allocation, the indices of
+// an array access, or the arguments of a function call.
+// Each inner expression is parsed on the same explicit stack as the expression around the operand
+// (see CompilePass.parseExpression), which waits here until the operand is finished.
+class PendingOperand {
+	
+	static final int ARRAY_DEFINITION = 0;
+	static final int ARRAY_ELEMENT = 1;
+	static final int PRINT_CALL = 2;
+	static final int FUNCTION_CALL = 3;
+	
+	final int kind;
+	
+	// The tokens [from, to) of the whole operand
+	final int from;
+	final int to;
+	
+	// The separators around the inner expressions: the i-th one is between argBounds[i] and argBounds[i + 1]
+	final IntStack argBounds;
+	
+	// The last instruction of each inner expression parsed so far
+	final Instruction[] args;
+	int argCount = 0;
+	
+	// The declaration of the array that is accessed, for an array access
+	AllocVarInstr arrayDeclaration;
+	
+	// The expression around the operand, and where it was in the tokens
+	ExpressionStack outerStack;
+	int outerFrom;
+	int outerTo;
+	int outerSkippedChars;
+	
+	PendingOperand(int kind, int from, int to, IntStack argBounds) {
+		this.kind = kind;
+		this.from = from;
+		this.to = to;
+		this.argBounds = argBounds;
+		this.args = new Instruction[argBounds.size() - 1];
+	}
+	
+	boolean hasMoreArguments() {
+		return argCount < args.length;
+	}
+	
+	// Return the tokens [nextArgumentFrom, nextArgumentTo) of the next inner expression to parse
+	int nextArgumentFrom() {
+		return argBounds.get(argCount) + 1;
+	}
+	
+	int nextArgumentTo() {
+		return argBounds.get(argCount + 1);
+	}
+}
@@ -0,0 +1,176 @@
+package parsing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import instructions.Instruction;
+
+// This class is a compile server that stays running, so that each compile doesn't have to
+// pay for starting and warming up a new JVM.  It listens on a port on the loopback address.
+//
+// Each connection is one request.  The client sends the path of a source file on one line.
+// Only ".the" files inside the server's root directory are compiled (any other path fails the same way,
+// so a client can't use the server to read other files, or even to find out whether they exist).
+// The server compiles it and replies with a status line, then the output, then closes the connection:
+//   OK <milliseconds>			followed by the final instructions, one per line
+//   FAILED <milliseconds>		followed by the error message, the line of code, and the line number
+// CompileClient is a command line client for this server.
+// Functions that haven't changed since an earlier request are not parsed again (see FunctionBodyCache),
+// so recompiling a file after a small edit only parses the functions that changed.
+// If the server has a cache on disk (see IRCache), a file that was compiled before isn't compiled at all,
+// and its stored instructions are sent as they are.
+
+public class CompileServer {
+
+	public static final int DEFAULT_PORT = 7878;
+	
+	// The function bodies parsed by every request so far
+	private static final FunctionBodyCache bodyCache = new FunctionBodyCache();
+
+	// Start the server on the given port, and handle requests until the process is stopped.
+	// Only source files inside the given root directory may be compiled.
+	// The cache on disk may be null.
+	public static void run(int port, Path rootDirectory, final IRCache irCache) throws IOException {
+
+		final Path root = rootDirectory.toRealPath();
+		final ExecutorService executor = createRequestExecutor();
+
+		try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			print("Compile server listening on " + serverSocket.getLocalSocketAddress() + ", for files in " + root);
+
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				executor.execute(() -> handleRequest(socket, root, irCache));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	// Handle each request on its own virtual thread if this JVM has them (Java 21 and newer),
+	// otherwise on a pool of ordinary threads.
+	private static ExecutorService createRequestExecutor() {
+		try {
+			Method newVirtualThreadExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)newVirtualThreadExecutor.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	// Return the real path of the requested source file, or null if it isn't a ".the" file inside the root directory
+	private static Path findSourceFile(Path root, String requestedPath) {
+		try {
+			Path path = root.resolve(requestedPath).normalize();
+			if (!path.startsWith(root) || !path.getFileName().toString().endsWith(".the") || !Files.isRegularFile(path)) {
+				return null;
+			}
+
+			// A link inside the root may still point outside of it
+			path = path.toRealPath();
+			if (!path.startsWith(root)) {
+				return null;
+			}
+			return path;
+		} catch (InvalidPathException | IOException e) {
+			return null;
+		}
+	}
+
+	// Read the path of a source file from the socket, compile it, and write back the result
+	private static void handleRequest(Socket socket, Path root, IRCache irCache) {
+		try (Socket s = socket) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+			Writer writer = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+
+			final String path = reader.readLine();
+			if (path == null) {
+				return; // The client went away without asking for anything
+			}
+
+			final long startTime = System.nanoTime();
+			String status;
+			String output = null;
+			InputStream cachedOutput = null;
+
+			final Path sourceFile = findSourceFile(root, path.trim());
+			String text = (sourceFile != null) ? Main.loadFile(sourceFile.toString()) : null;
+			if (text == null) {
+				status = "FAILED";
+				output = "Cannot read file '" + path.trim() + "' (only .the files in " + root + " can be compiled)\n";
+			} else {
+				final String cacheKey = (irCache != null) ? IRCache.getKey(text, Compiler.getOutputOptions()) : null;
+				if (cacheKey != null) {
+					cachedOutput = irCache.open(cacheKey);
+				}
+				
+				if (cachedOutput != null) {
+					status = "OK";
+				} else {
+					try {
+						ArrayList<Instruction> instructions = new Compiler(null, bodyCache).compile(text);
+						status = "OK";
+						output = Main.instructionsToText(instructions);
+						if (irCache != null) {
+							irCache.put(cacheKey, output);
+						}
+
+					} catch (CompileException e) {
+						status = "FAILED";
+						output = e.diagnostic + "\n";
+					} catch (RuntimeException e) { // A bug in the compiler shouldn't stop the server
+						status = "FAILED";
+						output = "Compiler crashed: " + e + "\n";
+					} catch (StackOverflowError e) { // Nor should a program too deeply nested to compile
+						status = "FAILED";
+						output = "Program is nested too deeply to compile\n";
+					}
+				}
+			}
+
+			final double elapsedMillis = (System.nanoTime() - startTime) / 1e6;
+			print(String.format("%9.3f ms  %-6s  %s", elapsedMillis, status, path.trim()) + (cachedOutput != null ? "  (cached)" : ""));
+
+			writer.write(String.format("%s %.3f\n", status, elapsedMillis));
+			if (cachedOutput != null) {
+				// Send the stored instructions straight from the file
+				writer.flush();
+				try (InputStream in = cachedOutput) {
+					OutputStream out = s.getOutputStream();
+					byte[] buffer = new byte[8192];
+					int count;
+					while ((count = in.read(buffer)) != -1) {
+						out.write(buffer, 0, count);
+					}
+					out.flush();
+				}
+			} else {
+				writer.write(output);
+				writer.flush();
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
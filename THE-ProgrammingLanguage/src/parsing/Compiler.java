@@ -0,0 +1,200 @@
+package parsing;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import instructions.Instruction;
+import passes.BoundsCheckEliminationPass;
+import passes.ConditionalConstantPropagationPass;
+import passes.ConstantFoldingPass;
+import passes.DeleteUnusedInstructionsPass;
+import passes.GlobalValueNumberingPass;
+import passes.InliningPass;
+import passes.LoopInvariantCodeMotionPass;
+import passes.SSAConstructionPass;
+import passes.StrengthReductionPass;
+
+// This class runs the compilation passes on one program.
+// All of the state of a compilation belongs to its Compiler (and its CompilationContext),
+// so different Compilers can run at the same time on different threads.
+
+public class Compiler {
+
+	private final CompilationContext context = new CompilationContext();
+	
+	// The pool to parse function bodies on at the same time, or null to parse in order
+	private final ForkJoinPool functionPool;
+	
+	// The function bodies parsed by earlier compiles, or null to parse every function
+	private final FunctionBodyCache bodyCache;
+	
+	// The largest cost of a function to inline outside of loops, or 0 to inline nothing (see InliningPass)
+	private int inlineBudget = InliningPass.DEFAULT_BUDGET;
+	
+	// Create a compiler that parses every line of a program in order
+	public Compiler() {
+		this(null);
+	}
+	
+	// Create a compiler that parses the bodies of a program's top-level functions at the same time on the given pool
+	public Compiler(ForkJoinPool functionPool) {
+		this(functionPool, null);
+	}
+	
+	// Create a compiler that reuses the instructions of every top-level function in the given cache
+	// that hasn't changed, and adds the functions it parses to the cache.
+	// Either the pool or the cache may be null.
+	public Compiler(ForkJoinPool functionPool, FunctionBodyCache bodyCache) {
+		this.functionPool = functionPool;
+		this.bodyCache = bodyCache;
+	}
+
+	// Set the largest cost of a function to inline outside of loops, or 0 to inline nothing (see InliningPass)
+	public void setInlineBudget(int inlineBudget) {
+		this.inlineBudget = inlineBudget;
+	}
+
+	// Return a description of the options that change the instructions the compiler outputs
+	// (such as for the key of a cache of compiled programs)
+	public static String getOutputOptions() {
+		return getOutputOptions(InliningPass.DEFAULT_BUDGET);
+	}
+	
+	// Return a description of the options that change the instructions the compiler outputs,
+	// for a compiler with the given inline budget
+	public static String getOutputOptions(int inlineBudget) {
+		return "inlineBudget=" + inlineBudget;
+	}
+	
+	// Return every error found so far by this compiler
+	public ArrayList<Diagnostic> getDiagnostics() {
+		return context.diagnostics;
+	}
+
+	// Parse the given program text.
+	// Return a list of instructions that were compiled.
+	// Throws a CompileException if there is an error in the program.
+	public ArrayList<Instruction> parse(String text) {
+		CompilationContext previousContext = CompilationContext.setCurrent(context);
+		try {
+			return new CompilePass(context, functionPool, bodyCache).initialParsingPass(text);
+		} finally {
+			CompilationContext.setCurrent(previousContext);
+		}
+	}
+
+	// Replace the calls in the given program to functions that are small enough with copies of their bodies
+	// (see InliningPass)
+	public void inlineFunctions(ArrayList<Instruction> instructions) {
+		CompilationContext previousContext = CompilationContext.setCurrent(context);
+		try {
+			InliningPass.inlineFunctions(instructions, inlineBudget);
+		} finally {
+			CompilationContext.setCurrent(previousContext);
+		}
+	}
+
+	// Replace the variables of the given program that are only loaded and stored with the values stored to them
+	// (see SSAConstructionPass)
+	public void convertToSSA(ArrayList<Instruction> instructions) {
+		CompilationContext previousContext = CompilationContext.setCurrent(context);
+		try {
+			SSAConstructionPass.convertToSSA(instructions);
+		} finally {
+			CompilationContext.setCurrent(previousContext);
+		}
+	}
+
+	// Replace the values of the given program that are always the same with constants,
+	// and remove the branches that can never be taken (see ConditionalConstantPropagationPass)
+	public void propagateConstants(ArrayList<Instruction> instructions) {
+		CompilationContext previousContext = CompilationContext.setCurrent(context);
+		try {
+			ConditionalConstantPropagationPass.propagateConstants(instructions);
+		} finally {
+			CompilationContext.setCurrent(previousContext);
+		}
+	}
+	
+	// Replace the instructions of the given program whose arguments are constants with their results
+	// (see ConstantFoldingPass)
+	public void foldConstants(ArrayList<Instruction> instructions) {
+		CompilationContext previousContext = CompilationContext.setCurrent(context);
+		try {
+			ConstantFoldingPass.foldConstants(instructions);
+		} finally {
+			CompilationContext.setCurrent(previousContext);
+		}
+	}
+
+	// Make the instructions of the given program that compute the same value as an earlier one use that one instead
+	// (see GlobalValueNumberingPass)
+	public void eliminateCommonSubexpressions(ArrayList<Instruction> instructions) {
+		CompilationContext previousContext = CompilationContext.setCurrent(context);
+		try {
+			GlobalValueNumberingPass.eliminateCommonSubexpressions(instructions);
+		} finally {
+			CompilationContext.setCurrent(previousContext);
+		}
+	}
+	
+	// Move the instructions of the given program that compute the same value in every iteration of a loop
+	// to before the loop (see LoopInvariantCodeMotionPass)
+	public void hoistLoopInvariants(ArrayList<Instruction> instructions) {
+		CompilationContext previousContext = CompilationContext.setCurrent(context);
+		try {
+			LoopInvariantCodeMotionPass.hoistLoopInvariants(instructions);
+		} finally {
+			CompilationContext.setCurrent(previousContext);
+		}
+	}
+	
+	// Replace the multiplications of loop counters in the given program with new counters,
+	// and merge or remove counters that aren't needed (see StrengthReductionPass)
+	public void reduceStrength(ArrayList<Instruction> instructions) {
+		CompilationContext previousContext = CompilationContext.setCurrent(context);
+		try {
+			StrengthReductionPass.reduceStrength(instructions);
+		} finally {
+			CompilationContext.setCurrent(previousContext);
+		}
+	}
+	
+	// Mark the array accesses of the given program whose indices are always in range,
+	// so they don't need a bounds check (see BoundsCheckEliminationPass)
+	public void eliminateBoundsChecks(ArrayList<Instruction> instructions) {
+		CompilationContext previousContext = CompilationContext.setCurrent(context);
+		try {
+			BoundsCheckEliminationPass.eliminateBoundsChecks(instructions);
+		} finally {
+			CompilationContext.setCurrent(previousContext);
+		}
+	}
+	
+	// Remove instructions from the given program whose results are never used
+	public void deleteUnusedInstructions(ArrayList<Instruction> instructions) {
+		CompilationContext previousContext = CompilationContext.setCurrent(context);
+		try {
+			DeleteUnusedInstructionsPass.deleteUnusedInstructions(instructions);
+		} finally {
+			CompilationContext.setCurrent(previousContext);
+		}
+	}
+
+	// Run every pass on the given program text.
+	// Return the final list of instructions.
+	// Throws a CompileException if there is an error in the program.
+	public ArrayList<Instruction> compile(String text) {
+		ArrayList<Instruction> instructions = parse(text);
+		inlineFunctions(instructions);
+		convertToSSA(instructions);
+		propagateConstants(instructions);
+		foldConstants(instructions);
+		eliminateCommonSubexpressions(instructions);
+		hoistLoopInvariants(instructions);
+		reduceStrength(instructions);
+		deleteUnusedInstructions(instructions);
+		eliminateBoundsChecks(instructions);
+		return instructions;
+	}
+}
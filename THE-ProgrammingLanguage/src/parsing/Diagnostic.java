@@ -0,0 +1,29 @@
+package parsing;
+
+// This class describes one error found while compiling a program
+
+public class Diagnostic {
+
+	public final String message;
+	public final int lineNumber;	// Index of the line the error was found on (-1 if it isn't on a line)
+	public final String sourceLine;	// The (prepared) line of source code, or null if there isn't one
+
+	public Diagnostic(String message, int lineNumber, String sourceLine) {
+		this.message = message;
+		this.lineNumber = lineNumber;
+		this.sourceLine = sourceLine;
+	}
+
+	// Return the message, the line of code, and the line number, on separate lines
+	@Override
+	public String toString() {
+		String s = message;
+		if (lineNumber >= 0) {
+			if (sourceLine != null) {
+				s += "\n'" + sourceLine + "'";
+			}
+			s += "\n(on line " + (lineNumber + 1) + ")";
+		}
+		return s;
+	}
+}
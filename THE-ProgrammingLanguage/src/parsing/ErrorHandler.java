@@ -2,33 +2,32 @@ package parsing;
 
 public class ErrorHandler {
 	
-	// Print an error message, then exit the program.
+	// Report an error on the line that is being parsed, and stop the compilation.
 	public static void printError(String message) {
-		printError(message, CompilePass.currentParsingLineNumber);
+		printError(message, CompilationContext.getCurrent().currentParsingLineNumber);
 	}
 
-	// Print an error message, the line of original code, then exit the program.
+	// Report an error on the given line of original code, and stop the compilation.
+	// The error is added to the diagnostics of the current compilation,
+	// and a CompileException is thrown (so this never returns).
 	public static void printError(String message, final int lineNumber) {
-		System.out.println(message);
+		final CompilationContext context = CompilationContext.getCurrent();
 		
-		// Print out the original line of the program, if available.
-		if (lineNumber >= 0) {
-			if (lineNumber < CompilePass.lines.length) {
-				System.out.println("'" + CompilePass.lines[lineNumber] + "'");
-			}
-			System.out.println("(on line " + (lineNumber + 1) + ")");
-		}
+		// Get the original line of the program, if available.
+		String sourceLine = context.getLine(lineNumber);
+		
+		Diagnostic diagnostic = new Diagnostic(message, lineNumber, sourceLine);
+		context.diagnostics.add(diagnostic);
+		throw new CompileException(diagnostic);
+	}
+	
+	// Print a compile error, and where in the compiler it was found.
+	public static void printCompileException(CompileException e) {
+		System.out.println(e.diagnostic);
 		
-		StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-		for (int i = 2; i < stackTrace.length-1; i++) {
+		StackTraceElement[] stackTrace = e.getStackTrace();
+		for (int i = 1; i < stackTrace.length-1; i++) {
 			System.out.println(stackTrace[i]);
 		}
-		
-		/*
-		String lineNum = Thread.currentThread().getStackTrace()[2].toString();
-		print(lineNum.substring(lineNum.indexOf('(')));
-		*/
-		
-		System.exit(1);
 	}
 }
@@ -10,6 +10,7 @@ public class Function {
 	public Type[] argTypes;
 	public String[] argNames;
 	public FunctionDefInstr functionDefInstr; // Instruction that defined this function
+	public SideEffect sideEffect = null; // What calling this function can do, as of the last SideEffectAnalysis, or null if not analyzed yet
 	
 	// Create a new function of a certain name and type
 	public Function(String name, Type returnType, Type[] argTypes, String[] argNames) {
@@ -19,6 +20,11 @@ public class Function {
 		this.argNames = argNames;
 	}
 	
+	// Return a new function with the same name and types, that isn't defined by any instruction
+	public Function copySignature() {
+		return new Function(name, returnType, argTypes, argNames);
+	}
+	
 	// Return true if this function is distinguishable from the given
 	//   routing by name, or by overloaded arguments.
 	public boolean isDistinguisable(Function other) {
@@ -31,7 +37,7 @@ public class Function {
 			return true;
 		}
 		
-		// Compare each of the parameters
+		// Compare each of the parameters (there is only one instance of each type, so != is enough)
 		int i = 0;
 		while (i < argTypes.length && i < other.argTypes.length) {
 			if (argTypes[i] != other.argTypes[i]) {
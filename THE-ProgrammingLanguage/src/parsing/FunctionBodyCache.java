@@ -0,0 +1,90 @@
+package parsing;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import instructions.Instruction;
+
+// This class remembers the instructions parsed from the body of each top-level function,
+// so that a function that hasn't changed since the last compile doesn't have to be parsed again.
+// Each body is stored under a hash of everything that parsing it depends on (see CompilePass.hashFunctionBody).
+// The stored instructions are never handed out; each compile gets its own copy (see InstructionCopier).
+// They only refer to functions by signature, never to the functions of the compile that parsed them.
+// Line numbers are stored relative to the function's first line, so a function can move within the file.
+// Generated names (like the counters of for-each loops) count from the function's definition in the same way,
+// so a copy is exactly what parsing the function again would give.
+// One cache may be shared by compiles running on different threads.
+
+public class FunctionBodyCache {
+	
+	// The most function bodies to remember.  The least recently used are forgotten first.
+	public static final int DEFAULT_MAX_ENTRIES = 20000;
+	
+	private final LinkedHashMap<String, ArrayList<Instruction>> bodiesByHash;
+	
+	// The number of bodies that were found, and not found, in the cache
+	private int hitCount = 0;
+	private int missCount = 0;
+	
+	public FunctionBodyCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+	
+	public FunctionBodyCache(final int maxEntries) {
+		bodiesByHash = new LinkedHashMap<String, ArrayList<Instruction>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ArrayList<Instruction>> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+	
+	// Return the stored instructions of the function body with the given hash, or null if there are none.
+	// The returned instructions must only be copied, never changed.
+	public synchronized ArrayList<Instruction> get(String hash) {
+		ArrayList<Instruction> instructions = bodiesByHash.get(hash);
+		if (instructions != null) {
+			hitCount++;
+		} else {
+			missCount++;
+		}
+		return instructions;
+	}
+	
+	// Store the instructions of the function body with the given hash.
+	// The cache keeps the given list, so it must not be changed afterwards.
+	public synchronized void put(String hash, ArrayList<Instruction> instructions) {
+		bodiesByHash.put(hash, instructions);
+	}
+	
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+	
+	public synchronized int getMissCount() {
+		return missCount;
+	}
+	
+	// Return a hash of the given text, as a string of hex digits
+	public static String hash(String text) {
+		return hash(text.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	// Return a hash of the given bytes, as a string of hex digits
+	public static String hash(byte[] bytes) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e); // Every Java platform has SHA-256
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package parsing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// This class indexes every function in the program by name and number of arguments,
+// so that a function call only has to look at the functions it could possibly call.
+// It also remembers which function was chosen for each list of argument types,
+// so a call with the same argument types as an earlier call isn't resolved again.
+// Once every function has been added, the index may be shared by passes running on different threads.
+
+public class FunctionIndex {
+
+	// All the functions that share one name
+	private static class FunctionsByName {
+		final ArrayList<ArrayList<Function>> byArgCount = new ArrayList<ArrayList<Function>>();
+		Function lastFunction = null; // The last function added by this name (for error printing)
+		final ConcurrentHashMap<String, Function> resolvedCalls = new ConcurrentHashMap<String, Function>();
+	}
+
+	private final HashMap<String, FunctionsByName> functionsByName = new HashMap<String, FunctionsByName>();
+
+	// Add a function to the index.
+	// Functions with the same name and number of arguments are kept in the order they were added.
+	public void add(Function function) {
+		function.name = function.name.intern();
+
+		FunctionsByName entry = functionsByName.get(function.name);
+		if (entry == null) {
+			entry = new FunctionsByName();
+			functionsByName.put(function.name, entry);
+		}
+
+		final int argCount = function.argTypes.length;
+		while (entry.byArgCount.size() <= argCount) {
+			entry.byArgCount.add(null);
+		}
+		ArrayList<Function> sameArgCount = entry.byArgCount.get(argCount);
+		if (sameArgCount == null) {
+			sameArgCount = new ArrayList<Function>();
+			entry.byArgCount.set(argCount, sameArgCount);
+		}
+
+		sameArgCount.add(function);
+		entry.lastFunction = function;
+		entry.resolvedCalls.clear();
+	}
+
+	// Return every function with the given name and number of arguments (never null)
+	public ArrayList<Function> getCandidates(String name, int argCount) {
+		FunctionsByName entry = functionsByName.get(name);
+		if (entry == null || argCount >= entry.byArgCount.size() || entry.byArgCount.get(argCount) == null) {
+			return new ArrayList<Function>(0);
+		}
+		return entry.byArgCount.get(argCount);
+	}
+
+	// Return every function with the given name, by number of arguments (never null)
+	public ArrayList<Function> getFunctionsNamed(String name) {
+		ArrayList<Function> functions = new ArrayList<Function>();
+		FunctionsByName entry = functionsByName.get(name);
+		if (entry != null) {
+			for (ArrayList<Function> sameArgCount : entry.byArgCount) {
+				if (sameArgCount != null) {
+					functions.addAll(sameArgCount);
+				}
+			}
+		}
+		return functions;
+	}
+	
+	// Return the function in this index with the same name and argument types as the given one
+	// (which may be from another compile), or null if there is none
+	public Function getFunctionWithSameSignature(Function function) {
+		for (Function candidate : getCandidates(function.name, function.argTypes.length)) {
+			if (!candidate.isDistinguisable(function) && candidate.returnType == function.returnType) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+	
+	// Return the last function added with the given name, or null if there is none
+	public Function getLastFunctionNamed(String name) {
+		FunctionsByName entry = functionsByName.get(name);
+		if (entry == null) {
+			return null;
+		}
+		return entry.lastFunction;
+	}
+
+	// Return the function that was previously chosen for a call with the given argument types, if any
+	public Function getResolvedCall(String name, Type[] argTypes) {
+		FunctionsByName entry = functionsByName.get(name);
+		if (entry == null) {
+			return null;
+		}
+		return entry.resolvedCalls.get(makeArgTypesKey(argTypes));
+	}
+
+	// Remember the function that was chosen for a call with the given argument types
+	public void setResolvedCall(String name, Type[] argTypes, Function function) {
+		FunctionsByName entry = functionsByName.get(name);
+		if (entry != null) {
+			entry.resolvedCalls.put(makeArgTypesKey(argTypes), function);
+		}
+	}
+
+	// Return a key that is the same for any two lists of the same argument types
+	private static String makeArgTypesKey(Type[] argTypes) {
+		char[] key = new char[argTypes.length];
+		for (int i = 0; i < argTypes.length; i++) {
+			key[i] = (char)argTypes[i].id;
+		}
+		return new String(key);
+	}
+}
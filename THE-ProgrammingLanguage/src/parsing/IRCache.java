@@ -0,0 +1,199 @@
+package parsing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+// This class is a cache on disk of the final instructions of compiled programs,
+// so a program that was already compiled (by any process using the same directory) isn't compiled again.
+// Each entry is a file named by a hash of the source, the compiler's build, and the compiler options,
+// holding the same text that Main writes to the output file.
+//
+// Entries are written to a temporary file and then renamed, so a reader never sees a partly written entry,
+// and several compiles can share the directory at the same time.
+// Reading an entry marks it as recently used.  When the entries take more than the maximum size,
+// the least recently used are deleted.
+
+public class IRCache {
+	
+	// A hash of the compiler's own build, so entries from any other build of the compiler aren't used
+	public static final String COMPILER_VERSION = hashCompilerBuild();
+	
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+	
+	// Temporary files older than this were left by a compile that stopped while writing
+	private static final long ABANDONED_TEMP_FILE_MILLIS = 60L * 60 * 1000;
+	
+	private static final String ENTRY_SUFFIX = ".ir";
+	private static final String TEMP_SUFFIX = ".tmp";
+	
+	private final Path directory;
+	private final long maxBytes;
+	
+	public IRCache(File directory) {
+		this(directory, DEFAULT_MAX_BYTES);
+	}
+	
+	public IRCache(File directory, long maxBytes) {
+		this.directory = directory.toPath();
+		this.maxBytes = maxBytes;
+	}
+	
+	// Return the key for compiling the given source with the given options.
+	// The options should include anything that changes the output of the compiler.
+	public static String getKey(String source, String options) {
+		return FunctionBodyCache.hash(COMPILER_VERSION + "\n" + options + "\n" + source);
+	}
+	
+	// Return a hash of the class files of the compiler (or of the jar they are in).
+	// If they can't be read, return a hash that is different for every run, so no entry is ever wrongly reused.
+	private static String hashCompilerBuild() {
+		try {
+			Path build = Paths.get(IRCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			if (!Files.isDirectory(build)) {
+				return FunctionBodyCache.hash(Files.readAllBytes(build));
+			}
+			
+			// Sort the class files, so the hash doesn't depend on the order the file system lists them in
+			ArrayList<Path> classFiles = new ArrayList<Path>();
+			try (Stream<Path> files = Files.walk(build)) {
+				files.filter(file -> file.toString().endsWith(".class")).forEach(classFiles::add);
+			}
+			Collections.sort(classFiles);
+			
+			StringBuilder sb = new StringBuilder();
+			for (Path classFile : classFiles) {
+				sb.append(build.relativize(classFile)).append('\n');
+				sb.append(FunctionBodyCache.hash(Files.readAllBytes(classFile))).append('\n');
+			}
+			return FunctionBodyCache.hash(sb.toString());
+			
+		} catch (IOException | URISyntaxException | RuntimeException e) {
+			return FunctionBodyCache.hash(UUID.randomUUID().toString());
+		}
+	}
+	
+	// Return a stream of the instructions stored under the given key, or null if there are none
+	public InputStream open(String key) {
+		Path entry = directory.resolve(key + ENTRY_SUFFIX);
+		try {
+			InputStream stream = Files.newInputStream(entry);
+			
+			// Mark this entry as recently used.  It doesn't matter if another process just deleted it.
+			try {
+				Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+			} catch (IOException e) {
+			}
+			return stream;
+			
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	// Return the instructions stored under the given key, or null if there are none
+	public String get(String key) {
+		try (InputStream stream = open(key)) {
+			if (stream == null) {
+				return null;
+			}
+			return new String(readAll(stream), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	// Store the given instructions under the given key, then make room if the cache is too big.
+	// The cache is only a speedup, so if it can't be written, the problem is printed and ignored.
+	public void put(String key, String instructionsText) {
+		try {
+			Files.createDirectories(directory);
+			
+			Path tempFile = Files.createTempFile(directory, key, TEMP_SUFFIX);
+			try {
+				Files.write(tempFile, instructionsText.getBytes(StandardCharsets.UTF_8));
+				Path entry = directory.resolve(key + ENTRY_SUFFIX);
+				try {
+					Files.move(tempFile, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+			
+			evictLeastRecentlyUsed();
+			
+		} catch (IOException e) {
+			System.out.println("Cannot write to the compile cache in '" + directory + "': " + e);
+		}
+	}
+	
+	// Delete the least recently used entries until the rest fit in the maximum size
+	private void evictLeastRecentlyUsed() {
+		
+		ArrayList<File> entries = new ArrayList<File>();
+		final HashMap<File, Long> lastUsedTimes = new HashMap<File, Long>(); // Read once, since other processes may change them
+		long totalBytes = 0;
+		final long now = System.currentTimeMillis();
+		
+		File[] files = directory.toFile().listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.getName().endsWith(ENTRY_SUFFIX)) {
+				entries.add(file);
+				lastUsedTimes.put(file, file.lastModified());
+				totalBytes += file.length();
+			} else if (file.getName().endsWith(TEMP_SUFFIX) && now - file.lastModified() > ABANDONED_TEMP_FILE_MILLIS) {
+				file.delete();
+			}
+		}
+		
+		if (totalBytes <= maxBytes) {
+			return;
+		}
+		
+		// Least recently used first
+		Collections.sort(entries, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(lastUsedTimes.get(a), lastUsedTimes.get(b));
+			}
+		});
+		
+		for (int i = 0; i < entries.size() && totalBytes > maxBytes; i++) {
+			final long length = entries.get(i).length();
+			if (entries.get(i).delete()) {
+				totalBytes -= length;
+			}
+		}
+	}
+	
+	// Read everything from the given stream
+	private static byte[] readAll(InputStream stream) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = stream.read(buffer)) != -1) {
+			bytes.write(buffer, 0, count);
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,130 @@
+package parsing;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import instructions.Instruction;
+
+// This class copies lists of instructions, such as the body of a function that was parsed before.
+// Wherever an original refers to another instruction in the list, its copy refers to the other copy,
+// so the copies can be changed by later passes without changing the originals.
+
+public class InstructionCopier {
+	
+	// The fields of each instruction class that refer to instructions or functions
+	private static final ConcurrentHashMap<Class<?>, Field[]> referenceFieldsByClass = new ConcurrentHashMap<Class<?>, Field[]>();
+	
+	// Return a copy of each of the given instructions, in the same order.
+	// The line number of each copy is moved by the given offset.
+	// If a function index is given, each function that is referred to is replaced by
+	// the function in the index with the same signature.
+	// References to instructions outside of the list are not changed.
+	public static ArrayList<Instruction> copy(ArrayList<Instruction> instructions, int lineOffset, FunctionIndex functionIndex) {
+		return copy(instructions, lineOffset, functionIndex, false);
+	}
+	
+	// Return a copy of each of the given instructions to keep after this compile (such as in a FunctionBodyCache).
+	// Each function that is referred to is replaced by a copy of only its signature,
+	// so that the copies don't keep the compile they came from alive.
+	public static ArrayList<Instruction> copyDetached(ArrayList<Instruction> instructions, int lineOffset) {
+		return copy(instructions, lineOffset, null, true);
+	}
+	
+	private static ArrayList<Instruction> copy(ArrayList<Instruction> instructions, int lineOffset,
+			FunctionIndex functionIndex, boolean isDetached) {
+		
+		HashMap<Instruction, Instruction> copies = new HashMap<Instruction, Instruction>(instructions.size() * 2);
+		HashMap<Function, Function> signatureCopies = isDetached ? new HashMap<Function, Function>() : null;
+		ArrayList<Instruction> copiedInstructions = new ArrayList<Instruction>(instructions.size());
+		
+		for (Instruction instr : instructions) {
+			Instruction copy = instr.shallowCopy();
+			if (copy.originalLineNumber >= 0) {
+				copy.originalLineNumber += lineOffset;
+			}
+			copies.put(instr, copy);
+			copiedInstructions.add(copy);
+		}
+		
+		for (Instruction copy : copiedInstructions) {
+			replaceReferences(copy, copies, functionIndex, signatureCopies);
+		}
+		return copiedInstructions;
+	}
+	
+	// Make the given copy refer to the copies of the instructions that it refers to
+	private static void replaceReferences(Instruction copy, HashMap<Instruction, Instruction> copies,
+			FunctionIndex functionIndex, HashMap<Function, Function> signatureCopies) {
+		try {
+			for (Field field : getReferenceFields(copy.getClass())) {
+				Object value = field.get(copy);
+				
+				if (value instanceof Instruction) {
+					Instruction copiedValue = copies.get(value);
+					if (copiedValue != null) {
+						field.set(copy, copiedValue);
+					}
+					
+				} else if (value instanceof Instruction[]) {
+					// Arrays are copied too, so that changing one doesn't change the other
+					Instruction[] values = ((Instruction[])value).clone();
+					for (int i = 0; i < values.length; i++) {
+						Instruction copiedValue = copies.get(values[i]);
+						if (copiedValue != null) {
+							values[i] = copiedValue;
+						}
+					}
+					field.set(copy, values);
+					
+				} else if (value instanceof Function && functionIndex != null) {
+					Function sameFunction = functionIndex.getFunctionWithSameSignature((Function)value);
+					if (sameFunction != null) {
+						field.set(copy, sameFunction);
+					}
+					
+				} else if (value instanceof Function && signatureCopies != null) {
+					Function signature = signatureCopies.get(value);
+					if (signature == null) {
+						signature = ((Function)value).copySignature();
+						signatureCopies.put((Function)value, signature);
+					}
+					field.set(copy, signature);
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// Return the fields of the given instruction class (including inherited fields)
+	// that may refer to an instruction, an array of instructions, or a function
+	private static Field[] getReferenceFields(Class<?> instructionClass) {
+		Field[] fields = referenceFieldsByClass.get(instructionClass);
+		if (fields != null) {
+			return fields;
+		}
+		
+		ArrayList<Field> referenceFields = new ArrayList<Field>();
+		for (Class<?> c = instructionClass; c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+				
+				Class<?> type = field.getType();
+				if (Instruction.class.isAssignableFrom(type) || Function.class.isAssignableFrom(type) ||
+						(type.isArray() && Instruction.class.isAssignableFrom(type.getComponentType()))) {
+					field.setAccessible(true);
+					referenceFields.add(field);
+				}
+			}
+		}
+		
+		fields = referenceFields.toArray(new Field[referenceFields.size()]);
+		referenceFieldsByClass.put(instructionClass, fields);
+		return fields;
+	}
+}
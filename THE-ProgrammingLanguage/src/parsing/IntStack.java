@@ -0,0 +1,62 @@
+package parsing;
+
+import java.util.Arrays;
+
+// A growable stack of primitive ints (avoids boxing every element in an ArrayList<Integer>)
+
+public class IntStack {
+
+	private int[] values;
+	private int size = 0;
+
+	public IntStack() {
+		this(16);
+	}
+
+	public IntStack(int initialCapacity) {
+		values = new int[Math.max(initialCapacity, 1)];
+	}
+
+	public void push(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, values.length * 2);
+		}
+		values[size] = value;
+		size++;
+	}
+
+	public int pop() {
+		size--;
+		return values[size];
+	}
+
+	public int peek() {
+		return values[size - 1];
+	}
+
+	// Replace the value on top of the stack
+	public void set(int value) {
+		values[size - 1] = value;
+	}
+
+	public int get(int index) {
+		return values[index];
+	}
+
+	// Replace the value at the given index
+	public void set(int index, int value) {
+		values[index] = value;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+}
@@ -3,12 +3,18 @@ package parsing;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import instructions.Instruction;
-import passes.DeleteUnusedInstructionsPass;
+import passes.BoundsCheckEliminationPass;
+import passes.InliningPass;
 
 // Created by Daniel Williams
 // Created on May 31, 2020
@@ -21,13 +27,87 @@ public class Main {
 	static final String fileToRead = "testFiles/ProgramInput.the";
 	static final String fileToWrite = "testFiles/ProgramOutput.the";
 	
+	// With no arguments, compile testFiles/ProgramInput.the and print every pass.
+	// With "-server [port] [-root dir] [-cache dir]", run a compile server (see CompileServer)
+	// that compiles the files in the given root directory (the current directory by default).
+	// Otherwise, compile each file given (or each file listed in an "@listFile") in batch,
+	// and save the instructions of each to the same path with ".ir" in place of ".the".
+	// These options may come before the files:
+	//   -parallel		parse the functions of each file at the same time
+	//   -jobs <count>	compile up to the given number of files at the same time
+	//   -inline <budget>	inline functions that cost up to the given budget, or none if it is 0 (see InliningPass)
+	//   -cache <dir>	don't compile files that were already compiled, using the cache in the given directory (see IRCache)
 	public static void main(String[] args) {
 		
+		if (args.length > 0 && args[0].equals("-server")) {
+			int port = CompileServer.DEFAULT_PORT;
+			Path root = Paths.get("");
+			IRCache irCache = null;
+			for (int i = 1; i < args.length; i++) {
+				if (args[i].equals("-cache") && i + 1 < args.length) {
+					irCache = new IRCache(new File(args[++i]));
+				} else if (args[i].equals("-root") && i + 1 < args.length) {
+					root = Paths.get(args[++i]);
+				} else {
+					port = Integer.parseInt(args[i]);
+				}
+			}
+			try {
+				CompileServer.run(port, root, irCache);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
+		
+		if (args.length > 0) {
+			ForkJoinPool functionPool = null;
+			ForkJoinPool filePool = null;
+			IRCache irCache = null;
+			int inlineBudget = InliningPass.DEFAULT_BUDGET;
+			
+			int firstFileIndex = 0;
+			while (firstFileIndex < args.length && args[firstFileIndex].startsWith("-")) {
+				if (args[firstFileIndex].equals("-parallel")) {
+					functionPool = ForkJoinPool.commonPool();
+				} else if (args[firstFileIndex].equals("-jobs") && firstFileIndex + 1 < args.length) {
+					firstFileIndex++;
+					final int jobCount = Integer.parseInt(args[firstFileIndex]);
+					filePool = (jobCount > 1) ? new ForkJoinPool(jobCount) : null;
+				} else if (args[firstFileIndex].equals("-inline") && firstFileIndex + 1 < args.length) {
+					firstFileIndex++;
+					inlineBudget = Integer.parseInt(args[firstFileIndex]);
+				} else if (args[firstFileIndex].equals("-cache") && firstFileIndex + 1 < args.length) {
+					firstFileIndex++;
+					irCache = new IRCache(new File(args[firstFileIndex]));
+				} else {
+					print("Unknown option '" + args[firstFileIndex] + "'");
+					System.exit(2);
+				}
+				firstFileIndex++;
+			}
+			
+			boolean didAllSucceed = compileBatch(Arrays.copyOfRange(args, firstFileIndex, args.length), filePool, functionPool, irCache, inlineBudget);
+			System.exit(didAllSucceed ? 0 : 1);
+		}
+		
+		try {
+			compileAndPrint();
+		} catch (CompileException e) {
+			ErrorHandler.printCompileException(e);
+			System.exit(1);
+		}
+	}
+	
+	// Compile the input file, print the instructions after each pass, and save the final instructions.
+	static void compileAndPrint() {
+		
 		// Run all the compilation passes.
 		
 		String text = loadFile(fileToRead);
 		
-		final ArrayList<Instruction> instructions = CompilePass.initialParsingPass(text);
+		final Compiler compiler = new Compiler();
+		final ArrayList<Instruction> instructions = compiler.parse(text);
 		
 		// Print out all of the instructions to the console
 		print("----------- Initial Parse -----------\n");
@@ -36,7 +116,70 @@ public class Main {
 		}
 		print("");
 		
-		DeleteUnusedInstructionsPass.deleteUnusedInstructions(instructions);
+		compiler.inlineFunctions(instructions);
+		
+		// Print out all of the instructions to the console
+		print("------- Inlining Pass -------\n");
+		for (int i = 0; i < instructions.size(); i++) {
+			print(instructions.get(i));
+		}
+		print("");
+		
+		compiler.convertToSSA(instructions);
+		
+		// Print out all of the instructions to the console
+		print("------- SSA Construction Pass -------\n");
+		for (int i = 0; i < instructions.size(); i++) {
+			print(instructions.get(i));
+		}
+		print("");
+		
+		compiler.propagateConstants(instructions);
+		
+		// Print out all of the instructions to the console
+		print("------- Conditional Constant Propagation Pass -------\n");
+		for (int i = 0; i < instructions.size(); i++) {
+			print(instructions.get(i));
+		}
+		print("");
+		
+		compiler.foldConstants(instructions);
+		
+		// Print out all of the instructions to the console
+		print("------- Constant Folding Pass -------\n");
+		for (int i = 0; i < instructions.size(); i++) {
+			print(instructions.get(i));
+		}
+		print("");
+		
+		compiler.eliminateCommonSubexpressions(instructions);
+		
+		// Print out all of the instructions to the console
+		print("------- Global Value Numbering Pass -------\n");
+		for (int i = 0; i < instructions.size(); i++) {
+			print(instructions.get(i));
+		}
+		print("");
+		
+		compiler.hoistLoopInvariants(instructions);
+		
+		// Print out all of the instructions to the console
+		print("------- Loop Invariant Code Motion Pass -------\n");
+		for (int i = 0; i < instructions.size(); i++) {
+			print(instructions.get(i));
+		}
+		print("");
+		
+		compiler.reduceStrength(instructions);
+		
+		// Print out all of the instructions to the console
+		print("------- Strength Reduction Pass -------\n");
+		for (int i = 0; i < instructions.size(); i++) {
+			print(instructions.get(i));
+		}
+		print("");
+		
+		compiler.deleteUnusedInstructions(instructions);
 		
 		// Print out all of the instructions to the console
 		print("------- Delete Unused Instructions Pass -------\n");
@@ -45,13 +188,169 @@ public class Main {
 		}
 		print("");
 		
+		compiler.eliminateBoundsChecks(instructions);
+		
+		// Print out all of the instructions to the console, and how many bounds checks each function still needs
+		print("------- Bounds Check Elimination Pass -------\n");
+		for (int i = 0; i < instructions.size(); i++) {
+			print(instructions.get(i));
+		}
+		print("");
+		print(BoundsCheckEliminationPass.getReport(instructions));
+		
 		// Stringify the final output.
+		saveFile(fileToWrite, instructionsToText(instructions));
+	}
+	
+	// Return the text of the given instructions, one per line, as it is saved to the output file
+	static String instructionsToText(ArrayList<Instruction> instructions) {
 		StringBuilder stringBuilder = new StringBuilder();
 		for (int i = 0; i < instructions.size(); i++) {
 			stringBuilder.append(instructions.get(i).toString());
 			stringBuilder.append("\n");
 		}
-		saveFile(fileToWrite, stringBuilder.toString());
+		return stringBuilder.toString();
+	}
+	
+	// Compile every given file in this JVM, and print the time and result of each, in the order of the files.
+	// The final instructions of each file are saved to its output file (see getOutputFile).
+	// An argument that starts with '@' names a file that lists one input file per line.
+	// If a file pool is given, the files are compiled at the same time on it, otherwise one after another.
+	// If a function pool is given, the function bodies of each file are parsed at the same time on it.
+	// If a cache is given, files that are in it aren't compiled again, and the others are added to it.
+	// Functions are inlined with the given budget (see InliningPass).
+	// Return true if every file compiled without errors.
+	static boolean compileBatch(String[] args, ForkJoinPool filePool, ForkJoinPool functionPool, IRCache irCache, int inlineBudget) {
+		
+		// Find all the files to compile
+		ArrayList<String> files = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("@")) {
+				String list = loadFile(arg.substring(1));
+				if (list == null) {
+					print("Cannot read file list '" + arg.substring(1) + "'");
+					return false;
+				}
+				for (String line : list.split("\n")) {
+					if (!line.trim().isEmpty()) {
+						files.add(line.trim());
+					}
+				}
+			} else {
+				files.add(arg);
+			}
+		}
+		
+		// Start compiling every file on the pool.
+		// Each compile has its own Compiler, so they don't share any state.
+		ArrayList<ForkJoinTask<BatchResult>> tasks = new ArrayList<ForkJoinTask<BatchResult>>();
+		if (filePool != null) {
+			for (final String file : files) {
+				tasks.add(filePool.submit(() -> compileBatchFile(file, functionPool, irCache, inlineBudget)));
+			}
+		}
+		
+		int failedCount = 0;
+		long totalNanos = 0;
+		
+		for (int i = 0; i < files.size(); i++) {
+			final BatchResult result = (filePool != null) ? tasks.get(i).join() :
+					compileBatchFile(files.get(i), functionPool, irCache, inlineBudget);
+			
+			if (result.didFail) {
+				failedCount++;
+			}
+			if (result.elapsedNanos < 0) { // The file wasn't compiled
+				print(result.status);
+				continue;
+			}
+			totalNanos += result.elapsedNanos;
+			
+			print(String.format("%9.3f ms  ", result.elapsedNanos / 1e6) + result.status);
+		}
+		
+		print(String.format("%d files, %d failed, %.3f ms total", files.size(), failedCount, totalNanos / 1e6));
+		return failedCount == 0;
+	}
+	
+	// The result of compiling one file in batch mode
+	private static class BatchResult {
+		final String status;
+		final boolean didFail;
+		
+		// The time the compile took, or -1 if the file couldn't be read
+		final long elapsedNanos;
+		
+		BatchResult(String status, boolean didFail, long elapsedNanos) {
+			this.status = status;
+			this.didFail = didFail;
+			this.elapsedNanos = elapsedNanos;
+		}
+	}
+	
+	// Compile the given file in batch mode (see compileBatch), and save its instructions to its output file.
+	// Return the status line to print for it.
+	private static BatchResult compileBatchFile(String file, ForkJoinPool functionPool, IRCache irCache, int inlineBudget) {
+		String text = loadFile(file);
+		if (text == null) {
+			return new BatchResult("FAILED  " + file + "  (cannot read file)", true, -1);
+		}
+		
+		final long startTime = System.nanoTime();
+		String status;
+		boolean didFail = false;
+		try {
+			final String cacheKey = (irCache != null) ? IRCache.getKey(text, Compiler.getOutputOptions(inlineBudget)) : null;
+			final String cachedText = (cacheKey != null) ? irCache.get(cacheKey) : null;
+			
+			if (cachedText != null) {
+				saveFile(getOutputFile(file), cachedText);
+				status = "OK      " + file + "  " + countLines(cachedText) + " instructions (cached)";
+			} else {
+				Compiler compiler = new Compiler(functionPool);
+				compiler.setInlineBudget(inlineBudget);
+				ArrayList<Instruction> instructions = compiler.compile(text);
+				final String instructionsText = instructionsToText(instructions);
+				saveFile(getOutputFile(file), instructionsText);
+				if (irCache != null) {
+					irCache.put(cacheKey, instructionsText);
+				}
+				status = "OK      " + file + "  " + instructions.size() + " instructions";
+			}
+		} catch (CompileException e) {
+			Diagnostic diagnostic = e.diagnostic;
+			status = "FAILED  " + file + "  " + diagnostic.message;
+			if (diagnostic.lineNumber >= 0) {
+				status += " (on line " + (diagnostic.lineNumber + 1) + ")";
+			}
+			didFail = true;
+		} catch (RuntimeException e) { // A bug in the compiler shouldn't stop the rest of the batch
+			status = "CRASHED " + file + "  " + e;
+			didFail = true;
+		} catch (StackOverflowError e) { // Nor should a program too deeply nested to compile
+			status = "FAILED  " + file + "  Program is nested too deeply to compile";
+			didFail = true;
+		}
+		return new BatchResult(status, didFail, System.nanoTime() - startTime);
+	}
+	
+	// Return the file that the instructions compiled from the given file are saved to in batch mode
+	static String getOutputFile(String inputFile) {
+		if (inputFile.endsWith(".the")) {
+			return inputFile.substring(0, inputFile.length() - ".the".length()) + ".ir";
+		}
+		return inputFile + ".ir";
+	}
+	
+	// Return the number of lines in the given text, where each line ends with a newline
+	static int countLines(String text) {
+		int count = 0;
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '\n') {
+				count++;
+			}
+		}
+		return count;
 	}
 	
 	// Load some text from a file
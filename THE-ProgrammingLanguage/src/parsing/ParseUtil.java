@@ -42,83 +42,6 @@ public class ParseUtil {
 			"void"
 		};
 
-	// Remove all comments from every line
-	public static String[] stripComments(String[] lines) {
-		
-		boolean isInComment = false;
-		for (int i = 0; i < lines.length; i++) {
-			
-			if (!isInComment) {
-				
-				// Remove single line comments
-				int singleLineCommentIndex = lines[i].indexOf("//");
-				if (singleLineCommentIndex != -1) {
-					lines[i] = lines[i].substring(0, singleLineCommentIndex);
-				}
-				
-				// Find a multiline comment
-				int multilineCommentStartIndex = lines[i].indexOf("/*");
-				if (multilineCommentStartIndex != -1) {
-					lines[i] = lines[i].substring(0, multilineCommentStartIndex);
-					isInComment = true;
-				}
-			} else {
-				int multilineCommentEndIndex = lines[i].indexOf("*/");
-				if (multilineCommentEndIndex != -1) {
-					lines[i] = lines[i].substring(multilineCommentEndIndex + 2);
-					isInComment = false;
-				}
-			}
-			
-			// Skip lines in a comment
-			if (isInComment) {
-				lines[i] = "";
-			} else {
-				
-			}
-		}
-		
-		return lines;
-	}
-	
-	// Remove white space from each individual line
-	// and prepare the string for evaluation.
-	static String[] removeWhiteSpace(String[] lines) {
-		for (int i = 0; i < lines.length; i++) {
-			String s = lines[i].trim();
-			
-			if (!s.isEmpty()) {
-				s = replaceOutsideLiteral(s, "\t", "    ", false).trim();
-				
-				// Remove spaces at the end of each line
-				s = replaceOutsideLiteral(s, "   ", " ", false);
-				s = replaceOutsideLiteral(s, "  ", " ", false);
-				s = replaceOutsideLiteral(s, " \n", "\n", false);
-				
-				// Remove double and triple spaces
-				s = replaceOutsideLiteral(s, "   ", " ", false);
-				s = replaceOutsideLiteral(s, "  ", " ", false);
-				
-				// Remove tabs
-				s = replaceOutsideLiteral(s, "\t", "", false);
-				
-				s = replaceNegativesWithMultiplication(s);
-				
-				// Remove white space after unary functions
-				s = replaceOutsideLiteral(s, "# ", "#", false);
-				s = replaceOutsideLiteral(s, "! ", "!", false);
-				
-				lines[i] = s;
-			}
-		}
-		return lines;
-	}
-	
-	// Break the given string into individual lines
-	static String[] breakIntoLines(String text) {
-		return text.split("\n");
-	}
-	
 	static String typeToString(Type t) {
 		if (t == null) {
 			return "void";
@@ -141,171 +64,6 @@ public class ParseUtil {
 		}
 	}
 	
-	// Returns the argument to a unary function (like ! or #) from the given startIndex
-	static String getUnaryFunctionArgument(String text, int startIndex) {
-		// Find the end index of the parameters
-		char[] chars = text.toCharArray();
-		
-		startIndex++;
-		
-		if (startIndex >= chars.length) {
-			printError("Missing operand in '" + text + "'");
-		}
-		
-		int endIndex = startIndex;
-		int numParentheses = 0;
-		int numBrackets = 0;
-		boolean isInsideString = false;
-		boolean foundArgumentsEnd = false;
-		
-		while (endIndex < chars.length) {
-			if (chars[endIndex] == '"') {
-				isInsideString = !isInsideString;
-			} else if (chars[endIndex] == '(') {
-				numParentheses++;
-			} else if (chars[endIndex] == ')') {
-				numParentheses--;
-			} else if (chars[endIndex] == '[') {
-				numBrackets++;
-			} else if (chars[endIndex] == ']') {
-				numBrackets--;
-			}
-			
-			// If this is the first parenthetic and bracket level
-			if (numParentheses == 0 && numBrackets == 0 && !isInsideString) {
-				if (endIndex == chars.length-1) {
-					endIndex++;
-					foundArgumentsEnd = true;
-					break;
-				} else if (chars[endIndex] == ' ') {
-					foundArgumentsEnd = true;
-					break;
-				}
-			}
-			
-			endIndex++;
-		}
-		
-		if (numParentheses > 0) {
-			printError("Missing closing parenthesis in '" + text + "'");
-		}
-		
-		if (numBrackets > 0) {
-			printError("Missing closing square brackets in '" + text + "'");
-		}
-		
-		if (isInsideString) {
-			printError("Missing closing quotation in '" + text + "'");
-		}
-		
-		if (!foundArgumentsEnd) {
-			printError("Malformed operand in '" + text + "'");
-		}
-		
-		return text.substring(startIndex, endIndex);
-	}
-	
-	// Return the arguments to a function whose name starts at the given index
-	static String getFunctionArguments(String text, int startIndex) {
-		// Find the end index of the parameters (according to the end parenthesis)
-		char[] chars = text.toCharArray();
-		boolean foundArgumentsStart = false;
-		
-		// Find the starting index of the arguments
-		while (startIndex < chars.length) {
-			if (chars[startIndex] == '(') {
-				foundArgumentsStart = true;
-				startIndex++;
-				break;
-				
-				// If this is an invalid symbol
-			} else if (!ParseUtil.isLetter(chars[startIndex]) && chars[startIndex] != ' ' &&
-					!ParseUtil.isDigit(chars[startIndex]) && chars[startIndex] != '_' &&
-					chars[startIndex] != '$') {
-				break;
-			}
-			startIndex++;
-		}
-		
-		if (!foundArgumentsStart || startIndex >= chars.length) {
-			printError("Function is missing arguments in '" + text + "'");
-		}
-
-		int endIndex = startIndex;
-		int numParentheses = 1;
-		int numBrackets = 0;
-		boolean isInsideString = false;
-		boolean foundArgumentsEnd = false;
-		
-		while (endIndex < chars.length) {
-			if (chars[endIndex] == '"') {
-				isInsideString = !isInsideString;
-			} else if (chars[endIndex] == '(') {
-				numParentheses++;
-			} else if (chars[endIndex] == ')') {
-				numParentheses--;
-				
-				// If this is the first parenthetic and bracket level
-				if (numParentheses == 0 && numBrackets == 0 && !isInsideString) {
-					foundArgumentsEnd = true;
-					break;
-				}
-			} else if (chars[endIndex] == '[') {
-				numBrackets++;
-			} else if (chars[endIndex] == ']') {
-				numBrackets--;
-			}
-			endIndex++;
-		}
-		
-		if (numParentheses > 0) {
-			printError("Missing closing parenthesis in '" + text + "'");
-		}
-		
-		if (numBrackets > 0) {
-			printError("Missing closing square brackets in '" + text + "'");
-		}
-		
-		if (isInsideString) {
-			printError("Missing closing quotation in '" + text + "'");
-		}
-		
-		if (!foundArgumentsEnd || endIndex >= chars.length) {
-			printError("Malformed arguments in '" + text + "'");
-		}
-		
-		return text.substring(startIndex, endIndex);
-	}
-	
-	// Return true if this line starts with the given word, and is followed by a
-	//   space or parenthesis.
-	static boolean doesLineStartWith(String line, String word) {
-		return line.length() >= word.length() && line.startsWith(word) &&
-				(line.length() == word.length() ||
-				line.charAt(word.length()) == '(' || line.charAt(word.length()) == ' ');
-	}
-	
-	// Return the next operator and its end index.
-	// Start searching from the given index.
-	static StringStartEnd getFirstAssignmentOperator(String line, int startIndex) {
-		
-		// Skip past the spaces, if any
-		while (startIndex < line.length() && line.charAt(startIndex) == ' ') {
-			startIndex++;
-		}
-		
-		String substring = line.substring(startIndex);
-		
-		// Iterate over all of the assignment operators
-		for (int i = 0; i < assignmentOperators.length; i++) {
-			if (substring.startsWith(assignmentOperators[i])) {
-				return new StringStartEnd(assignmentOperators[i], startIndex, startIndex + assignmentOperators[i].length());
-			}
-		}
-		
-		return null;
-	}
-	
 	// Return true if this line has an assignment operator in it
 	static boolean hasAssignmentOperator(String line) {
 		// Skip past variable names
@@ -337,302 +95,6 @@ public class ParseUtil {
 		return false;
 	}
 	
-	// Return true if this line is a function call on its own
-	static boolean isFunctionCall(String line) {
-		char[] chars = line.toCharArray();
-		
-		Object[] data = getVariableName(line, 0);
-		if (data == null) {
-			return false;
-		}
-		
-		// Iterate past any space to find the opening parenthesis
-		int nameEndIndex = (int)data[1];
-		for (int i = nameEndIndex; i < chars.length; i++) {
-			if (chars[i] != ' ') {
-				if (chars[i] == '(') {
-					return true;
-				} else {
-					return false;
-				}
-			}
-		}
-		
-		return false;
-	}
-	
-	// Return the index of the start of the function's name...
-	// if this line looks like a function declaration.
-	// Otherwise, return -1.
-	static int findFunctionDeclarationNameStartIndex(String line) {
-		
-		int i = 0;
-		
-		// Scan past the type string
-		for (; i < line.length(); i++) {
-			char c = line.charAt(i);
-			if (i > 0 && (c == '[' || c == ']' || c == ' ')) {
-				break;
-			}
-			if (!isLetter(c) && !isDigit(c)) {
-				return -1;
-			}
-		}
-		
-		// Scan past the array brackets and spaces
-		int bracketDepth = 0;
-		for (; i < line.length(); i++) {
-			char c = line.charAt(i);
-			if (c == '[') {
-			    bracketDepth++;
-			} else if (c == ']') {
-			    bracketDepth--;
-			}
-			
-			if (bracketDepth <= 0) {
-    			if (c == ' ') {
-    			    break;
-    			}
-			}
-		}
-		
-		// Scan past any spaces
-		for (; i < line.length(); i++) {
-			char c = line.charAt(i);
-			if (c != ' ') {
-				break;
-			}
-		}
-		
-		// Scan through the function name
-		final int functionNameStartIndex = i;
-		boolean foundFunctionName = false;
-		for (; i < line.length(); i++) {
-			char c = line.charAt(i);
-			if (c == '(' || c == ' ') {
-				break;
-			}
-			if (isLetter(c) || isDigit(c)) {
-			    foundFunctionName = true;
-			} else {
-				return -1;
-			}
-		}
-		
-		// Need to have at least one letter in the function's name
-		if (!foundFunctionName) {
-		    return -1;
-		}
-		
-		// Scan past any more spaces
-		for (; i < line.length(); i++) {
-			char c = line.charAt(i);
-			if (c != ' ') {
-				break;
-			}
-		}
-		
-		// Out of bounds
-		if (i >= line.length()) {
-			return -1;
-		}
-		
-		// This really needs to be an open-parenthesis now.
-		if (line.charAt(i) == '(') {
-			return functionNameStartIndex;
-		}
-		
-		return -1;
-	}
-	
-	// Return the name of this function and the argument string that goes with it.
-	// Index 0 is the name, index 1 is the arguments.
-	static String[] getFunctionNameAndArgs(String s) {
-		// Find the first opening parenthesis
-		
-		int parenthesisIndex = s.indexOf('(');
-		if (parenthesisIndex == -1) {
-			printError("Arguments missing in function call");
-		}
-		
-		// Find the last space before the parenthesisIndex
-		int nameStartIndex = parenthesisIndex - 1;
-		while (nameStartIndex >= 0 && s.charAt(nameStartIndex) != ' ') {
-			nameStartIndex--;
-		}
-		nameStartIndex++;
-		
-		String name = s.substring(nameStartIndex, parenthesisIndex).trim();
-		
-		String args = getFunctionArguments(s, parenthesisIndex);
-		
-		if (args != null) {
-			return new String[] {name, args};
-		}
-		return null;
-	}
-	
-	// Return which data type this line starts with, if any.
-	// Also return the end index of this type-string.
-	static TypeAndEnd getFirstDataType(String line) {
-		
-		// Special case for void
-		if (line.startsWith("void ")) {
-			return new TypeAndEnd(null, 4);
-		}
-		
-		for (int i = 0; i < dataTypes.length; i++) {
-			int length = dataTypes[i].length();
-			
-			if (line.startsWith(dataTypes[i]) && line.length() > length) {
-				
-				if (line.charAt(length) == ' ') {
-					return new TypeAndEnd(new Type(dataTypes[i]), length);
-				} else if (line.charAt(length) == '[') { // This must be an array
-					int endIndex = 0;
-					
-					for (int j = length + 1; j < line.length(); j++) {
-						if (line.charAt(j) == ']') {
-							endIndex = j + 1;
-							break;
-						}
-					}
-					String typeString = line.substring(0, endIndex);
-					Type type = new Type(typeString);
-					return new TypeAndEnd(type, endIndex);
-				}
-			}
-		}
-		
-		return null;
-	}
-	
-	// Return true if this is an array definition
-	static boolean isArrayDefinition(String s) {
-		for (int i = 0; i < dataTypes.length; i++) {
-			int length = dataTypes[i].length();
-			if (s.startsWith(dataTypes[i]) && s.length() > length) {
-				if (s.charAt(length) == '[') { // This must be an array
-					return true;
-				}
-			}
-		}
-		
-		return false;
-	}
-	
-	// Return true if this is (probably) an array element access (Load from a pointer to the element)
-	static boolean isArrayElementAccess(String s) {
-		// Find the first opening bracket
-		for (int i = 1; i < s.length()-1; i++) {
-			if (s.charAt(i) == '[') {
-				return true;
-			} else if (s.charAt(i) == ' ') { // No spaces allowed before the bracket
-				return false;
-			}
-		}
-		
-		return false;
-	}
-	
-	// Extract the variable name from the array reference (remove the trailing brackets)
-	static String getVariableNameFromArrayReference(String s) {
-		// Find the first opening bracket
-		for (int i = 1; i < s.length()-1; i++) {
-			if (s.charAt(i) == '[') {
-				return s.substring(0, i);
-			} else if (s.charAt(i) == ' ') { // No spaces allowed before the bracket
-				return null;
-			}
-		}
-		return null;
-	}
-	
-	// Return the type of array, and an array of string expressions
-	//   that represent the dimensions of this array instantiation.
-	static Object[] getArrayDefinitionInfo(String s) {
-		for (int i = 0; i < dataTypes.length; i++) {
-			int length = dataTypes[i].length();
-			if (s.startsWith(dataTypes[i]) && s.length() > length) {
-				if (s.charAt(length) == '[') { // This must be an array
-					int endIndex = -1;
-					boolean isInsideString = false;
-					int numParentheses = 0;
-					int numBrackets = 1;
-					
-					// Find the next matching closing bracket
-					for (int j = length+1; j < s.length(); j++) { // TODO this bracket handling logic is wrong.
-						if (s.charAt(j) == '[') {
-							numBrackets++;
-						} else if (s.charAt(j) == ']') {
-							numBrackets--;
-							if (numBrackets == 0 && numParentheses == 0 && !isInsideString) {
-								endIndex = j;
-								break;
-							}
-						} else if (s.charAt(j) == '(') {
-							numParentheses++;
-						} else if (s.charAt(j) == ')') {
-							numParentheses--;
-						} else if (s.charAt(j) == '"') {
-							isInsideString = !isInsideString;
-						}
-					}
-					
-					if (endIndex == -1) {
-						printError("Missing end bracket in expression '" + s + "'");
-					}
-					
-					// Separate the data into the individual arguments (the dimensions of the array)
-					String[] args = separateArguments(s.substring(length+1, endIndex));
-					
-					return new Object[] {new Type(dataTypes[i]), args};
-				}
-			}
-		}
-		
-		return null;
-	}
-	
-	// Return the array name, and an array of string expressions
-	//   that represent the indexes of this array reference.
-	static Object[] getArrayReadInfo(String s) {
-		String varName = getVariableNameFromArrayReference(s);
-		
-		int endIndex = -1;
-		boolean isInsideString = false;
-		int numParentheses = 0;
-		int numBrackets = 1;
-		
-		// Find the next matching closing bracket
-		for (int j = varName.length() + 1; j < s.length(); j++) {
-			if (s.charAt(j) == '[') {
-				numBrackets++;
-			} else if (s.charAt(j) == ']') {
-				numBrackets--;
-				if (numBrackets == 0 && numParentheses == 0 && !isInsideString) {
-					endIndex = j;
-					break;
-				}
-			} else if (s.charAt(j) == '(') {
-				numParentheses++;
-			} else if (s.charAt(j) == ')') {
-				numParentheses--;
-			} else if (s.charAt(j) == '"') {
-				isInsideString = !isInsideString;
-			}
-		}
-		
-		if (endIndex == -1) {
-			printError("Missing end bracket in expression '" + s + "'");
-		}
-		
-		// Separate the data into the individual arguments (the dimensions of the array)
-		String[] args = separateArguments(s.substring(varName.length() + 1, endIndex));
-		
-		return new Object[] {varName, args};
-	}
-	
 	// Return the indexes (as a string array) and the end index of the given array indexing string. 
 	static Object[] getArrayIndexInfo(String s, int startIndex) {
 		if (s.charAt(startIndex) != '[') { // This must be an array
@@ -740,33 +202,6 @@ public class ParseUtil {
 		return false;
 	}
 	
-	// Return the first variable name and end index starting at the given index.
-	static Object[] getVariableName(String s, int firstIndex) {
-		char[] chars = s.toCharArray();
-		
-		// Check if everything before the first parenthesis is a valid identifier
-		boolean foundValidChar = false;
-		int endIndex = firstIndex;
-		for (int i = firstIndex; i < chars.length; i++) {
-			char c = chars[i];
-			
-			// If this is a valid character
-			if (isLetter(c) || c == '_' || c == '$' || (i > firstIndex && isDigit(c))) {
-				foundValidChar = true;
-				endIndex = i + 1;
-			} else if (foundValidChar) {
-				break;
-			}
-		}
-		
-		if (!foundValidChar) {
-			return null;
-		}
-		
-		// Extract the variable name
-		return new Object[] {s.substring(firstIndex, endIndex), endIndex};
-	}
-	
 	// Return the first variable name after a space on this line, and its end index
 	static Object[] getVariableNameAfterSpace(String s) {
 		
@@ -821,210 +256,33 @@ public class ParseUtil {
 		return new Object[] {s.substring(firstIndex, endIndex), endIndex};
 	}
 	
-	// Return true if this index in the string is preceded by some sort of number or variable
-	static boolean isPrecededByValue(String s, int index) {
-		index--;
-		
-		while (index >= 0) {
-			char c = s.charAt(index);
-			if (c != ' ') {
-				if (isDigit(c) || isLetter(c) || c == ']' || c == ')' ||
-						c == '}' || c == '_' || c == '.') {
-					return true;
-				} else {
-					return false;
-				}
-			}
-			index--;
-		}
-		
-		return false;
-	}
-	
-	// Replace all negative signs with "-1 *"
-	static String replaceNegativesWithMultiplication(String s) {
-		
-		for (int i = 0; i < s.length()-1; i++) {
-			if (s.charAt(i) == '-') {
-				
-				// If this negative sign (not a subtraction)
-				if (!isPrecededByValue(s, i)) {
-					// Try to get past spaces
-					char trailingChar = s.charAt(i + 1);
-					if (trailingChar == ' ' && i + 2 < s.length()) {
-						trailingChar = s.charAt(i + 2);
-					}
-					
-					// Make sure the next character is not part of a literal number
-					if (!isDigit(trailingChar) && trailingChar != '.') {
-					
-						// Replace '-' with "-1 * "
-						s = s.substring(0, i) + "-1 * " + s.substring(i+1);
-					}
-				}
-			}
-		}
-		
-		return s;
-	}
-	
-	// Replace the string with the new string, but avoid it between quotation marks.
-	// If 'wholeWord' is true, then reject matches embedded between other letters
-	static String replaceOutsideLiteral(String original, String old, String rep, boolean wholeWord) {
-		boolean isInLiteral = false;
-		outer:
-		for (int i = 0; i < original.length() - old.length() + 1; i++) {
-			if (original.charAt(i) == '\"') {
-				isInLiteral = !isInLiteral;
-			}
-			
-			// Only do the replacement if this is not in a literal
-			if (!isInLiteral) {
-				for (int j = 0; j+i < original.length() && j < old.length(); j++) {
-					if (original.charAt(i+j) != old.charAt(j)) {
-						continue outer;
-					}
-				}
-				
-				// If there need to not be characters on either side
-				if (wholeWord) {
-					// Make sure that there is not a character directly on either side of this
-					if (i > 0 &&
-							(isLetter(original.charAt(i-1)) ||
-									original.charAt(i-1) == '=')) {
-						continue;
-					}
-					if (i + old.length() < original.length() &&
-							(isLetter(original.charAt(i + old.length())) ||
-									original.charAt(i + old.length()) == '=')) {
-						continue;
-					}
-				}
-				
-				// This is a match, so replace it
-				String firstPart = original.substring(0, i);
-				String secondPart = original.substring(i + old.length());
-				original = firstPart + rep + secondPart;
-				
-				// Skip over this replacement
-				int delta = rep.length() - old.length() + 1;
-				if (delta < 0) {
-					delta = 0;
-				}
-				i += delta;
-			}
-		}
-		return original;
-	}
-	
-	// Return information about the lowest precedence operator on the lowest parenthetic level.
-	// Search only for binary operators in the given 2D-array of operators.
-	// The first dimension is for operators of different precedence, and the second
-	// dimension is for operators of equal precedence.
-	static StringStartEnd findLowestPrecedenceOperatorAtLowestLevel(final String s, final String[][] operators) {
-		// Search through the operations in order of operations
-		for (int j = 0; j < operators.length; j++) {
-			StringStartEnd result = findLowestPrecedenceOperatorAtLowestLevel(s, operators[j]);
-			if (result != null) {
-				return result;
-			}
-		}
-		return null;
-	}
-	
-	// Overload for the above function
-	static StringStartEnd findLowestPrecedenceOperatorAtLowestLevel(final String s, final String[] operators) {
-		
-		int numParentheses = 0;
-		int numBrackets = 0;
-		boolean isInString = false;
-		
-		// Binary operator cannot be the first symbol.
-		// We want the last one, so iterate backward.
-		for (int i = s.length()-1; i > 0; i--) {
-			char c = s.charAt(i);
-			if (c == '\"') {
-				isInString = !isInString;
-			} else if (c == '[') {
-				numBrackets++;
-			} else if (c == ']') {
-				numBrackets--;
-			} else if (c == '(') {
-				numParentheses++;
-			} else if (c == ')') {
-				numParentheses--;
-			} else {
-				// Try to find and return the operator and index if possible
-				String binaryOperator = getOperatorFromList(s, i, operators);
-				if (binaryOperator != null && numParentheses == 0 && numBrackets == 0 && !isInString) {
-					return new StringStartEnd(binaryOperator, i, i + binaryOperator.length());
-				}
-			}
-		}
-		
-		return null;
-	}
-	
-	// Return which operator this is at the given starting index, if any.
-	// Only search for operators in the given list 'operators'.
-	static String getOperatorFromList(String s, int index, String[] operators) {
-		
-		// Operators cannot be the first or last character on a line
-		if (index <= 0 || index >= s.length() - 1) {
-			return null;
-		}
-		
-		// Iterate over every binary operator in the given list
-		for (int j = 0; j < operators.length; j++) {
-			if (s.startsWith(operators[j], index)) {
-				
-				// Only a valid operator if it is preceded with a non-operator symbol
-				char previousChar = s.charAt(index - 1);
-				if (!isOperator(previousChar)) {
-					// Only a valid operator if a non-operator symbol or end-of-line follows
-					if (index + operators[j].length() == s.length() ||
-							!isOperator(s.charAt(index + operators[j].length()))) {
-						return operators[j];
-					}
+	// Return the binary operator that exactly matches s[start, end), or null if there is none.
+	// The returned string is the shared instance from 'binaryOperators'.
+	static String findBinaryOperator(String s, int start, int end) {
+		final int length = end - start;
+		for (int i = 0; i < binaryOperators.length; i++) {
+			for (int j = 0; j < binaryOperators[i].length; j++) {
+				String op = binaryOperators[i][j];
+				if (op.length() == length && s.regionMatches(start, op, 0, length)) {
+					return op;
 				}
 			}
 		}
-		
 		return null;
 	}
-	
-	// Remove unnecessary surrounding parentheses
-	static String removeUnnecessaryParentheses(String s) {
-		
-		// Repeat while there are parentheses at the beginning and the end
-		while (!s.isEmpty() && s.charAt(0) == '(' && s.charAt(s.length()-1) == ')') {
-			// Make sure the parentheses are in fact redundant
-			int numParentheses = 1;
-			boolean isInString = false;
-			
-			for (int i = 1; i < s.length()-1; i++) {
-				if (s.charAt(i) == '"') {
-					isInString = !isInString;
-				} else if (!isInString) {
-					if (s.charAt(i) == '(') {
-						numParentheses++;
-					} else if (s.charAt(i) == ')') {
-						numParentheses--;
-						
-						// If the parenthetic level ever reaches zero,
-						//    then these parentheses don't contain the whole expression.
-						if (numParentheses == 0) {
-							return s;
-						}
-					}
+
+	// Return the precedence of the given binary operator (0 is the lowest), or -1 if it is not one.
+	static int getBinaryOperatorPrecedence(String op) {
+		for (int i = 0; i < binaryOperators.length; i++) {
+			for (int j = 0; j < binaryOperators[i].length; j++) {
+				if (binaryOperators[i][j].equals(op)) {
+					return i;
 				}
 			}
-			s = s.substring(1, s.length() - 1);
 		}
-		
-		return s;
+		return -1;
 	}
-	
+
 	// Return which binary operator this is at the given starting index, if any
 	static String getBinaryOperator(String s, int index) {
 		
@@ -1384,25 +642,7 @@ public class ParseUtil {
 	}
 }
 
-// Holds a string, and a relevant start and end index for that string.
-class StringStartEnd {
-	final String string;
-	final int startIndex;
-	final int endIndex;
-	
-	public StringStartEnd(String str, int start, int end) {
-		this.string = str;
-		this.startIndex = start;
-		this.endIndex = end;
-	}
-	
-	@Override
-	public String toString() {
-		return "'" + string + "' [" + startIndex + ", " + endIndex + "]";
-	}
-}
-
-// Holds a Type, and the end-index of this type in a parsed string
+// Holds a Type, and the index of the token after this type
 class TypeAndEnd {
 	final Type type;
 	final int endIndex;
@@ -0,0 +1,45 @@
+package parsing;
+
+import java.util.ArrayList;
+
+import instructions.Instruction;
+
+// This class keeps track of which scopes are open at the end of the program parsed so far.
+// Each instruction that starts a scope is pushed when it is added, and each EndBlockInstr pops one,
+// so the innermost open scope is always on top of the stack.
+
+public class ScopeStack {
+
+	// Instructions that started each open scope (outermost first)
+	private final ArrayList<Instruction> openScopes = new ArrayList<Instruction>();
+
+	// Index of the next instruction in the program that hasn't been looked at yet
+	private int nextInstructionIndex = 0;
+
+	// Open and close scopes for every instruction that was added to the program since the last call
+	public void update(ArrayList<Instruction> instructions) {
+
+		for (int i = nextInstructionIndex; i < instructions.size(); i++) {
+			Instruction instr = instructions.get(i);
+
+			if (instr.doesEndScope() && !openScopes.isEmpty()) {
+				openScopes.remove(openScopes.size() - 1);
+			}
+
+			// It is possible for an instruction to both end and start a scope
+			if (instr.doesStartScope()) {
+				openScopes.add(instr);
+			}
+		}
+
+		nextInstructionIndex = instructions.size();
+	}
+
+	// Return the instruction that started the innermost open scope, or null if no scope is open
+	public Instruction getInnermostScope() {
+		if (openScopes.isEmpty()) {
+			return null;
+		}
+		return openScopes.get(openScopes.size() - 1);
+	}
+}
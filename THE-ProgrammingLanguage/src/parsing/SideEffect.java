@@ -0,0 +1,21 @@
+package parsing;
+
+// What running a function (or an instruction) can do to the rest of the program, from least to most.
+// Each effect is treated as including the ones before it.
+public enum SideEffect {
+	Pure,			// Only computes a result from its arguments
+	ReadsMemory,	// Reads variables that may be changed outside of it
+	MayNotReturn,	// May run forever (through recursion or a loop), so a call can't be removed even if its result isn't used
+	WritesMemory,	// Writes variables that may be read outside of it
+	IO;				// Prints, or otherwise affects the world outside of the program
+	
+	// Return the greater of this effect and the given one
+	public SideEffect combine(SideEffect other) {
+		return other.ordinal() > ordinal() ? other : this;
+	}
+	
+	// Return true if this effect is the given one or greater
+	public boolean isAtLeast(SideEffect other) {
+		return ordinal() >= other.ordinal();
+	}
+}
@@ -0,0 +1,68 @@
+package parsing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import instructions.AllocVarInstr;
+import instructions.EndBlockInstr;
+import instructions.Instruction;
+
+// This class finds the instruction that declared a variable without scanning the whole program.
+// Every open scope (the instruction that started it, or null for the outermost scope)
+// has a map from variable names to the AllocVarInstr that declared them.
+// A name is looked up in the given scope, then in each enclosing scope.
+
+public class SymbolTable {
+
+	// Variables declared directly in each open scope
+	private final HashMap<Instruction, HashMap<String, AllocVarInstr>> scopes =
+			new HashMap<Instruction, HashMap<String, AllocVarInstr>>();
+
+	// Index of the next instruction in the program that hasn't been added to the table yet
+	private int nextInstructionIndex = 0;
+
+	// Add every instruction that was added to the program since the last call.
+	// Each instruction is only looked at once.
+	public void update(ArrayList<Instruction> instructions) {
+
+		for (int i = nextInstructionIndex; i < instructions.size(); i++) {
+			Instruction instr = instructions.get(i);
+
+			if (instr instanceof AllocVarInstr) { // Declare the variable in its scope
+				AllocVarInstr declareInstr = (AllocVarInstr)instr;
+				HashMap<String, AllocVarInstr> scope = scopes.get(declareInstr.parentInstruction);
+				if (scope == null) {
+					scope = new HashMap<String, AllocVarInstr>();
+					scopes.put(declareInstr.parentInstruction, scope);
+				}
+				scope.put(declareInstr.varName, declareInstr);
+
+			} else if (instr instanceof EndBlockInstr) { // Nothing declared in a closed scope is visible
+				scopes.remove(instr.parentInstruction);
+			}
+		}
+
+		nextInstructionIndex = instructions.size();
+	}
+
+	// Return the instruction that declared a variable by the given name
+	// in the given scope or any scope enclosing it, or null if there is none.
+	public AllocVarInstr find(Instruction parentInstr, String varName) {
+
+		Instruction scopeInstr = parentInstr;
+		while (true) {
+			HashMap<String, AllocVarInstr> scope = scopes.get(scopeInstr);
+			if (scope != null) {
+				AllocVarInstr declareInstr = scope.get(varName);
+				if (declareInstr != null) {
+					return declareInstr;
+				}
+			}
+
+			if (scopeInstr == null) {
+				return null;
+			}
+			scopeInstr = scopeInstr.parentInstruction;
+		}
+	}
+}
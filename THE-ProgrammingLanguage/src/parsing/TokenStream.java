@@ -0,0 +1,194 @@
+package parsing;
+
+import java.util.Arrays;
+
+// This class stores the tokens of a source file in a compact form.
+// Each token is a kind, a start offset and length into the original source, and a line number.
+// Tokens are stored in parallel int arrays so that large files don't create an object per token.
+
+public class TokenStream {
+
+	// Token kinds
+	public static final int IDENTIFIER = 0;		// Names and keywords (int, myVar, while)
+	public static final int NUMBER = 1;			// Numeric literals (5, 2.5, 1.5f, 100L)
+	public static final int STRING = 2;			// String literals, including the quotation marks
+	public static final int OPERATOR = 3;		// A run of operator symbols (+, <=, ++, !@=)
+	public static final int NEGATE = 4;			// A negative sign that is rewritten as "-1 *"
+	public static final int COMMA = 5;
+	public static final int OPEN_PAREN = 6;
+	public static final int CLOSE_PAREN = 7;
+	public static final int OPEN_BRACKET = 8;
+	public static final int CLOSE_BRACKET = 9;
+	public static final int OPEN_BRACE = 10;
+	public static final int CLOSE_BRACE = 11;
+
+	// The text that all offsets refer to
+	public final String source;
+
+	private int size = 0;
+	private int[] kinds = new int[64];
+	private int[] starts = new int[64];
+	private int[] lengths = new int[64];
+	private int[] lineNumbers = new int[64];
+
+	// Index of the first token of each line.  Line i owns tokens [lineStarts[i], lineStarts[i+1]).
+	private int lineCount = 0;
+	private int[] lineStarts = new int[16];
+
+	TokenStream(String source) {
+		this.source = source;
+	}
+
+	// Append a token to the end of the stream
+	void add(int kind, int start, int length, int lineNumber) {
+		if (size == kinds.length) {
+			int newLength = kinds.length * 2;
+			kinds = Arrays.copyOf(kinds, newLength);
+			starts = Arrays.copyOf(starts, newLength);
+			lengths = Arrays.copyOf(lengths, newLength);
+			lineNumbers = Arrays.copyOf(lineNumbers, newLength);
+		}
+		kinds[size] = kind;
+		starts[size] = start;
+		lengths[size] = length;
+		lineNumbers[size] = lineNumber;
+		size++;
+	}
+
+	// Mark the start of a new line.  All tokens added afterward belong to it.
+	void startLine() {
+		if (lineCount + 1 >= lineStarts.length) {
+			lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+		}
+		lineStarts[lineCount] = size;
+		lineCount++;
+		lineStarts[lineCount] = size;
+	}
+
+	// Drop lines from the end of the stream (they must not own any tokens)
+	void truncateLines(int newLineCount) {
+		lineCount = newLineCount;
+		lineStarts[lineCount] = size;
+	}
+
+	// Close the stream after the last token has been added
+	void finish() {
+		lineStarts[lineCount] = size;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int kind(int i) {
+		return kinds[i];
+	}
+
+	public int start(int i) {
+		return starts[i];
+	}
+
+	public int length(int i) {
+		return lengths[i];
+	}
+
+	public int end(int i) {
+		return starts[i] + lengths[i];
+	}
+
+	public int lineNumber(int i) {
+		return lineNumbers[i];
+	}
+
+	public int lineCount() {
+		return lineCount;
+	}
+
+	// Index of the first token on the given line
+	public int firstTokenOfLine(int line) {
+		return lineStarts[line];
+	}
+
+	// Index just past the last token on the given line
+	public int endTokenOfLine(int line) {
+		return lineStarts[line + 1];
+	}
+
+	// Return true if the given token is the given single character
+	public boolean is(int i, char c) {
+		return lengths[i] == 1 && source.charAt(starts[i]) == c;
+	}
+
+	// Return the text of a single token
+	public String text(int i) {
+		if (kinds[i] == NEGATE) {
+			return "-1 *";
+		}
+		return source.substring(starts[i], end(i));
+	}
+
+	// Return true if the given token is the given word
+	public boolean isWord(int i, String word) {
+		return kinds[i] == IDENTIFIER && lengths[i] == word.length() && source.startsWith(word, starts[i]);
+	}
+
+	// Return true if there is whitespace (or a comment) between the given token and the one before it
+	public boolean hasSpaceBefore(int i) {
+		return starts[i] > end(i - 1);
+	}
+
+	// Return true if the normalized text has a space between the given token and the one before it
+	// (a negative sign is always followed by a space, since it becomes "-1 * ")
+	public boolean isSeparatedFromPrevious(int i) {
+		if (kinds[i - 1] == NEGATE) {
+			return true;
+		}
+		char previousChar = source.charAt(end(i - 1) - 1);
+		return hasSpaceBefore(i) && previousChar != '#' && previousChar != '!';
+	}
+
+	// Rebuild the normalized text of the tokens [from, to).
+	// Whitespace (and comments) between two tokens becomes a single space,
+	// except directly after a '#' or '!' where it is removed.
+	public String text(int from, int to) {
+		return text(from, to, Integer.MAX_VALUE);
+	}
+	
+	// Rebuild the normalized text of the tokens [from, to), but only its first maxLength characters,
+	// followed by "..." if any were left out.  This takes no longer than the text it returns.
+	public String text(int from, int to, int maxLength) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = from; i < to && sb.length() <= maxLength; i++) {
+			if (i > from && hasSpaceBefore(i)) {
+				char previousChar = source.charAt(end(i - 1) - 1);
+				if (kinds[i - 1] == NEGATE || (previousChar != '#' && previousChar != '!')) {
+					sb.append(' ');
+				}
+			}
+			if (kinds[i] == NEGATE) {
+				sb.append("-1 * ");
+			} else {
+				sb.append(source, starts[i], end(i));
+			}
+		}
+		if (sb.length() > maxLength) {
+			sb.setLength(maxLength);
+			sb.append("...");
+		}
+		return sb.toString();
+	}
+
+	// Rebuild the normalized text of one line from its tokens
+	public String lineText(int line) {
+		return text(lineStarts[line], lineStarts[line + 1]);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			sb.append(lineNumbers[i]).append(": ").append(kinds[i]).append(" '").append(text(i)).append("'\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,169 @@
+package parsing;
+
+// This class breaks source text into a TokenStream in a single pass.
+// It replaces breakIntoLines, removeWhiteSpace and stripComments in ParseUtil, which rebuild
+// every line many times over.  Comments and whitespace are dropped here, and a negative sign
+// that isn't part of a literal number is marked so it can be read as "-1 *".
+
+public class Tokenizer {
+
+	// Break the given source text into tokens
+	public static TokenStream tokenize(String text) {
+
+		final TokenStream tokens = new TokenStream(text);
+		final int length = text.length();
+
+		int lineNumber = 0;
+		int lastNonEmptyLine = -1; // The last line that had any characters at all (even whitespace)
+		boolean isInBlockComment = false;
+
+		int i = 0;
+		tokens.startLine();
+
+		while (i < length) {
+
+			// Start the next line
+			if (text.charAt(i) == '\n') {
+				i++;
+				lineNumber++;
+				tokens.startLine();
+				continue;
+			}
+
+			lastNonEmptyLine = lineNumber;
+
+			// Skip everything until the end of a multi-line comment
+			if (isInBlockComment) {
+				if (text.startsWith("*/", i)) {
+					isInBlockComment = false;
+					i += 2;
+				} else {
+					i++;
+				}
+				continue;
+			}
+
+			final char c = text.charAt(i);
+
+			if (c <= ' ') { // White space (including tabs and carriage returns)
+				i++;
+
+			} else if (c == '/' && i + 1 < length && text.charAt(i + 1) == '/') { // Single line comment
+				while (i < length && text.charAt(i) != '\n') {
+					i++;
+				}
+
+			} else if (c == '/' && i + 1 < length && text.charAt(i + 1) == '*') { // Multi-line comment
+				isInBlockComment = true;
+				i += 2;
+
+			} else if (c == '"') { // String literal (ends at the closing quote or the end of the line)
+				int end = i + 1;
+				while (end < length && text.charAt(end) != '"' && text.charAt(end) != '\n') {
+					end++;
+				}
+				if (end < length && text.charAt(end) == '"') {
+					end++;
+				}
+				tokens.add(TokenStream.STRING, i, end - i, lineNumber);
+				i = end;
+
+			} else if (c == ',') {
+				tokens.add(TokenStream.COMMA, i, 1, lineNumber);
+				i++;
+			} else if (c == '(') {
+				tokens.add(TokenStream.OPEN_PAREN, i, 1, lineNumber);
+				i++;
+			} else if (c == ')') {
+				tokens.add(TokenStream.CLOSE_PAREN, i, 1, lineNumber);
+				i++;
+			} else if (c == '[') {
+				tokens.add(TokenStream.OPEN_BRACKET, i, 1, lineNumber);
+				i++;
+			} else if (c == ']') {
+				tokens.add(TokenStream.CLOSE_BRACKET, i, 1, lineNumber);
+				i++;
+			} else if (c == '{') {
+				tokens.add(TokenStream.OPEN_BRACE, i, 1, lineNumber);
+				i++;
+			} else if (c == '}') {
+				tokens.add(TokenStream.CLOSE_BRACE, i, 1, lineNumber);
+				i++;
+
+			} else if (ParseUtil.isOperator(c)) { // A run of operator symbols
+				int start = i;
+				while (i < length && ParseUtil.isOperator(text.charAt(i)) && text.charAt(i) != ',' &&
+						!text.startsWith("//", i) && !text.startsWith("/*", i)) {
+
+					// A negative sign is split off into its own token
+					if (text.charAt(i) == '-' && isNegativeSign(tokens, text, i, start, lineNumber)) {
+						if (i > start) {
+							tokens.add(TokenStream.OPERATOR, start, i - start, lineNumber);
+						}
+						tokens.add(TokenStream.NEGATE, i, 1, lineNumber);
+						start = i + 1;
+					}
+					i++;
+				}
+				if (i > start) {
+					tokens.add(TokenStream.OPERATOR, start, i - start, lineNumber);
+				}
+
+			} else { // A name or a number
+				int start = i;
+				while (i < length && isWordCharacter(text.charAt(i))) {
+					i++;
+				}
+				int kind = ParseUtil.isDigit(c) || c == '.' ? TokenStream.NUMBER : TokenStream.IDENTIFIER;
+				tokens.add(kind, start, i - start, lineNumber);
+			}
+		}
+
+		// Like String.split("\n"), lines that are empty at the end of the file are not counted
+		tokens.finish();
+		if (length == 0) {
+			tokens.truncateLines(1);
+		} else {
+			tokens.truncateLines(lastNonEmptyLine + 1);
+		}
+
+		return tokens;
+	}
+
+	// Return true if this character may be part of a name or number
+	private static boolean isWordCharacter(char c) {
+		return c > ' ' && c != '"' && c != ',' &&
+				c != '(' && c != ')' && c != '[' && c != ']' && c != '{' && c != '}' &&
+				!ParseUtil.isOperator(c);
+	}
+
+	// Return true if the '-' at the given index is a negative sign (not a subtraction),
+	// and is not part of a literal number.
+	private static boolean isNegativeSign(TokenStream tokens, String text, int index, int runStart, int lineNumber) {
+
+		// A negative sign is not preceded by a value on the same line
+		int last = tokens.size() - 1;
+		if (index == runStart && last >= 0 && tokens.lineNumber(last) == lineNumber) {
+			char previousChar = tokens.kind(last) == TokenStream.NEGATE ? '*' : text.charAt(tokens.end(last) - 1);
+			if (ParseUtil.isDigit(previousChar) || ParseUtil.isLetter(previousChar) || previousChar == ']' ||
+					previousChar == ')' || previousChar == '}' || previousChar == '_' || previousChar == '.') {
+				return false;
+			}
+		}
+
+		// Find the next character after any white space on this line
+		int next = index + 1;
+		while (next < text.length() && text.charAt(next) <= ' ' && text.charAt(next) != '\n') {
+			next++;
+		}
+
+		// A '-' at the end of a line is left alone
+		if (next >= text.length() || text.charAt(next) == '\n' || text.startsWith("//", next)) {
+			return false;
+		}
+
+		// Negative number literals are left alone
+		char nextChar = text.charAt(next);
+		return !ParseUtil.isDigit(nextChar) && nextChar != '.';
+	}
+}
@@ -9,31 +9,55 @@ import static parsing.ErrorHandler.*;
 public class Type {
 	
 	// Convenient references for re-use
-	public static final Type Bool = new Type(BaseType.Bool);
-	public static final Type Int = new Type(BaseType.Int);
-	public static final Type Long = new Type(BaseType.Long);
-	public static final Type Float = new Type(BaseType.Float);
-	public static final Type Double = new Type(BaseType.Double);
-	public static final Type String = new Type(BaseType.String);
+	public static final Type Bool = get(BaseType.Bool);
+	public static final Type Int = get(BaseType.Int);
+	public static final Type Long = get(BaseType.Long);
+	public static final Type Float = get(BaseType.Float);
+	public static final Type Double = get(BaseType.Double);
+	public static final Type String = get(BaseType.String);
 	
 	public final BaseType baseType; // The fundamental type of this (possibly) composite type
 	public final int dimensions;	// For array type only
 	public final int pointerDepth;	// How many pointers deep is this? (0 = primitive, 1 = *int, 2 = **int, 3 = ***int, etc.)
 	public final boolean isArray;	// True if this is an array of the baseType
 	public final boolean isBaseType; // True if this is just a regular value, not an array or pointer.
+	public final int id;			// Small number that is unique to this type (see TypeTable)
 	
-	// Instantiate a basic type
-	public Type(BaseType baseType) {
+	// Only TypeTable creates types, so that there is exactly one instance of each type.
+	// Two types are the same if and only if they are the same instance.
+	Type(BaseType baseType, int dimensions, boolean isArray, int pointerDepth, int id) {
 		this.baseType = baseType;
-		this.dimensions = 0;
-		this.pointerDepth = 0;
-		this.isArray = false;
-		this.isBaseType = true;
+		this.dimensions = dimensions;
+		this.pointerDepth = pointerDepth;
+		this.isArray = isArray;
+		this.isBaseType = !isArray && pointerDepth == 0;
+		this.id = id;
+	}
+	
+	// Return a basic type
+	public static Type get(BaseType baseType) {
+		return TypeTable.get(baseType, 0, false, 0);
+	}
+	
+	// Return an array type
+	public static Type get(BaseType baseType, int dimensions) {
+		if (dimensions <= 0) {
+			new Exception("Non positive-dimension array disallowed!").printStackTrace();
+		}
+		return TypeTable.get(baseType, dimensions, true, 0);
+	}
+	
+	// Return a type with all available parameters
+	public static Type get(BaseType baseType, int dimensions, boolean isArray, int pointerDepth) {
+		if (isArray && dimensions <= 0) {
+			new Exception("Non positive-dimension array disallowed!").printStackTrace();
+		}
+		return TypeTable.get(baseType, dimensions, isArray, pointerDepth);
 	}
 	
-	// Instantiate a type from the given string.
+	// Return the type from the given string.
 	// For example int*[,,]** or just bool
-	public Type(String s) {
+	public static Type fromString(String s) {
 		
 		int baseTypeEndIndex = 0;
 		while (baseTypeEndIndex < s.length() && ParseUtil.isLetter(s.charAt(baseTypeEndIndex))) {
@@ -41,14 +65,14 @@ public class Type {
 		}
 		
 		String baseTypeString = s.substring(0, baseTypeEndIndex);
-		this.baseType = getBaseTypeFromString(baseTypeString);
+		BaseType baseType = getBaseTypeFromString(baseTypeString);
 		
 		// Compute the pointer depth (number of * after the base type).
 		int p = baseTypeEndIndex;
 		while (p < s.length() && s.charAt(p) == '*') {
 			p++;
 		}
-		this.pointerDepth = p - baseTypeEndIndex;
+		int pointerDepth = p - baseTypeEndIndex;
 		
 		// Compute the array dimensions
 		if (p < s.length() && s.charAt(p) == '[') {
@@ -74,52 +98,9 @@ public class Type {
 				printError("Array type missing closing bracket: '" + s + "'");
 			}
 			
-			this.dimensions = dims;
-			this.isArray = true;
+			return TypeTable.get(baseType, dims, true, pointerDepth);
 		} else {
-			this.dimensions = 0;
-			this.isArray = false;
-		}
-		
-		this.isBaseType = (this.pointerDepth == 0) && !isArray;
-	}
-	
-	// Instantiate an array type
-	public Type(BaseType baseType, int dimensions) {
-		this.baseType = baseType;
-		this.dimensions = dimensions;
-		this.pointerDepth = 0;
-		this.isArray = true;
-		this.isBaseType = false;
-		
-		if (dimensions <= 0) {
-			new Exception("Non positive-dimension array disallowed!").printStackTrace();
-		}
-	}
-
-	// Instantiate an array type from the string BaseType
-	public Type(String s, int dimensions) {
-		this.baseType = getBaseTypeFromString(s);
-		this.dimensions = dimensions;
-		this.pointerDepth = 0;
-		this.isArray = true;
-		this.isBaseType = false;
-		
-		if (dimensions <= 0) {
-			new Exception("Non positive-dimension array disallowed!").printStackTrace();
-		}
-	}
-	
-	// Instantiate a type with all available parameters
-	public Type(BaseType baseType, int dimensions, boolean isArray, int pointerDepth) {
-		this.baseType = baseType;
-		this.dimensions = dimensions;
-		this.pointerDepth = pointerDepth;
-		this.isArray = isArray;
-		this.isBaseType = !isArray && pointerDepth == 0;
-		
-		if (isArray && dimensions <= 0) {
-			new Exception("Non positive-dimension array disallowed!").printStackTrace();
+			return TypeTable.get(baseType, 0, false, pointerDepth);
 		}
 	}
 	
@@ -194,43 +175,49 @@ public class Type {
 	
 	// Return true if this type can be implicitly cast to the given type
 	public boolean canImplicitlyCastTo(final Type other) {
+		return TypeTable.canImplicitlyCast(id, other.id);
+	}
+	
+	// Work out whether one type can be implicitly cast to another.
+	// TypeTable calls this once for every pair of types, and keeps the result.
+	static boolean computeCanImplicitlyCast(final Type from, final Type to) {
 		
 		// If they are truly identical in memory
-		if (this == other) {
+		if (from == to) {
 			return true;
 		}
 		
 		// If they are identical
-		if (baseType == other.baseType &&
-			dimensions == other.dimensions &&
-			pointerDepth == other.pointerDepth) {
+		if (from.baseType == to.baseType &&
+			from.dimensions == to.dimensions &&
+			from.pointerDepth == to.pointerDepth) {
 			
 			return true;
 		}
 		
 		// Everything can be cast to a string
-		if (other.baseType == BaseType.String && !other.isArray && !other.isPointer()) {
+		if (to.baseType == BaseType.String && !to.isArray && !to.isPointer()) {
 			return true;
 		}
 		
-		if (pointerDepth != other.pointerDepth) {
+		if (from.pointerDepth != to.pointerDepth) {
 			return false;
 		}
 		
-		if (dimensions != other.dimensions) {
+		if (from.dimensions != to.dimensions) {
 			return false;
 		}
 		
-		if (baseType == BaseType.Int) {
-			if (other.baseType == BaseType.Double || other.baseType == BaseType.Float || other.baseType == BaseType.Long) {
+		if (from.baseType == BaseType.Int) {
+			if (to.baseType == BaseType.Double || to.baseType == BaseType.Float || to.baseType == BaseType.Long) {
 				return true;
 			}
-		} else if (baseType == BaseType.Long) {
-			if (other.baseType == BaseType.Double || other.baseType == BaseType.Float) {
+		} else if (from.baseType == BaseType.Long) {
+			if (to.baseType == BaseType.Double || to.baseType == BaseType.Float) {
 				return true;
 			}
-		} else if (baseType == BaseType.Float) {
-			if (other.baseType == BaseType.Double) {
+		} else if (from.baseType == BaseType.Float) {
+			if (to.baseType == BaseType.Double) {
 				return true;
 			}
 		}
@@ -241,7 +228,7 @@ public class Type {
 	// Return a copy of this type, but with pointerDepth increased by 1.
 	// int[] -> int[]*
 	public Type makePointerToThis() {
-		return new Type(baseType, dimensions, isArray, pointerDepth + 1);
+		return get(baseType, dimensions, isArray, pointerDepth + 1);
 	}
 	
 	// Return a copy of the type being pointed to by this type.
@@ -250,7 +237,7 @@ public class Type {
 		if (pointerDepth <= 0) {
 			printError("Cannot dereference non-reference type " + this);
 		}
-		return new Type(baseType, dimensions, isArray, pointerDepth - 1);
+		return get(baseType, dimensions, isArray, pointerDepth - 1);
 	}
 	
 	// Return a copy of this type, but with isArray = true
@@ -262,7 +249,7 @@ public class Type {
 		if (pointerDepth != 0) {
 			printError("Arrays of pointers not implemented yet");
 		}
-		return new Type(baseType, numDimensions, true, 0);
+		return get(baseType, numDimensions, true, 0);
 	}
 	
 	@Override
@@ -0,0 +1,115 @@
+package parsing;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+// This class holds the one canonical Type instance for every distinct type.
+// Each type gets a small id when it is first created, so that facts about a pair of types
+// (whether one can be implicitly cast to the other, or what type an operator returns)
+// can be stored in tables and looked up by id instead of being worked out again every time.
+// Lookups don't lock.  The tables are only ever replaced by new copies (under a lock),
+// so a reader always sees a table that is complete for every type it can know about.
+
+public class TypeTable {
+
+	// Every type that has been created, found by its key, and by its id.
+	// A type is only added to typesByKey once the cast table covers it.
+	private static final ConcurrentHashMap<Long, Type> typesByKey = new ConcurrentHashMap<Long, Type>();
+	private static final ArrayList<Type> typesById = new ArrayList<Type>();
+
+	// implicitCastTable[a][b] is true if the type with id a can be implicitly cast to the type with id b.
+	// It is filled in for every pair of types as soon as a new type is created.
+	private static volatile boolean[][] implicitCastTable = new boolean[0][0];
+
+	// The type returned by each kind of instruction, for each pair of operand types, once it is known.
+	// resultTypes.get(instructionClass)[op1.id][op2.id + 1] (op2 may be null, for unary instructions)
+	private static final ConcurrentHashMap<Class<?>, Type[][]> resultTypes = new ConcurrentHashMap<Class<?>, Type[][]>();
+
+	// Return the canonical type with the given attributes, creating it if needed
+	static Type get(BaseType baseType, int dimensions, boolean isArray, int pointerDepth) {
+		final long key = makeKey(baseType, dimensions, isArray, pointerDepth);
+		Type type = typesByKey.get(key);
+		if (type != null) {
+			return type;
+		}
+		return create(key, baseType, dimensions, isArray, pointerDepth);
+	}
+
+	// Create the type with the given key, unless another thread just did
+	private static synchronized Type create(long key, BaseType baseType, int dimensions, boolean isArray, int pointerDepth) {
+
+		Type type = typesByKey.get(key);
+		if (type != null) {
+			return type;
+		}
+
+		final int id = typesById.size();
+		type = new Type(baseType, dimensions, isArray, pointerDepth, id);
+		typesById.add(type);
+
+		// Work out how the new type casts to and from every other type
+		boolean[][] newCastTable = new boolean[id + 1][];
+		for (int i = 0; i < id; i++) {
+			newCastTable[i] = new boolean[id + 1];
+			System.arraycopy(implicitCastTable[i], 0, newCastTable[i], 0, id);
+			newCastTable[i][id] = Type.computeCanImplicitlyCast(typesById.get(i), type);
+		}
+		newCastTable[id] = new boolean[id + 1];
+		for (int i = 0; i <= id; i++) {
+			newCastTable[id][i] = Type.computeCanImplicitlyCast(type, typesById.get(i));
+		}
+		implicitCastTable = newCastTable;
+
+		typesByKey.put(key, type);
+		return type;
+	}
+
+	// Return true if the type with the first id can be implicitly cast to the type with the second id
+	static boolean canImplicitlyCast(int fromId, int toId) {
+		return implicitCastTable[fromId][toId];
+	}
+
+	// Return the type that the given kind of instruction returns for the given operand types,
+	// or null if it hasn't been found yet.
+	static Type getResultType(Class<?> instructionClass, Type op1, Type op2) {
+		Type[][] table = resultTypes.get(instructionClass);
+		if (table == null) {
+			return null;
+		}
+		final int index2 = op2 == null ? 0 : op2.id + 1;
+		if (op1.id >= table.length || table[op1.id] == null || index2 >= table[op1.id].length) {
+			return null;
+		}
+		return table[op1.id][index2];
+	}
+
+	// Remember the type that the given kind of instruction returns for the given operand types
+	static synchronized void setResultType(Class<?> instructionClass, Type op1, Type op2, Type resultType) {
+
+		// Copy the table and the changed row, with room for every type that exists so far
+		final int typeCount = typesById.size();
+		Type[][] table = resultTypes.get(instructionClass);
+		Type[][] newTable = new Type[typeCount][];
+		if (table != null) {
+			System.arraycopy(table, 0, newTable, 0, table.length);
+		}
+		Type[] newRow = new Type[typeCount + 1];
+		if (newTable[op1.id] != null) {
+			System.arraycopy(newTable[op1.id], 0, newRow, 0, newTable[op1.id].length);
+		}
+
+		final int index2 = op2 == null ? 0 : op2.id + 1;
+		newRow[index2] = resultType;
+		newTable[op1.id] = newRow;
+		resultTypes.put(instructionClass, newTable);
+	}
+
+	// Return a number that is different for every distinct type
+	private static long makeKey(BaseType baseType, int dimensions, boolean isArray, int pointerDepth) {
+		long key = baseType == null ? 0 : baseType.ordinal() + 1; // The base type is null if it wasn't recognized
+		key = (key << 24) | dimensions;
+		key = (key << 24) | pointerDepth;
+		key = (key << 1) | (isArray ? 1 : 0);
+		return key;
+	}
+}
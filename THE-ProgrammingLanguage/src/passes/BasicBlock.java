@@ -0,0 +1,49 @@
+package passes;
+
+import java.util.ArrayList;
+
+import instructions.Instruction;
+
+// A basic block is a list of instructions that always run in order, from the first to the last.
+// Control can only enter a block at its first instruction, and only leave after its last one.
+// The blocks of a function, and the edges between them, are built by ControlFlowGraph.
+
+public class BasicBlock {
+	
+	// The position of this block in the list of blocks of its ControlFlowGraph
+	public final int id;
+	
+	public final ArrayList<Instruction> instructions = new ArrayList<Instruction>();
+	
+	// The blocks that may run just before this one
+	public final ArrayList<BasicBlock> predecessors = new ArrayList<BasicBlock>(2);
+	
+	// The blocks that may run just after this one
+	public final ArrayList<BasicBlock> successors = new ArrayList<BasicBlock>(2);
+	
+	public BasicBlock(int id) {
+		this.id = id;
+	}
+	
+	// Return the first instruction of this block, or null if it is empty
+	public Instruction getFirstInstruction() {
+		return instructions.isEmpty() ? null : instructions.get(0);
+	}
+	
+	// Return the last instruction of this block, or null if it is empty
+	public Instruction getLastInstruction() {
+		return instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+	}
+	
+	// Add an edge from this block to the given block (unless there already is one)
+	void addSuccessor(BasicBlock block) {
+		if (!successors.contains(block)) {
+			successors.add(block);
+			block.predecessors.add(this);
+		}
+	}
+	
+	public String toString() {
+		return "B" + id;
+	}
+}
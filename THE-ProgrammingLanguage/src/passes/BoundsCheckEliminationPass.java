@@ -0,0 +1,627 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import instructions.*;
+import parsing.BaseType;
+import parsing.IntStack;
+import parsing.Type;
+
+/* This pass finds the array accesses whose indices are always in range, and marks their GetElementInstrs as
+in bounds, so that the backend doesn't have to check them.  Nothing else about the instructions is changed.
+For example:
+
+int l = 0
+int r = #arr - 1
+while l <= r
+	int m = l + (r - l) / 2
+	if arr[m] = x
+		...
+	if arr[m] < x
+		l = m + 1
+	else
+		r = m - 1
+	]
+]
+
+40  | ArrLength(int[]* 39)->int Parent=0 '#arr' (all elements)
+41  | Given->int [1] Parent=0 '1'
+42  | Sub(int 40, int 41)->int Parent=0 '#arr - 1'
+60  | Given->int [2] Parent=0 '2'
+48  | Loop Parent=0 'while loop start'
+224 | | Phi(int 238, int 223 from 95)->int Parent=48 'l'
+226 | | Phi(int 42, int 225 from 95)->int Parent=48 'r'
+51  | | LessEqual(int 224, int 226)->bool Parent=48 'l <= r'
+52  | | BoolNot(bool 51)->bool Parent=48 '!(l <= r)'
+53  | | If(bool 52) End=55 Parent=48 'if !(l <= r)'
+54  | | | Break Parent=53 'break while'
+55  | | | EndBlock Parent=53 'end if'
+59  | | Sub(int 226, int 224)->int Parent=48 'r - l'
+61  | | Divide(int 59, int 60)->int Parent=48 '(r - l) / 2'
+62  | | Add(int 224, int 61)->int Parent=48 'l + (r - l) / 2'
+66  | | GetElement(int[]* 3, int 62)->int* Parent=48 'arr[m]' (in bounds)
+...
+84  | | | Add(int 62, int 41)->int Parent=81 'm + 1'
+...
+91  | | | Sub(int 62, int 41)->int Parent=88 'm - 1'
+...
+223 | | Phi(int 224, int 84 from 87)->int Parent=48 'l'
+225 | | Phi(int 91, int 226 from 87)->int Parent=48 'r'
+95  | | EndBlock Parent=48 'end while loop start'
+
+Here l <= r after the If at the start of the loop, so m is between l and r.  l starts at 0 and only becomes m + 1,
+so it is never less than 0, and r starts at #arr - 1 and only becomes m - 1 (which is less than m <= r),
+so it is always less than #arr.  So 0 <= m < #arr, and arr has not been changed since #arr was read.
+
+An index is in range if it is at least 0 and less than the length of the array in its dimension.
+The length is either the same constant for every array that is stored to the array's variable in the function
+(when one of those stores always runs before the access), or the value of an ArrLength of the variable
+(for a 1-dimensional array) that always runs before the access, with no store to the variable in between.
+
+What is known about the values comes from the Ifs that must have gone one way to get to the access
+(such as "i < #arr" after "if i >= #arr  break"), and from how each value is worked out:
+	a + c, a - c			by a constant, when a is in range so that it can't wrap around
+	a / c, a % c			by a positive constant, when a is at least 0
+	b - a					is at least 0 when 0 <= a <= b
+	a + (b - a) / c			is between a and b when 0 <= a <= b (the middle of a binary search)
+A phi (such as the counter of a loop) is shown to be in range by showing that each of its values is,
+assuming that the phi itself is while doing so (since each value is worked out from an earlier value of the phi).
+Each proof gives up after a fixed number of steps, so that the pass stays fast.
+*/
+
+public class BoundsCheckEliminationPass {
+	
+	// How many steps back a proof may look, and how many steps it may take in all, before it gives up
+	private static final int MAX_DEPTH = 20;
+	private static final int MAX_STEPS = 5000;
+	
+	// A comparison that is known to be true: smaller < larger (if it is strict), or smaller <= larger
+	private static class Fact {
+		final Instruction smaller;
+		final Instruction larger;
+		final boolean isStrict;
+		
+		Fact(Instruction smaller, Instruction larger, boolean isStrict) {
+			this.smaller = smaller;
+			this.larger = larger;
+			this.isStrict = isStrict;
+		}
+	}
+	
+	// The relations between values that this pass proves
+	private enum Relation {
+		AtLeast,	// value >= a constant
+		BelowMax,	// value < the largest value of its type, so adding 1 to it can't wrap around
+		Less,		// value < another value
+		AtMost		// value <= another value
+	}
+	
+	// Main call to this pass:
+	public static void eliminateBoundsChecks(ArrayList<Instruction> instructions) {
+		IntStack functionRanges = ControlFlowGraph.findFunctionRanges(instructions);
+		for (int i = 0; i < functionRanges.size(); i += 2) {
+			ControlFlowGraph graph = ControlFlowGraph.build(instructions, functionRanges.get(i), functionRanges.get(i + 1));
+			new BoundsCheckEliminationPass(graph).markAccessesInBounds();
+		}
+	}
+	
+	// Return a line for each function of the given program, with how many of its array accesses need no bounds check
+	public static String getReport(ArrayList<Instruction> instructions) {
+		StringBuilder report = new StringBuilder();
+		
+		for (ControlFlowGraph graph : ControlFlowGraph.buildAll(instructions)) {
+			int accessCount = 0;
+			int inBoundsCount = 0;
+			for (BasicBlock block : graph.blocks) {
+				for (Instruction instr : block.instructions) {
+					if (instr instanceof GetElementInstr) {
+						accessCount++;
+						if (((GetElementInstr)instr).isInBounds) {
+							inBoundsCount++;
+						}
+					}
+				}
+			}
+			report.append(graph.funcDefInstr.functionThatWasDefined.name + ": " + inBoundsCount + " of " +
+					accessCount + " bounds checks removed\n");
+		}
+		return report.toString();
+	}
+	
+	private final ControlFlowGraph graph;
+	private final DominatorTree dominatorTree;
+	
+	// What is known at the start of each block (by id), from the Ifs that must have been taken one way to get there
+	private final ArrayList<ArrayList<Fact>> factsAtBlock;
+	
+	// The instructions that may store a new array to each array variable, and the ArrLengths that read its length
+	private final HashMap<Instruction, ArrayList<Instruction>> writesOfVariable = new HashMap<Instruction, ArrayList<Instruction>>();
+	private final HashMap<Instruction, ArrayList<Instruction>> lengthsOfVariable = new HashMap<Instruction, ArrayList<Instruction>>();
+	
+	// The relations of phis that are being proven, which may be assumed to hold while proving them.
+	// A phi that is assumed to be at least some value is also at least anything smaller.
+	private final HashSet<String> assumptions = new HashSet<String>();
+	private final HashMap<Instruction, Long> assumedMinimums = new HashMap<Instruction, Long>();
+	
+	// How many more steps the proof for the current index may take
+	private int stepsLeft;
+	
+	private BoundsCheckEliminationPass(ControlFlowGraph graph) {
+		this.graph = graph;
+		this.dominatorTree = new DominatorTree(graph);
+		
+		// A block's immediate dominator comes before it in reverse postorder
+		factsAtBlock = new ArrayList<ArrayList<Fact>>(graph.blocks.size());
+		for (int i = 0; i < graph.blocks.size(); i++) {
+			factsAtBlock.add(null);
+		}
+		for (BasicBlock block : dominatorTree.getReversePostOrder()) {
+			factsAtBlock.set(block.id, findFacts(block));
+		}
+		
+		for (BasicBlock block : graph.blocks) {
+			for (Instruction instr : block.instructions) {
+				findArrayUses(instr);
+			}
+		}
+	}
+	
+	// Mark each GetElementInstr of the function whose indices are always in range
+	private void markAccessesInBounds() {
+		for (BasicBlock block : dominatorTree.getReversePostOrder()) {
+			for (Instruction instr : block.instructions) {
+				if (instr instanceof GetElementInstr) {
+					GetElementInstr getElement = (GetElementInstr)instr;
+					getElement.isInBounds = areIndicesInBounds(getElement, block);
+				}
+			}
+		}
+	}
+	
+	// Return what is known at the start of the given block, given what is known at the start of its immediate dominator
+	private ArrayList<Fact> findFacts(BasicBlock block) {
+		ArrayList<Fact> facts = new ArrayList<Fact>();
+		BasicBlock dominator = dominatorTree.getImmediateDominator(block);
+		if (dominator == null) {
+			return facts;
+		}
+		facts.addAll(factsAtBlock.get(dominator.id));
+		
+		// A block that is only reached from an If knows which way its condition went
+		Instruction lastInstr = dominator.getLastInstruction();
+		if (block.predecessors.size() == 1 && lastInstr instanceof IfInstr && dominator.successors.size() == 2) {
+			addFacts(facts, ((IfInstr)lastInstr).conditionInstr, dominator.successors.get(0) == block);
+		}
+		return facts;
+	}
+	
+	// Add the comparisons that are known to be true when the given condition has the given value
+	private static void addFacts(ArrayList<Fact> facts, Instruction condition, boolean isTrue) {
+		if (condition instanceof BoolNotInstr) {
+			addFacts(facts, ((BoolNotInstr)condition).arg, !isTrue);
+			return;
+		}
+		if ((condition instanceof BoolAndInstr && isTrue) || (condition instanceof BoolOrInstr && !isTrue)) {
+			for (Instruction arg : condition.getAllArgs()) {
+				addFacts(facts, arg, isTrue);
+			}
+			return;
+		}
+		
+		Instruction[] args = condition.getAllArgs();
+		if (args.length != 2 || args[0].returnType != args[1].returnType || !args[0].returnType.isIntegerType()) {
+			return;
+		}
+		final Instruction left = args[0];
+		final Instruction right = args[1];
+		
+		if (condition instanceof LessInstr) {
+			facts.add(isTrue ? new Fact(left, right, true) : new Fact(right, left, false));
+		} else if (condition instanceof LessEqualInstr) {
+			facts.add(isTrue ? new Fact(left, right, false) : new Fact(right, left, true));
+		} else if (condition instanceof GreaterInstr) {
+			facts.add(isTrue ? new Fact(right, left, true) : new Fact(left, right, false));
+		} else if (condition instanceof GreaterEqualInstr) {
+			facts.add(isTrue ? new Fact(right, left, false) : new Fact(left, right, true));
+		} else if ((condition instanceof EqualInstr && isTrue) || (condition instanceof NotEqualInstr && !isTrue)) {
+			facts.add(new Fact(left, right, false));
+			facts.add(new Fact(right, left, false));
+		}
+	}
+	
+	// Record the given instruction if it reads the length of an array variable,
+	// or may store a new array to one (anything but reading it)
+	private void findArrayUses(Instruction instr) {
+		if (instr instanceof ArrLengthInstr) {
+			Instruction variable = ((ArrLengthInstr)instr).pointerInstr.arg;
+			if (variable instanceof AllocVarInstr) {
+				getList(lengthsOfVariable, variable).add(instr);
+			}
+			return;
+		}
+		
+		for (Instruction arg : instr.getAllArgs()) {
+			if (arg instanceof IdentityInstr && ((IdentityInstr)arg).arg instanceof AllocVarInstr) {
+				getList(writesOfVariable, ((IdentityInstr)arg).arg).add(instr);
+			} else if (arg instanceof AllocVarInstr && arg.returnType.isPointer() &&
+					!(instr instanceof GetElementInstr || instr instanceof IdentityInstr || instr instanceof LoadInstr)) {
+				getList(writesOfVariable, arg).add(instr);
+			}
+		}
+	}
+	
+	// Return true if every index of the given GetElementInstr (in the given block) is in range
+	private boolean areIndicesInBounds(GetElementInstr getElement, BasicBlock block) {
+		Instruction[] indices = getElement.instructionsForIndices;
+		for (int i = 0; i < indices.length; i++) {
+			stepsLeft = MAX_STEPS;
+			if (!indices[i].returnType.isIntegerType() ||
+					!isTrue(Relation.AtLeast, indices[i], null, 0, block, MAX_DEPTH) ||
+					!isBelowLength(getElement, i, block)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// Return true if the index of the given GetElementInstr in the given dimension is less than the array's length in it
+	private boolean isBelowLength(GetElementInstr getElement, int dimension, BasicBlock block) {
+		Instruction index = getElement.instructionsForIndices[dimension];
+		
+		Instruction constantLength = getConstantLength(getElement, dimension);
+		if (constantLength != null && isTrue(Relation.Less, index, constantLength, 0, block, MAX_DEPTH)) {
+			return true;
+		}
+		
+		// The length of an array with more than one dimension can only be read for all of its elements
+		if (getElement.instructionsForIndices.length != 1) {
+			return false;
+		}
+		for (Instruction length : getList(lengthsOfVariable, getElement.declareInstr)) {
+			if (dominatorTree.dominates(length, getElement) && isUnchangedBetween(getElement.declareInstr, length, getElement) &&
+					isTrue(Relation.Less, index, length, 0, block, MAX_DEPTH)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// Return the constant length of the array of the given GetElementInstr in the given dimension,
+	// if every array that is stored to its variable has that length and one of those stores always runs before it.
+	// Otherwise, return null.
+	private Instruction getConstantLength(GetElementInstr getElement, int dimension) {
+		Instruction length = null;
+		boolean isStoredBefore = false;
+		
+		for (Instruction write : getList(writesOfVariable, getElement.declareInstr)) {
+			if (!(write instanceof StoreInstr) || ((StoreInstr)write).instrThatReturnedPointer != getElement.declareInstr ||
+					!(((StoreInstr)write).valueToStore instanceof AllocArrInstr)) {
+				return null;
+			}
+			
+			Instruction[] sizes = ((AllocArrInstr)((StoreInstr)write).valueToStore).dimensionSizes;
+			if (dimension >= sizes.length || !(sizes[dimension] instanceof GivenInstr) ||
+					(length != null && !InductionVariables.isSameConstant(length, sizes[dimension]))) {
+				return null;
+			}
+			length = sizes[dimension];
+			if (dominatorTree.dominates(write, getElement)) {
+				isStoredBefore = true;
+			}
+		}
+		return isStoredBefore ? length : null;
+	}
+	
+	// Return true if nothing may store a new array to the given variable after the given ArrLength runs
+	// and before the given instruction runs (which the ArrLength dominates)
+	private boolean isUnchangedBetween(Instruction variable, Instruction lengthInstr, Instruction instr) {
+		ArrayList<Instruction> writes = getList(writesOfVariable, variable);
+		if (writes.isEmpty()) {
+			return true;
+		}
+		
+		// Walk back from the instruction, along every path, until the ArrLength is found
+		BasicBlock block = graph.getBlock(instr);
+		ArrayList<BasicBlock> blocksToVisit = new ArrayList<BasicBlock>();
+		boolean[] isVisited = new boolean[graph.blocks.size()];
+		int start = block.instructions.indexOf(instr) - 1;
+		
+		while (true) {
+			boolean isFound = false;
+			for (int i = start; i >= 0; i--) {
+				Instruction blockInstr = block.instructions.get(i);
+				if (blockInstr == lengthInstr) {
+					isFound = true;
+					break;
+				}
+				if (writes.contains(blockInstr)) {
+					return false;
+				}
+			}
+			if (!isFound) {
+				for (BasicBlock predecessor : block.predecessors) {
+					if (!isVisited[predecessor.id] && dominatorTree.isReachable(predecessor)) {
+						isVisited[predecessor.id] = true;
+						blocksToVisit.add(predecessor);
+					}
+				}
+			}
+			
+			if (blocksToVisit.isEmpty()) {
+				return true;
+			}
+			block = blocksToVisit.remove(blocksToVisit.size() - 1);
+			start = block.instructions.size() - 1;
+		}
+	}
+	
+	// Return true if the given relation holds for the given value at the start of the given block:
+	// value >= min (AtLeast), value < the largest value of its type (BelowMax), value < other (Less), or value <= other (AtMost)
+	private boolean isTrue(Relation relation, Instruction value, Instruction other, long min, BasicBlock block, int depth) {
+		if (depth == 0 || --stepsLeft < 0 || !value.returnType.isIntegerType()) {
+			return false;
+		}
+		
+		if (value instanceof GivenInstr && (other == null || other instanceof GivenInstr)) {
+			final long constant = getConstant(value);
+			switch (relation) {
+			case AtLeast:
+				return constant >= min;
+			case BelowMax:
+				return constant < getMaxValue(value.returnType);
+			case Less:
+				return constant < getConstant(other);
+			default:
+				return constant <= getConstant(other);
+			}
+		}
+		if (relation == Relation.AtMost && value == other) {
+			return true;
+		}
+		
+		if (value instanceof PhiInstr && isTrueForEachValue(relation, (PhiInstr)value, other, min, depth)) {
+			return true;
+		}
+		
+		if (relation == Relation.AtLeast) {
+			return isAtLeast(value, min, block, depth);
+		}
+		
+		// Look for a chain of upper bounds from the value to the other value
+		for (Fact bound : getUpperBounds(value, block, depth - 1)) {
+			switch (relation) {
+			case BelowMax:
+				if (bound.isStrict || isTrue(Relation.BelowMax, bound.larger, null, 0, block, depth - 1)) {
+					return true;
+				}
+				break;
+			case Less:
+				if ((bound.larger == other && bound.isStrict) ||
+						isTrue(bound.isStrict ? Relation.AtMost : Relation.Less, bound.larger, other, 0, block, depth - 1)) {
+					return true;
+				}
+				break;
+			default:
+				if (bound.larger == other || isTrue(Relation.AtMost, bound.larger, other, 0, block, depth - 1)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	// Return true if the given relation holds for each value of the given phi, when it holds for the phi itself.
+	// Each value is looked at in the block that it comes from.
+	private boolean isTrueForEachValue(Relation relation, PhiInstr phi, Instruction other, long min, int depth) {
+		final String key = relation + " " + phi.id + " " + ((other == null) ? "" : Integer.toString(other.id));
+		final Long assumedMinimum = assumedMinimums.get(phi);
+		if ((relation == Relation.AtLeast) ? (assumedMinimum != null && assumedMinimum >= min) : assumptions.contains(key)) {
+			return true;
+		}
+		
+		// The other value must be the same for every value of the phi, so it must be worked out before the phi's block
+		BasicBlock phiBlock = graph.getBlock(phi);
+		if (other != null && !(other instanceof GivenInstr)) {
+			BasicBlock otherBlock = graph.getBlock(other);
+			if (otherBlock == null || otherBlock == phiBlock || !dominatorTree.dominates(otherBlock, phiBlock)) {
+				return false;
+			}
+		}
+		
+		if (relation == Relation.AtLeast) {
+			assumedMinimums.put(phi, min);
+		} else {
+			assumptions.add(key);
+		}
+		try {
+			for (int i = 0; i < phi.values.length; i++) {
+				BasicBlock predecessor = getPredecessor(phiBlock, phi.fromInstrs[i]);
+				if (predecessor == null) {
+					return false;
+				}
+				if (dominatorTree.isReachable(predecessor) &&
+						!isTrue(relation, phi.values[i], other, min, predecessor, depth - 1)) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			if (relation != Relation.AtLeast) {
+				assumptions.remove(key);
+			} else if (assumedMinimum != null) {
+				assumedMinimums.put(phi, assumedMinimum);
+			} else {
+				assumedMinimums.remove(phi);
+			}
+		}
+	}
+	
+	
+	// Return true if the given value is at least the given constant at the start of the given block
+	private boolean isAtLeast(Instruction value, long min, BasicBlock block, int depth) {
+		if (value instanceof ArrLengthInstr) {
+			return min <= 0;
+		}
+		
+		for (Fact fact : factsAtBlock.get(block.id)) {
+			if (fact.larger == value &&
+					isTrue(Relation.AtLeast, fact.smaller, null, fact.isStrict ? min - 1 : min, block, depth - 1)) {
+				return true;
+			}
+		}
+		
+		if (!isOperationOnOwnType(value)) {
+			return false;
+		}
+		Instruction[] args = value.getAllArgs();
+		
+		// a + c is at least min when a is at least min - c (and a + c can't wrap around)
+		Long offset = getOffset(value);
+		if (offset != null) {
+			final long c = offset;
+			if (c > 0 && (c != 1 || !isTrue(Relation.BelowMax, args[0], null, 0, block, depth - 1))) {
+				return false;
+			}
+			return isTrue(Relation.AtLeast, args[0], null, min - c, block, depth - 1);
+		}
+		
+		if ((value instanceof DivideInstr || value instanceof ModuloInstr) && isPositiveConstant(args[1])) {
+			return min <= 0 && isTrue(Relation.AtLeast, args[0], null, 0, block, depth - 1);
+		}
+		
+		// b - a is at least 0 when 0 <= a <= b
+		if (value instanceof SubInstr) {
+			return min <= 0 && isTrue(Relation.AtLeast, args[1], null, 0, block, depth - 1) &&
+					isTrue(Relation.AtMost, args[1], args[0], 0, block, depth - 1);
+		}
+		
+		// a + (b - a) / c is at least a
+		Instruction start = getMiddleStart(value, block, depth - 1);
+		return start != null && isTrue(Relation.AtLeast, start, null, min, block, depth - 1);
+	}
+	
+	// Return the values that the given value is known to be less than (or at most) at the start of the given block
+	private ArrayList<Fact> getUpperBounds(Instruction value, BasicBlock block, int depth) {
+		ArrayList<Fact> bounds = new ArrayList<Fact>();
+		for (Fact fact : factsAtBlock.get(block.id)) {
+			if (fact.smaller == value) {
+				bounds.add(fact);
+			}
+		}
+		
+		if (depth == 0 || !isOperationOnOwnType(value)) {
+			return bounds;
+		}
+		Instruction[] args = value.getAllArgs();
+		
+		// a - c is less than a, when a is at least 0 (so that it can't wrap around)
+		Long offset = getOffset(value);
+		if (offset != null && offset <= 0 && isTrue(Relation.AtLeast, args[0], null, 0, block, depth)) {
+			bounds.add(new Fact(value, args[0], offset < 0));
+		}
+		
+		if (isPositiveConstant(args[1]) && isTrue(Relation.AtLeast, args[0], null, 0, block, depth)) {
+			if (value instanceof DivideInstr) {
+				bounds.add(new Fact(value, args[0], false));
+			} else if (value instanceof ModuloInstr) {
+				bounds.add(new Fact(value, args[1], true));
+			}
+		}
+		
+		// a + (b - a) / c is at most b
+		if (getMiddleStart(value, block, depth) != null) {
+			bounds.add(new Fact(value, getMiddleEnd(value), false));
+		}
+		return bounds;
+	}
+	
+	// If the given value is a + (b - a) / c, where c is a positive constant and 0 <= a <= b,
+	// return a (so the value is between a and b).  Otherwise, return null.
+	private Instruction getMiddleStart(Instruction value, BasicBlock block, int depth) {
+		Instruction end = getMiddleEnd(value);
+		if (end == null || depth == 0) {
+			return null;
+		}
+		Instruction start = ((AddInstr)value).arg1;
+		if (start instanceof DivideInstr) {
+			start = ((AddInstr)value).arg2;
+		}
+		if (!isTrue(Relation.AtLeast, start, null, 0, block, depth) || !isTrue(Relation.AtMost, start, end, 0, block, depth)) {
+			return null;
+		}
+		return start;
+	}
+	
+	// If the given value is a + (b - a) / c, where c is a positive constant, return b.  Otherwise, return null.
+	private static Instruction getMiddleEnd(Instruction value) {
+		if (!(value instanceof AddInstr)) {
+			return null;
+		}
+		AddInstr add = (AddInstr)value;
+		for (int i = 0; i < 2; i++) {
+			Instruction start = (i == 0) ? add.arg1 : add.arg2;
+			Instruction half = (i == 0) ? add.arg2 : add.arg1;
+			if (half instanceof DivideInstr && half.returnType == value.returnType &&
+					((DivideInstr)half).arg1 instanceof SubInstr && ((DivideInstr)half).arg1.returnType == value.returnType &&
+					((SubInstr)((DivideInstr)half).arg1).arg2 == start && isPositiveConstant(((DivideInstr)half).arg2)) {
+				return ((SubInstr)((DivideInstr)half).arg1).arg1;
+			}
+		}
+		return null;
+	}
+	
+	// Return true if the given value is worked out from two values of its own type
+	private static boolean isOperationOnOwnType(Instruction value) {
+		Instruction[] args = value.getAllArgs();
+		return args.length == 2 && args[0] != null && args[1] != null &&
+				args[0].returnType == value.returnType && args[1].returnType == value.returnType;
+	}
+	
+	// If the given value is a + c or a - c, where c is a small constant, return how much it adds to a.
+	// Otherwise, return null.
+	private static Long getOffset(Instruction value) {
+		Instruction[] args = value.getAllArgs();
+		if (!(value instanceof AddInstr || value instanceof SubInstr) || !(args[1] instanceof GivenInstr)) {
+			return null;
+		}
+		final long c = getConstant(args[1]);
+		if (c < -(1 << 20) || c > (1 << 20)) {
+			return null;
+		}
+		return (value instanceof AddInstr) ? c : -c;
+	}
+	
+	// Return the block that control comes from to get to the given block from the given instruction
+	// (as in PhiInstr.fromInstrs), or null if there isn't one
+	private BasicBlock getPredecessor(BasicBlock block, Instruction fromInstr) {
+		for (BasicBlock predecessor : block.predecessors) {
+			if (graph.getJumpInstruction(predecessor, block) == fromInstr) {
+				return predecessor;
+			}
+		}
+		return null;
+	}
+	
+	private static boolean isPositiveConstant(Instruction instr) {
+		return instr instanceof GivenInstr && getConstant(instr) > 0;
+	}
+	
+	private static long getConstant(Instruction instr) {
+		return ((Number)((GivenInstr)instr).rawValue).longValue();
+	}
+	
+	private static long getMaxValue(Type type) {
+		return type.isA(BaseType.Int) ? Integer.MAX_VALUE : Long.MAX_VALUE;
+	}
+	
+	private static ArrayList<Instruction> getList(HashMap<Instruction, ArrayList<Instruction>> lists, Instruction instr) {
+		ArrayList<Instruction> list = lists.get(instr);
+		if (list == null) {
+			list = new ArrayList<Instruction>(2);
+			lists.put(instr, list);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,565 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import instructions.*;
+import parsing.IntStack;
+
+/* This pass finds the values that are constant in each function, and the branches that can never be taken,
+with the sparse conditional constant propagation algorithm of Wegman and Zadeck.
+Each branch that can never be taken is removed, along with the If, Else, and EndBlock instructions around it.
+For example:
+
+int x = 3
+int y = x * 2
+if y > 5
+	x = 0
+else
+	x = x + 1
+]
+print(x)
+
+0   FunctionDef() [main] Parent=-1 'int main()'
+1   | Given->int [3] Parent=0 '3'
+5   | Given->int [2] Parent=0 '2'
+6   | Mult(int 1, int 5)->int Parent=0 'x * 2'
+10  | Given->int [5] Parent=0 '5'
+11  | Greater(int 6, int 10)->bool Parent=0 'y > 5'
+12  | If(bool 11) End=16 Else=17 Parent=0 'y > 5'
+13  | | Given->int [0] Parent=12 '0'
+16  | | EndBlock Parent=12 'end If'
+17  | Else End=23 PreviousIf=12 Parent=0 'else'
+19  | | Given->int [1] Parent=17 '1'
+20  | | Add(int 1, int 19)->int Parent=17 'x + 1'
+23  | | EndBlock Parent=17 'end else'
+28  | Phi(int 20, int 13 from 16)->int Parent=0 'x'
+25  | ToString(int 28)->string Parent=0 'x'
+26  | Print(string 25) Parent=0 'x'
+
+is converted to:
+
+0   FunctionDef() [main] Parent=-1 'int main()'
+1   | Given->int [3] Parent=0 '3'
+5   | Given->int [2] Parent=0 '2'
+29  | Given->int [6] Parent=0 'x * 2'
+10  | Given->int [5] Parent=0 '5'
+30  | Given->bool [true] Parent=0 'y > 5'
+13  | Given->int [0] Parent=0 '0'
+31  | Given->int [0] Parent=0 'x'
+25  | ToString(int 31)->string Parent=0 'x'
+26  | Print(string 25) Parent=0 'x'
+
+(The GivenInstrs that are no longer used are removed later by DeleteUnusedInstructionsPass.)
+
+It works out two things together, starting from the FunctionDefInstr:
+which edges of the ControlFlowGraph may be taken, and the value of each instruction in the blocks that may run.
+A value is either not known yet, a constant, or "overdefined" (it may have more than one value at runtime).
+A block is only looked at once an edge to it may be taken, and an If whose condition is a constant
+only lets control go one way, so the code on the other side is never looked at.
+A phi only meets the values from the edges that may be taken, so a variable that is only changed
+in a branch that is never taken stays a constant.  Since a value can only go from not known to a constant
+to overdefined, and an edge can only go from not taken to taken, this finishes in time linear in the size
+of the function (times the depth of the lattice, which is 2).
+
+Then each instruction that is a constant is replaced with a GivenInstr, each phi is given only the values
+from edges that may be taken (and replaced with its value if it has only one), and each If with a constant
+condition is replaced with the side that runs.  A loop whose condition is false the first time is removed,
+and the constants that replaced its phis are kept for any uses after it.  For example, in
+
+int i = 0
+while i < 0
+	i = i + 1
+]
+print(i)
+
+the phi of i in the loop is replaced with a GivenInstr of 0, which is moved out of the loop for the print,
+and the rest of the loop is removed.
+The instructions are worked out as in ConstantFoldingPass.  (A ToStringInstr keeps its place, since a PrintInstr
+must print one, and ConstantFoldingPass gives it its string afterward.)
+*/
+
+public class ConditionalConstantPropagationPass {
+	
+	// The value of an instruction that may have more than one value at runtime
+	private static final Object OVERDEFINED = new Object();
+	
+	// Main call to this pass:
+	public static void propagateConstants(ArrayList<Instruction> instructions) {
+		
+		Instruction.linkUsers(instructions);
+		SideEffectAnalysis.analyze(instructions);
+		
+		HashMap<Instruction, Integer> positions = new HashMap<Instruction, Integer>(instructions.size() * 2);
+		for (int i = 0; i < instructions.size(); i++) {
+			positions.put(instructions.get(i), i);
+		}
+		
+		// The instructions to remove, the constants that replace instructions,
+		// and the instructions that take the place of each removed If or Else as the parent of its block
+		HashSet<Instruction> deletedInstructions = new HashSet<Instruction>();
+		HashMap<Instruction, Instruction> replacements = new HashMap<Instruction, Instruction>();
+		HashMap<Instruction, Instruction> newParents = new HashMap<Instruction, Instruction>();
+		
+		IntStack functionRanges = ControlFlowGraph.findFunctionRanges(instructions);
+		for (int i = 0; i < functionRanges.size(); i += 2) {
+			ControlFlowGraph graph = ControlFlowGraph.build(instructions, functionRanges.get(i), functionRanges.get(i + 1));
+			new ConditionalConstantPropagationPass(graph, instructions, positions,
+					deletedInstructions, replacements, newParents).propagateInFunction();
+		}
+		
+		if (deletedInstructions.isEmpty() && replacements.isEmpty()) {
+			return;
+		}
+		
+		// Rebuild the list of instructions, keeping the rest in order
+		ArrayList<Instruction> newInstructions = new ArrayList<Instruction>(instructions.size());
+		for (Instruction instr : instructions) {
+			if (deletedInstructions.contains(instr)) {
+				continue;
+			}
+			Instruction replacement = replacements.get(instr);
+			if (replacement != null) {
+				instr = replacement;
+			}
+			while (newParents.containsKey(instr.parentInstruction)) {
+				instr.parentInstruction = newParents.get(instr.parentInstruction);
+			}
+			newInstructions.add(instr);
+		}
+		instructions.clear();
+		instructions.addAll(newInstructions);
+		
+		// A Break to an EndBlock that was removed now goes to the next instruction
+		if (!deletedInstructions.isEmpty()) {
+			SSAConstructionPass.updatePhiEdges(instructions);
+		}
+	}
+	
+	private final ControlFlowGraph graph;
+	private final ArrayList<Instruction> instructions;
+	private final HashMap<Instruction, Integer> positions;
+	
+	private final HashSet<Instruction> deletedInstructions;
+	private final HashMap<Instruction, Instruction> replacements;
+	private final HashMap<Instruction, Instruction> newParents;
+	
+	// The value of each instruction that has been worked out so far: a constant (as in GivenInstr.rawValue)
+	// or OVERDEFINED.  An instruction that isn't here isn't known yet.
+	private final HashMap<Instruction, Object> values = new HashMap<Instruction, Object>();
+	
+	// Whether each block (by id) may run, and whether each edge to it may be taken
+	// (by the position of the edge's block in its predecessors)
+	private final boolean[] isBlockExecutable;
+	private final boolean[][] isEdgeExecutable;
+	
+	// The edges that were found to be taken, as pairs of block ids (-1 for the edge into the entry),
+	// and the instructions whose arguments have changed
+	private final IntStack edgeWorklist = new IntStack();
+	private final ArrayList<Instruction> instructionWorklist = new ArrayList<Instruction>();
+	
+	// The Break at the start of each loop whose condition is false the first time
+	private final ArrayList<BreakInstr> breaksOutOfLoops = new ArrayList<BreakInstr>();
+	
+	private ConditionalConstantPropagationPass(ControlFlowGraph graph, ArrayList<Instruction> instructions,
+			HashMap<Instruction, Integer> positions, HashSet<Instruction> deletedInstructions,
+			HashMap<Instruction, Instruction> replacements, HashMap<Instruction, Instruction> newParents) {
+		this.graph = graph;
+		this.instructions = instructions;
+		this.positions = positions;
+		this.deletedInstructions = deletedInstructions;
+		this.replacements = replacements;
+		this.newParents = newParents;
+		
+		final int blockCount = graph.blocks.size();
+		isBlockExecutable = new boolean[blockCount];
+		isEdgeExecutable = new boolean[blockCount][];
+		for (int i = 0; i < blockCount; i++) {
+			isEdgeExecutable[i] = new boolean[graph.blocks.get(i).predecessors.size()];
+		}
+	}
+	
+	private void propagateInFunction() {
+		findValues();
+		replaceConstants();
+		removeBranchesNotTaken();
+		removeEdgesNotTaken();
+		
+		// The Breaks inside a removed loop can no longer reach the phis after it
+		boolean wasLoopRemoved = false;
+		for (BreakInstr breakInstr : breaksOutOfLoops) {
+			wasLoopRemoved |= removeLoop(breakInstr);
+		}
+		if (wasLoopRemoved) {
+			removeEdgesNotTaken();
+		}
+	}
+	
+	// Find the edges that may be taken, and the values of the instructions in the blocks that may run
+	private void findValues() {
+		edgeWorklist.push(-1);
+		edgeWorklist.push(graph.entry.id);
+		
+		while (!edgeWorklist.isEmpty() || !instructionWorklist.isEmpty()) {
+			
+			while (!edgeWorklist.isEmpty()) {
+				BasicBlock block = graph.blocks.get(edgeWorklist.pop());
+				final int from = edgeWorklist.pop();
+				
+				if (from != -1) {
+					final int edge = block.predecessors.indexOf(graph.blocks.get(from));
+					if (isEdgeExecutable[block.id][edge]) {
+						continue;
+					}
+					isEdgeExecutable[block.id][edge] = true;
+				}
+				
+				if (!isBlockExecutable[block.id]) {
+					
+					// Look at every instruction of the block the first time it may run
+					isBlockExecutable[block.id] = true;
+					for (Instruction instr : block.instructions) {
+						visit(instr);
+					}
+					Instruction lastInstr = block.getLastInstruction();
+					if (!(lastInstr instanceof IfInstr)) {
+						for (BasicBlock successor : block.successors) {
+							addEdge(block, successor);
+						}
+					}
+				} else {
+					
+					// Only the phis may change, since they have a new edge to meet the value of
+					for (Instruction instr : block.instructions) {
+						if (instr instanceof PhiInstr) {
+							visit(instr);
+						}
+					}
+				}
+			}
+			
+			while (!instructionWorklist.isEmpty()) {
+				Instruction instr = instructionWorklist.remove(instructionWorklist.size() - 1);
+				BasicBlock block = graph.getBlock(instr);
+				if (block != null && isBlockExecutable[block.id]) {
+					visit(instr);
+				}
+			}
+		}
+	}
+	
+	private void addEdge(BasicBlock from, BasicBlock to) {
+		edgeWorklist.push(from.id);
+		edgeWorklist.push(to.id);
+	}
+	
+	// Work out the value of the given instruction again, or the edges an If may take.
+	// If the value changes, look at the instructions that use it again.
+	private void visit(Instruction instr) {
+		
+		if (instr instanceof IfInstr) {
+			visitIf((IfInstr)instr);
+			return;
+		}
+		if (instr.returnType == null) {
+			return;
+		}
+		
+		Object value = evaluate(instr);
+		Object oldValue = values.get(instr);
+		if (value == null || oldValue == OVERDEFINED || value.equals(oldValue)) {
+			return;
+		}
+		if (oldValue != null) {
+			value = OVERDEFINED; // A different constant than before
+		}
+		
+		values.put(instr, value);
+		instructionWorklist.addAll(instr.getUsers());
+	}
+	
+	// Add the edges that the given If may take, from the value of its condition
+	private void visitIf(IfInstr ifInstr) {
+		Object condition = getValue(ifInstr.conditionInstr);
+		if (condition == null) {
+			return;
+		}
+		
+		BasicBlock block = graph.getBlock(ifInstr);
+		for (BasicBlock successor : block.successors) {
+			final boolean isJump = graph.getJumpInstruction(block, successor) != null;
+			
+			// The If jumps when its condition is false, and runs on when it is true
+			if (condition == OVERDEFINED || isJump != (Boolean)condition) {
+				addEdge(block, successor);
+			}
+		}
+	}
+	
+	// Return the value of the given instruction from the values of its arguments:
+	// a constant, OVERDEFINED, or null if it isn't known yet
+	private Object evaluate(Instruction instr) {
+		
+		if (instr instanceof GivenInstr) {
+			return ((GivenInstr)instr).rawValue;
+		}
+		
+		if (instr instanceof PhiInstr) {
+			return evaluatePhi((PhiInstr)instr);
+		}
+		
+		// Anything other than arithmetic, comparison, and strings (such as a Load or a FunctionCall)
+		// is only known at runtime
+		if (!ConstantFoldingPass.isFoldable(instr)) {
+			return OVERDEFINED;
+		}
+		
+		Instruction[] args = instr.getAllArgs();
+		Object value1 = getValue(args[0]);
+		Object value2 = (args.length == 2) ? getValue(args[1]) : null;
+		
+		if (isConstant(value1) && (args.length == 1 || isConstant(value2))) {
+			Object result = ConstantFoldingPass.evaluate(instr, value1, value2);
+			return (result == null) ? OVERDEFINED : result;
+		}
+		
+		// The result may not depend on the other argument, such as x * 0 or b && false
+		if (args.length == 2) {
+			Object result = null;
+			if (isConstant(value1)) {
+				result = ConstantFoldingPass.getResultWithOneConstant(instr, value1);
+			} else if (isConstant(value2)) {
+				result = ConstantFoldingPass.getResultWithOneConstant(instr, value2);
+			}
+			if (result != null) {
+				return result;
+			}
+		}
+		
+		if (value1 == null || (args.length == 2 && value2 == null)) {
+			return null;
+		}
+		return OVERDEFINED;
+	}
+	
+	// Return the value of the given phi: the meet of its values from the edges that may be taken
+	private Object evaluatePhi(PhiInstr phi) {
+		BasicBlock block = graph.getBlock(phi);
+		Object result = null;
+		
+		for (int i = 0; i < phi.values.length; i++) {
+			if (!mayBeTaken(block, phi.fromInstrs[i])) {
+				continue;
+			}
+			Instruction valueInstr = phi.values[i];
+			Object value = getValue(valueInstr);
+			if (value == null) {
+				continue;
+			}
+			if (value == OVERDEFINED || (result != null && !result.equals(value)) ||
+					valueInstr.returnType != phi.returnType) {
+				return OVERDEFINED;
+			}
+			result = value;
+		}
+		return result;
+	}
+	
+	// Return true if the edge to the given block that comes from the given instruction (as in PhiInstr.fromInstrs)
+	// may be taken, as far as is known so far
+	private boolean mayBeTaken(BasicBlock block, Instruction fromInstr) {
+		for (int i = 0; i < block.predecessors.size(); i++) {
+			if (graph.getJumpInstruction(block.predecessors.get(i), block) == fromInstr) {
+				return isEdgeExecutable[block.id][i];
+			}
+		}
+		return true;
+	}
+	
+	// Return the value of the given instruction that has been worked out so far
+	private Object getValue(Instruction instr) {
+		if (instr instanceof GivenInstr) {
+			return ((GivenInstr)instr).rawValue;
+		}
+		return values.get(instr);
+	}
+	
+	private static boolean isConstant(Object value) {
+		return value != null && value != OVERDEFINED;
+	}
+	
+	// Replace each instruction that is a constant with a GivenInstr
+	private void replaceConstants() {
+		for (BasicBlock block : graph.blocks) {
+			if (!isBlockExecutable[block.id]) {
+				continue;
+			}
+			for (Instruction instr : block.instructions) {
+				Object value = values.get(instr);
+				if (!isConstant(value) || instr instanceof GivenInstr || instr instanceof ToStringInstr) {
+					continue;
+				}
+				
+				GivenInstr given = ConstantFoldingPass.makeGiven(instr, value);
+				instr.replaceAllUsesWith(given);
+				for (Instruction arg : instr.getAllArgs()) {
+					if (arg != null) {
+						arg.removeUser(instr);
+					}
+				}
+				replacements.put(instr, given);
+			}
+		}
+	}
+	
+	// Take the values from the edges that were removed with a branch out of each phi that may run,
+	// and replace each phi that is left with one value with that value
+	private void removeEdgesNotTaken() {
+		for (BasicBlock block : graph.blocks) {
+			if (!isBlockExecutable[block.id]) {
+				continue;
+			}
+			for (Instruction instr : block.instructions) {
+				if (!(instr instanceof PhiInstr) || replacements.containsKey(instr) || deletedInstructions.contains(instr)) {
+					continue;
+				}
+				PhiInstr phi = (PhiInstr)instr;
+				
+				for (int i = phi.values.length - 1; i >= 0; i--) {
+					if (isEdgeRemoved(block, phi.fromInstrs[i])) {
+						phi.values[i].removeUser(phi);
+						phi.removeIncoming(i);
+					}
+				}
+				
+				if (phi.values.length == 1 && phi.values[0] != phi) {
+					Instruction value = phi.values[0];
+					phi.replaceAllUsesWith(value);
+					value.removeUser(phi);
+					deletedInstructions.add(phi);
+				}
+			}
+		}
+	}
+	
+	// Return true if the edge to the given block that comes from the given instruction (as in PhiInstr.fromInstrs)
+	// can't be taken, and the block it comes from is being removed
+	private boolean isEdgeRemoved(BasicBlock block, Instruction fromInstr) {
+		for (int i = 0; i < block.predecessors.size(); i++) {
+			BasicBlock predecessor = block.predecessors.get(i);
+			if (graph.getJumpInstruction(predecessor, block) == fromInstr) {
+				
+				// (The empty block after an If with nothing inside it goes with the If)
+				if (predecessor.instructions.isEmpty()) {
+					predecessor = predecessor.predecessors.get(0);
+				}
+				return !isEdgeExecutable[block.id][i] && deletedInstructions.contains(predecessor.getLastInstruction());
+			}
+		}
+		return false;
+	}
+	
+	// Replace each If with a constant condition with the side that runs
+	private void removeBranchesNotTaken() {
+		for (BasicBlock block : graph.blocks) {
+			Instruction lastInstr = block.getLastInstruction();
+			if (!isBlockExecutable[block.id] || !(lastInstr instanceof IfInstr)) {
+				continue;
+			}
+			IfInstr ifInstr = (IfInstr)lastInstr;
+			Object condition = getValue(ifInstr.conditionInstr);
+			if (isConstant(condition)) {
+				removeBranch(ifInstr, (Boolean)condition);
+			}
+		}
+	}
+	
+	// Remove the side of the given If that doesn't run, and the If, Else, and EndBlock instructions around the other side.
+	// The instructions directly inside the side that runs are moved out to the parent of the If.
+	private void removeBranch(IfInstr ifInstr, boolean condition) {
+		final int ifPosition = positions.get(ifInstr);
+		final int endPosition = positions.get(ifInstr.endOfBlockInstr);
+		ElseInstr elseInstr = ifInstr.elseInstr;
+		final int elsePosition = (elseInstr == null) ? -1 : positions.get(elseInstr);
+		final int elseEndPosition = (elseInstr == null) ? -1 : positions.get(elseInstr.endOfBlockInstr);
+		
+		if (condition) {
+			deletedInstructions.add(ifInstr);
+			deletedInstructions.add(ifInstr.endOfBlockInstr);
+			newParents.put(ifInstr, ifInstr.parentInstruction);
+			if (elseInstr != null) {
+				deleteRange(elsePosition, elseEndPosition);
+			}
+			
+			// The check at the start of a while loop whose condition is false is an If that only breaks
+			Instruction parent = ifInstr.parentInstruction;
+			Instruction firstInstr = instructions.get(ifPosition + 1);
+			if (elseInstr == null && parent instanceof LoopInstr && endPosition == ifPosition + 2 &&
+					firstInstr instanceof BreakInstr && ((BreakInstr)firstInstr).loopStartInstr == parent &&
+					graph.getBlock(ifInstr) == graph.getBlock(parent)) {
+				breaksOutOfLoops.add((BreakInstr)firstInstr);
+			}
+		} else {
+			deleteRange(ifPosition, endPosition);
+			if (elseInstr != null) {
+				deletedInstructions.add(elseInstr);
+				deletedInstructions.add(elseInstr.endOfBlockInstr);
+				newParents.put(elseInstr, elseInstr.parentInstruction);
+			}
+		}
+		ifInstr.conditionInstr.removeUser(ifInstr);
+	}
+	
+	// Remove the loop of the given Break, which breaks the first time the loop's condition is checked.
+	// This is only done if the check has no side effects and always finishes, and nothing after the loop uses a value from inside it
+	// that isn't a constant.  The constants that are used after the loop (such as the value of the loop variable,
+	// when its phi was replaced) are kept, and moved out to the parent of the loop.
+	// Return true if the loop was removed.
+	private boolean removeLoop(BreakInstr breakInstr) {
+		LoopInstr loop = breakInstr.loopStartInstr;
+		final int startPosition = positions.get(loop);
+		final int endPosition = positions.get(loop.endInstr);
+		
+		for (Instruction instr : graph.getBlock(loop).instructions) {
+			if (instr instanceof StoreInstr || instr.hasGlobalSideEffect() || instr.mayNotReturn()) {
+				return false;
+			}
+		}
+		
+		ArrayList<Instruction> constantsUsedAfter = new ArrayList<Instruction>();
+		for (int i = startPosition; i <= endPosition; i++) {
+			Instruction instr = instructions.get(i);
+			if (deletedInstructions.contains(instr)) {
+				continue;
+			}
+			Instruction replacement = replacements.get(instr);
+			for (Instruction user : (replacement != null) ? replacement.getUsers() : instr.getUsers()) {
+				Integer position = positions.get(user);
+				if (!deletedInstructions.contains(user) &&
+						(position == null || position < startPosition || position > endPosition)) {
+					if (replacement == null) {
+						return false;
+					}
+					constantsUsedAfter.add(instr);
+					break;
+				}
+			}
+		}
+		
+		deleteRange(startPosition, endPosition);
+		
+		// A GivenInstr doesn't depend on anything, so it can stay where the loop was
+		for (Instruction instr : constantsUsedAfter) {
+			deletedInstructions.remove(instr);
+			replacements.get(instr).parentInstruction = loop.parentInstruction;
+		}
+		return true;
+	}
+	
+	private void deleteRange(int startPosition, int endPosition) {
+		for (int i = startPosition; i <= endPosition; i++) {
+			deletedInstructions.add(instructions.get(i));
+		}
+	}
+}
@@ -0,0 +1,521 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import instructions.*;
+import parsing.BaseType;
+import parsing.Type;
+
+/* This pass works out the instructions whose arguments are all constants (GivenInstrs) while compiling,
+and replaces each one with a GivenInstr of its result.
+For example:
+
+int x = 2 * 3 + 4
+print(x * 0 + 1 > 0)
+
+0   FunctionDef() [main] Parent=-1 'int main()'
+1   | Given->int [2] Parent=0 '2'
+2   | Given->int [3] Parent=0 '3'
+3   | Mult(int 1, int 2)->int Parent=0 '2 * 3'
+4   | Given->int [4] Parent=0 '4'
+5   | Add(int 3, int 4)->int Parent=0 '2 * 3 + 4'
+9   | Given->int [0] Parent=0 '0'
+10  | Mult(int 5, int 9)->int Parent=0 'x * 0'
+11  | Given->int [1] Parent=0 '1'
+12  | Add(int 10, int 11)->int Parent=0 'x * 0 + 1'
+13  | Given->int [0] Parent=0 '0'
+14  | Greater(int 12, int 13)->bool Parent=0 'x * 0 + 1 > 0'
+15  | ToString(bool 14)->string Parent=0 'x * 0 + 1 > 0'
+16  | Print(string 15) Parent=0 'x * 0 + 1 > 0'
+
+is converted to:
+
+0   FunctionDef() [main] Parent=-1 'int main()'
+1   | Given->int [2] Parent=0 '2'
+2   | Given->int [3] Parent=0 '3'
+18  | Given->int [6] Parent=0 '2 * 3'
+4   | Given->int [4] Parent=0 '4'
+19  | Given->int [10] Parent=0 '2 * 3 + 4'
+9   | Given->int [0] Parent=0 '0'
+20  | Given->int [0] Parent=0 'x * 0'
+11  | Given->int [1] Parent=0 '1'
+21  | Given->int [1] Parent=0 'x * 0 + 1'
+13  | Given->int [0] Parent=0 '0'
+22  | Given->bool [true] Parent=0 'x * 0 + 1 > 0'
+23  | Given->string ["true"] Parent=0 'x * 0 + 1 > 0'
+15  | ToString(string 23)->string Parent=0 'x * 0 + 1 > 0'
+16  | Print(string 15) Parent=0 'x * 0 + 1 > 0'
+
+(The GivenInstrs that are no longer used are removed by DeleteUnusedInstructionsPass.
+A PrintInstr must print a ToStringInstr, so the ToStringInstr is kept, and given the string to print.)
+
+This runs after SSAConstructionPass, so a variable that is assigned once is already replaced by the value
+assigned to it, and its constant goes on to the instructions that read it.  A phi whose values are all the same
+constant is replaced by that constant too.  When an instruction is folded, the instructions that use it are looked at again.
+
+The results have the type given by getReturnTypeFromInstructionAndOperands, and are worked out in that type:
+for example, int + long is added as longs, and int / int is integer division.
+Integer arithmetic wraps around, as it does at runtime.  An integer division or modulo by zero,
+a result that isn't a finite number, and the text of a float or double are left to be worked out at runtime.
+
+An instruction with one constant argument is also simplified when the result doesn't depend on the other one
+(such as x * 0 or b && false for integers and bools), or is the other one (such as x + 0 or b || false).
+*/
+
+public class ConstantFoldingPass {
+	
+	// Main call to this pass:
+	public static void foldConstants(ArrayList<Instruction> instructions) {
+		
+		Instruction.linkUsers(instructions);
+		
+		HashMap<Instruction, Integer> positions = new HashMap<Instruction, Integer>(instructions.size() * 2);
+		for (int i = 0; i < instructions.size(); i++) {
+			positions.put(instructions.get(i), i);
+		}
+		
+		// The instructions that were replaced by one of their arguments, to remove from the list at the end
+		HashSet<Instruction> replacedInstructions = new HashSet<Instruction>();
+		
+		// The string constants added in front of the ToStringInstrs that print a constant
+		HashMap<Instruction, GivenInstr> stringsBefore = new HashMap<Instruction, GivenInstr>();
+		
+		// Look at every instruction, starting from the first one.
+		// When an instruction is folded, the instructions that use it may be folded too, so look at them next.
+		ArrayList<Instruction> worklist = new ArrayList<Instruction>(instructions.size());
+		for (int i = instructions.size() - 1; i >= 0; i--) {
+			worklist.add(instructions.get(i));
+		}
+		
+		while (!worklist.isEmpty()) {
+			Instruction instr = worklist.remove(worklist.size() - 1);
+			Integer position = positions.get(instr);
+			if (position == null || instructions.get(position) != instr) {
+				continue; // Already replaced
+			}
+			
+			Instruction result = fold(instr);
+			if (result == null || result == instr) {
+				continue;
+			}
+			
+			for (Instruction user : instr.getUsers()) {
+				worklist.add(user);
+			}
+			
+			if (instr instanceof ToStringInstr && hasPrintUser(instr)) {
+				
+				// A PrintInstr must print a ToStringInstr, so keep it, and give it the string to print.
+				// The other users can use the string itself.
+				for (Instruction user : new ArrayList<Instruction>(instr.getUsers())) {
+					if (!(user instanceof PrintInstr)) {
+						user.replaceArg(instr, result);
+					}
+				}
+				Instruction arg = ((ToStringInstr)instr).arg;
+				if (arg != result) {
+					if (result instanceof GivenInstr && !positions.containsKey(result)) {
+						stringsBefore.put(instr, (GivenInstr)result);
+					}
+					instr.replaceArg(arg, result);
+				}
+				continue;
+			}
+			
+			instr.replaceAllUsesWith(result);
+			for (Instruction arg : instr.getAllArgs()) {
+				if (arg != null) {
+					arg.removeUser(instr);
+				}
+			}
+			
+			if (positions.containsKey(result)) {
+				replacedInstructions.add(instr);
+			} else {
+				// Put the new constant where the instruction was
+				instructions.set(position, result);
+				positions.put(result, position);
+			}
+		}
+		
+		if (replacedInstructions.isEmpty() && stringsBefore.isEmpty()) {
+			return;
+		}
+		
+		// Remove the replaced instructions, and add the new strings, keeping the rest in order
+		ArrayList<Instruction> newInstructions = new ArrayList<Instruction>(instructions.size() + stringsBefore.size());
+		for (Instruction instr : instructions) {
+			GivenInstr string = stringsBefore.get(instr);
+			if (string != null) {
+				newInstructions.add(string);
+			}
+			if (!replacedInstructions.contains(instr)) {
+				newInstructions.add(instr);
+			}
+		}
+		instructions.clear();
+		instructions.addAll(newInstructions);
+		
+		if (!replacedInstructions.isEmpty()) {
+			SSAConstructionPass.updatePhiEdges(instructions);
+		}
+	}
+	
+	private static boolean hasPrintUser(Instruction instr) {
+		for (Instruction user : instr.getUsers()) {
+			if (user instanceof PrintInstr) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// Return what the given instruction can be replaced with: a new GivenInstr of its result,
+	// or one of its arguments.  Return null if it can't be worked out while compiling.
+	private static Instruction fold(Instruction instr) {
+		
+		if (instr instanceof PhiInstr) {
+			return foldPhi((PhiInstr)instr);
+		}
+		
+		if (instr instanceof ToStringInstr && ((ToStringInstr)instr).arg.returnType.isA(BaseType.String)) {
+			return ((ToStringInstr)instr).arg;
+		}
+		
+		if (!isFoldable(instr)) {
+			return null;
+		}
+		Instruction[] args = instr.getAllArgs();
+		Object value1 = getConstant(args[0]);
+		Object value2 = (args.length == 2) ? getConstant(args[1]) : null;
+		
+		if (value1 == null || (args.length == 2 && value2 == null)) {
+			if (args.length != 2) {
+				return null;
+			} else if (value1 != null) {
+				return simplify(instr, args[1], value1, true);
+			} else if (value2 != null) {
+				return simplify(instr, args[0], value2, false);
+			}
+			return null;
+		}
+		
+		Object result = evaluate(instr, value1, value2);
+		return (result == null) ? null : makeGiven(instr, result);
+	}
+	
+	// Return true if the given instruction is worked out by evaluate when its arguments are constants
+	static boolean isFoldable(Instruction instr) {
+		return instr instanceof ToStringInstr ||
+				instr instanceof BoolNotInstr ||
+				instr instanceof BitNotInstr ||
+				isFoldableBinaryOperation(instr);
+	}
+	
+	// Return the result of the given instruction (see isFoldable) on the given constant arguments
+	// (value2 is not used for one argument), or null if it should be left to runtime
+	static Object evaluate(Instruction instr, Object value1, Object value2) {
+		
+		if (instr instanceof ToStringInstr) {
+			if (value1 instanceof String) {
+				return value1;
+			}
+			String text = getText(value1);
+			return (text == null) ? null : "\"" + text + "\"";
+		
+		} else if (instr instanceof BoolNotInstr) {
+			return !(Boolean)value1;
+		
+		} else if (instr instanceof BitNotInstr) {
+			return castInteger(~((Number)value1).longValue(), instr.returnType);
+		}
+		
+		Instruction[] args = instr.getAllArgs();
+		return foldBinaryOperation(instr, args[0].returnType, value1, args[1].returnType, value2);
+	}
+	
+	// Return true if the given two-argument instruction is worked out by foldBinaryOperation
+	private static boolean isFoldableBinaryOperation(Instruction instr) {
+		return instr instanceof AddInstr ||
+				instr instanceof SubInstr ||
+				instr instanceof MultInstr ||
+				instr instanceof DivideInstr ||
+				instr instanceof ModuloInstr ||
+				instr instanceof PowerInstr ||
+				instr instanceof BoolAndInstr ||
+				instr instanceof BoolOrInstr ||
+				instr instanceof BitAndInstr ||
+				instr instanceof BitOrInstr ||
+				instr instanceof EqualInstr ||
+				instr instanceof NotEqualInstr ||
+				instr instanceof LessInstr ||
+				instr instanceof LessEqualInstr ||
+				instr instanceof GreaterInstr ||
+				instr instanceof GreaterEqualInstr ||
+				instr instanceof ConcatInstr;
+	}
+	
+	// Return the result of the given two-argument instruction on the given constants,
+	// or null if it should be left to runtime
+	private static Object foldBinaryOperation(Instruction instr, Type type1, Object value1, Type type2, Object value2) {
+		
+		if (instr instanceof BoolAndInstr) {
+			return (Boolean)value1 && (Boolean)value2;
+		} else if (instr instanceof BoolOrInstr) {
+			return (Boolean)value1 || (Boolean)value2;
+		}
+		
+		if (instr instanceof ConcatInstr) {
+			String text1 = getText(value1);
+			String text2 = getText(value2);
+			if (text1 == null || text2 == null) {
+				return null;
+			}
+			return "\"" + text1 + text2 + "\"";
+		}
+		
+		if (instr instanceof EqualInstr || instr instanceof NotEqualInstr) {
+			Boolean isEqual;
+			if (type1.isNumberType()) {
+				isEqual = compareNumbers(type1, value1, type2, value2) == 0;
+			} else if (type1.isA(BaseType.String)) {
+				
+				// Two different literals may be the same string (such as "\x41" and "A")
+				String text1 = (String)value1;
+				String text2 = (String)value2;
+				if (text1.indexOf('\\') >= 0 || text2.indexOf('\\') >= 0) {
+					return null;
+				}
+				isEqual = text1.equals(text2);
+			} else {
+				isEqual = value1.equals(value2);
+			}
+			return (instr instanceof EqualInstr) ? isEqual : !isEqual;
+		}
+		
+		if (instr instanceof LessInstr) {
+			return compareNumbers(type1, value1, type2, value2) < 0;
+		} else if (instr instanceof LessEqualInstr) {
+			return compareNumbers(type1, value1, type2, value2) <= 0;
+		} else if (instr instanceof GreaterInstr) {
+			return compareNumbers(type1, value1, type2, value2) > 0;
+		} else if (instr instanceof GreaterEqualInstr) {
+			return compareNumbers(type1, value1, type2, value2) >= 0;
+		}
+		
+		// Arithmetic, worked out in the type of the result
+		final Type type = instr.returnType;
+		Number number1 = (Number)value1;
+		Number number2 = (Number)value2;
+		
+		if (type.isIntegerType()) {
+			final long a = number1.longValue();
+			final long b = number2.longValue();
+			long result;
+			
+			if (instr instanceof AddInstr) {
+				result = a + b;
+			} else if (instr instanceof SubInstr) {
+				result = a - b;
+			} else if (instr instanceof MultInstr) {
+				result = a * b;
+			} else if (instr instanceof DivideInstr) {
+				if (b == 0) {
+					return null;
+				}
+				result = castInteger(a, type).longValue() / castInteger(b, type).longValue();
+			} else if (instr instanceof ModuloInstr) {
+				if (b == 0) {
+					return null;
+				}
+				result = a % b;
+			} else if (instr instanceof PowerInstr) {
+				if (b < 0) {
+					return null;
+				}
+				result = power(a, b);
+			} else if (instr instanceof BitAndInstr) {
+				result = a & b;
+			} else if (instr instanceof BitOrInstr) {
+				result = a | b;
+			} else {
+				return null;
+			}
+			return castInteger(result, type);
+		}
+		
+		double result;
+		if (type.isA(BaseType.Float)) {
+			final float a = number1.floatValue();
+			final float b = number2.floatValue();
+			
+			if (instr instanceof AddInstr) {
+				result = a + b;
+			} else if (instr instanceof SubInstr) {
+				result = a - b;
+			} else if (instr instanceof MultInstr) {
+				result = a * b;
+			} else if (instr instanceof DivideInstr) {
+				result = a / b;
+			} else if (instr instanceof ModuloInstr) {
+				result = a % b;
+			} else if (instr instanceof PowerInstr) {
+				result = (float)Math.pow(a, b);
+			} else {
+				return null;
+			}
+			if (Double.isNaN(result) || Double.isInfinite(result)) {
+				return null;
+			}
+			return (float)result;
+		
+		} else if (type.isA(BaseType.Double)) {
+			final double a = number1.doubleValue();
+			final double b = number2.doubleValue();
+			
+			if (instr instanceof AddInstr) {
+				result = a + b;
+			} else if (instr instanceof SubInstr) {
+				result = a - b;
+			} else if (instr instanceof MultInstr) {
+				result = a * b;
+			} else if (instr instanceof DivideInstr) {
+				result = a / b;
+			} else if (instr instanceof ModuloInstr) {
+				result = a % b;
+			} else if (instr instanceof PowerInstr) {
+				result = Math.pow(a, b);
+			} else {
+				return null;
+			}
+			if (Double.isNaN(result) || Double.isInfinite(result)) {
+				return null;
+			}
+			return result;
+		}
+		
+		return null;
+	}
+	
+	// Return what the given two-argument instruction can be replaced with when only one argument is a constant,
+	// or null if it needs both.  'other' is the argument that isn't constant.
+	private static Instruction simplify(Instruction instr, Instruction other, Object constant, boolean isConstantFirst) {
+		
+		Object result = getResultWithOneConstant(instr, constant);
+		if (result != null) {
+			return makeGiven(instr, result);
+		}
+		
+		if (instr instanceof BoolAndInstr || instr instanceof BoolOrInstr) {
+			return other;
+		}
+		
+		// The rest are only done for integers, since for floats and doubles, x + 0 may be -0
+		if (!instr.returnType.isIntegerType() || !(constant instanceof Integer || constant instanceof Long)) {
+			return null;
+		}
+		final long value = ((Number)constant).longValue();
+		final boolean isSameType = other.returnType == instr.returnType;
+		
+		if (instr instanceof MultInstr && value == 1 && isSameType) {
+			return other;
+		} else if (instr instanceof AddInstr && value == 0 && isSameType) {
+			return other;
+		} else if (instr instanceof SubInstr && value == 0 && !isConstantFirst && isSameType) {
+			return other;
+		} else if (instr instanceof DivideInstr && value == 1 && !isConstantFirst && isSameType) {
+			return other;
+		}
+		return null;
+	}
+	
+	// Return the result of the given two-argument instruction when one of its arguments is the given constant,
+	// if that doesn't depend on the other argument (such as x * 0 or b && false), or null otherwise.
+	// This is only done for integers and bools, since for floats and doubles, x * 0 may be NaN.
+	static Object getResultWithOneConstant(Instruction instr, Object constant) {
+		if (instr instanceof BoolAndInstr && !(Boolean)constant) {
+			return false;
+		} else if (instr instanceof BoolOrInstr && (Boolean)constant) {
+			return true;
+		} else if (instr instanceof MultInstr && instr.returnType.isIntegerType() &&
+				(constant instanceof Integer || constant instanceof Long) && ((Number)constant).longValue() == 0) {
+			return castInteger(0, instr.returnType);
+		}
+		return null;
+	}
+	
+	// Replace each phi whose values are all equal constants with that constant
+	private static Instruction foldPhi(PhiInstr phi) {
+		Object value = null;
+		for (Instruction valueInstr : phi.values) {
+			Object constant = getConstant(valueInstr);
+			if (constant == null || (value != null && !value.equals(constant)) ||
+					valueInstr.returnType != phi.returnType) {
+				return null;
+			}
+			value = constant;
+		}
+		return (value == null) ? null : makeGiven(phi, value);
+	}
+	
+	// Return the value of the given instruction if it is a constant, or null otherwise
+	private static Object getConstant(Instruction instr) {
+		if (instr instanceof GivenInstr) {
+			return ((GivenInstr)instr).rawValue;
+		}
+		return null;
+	}
+	
+	// Return the text of the given constant as it is put into a string (without quotes),
+	// or null if that is left to runtime (for floats and doubles)
+	private static String getText(Object value) {
+		if (value instanceof String) {
+			String text = (String)value;
+			return text.substring(1, text.length() - 1);
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Boolean) {
+			return String.valueOf(value);
+		}
+		return null;
+	}
+	
+	// Compare two numbers of the given types: integers as longs, and anything else as doubles
+	// (so that 0.0 and -0.0 are equal, as they are at runtime)
+	private static int compareNumbers(Type type1, Object value1, Type type2, Object value2) {
+		if (type1.isIntegerType() && type2.isIntegerType()) {
+			return Long.compare(((Number)value1).longValue(), ((Number)value2).longValue());
+		}
+		final double a = ((Number)value1).doubleValue();
+		final double b = ((Number)value2).doubleValue();
+		return (a < b) ? -1 : ((a > b) ? 1 : 0);
+	}
+	
+	// Return the given integer as the given integer type (cutting it to 32 bits for an int)
+	static Number castInteger(long value, Type type) {
+		if (type.isA(BaseType.Int)) {
+			return (int)value;
+		}
+		return value;
+	}
+	
+	// Return base to the power of the given non-negative exponent, wrapping around like multiplication
+	private static long power(long base, long exponent) {
+		long result = 1;
+		while (exponent > 0) {
+			if ((exponent & 1) != 0) {
+				result *= base;
+			}
+			base *= base;
+			exponent >>= 1;
+		}
+		return result;
+	}
+	
+	// Return a new constant to replace the given instruction with
+	static GivenInstr makeGiven(Instruction instr, Object rawValue) {
+		GivenInstr given = new GivenInstr(instr.parentInstruction, instr.debugString, rawValue, instr.returnType);
+		given.originalLineNumber = instr.originalLineNumber;
+		return given;
+	}
+}
@@ -0,0 +1,310 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import instructions.*;
+import parsing.IntStack;
+import static parsing.ErrorHandler.printError;
+
+/* This class is the control-flow graph of one function: its instructions split into basic blocks,
+with an edge from each block to every block that may run right after it.
+
+The edges come from the structure of the instructions:
+	If				goes to the next instruction when its condition is true,
+					and to its Else (or its EndBlock, if it has no Else) when it is false
+	EndBlock		of an If with an Else, goes to the EndBlock of the Else
+	EndBlock		of a Loop, goes back to the Loop
+	Break			goes to the instruction after the EndBlock of its Loop
+	Continue		goes back to its Loop
+	Return			goes to the exit block
+	EndBlock		of the function, goes to the exit block
+Every other instruction goes to the next one.
+The first successor of a block that ends with an If is the one it goes to when the condition is true.
+If both go to the same instruction (the If has nothing inside it), the edge for true goes through an empty block,
+so that the two ways of getting there can be told apart.
+
+The graph is built with one pass over the instructions of the function, so it takes time linear in the size
+of the function, and so does walking it.  Functions declared inside the function are not part of its graph.
+*/
+
+public class ControlFlowGraph {
+	
+	// Used in place of a jump target for instructions that only go to the next instruction
+	private static final int NO_JUMP = -1;
+	
+	public final FunctionDefInstr funcDefInstr;
+	
+	// The blocks of the function, in the order of their instructions.
+	// The first block is the entry, and the last block is the exit.
+	public final ArrayList<BasicBlock> blocks = new ArrayList<BasicBlock>();
+	
+	// The block that starts with the FunctionDefInstr
+	public final BasicBlock entry;
+	
+	// An empty block that every return (and the end of the function) goes to
+	public final BasicBlock exit;
+	
+	// The block that each instruction of the function is in
+	private final HashMap<Instruction, BasicBlock> blockOfInstruction = new HashMap<Instruction, BasicBlock>();
+	
+	// The position of each instruction in the function, counting from the FunctionDefInstr
+	private final HashMap<Instruction, Integer> positions;
+	
+	// The block that each block (by id) jumps to from its last instruction, or null if it only runs on to the next block
+	private final BasicBlock[] jumpTargetBlocks;
+	
+	// Build the graph of the function defined by the instruction at the given index
+	public static ControlFlowGraph build(ArrayList<Instruction> instructions, int funcDefIndex) {
+		final FunctionDefInstr funcDefInstr = (FunctionDefInstr)instructions.get(funcDefIndex);
+		
+		int endIndex = funcDefIndex;
+		while (endIndex < instructions.size() - 1 && instructions.get(endIndex) != funcDefInstr.endInstr) {
+			endIndex++;
+		}
+		return build(instructions, funcDefIndex, endIndex);
+	}
+	
+	// Build the graph of the function whose instructions are between the given indices (inclusive),
+	// from its FunctionDefInstr to its EndBlock (see findFunctionRanges)
+	public static ControlFlowGraph build(ArrayList<Instruction> instructions, int funcDefIndex, int endIndex) {
+		return new ControlFlowGraph((FunctionDefInstr)instructions.get(funcDefIndex),
+				getFunctionBody(instructions, funcDefIndex, endIndex));
+	}
+	
+	// Build the graph of each function in the given program, in the order they were defined
+	public static ArrayList<ControlFlowGraph> buildAll(ArrayList<Instruction> instructions) {
+		IntStack ranges = findFunctionRanges(instructions);
+		
+		ArrayList<ControlFlowGraph> graphs = new ArrayList<ControlFlowGraph>(ranges.size() / 2);
+		for (int i = 0; i < ranges.size(); i += 2) {
+			graphs.add(build(instructions, ranges.get(i), ranges.get(i + 1)));
+		}
+		return graphs;
+	}
+	
+	// Return the index of the FunctionDefInstr and the index of the EndBlock of each function in the given program,
+	// in pairs, in the order the functions were defined.  This takes one pass over the program.
+	// (A function that was never closed ends at the last instruction.)
+	public static IntStack findFunctionRanges(ArrayList<Instruction> instructions) {
+		IntStack ranges = new IntStack();
+		
+		// The EndBlock of each function that is still open (innermost last), and where its range is
+		ArrayList<Instruction> openFunctionEnds = new ArrayList<Instruction>();
+		IntStack openFunctionRanges = new IntStack();
+		
+		for (int i = 0; i < instructions.size(); i++) {
+			Instruction instr = instructions.get(i);
+			
+			if (instr instanceof FunctionDefInstr) {
+				openFunctionEnds.add(((FunctionDefInstr)instr).endInstr);
+				openFunctionRanges.push(ranges.size());
+				ranges.push(i);
+				ranges.push(instructions.size() - 1);
+				
+			} else if (!openFunctionEnds.isEmpty() && instr == openFunctionEnds.get(openFunctionEnds.size() - 1)) {
+				openFunctionEnds.remove(openFunctionEnds.size() - 1);
+				ranges.set(openFunctionRanges.pop() + 1, i);
+			}
+		}
+		return ranges;
+	}
+	
+	// Return the instructions of the function between the given indices, from its FunctionDefInstr to its EndBlock,
+	// leaving out the instructions of any function declared inside it
+	private static ArrayList<Instruction> getFunctionBody(ArrayList<Instruction> instructions, int funcDefIndex, int endIndex) {
+		ArrayList<Instruction> body = new ArrayList<Instruction>(endIndex - funcDefIndex + 1);
+		body.add(instructions.get(funcDefIndex));
+		
+		boolean isInInnerFunction = false;
+		Instruction endOfInnerFunction = null;
+		
+		for (int i = funcDefIndex + 1; i <= endIndex; i++) {
+			Instruction instr = instructions.get(i);
+			
+			if (isInInnerFunction) {
+				if (instr == endOfInnerFunction) {
+					isInInnerFunction = false;
+				}
+			} else if (instr instanceof FunctionDefInstr) {
+				isInInnerFunction = true;
+				endOfInnerFunction = ((FunctionDefInstr)instr).endInstr;
+			} else {
+				body.add(instr);
+			}
+		}
+		return body;
+	}
+	
+	private ControlFlowGraph(FunctionDefInstr funcDefInstr, ArrayList<Instruction> body) {
+		this.funcDefInstr = funcDefInstr;
+		
+		final int size = body.size();
+		
+		positions = new HashMap<Instruction, Integer>(size * 2);
+		for (int i = 0; i < size; i++) {
+			positions.put(body.get(i), i);
+		}
+		
+		// Find where each instruction may jump to, and whether it may go on to the next instruction.
+		// A block ends after each instruction that jumps, and starts at each place that is jumped to.
+		// (Position 'size' is the exit block.)
+		int[] jumpTargets = new int[size];
+		boolean[] goesToNext = new boolean[size];
+		boolean[] startsBlock = new boolean[size + 1];
+		startsBlock[0] = true;
+		startsBlock[size] = true;
+		
+		for (int i = 0; i < size; i++) {
+			Instruction instr = body.get(i);
+			int target = NO_JUMP;
+			boolean next = true;
+			
+			if (instr instanceof IfInstr) {
+				IfInstr ifInstr = (IfInstr)instr;
+				if (ifInstr.elseInstr != null) {
+					target = getTargetPosition(ifInstr.elseInstr, instr);
+				} else {
+					target = getTargetPosition(ifInstr.endOfBlockInstr, instr);
+				}
+			
+			} else if (instr instanceof BreakInstr) {
+				target = getTargetPosition(((BreakInstr)instr).loopStartInstr.endInstr, instr) + 1;
+				next = false;
+			
+			} else if (instr instanceof ContinueInstr) {
+				target = getTargetPosition(((ContinueInstr)instr).loopStartInstr, instr);
+				next = false;
+			
+			} else if (instr instanceof ReturnInstr) {
+				target = size;
+				next = false;
+			
+			} else if (instr instanceof EndBlockInstr) {
+				Instruction openingBlockInstr = instr.parentInstruction;
+				
+				if (openingBlockInstr instanceof LoopInstr) {
+					target = getTargetPosition(openingBlockInstr, instr);
+					next = false;
+				} else if (openingBlockInstr instanceof IfInstr && ((IfInstr)openingBlockInstr).elseInstr != null) {
+					target = getTargetPosition(((IfInstr)openingBlockInstr).elseInstr.endOfBlockInstr, instr);
+					next = false;
+				} else if (openingBlockInstr == funcDefInstr) {
+					target = size;
+					next = false;
+				}
+			}
+			
+			jumpTargets[i] = target;
+			goesToNext[i] = next;
+			if (target != NO_JUMP) {
+				startsBlock[i + 1] = true;
+				startsBlock[target] = true;
+			} else if (!next) {
+				startsBlock[i + 1] = true;
+			}
+		}
+		
+		// Split the body into blocks, with an empty block after each If that jumps to the next instruction
+		BasicBlock[] blockAtPosition = new BasicBlock[size + 1];
+		BasicBlock[] emptyBlockAfter = new BasicBlock[size];
+		BasicBlock currentBlock = null;
+		for (int i = 0; i < size; i++) {
+			if (startsBlock[i]) {
+				currentBlock = new BasicBlock(blocks.size());
+				blocks.add(currentBlock);
+			}
+			Instruction instr = body.get(i);
+			currentBlock.instructions.add(instr);
+			blockOfInstruction.put(instr, currentBlock);
+			blockAtPosition[i] = currentBlock;
+			
+			if (instr instanceof IfInstr && jumpTargets[i] == i + 1) {
+				emptyBlockAfter[i] = new BasicBlock(blocks.size());
+				blocks.add(emptyBlockAfter[i]);
+			}
+		}
+		exit = new BasicBlock(blocks.size());
+		blocks.add(exit);
+		blockAtPosition[size] = exit;
+		entry = blocks.get(0);
+		
+		// Add the edges from the last instruction of each block
+		jumpTargetBlocks = new BasicBlock[blocks.size()];
+		for (int i = 0; i < size; i++) {
+			if (startsBlock[i + 1]) {
+				BasicBlock block = blockAtPosition[i];
+				if (emptyBlockAfter[i] != null) {
+					block.addSuccessor(emptyBlockAfter[i]);
+					emptyBlockAfter[i].addSuccessor(blockAtPosition[i + 1]);
+				} else if (goesToNext[i]) {
+					block.addSuccessor(blockAtPosition[i + 1]);
+				}
+				if (jumpTargets[i] != NO_JUMP) {
+					block.addSuccessor(blockAtPosition[jumpTargets[i]]);
+					jumpTargetBlocks[block.id] = blockAtPosition[jumpTargets[i]];
+				}
+			}
+		}
+	}
+	
+	// Return the position of the given instruction in the body of the function.
+	// The instruction 'from' refers to it.
+	private int getTargetPosition(Instruction instr, Instruction from) {
+		Integer position = positions.get(instr);
+		if (position == null) {
+			printError("Block end not found in function after " + from, from.originalLineNumber);
+		}
+		return position;
+	}
+	
+	// Return the block that the given instruction is in, or null if it isn't part of this function
+	public BasicBlock getBlock(Instruction instr) {
+		return blockOfInstruction.get(instr);
+	}
+	
+	// Return the instruction that jumps from the first block to the second (the last instruction of the first block),
+	// or null if the first block goes to the second by running on into it.
+	public Instruction getJumpInstruction(BasicBlock from, BasicBlock to) {
+		if (jumpTargetBlocks[from.id] == to) {
+			return from.getLastInstruction();
+		}
+		return null;
+	}
+	
+	// Return the position of the given instruction in this function (the FunctionDefInstr is at 0),
+	// or -1 if it isn't part of this function.
+	// Of two instructions in the same block, the one with the lower position runs first.
+	public int getPosition(Instruction instr) {
+		Integer position = positions.get(instr);
+		return (position == null) ? -1 : position;
+	}
+	
+	// Return the set of blocks (by id) that can be reached from the entry
+	public BitSet findReachableBlocks() {
+		BitSet isReachable = new BitSet(blocks.size());
+		findReachableBlocks(isReachable, new IntStack());
+		return isReachable;
+	}
+	
+	// Set the given set to the blocks (by id) that can be reached from the entry.
+	// The set and the stack are cleared first, so they can be used again for each function.
+	public void findReachableBlocks(BitSet isReachable, IntStack stack) {
+		isReachable.clear();
+		stack.clear();
+		
+		isReachable.set(entry.id);
+		stack.push(entry.id);
+		
+		while (!stack.isEmpty()) {
+			BasicBlock block = blocks.get(stack.pop());
+			for (BasicBlock successor : block.successors) {
+				if (!isReachable.get(successor.id)) {
+					isReachable.set(successor.id);
+					stack.push(successor.id);
+				}
+			}
+		}
+	}
+}
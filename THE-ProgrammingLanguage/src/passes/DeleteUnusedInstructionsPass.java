@@ -1,6 +1,7 @@
 package passes;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import instructions.Instruction;
 import instructions.StoreInstr;
@@ -37,40 +38,62 @@ public class DeleteUnusedInstructionsPass {
 	// Main call to this pass:
 	public static void deleteUnusedInstructions(ArrayList<Instruction> instructions) {
 		
-		for (int i = instructions.size() - 1; i >= 0; i--) {
-			Instruction instr = instructions.get(i);
+		Instruction.linkUsers(instructions);
+		SideEffectAnalysis.analyze(instructions);
+		
+		// Look at every instruction, starting from the last one.
+		// When an instruction is deleted, its arguments may have become unused, so look at them next.
+		ArrayList<Instruction> worklist = new ArrayList<Instruction>(instructions);
+		HashSet<Instruction> deletedInstructions = new HashSet<Instruction>();
+		
+		while (!worklist.isEmpty()) {
+			Instruction instr = worklist.remove(worklist.size() - 1);
 			
-			// Don't remove instructions that modify variable scope,
-			// have non-obvious side effects, or don't return anything to use anyway.
-			if (!instr.doesStartScope() &&
-				!instr.doesEndScope() &&
-				!instr.isJump() &&
-				!instr.hasGlobalSideEffect(instructions) &&
-				!(instr instanceof StoreInstr)) { // TODO sometimes StoreInstr can be optimized out
-				
-				// If this instruction does not have any references,
-				// then it can be optimized out.
-				if (!doesInstructionHaveReference(instructions, instr)) {
-					instructions.remove(i);
+			// If this instruction does not have any references,
+			// then it can be optimized out.
+			if (deletedInstructions.contains(instr) || !instr.getUsers().isEmpty() || !canBeDeleted(instructions, instr)) {
+				continue;
+			}
+			deletedInstructions.add(instr);
+			
+			for (Instruction arg : instr.getAllArgs()) {
+				if (arg != null) {
+					arg.removeUser(instr);
+					if (arg.getUsers().isEmpty()) {
+						worklist.add(arg);
+					}
 				}
 			}
 		}
 		
-		// TODO remove unused functions
-	}
-	
-	// Return true if any other instruction has this instruction as an argument
-	private static boolean doesInstructionHaveReference(ArrayList<Instruction> instructions, Instruction instr) {
-		
+		// Remove the deleted instructions, keeping the rest in order
+		int keptCount = 0;
 		for (int i = 0; i < instructions.size(); i++) {
-			Instruction[] otherArgs = instructions.get(i).getAllArgs();
-			for (int j = 0; j < otherArgs.length; j++) {
-				if (otherArgs[j] == instr) {
-					return true;
-				}
+			Instruction instr = instructions.get(i);
+			if (!deletedInstructions.contains(instr)) {
+				instructions.set(keptCount, instr);
+				keptCount++;
 			}
 		}
+		instructions.subList(keptCount, instructions.size()).clear();
+		
+		if (!deletedInstructions.isEmpty()) {
+			SSAConstructionPass.updatePhiEdges(instructions);
+		}
 		
-		return false;
+		// TODO remove unused functions
+	}
+	
+	// Return true if the given instruction may be deleted when nothing uses it.
+	// Don't remove instructions that modify variable scope,
+	// have non-obvious side effects, may never finish (like a call to a recursive function),
+	// or don't return anything to use anyway.
+	private static boolean canBeDeleted(ArrayList<Instruction> instructions, Instruction instr) {
+		return !instr.doesStartScope() &&
+				!instr.doesEndScope() &&
+				!instr.isJump() &&
+				!instr.hasGlobalSideEffect() &&
+				!instr.mayNotReturn() &&
+				!(instr instanceof StoreInstr); // TODO sometimes StoreInstr can be optimized out
 	}
 }
@@ -0,0 +1,281 @@
+package passes;
+
+import java.util.ArrayList;
+
+import instructions.Instruction;
+import parsing.IntStack;
+
+/* This class is the dominator tree of a function's ControlFlowGraph.
+A block A dominates a block B if every path from the entry to B goes through A.
+The immediate dominator of B is the closest block that dominates it (other than B itself),
+and it is B's parent in the tree.
+
+The tree is found with the algorithm of Cooper, Harvey and Kennedy ("A Simple, Fast Dominance Algorithm"):
+the immediate dominator of each block is set to the common dominator of its predecessors, going over the blocks
+in reverse postorder until nothing changes.  The graphs built from this language's structured blocks are reducible,
+so this only takes a few rounds.  Once the tree is built, each dominance query takes constant time.
+
+Blocks that can't be reached from the entry are not in the tree, and don't dominate anything.
+*/
+
+public class DominatorTree {
+	
+	public final ControlFlowGraph graph;
+	
+	// The reachable blocks in reverse postorder (a block comes before its successors, except along back edges)
+	private final ArrayList<BasicBlock> reversePostOrder = new ArrayList<BasicBlock>();
+	
+	// The position of each block (by id) in reversePostOrder, or -1 if it can't be reached
+	private final int[] orderOfBlock;
+	
+	// The immediate dominator of each block (by id).  The entry is its own, and unreachable blocks have none (-1).
+	private final int[] immediateDominators;
+	
+	// The blocks each block immediately dominates
+	private final ArrayList<ArrayList<BasicBlock>> children;
+	
+	// The dominance frontier of each block, found when it is first needed
+	private ArrayList<ArrayList<BasicBlock>> dominanceFrontiers = null;
+	
+	// When each block is entered and left in a walk of the tree.
+	// A block dominates another block if the other block is entered and left while it is entered.
+	private final int[] enterTime;
+	private final int[] leaveTime;
+	
+	public DominatorTree(ControlFlowGraph graph) {
+		this.graph = graph;
+		
+		final int blockCount = graph.blocks.size();
+		orderOfBlock = new int[blockCount];
+		immediateDominators = new int[blockCount];
+		for (int i = 0; i < blockCount; i++) {
+			orderOfBlock[i] = -1;
+			immediateDominators[i] = -1;
+		}
+		
+		findReversePostOrder();
+		findImmediateDominators();
+		
+		children = new ArrayList<ArrayList<BasicBlock>>(blockCount);
+		for (int i = 0; i < blockCount; i++) {
+			children.add(new ArrayList<BasicBlock>(2));
+		}
+		for (BasicBlock block : reversePostOrder) {
+			if (block != graph.entry) {
+				children.get(immediateDominators[block.id]).add(block);
+			}
+		}
+		
+		enterTime = new int[blockCount];
+		leaveTime = new int[blockCount];
+		numberTree();
+	}
+	
+	// Find the reachable blocks in reverse postorder, with a depth-first search from the entry
+	private void findReversePostOrder() {
+		final int blockCount = graph.blocks.size();
+		boolean[] wasVisited = new boolean[blockCount];
+		ArrayList<BasicBlock> postOrder = new ArrayList<BasicBlock>(blockCount);
+		
+		// The blocks being visited, and the next successor to follow from each
+		IntStack visitStack = new IntStack();
+		IntStack nextSuccessorStack = new IntStack();
+		
+		wasVisited[graph.entry.id] = true;
+		visitStack.push(graph.entry.id);
+		nextSuccessorStack.push(0);
+		
+		while (!visitStack.isEmpty()) {
+			BasicBlock block = graph.blocks.get(visitStack.peek());
+			final int nextSuccessor = nextSuccessorStack.peek();
+			
+			if (nextSuccessor < block.successors.size()) {
+				nextSuccessorStack.set(nextSuccessor + 1);
+				BasicBlock successor = block.successors.get(nextSuccessor);
+				if (!wasVisited[successor.id]) {
+					wasVisited[successor.id] = true;
+					visitStack.push(successor.id);
+					nextSuccessorStack.push(0);
+				}
+			} else {
+				// Every successor of this block has been visited
+				visitStack.pop();
+				nextSuccessorStack.pop();
+				postOrder.add(block);
+			}
+		}
+		
+		for (int i = postOrder.size() - 1; i >= 0; i--) {
+			BasicBlock block = postOrder.get(i);
+			orderOfBlock[block.id] = reversePostOrder.size();
+			reversePostOrder.add(block);
+		}
+	}
+	
+	// Find the immediate dominator of each reachable block
+	private void findImmediateDominators() {
+		immediateDominators[graph.entry.id] = graph.entry.id;
+		
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			
+			for (BasicBlock block : reversePostOrder) {
+				if (block == graph.entry) {
+					continue;
+				}
+				
+				// The common dominator of every predecessor that has been given a dominator so far
+				int newDominator = -1;
+				for (BasicBlock predecessor : block.predecessors) {
+					if (immediateDominators[predecessor.id] == -1) {
+						continue; // Not reached yet, or can't be reached at all
+					}
+					if (newDominator == -1) {
+						newDominator = predecessor.id;
+					} else {
+						newDominator = findCommonDominator(predecessor.id, newDominator);
+					}
+				}
+				
+				if (immediateDominators[block.id] != newDominator) {
+					immediateDominators[block.id] = newDominator;
+					changed = true;
+				}
+			}
+		}
+	}
+	
+	// Return the closest block that dominates both of the given blocks (by id),
+	// using the dominators found so far
+	private int findCommonDominator(int block1, int block2) {
+		while (block1 != block2) {
+			while (orderOfBlock[block1] > orderOfBlock[block2]) {
+				block1 = immediateDominators[block1];
+			}
+			while (orderOfBlock[block2] > orderOfBlock[block1]) {
+				block2 = immediateDominators[block2];
+			}
+		}
+		return block1;
+	}
+	
+	// Number when each block is entered and left in a depth-first walk of the tree
+	private void numberTree() {
+		int time = 0;
+		
+		// The blocks being walked, and the next child to walk from each
+		IntStack walkStack = new IntStack();
+		IntStack nextChildStack = new IntStack();
+		
+		enterTime[graph.entry.id] = time++;
+		walkStack.push(graph.entry.id);
+		nextChildStack.push(0);
+		
+		while (!walkStack.isEmpty()) {
+			final int block = walkStack.peek();
+			final int nextChild = nextChildStack.peek();
+			ArrayList<BasicBlock> blockChildren = children.get(block);
+			
+			if (nextChild < blockChildren.size()) {
+				nextChildStack.set(nextChild + 1);
+				final int child = blockChildren.get(nextChild).id;
+				enterTime[child] = time++;
+				walkStack.push(child);
+				nextChildStack.push(0);
+			} else {
+				walkStack.pop();
+				nextChildStack.pop();
+				leaveTime[block] = time++;
+			}
+		}
+	}
+	
+	// Return true if the given block can be reached from the entry
+	public boolean isReachable(BasicBlock block) {
+		return orderOfBlock[block.id] != -1;
+	}
+	
+	// Return the immediate dominator of the given block,
+	// or null if it is the entry or can't be reached
+	public BasicBlock getImmediateDominator(BasicBlock block) {
+		if (block == graph.entry || !isReachable(block)) {
+			return null;
+		}
+		return graph.blocks.get(immediateDominators[block.id]);
+	}
+	
+	// Return the blocks that the given block immediately dominates
+	public ArrayList<BasicBlock> getChildren(BasicBlock block) {
+		return children.get(block.id);
+	}
+	
+	// Return the dominance frontier of the given block: the blocks where a path from it first joins
+	// a path that doesn't go through it.  (Each one has a predecessor that the block dominates,
+	// but the block doesn't strictly dominate it.)  These are the places that may need a phi
+	// for a variable that is assigned in the given block.
+	public ArrayList<BasicBlock> getDominanceFrontier(BasicBlock block) {
+		if (dominanceFrontiers == null) {
+			findDominanceFrontiers();
+		}
+		return dominanceFrontiers.get(block.id);
+	}
+	
+	// Find the dominance frontier of every block.
+	// For each join, walk up the tree from each predecessor to the join's immediate dominator,
+	// adding the join to the frontier of each block on the way.
+	private void findDominanceFrontiers() {
+		final int blockCount = graph.blocks.size();
+		dominanceFrontiers = new ArrayList<ArrayList<BasicBlock>>(blockCount);
+		for (int i = 0; i < blockCount; i++) {
+			dominanceFrontiers.add(new ArrayList<BasicBlock>(2));
+		}
+		
+		for (BasicBlock join : reversePostOrder) {
+			if (join.predecessors.size() < 2) {
+				continue;
+			}
+			for (BasicBlock predecessor : join.predecessors) {
+				if (!isReachable(predecessor)) {
+					continue;
+				}
+				int runner = predecessor.id;
+				while (runner != immediateDominators[join.id]) {
+					ArrayList<BasicBlock> frontier = dominanceFrontiers.get(runner);
+					if (frontier.isEmpty() || frontier.get(frontier.size() - 1) != join) {
+						frontier.add(join);
+					}
+					runner = immediateDominators[runner];
+				}
+			}
+		}
+	}
+	
+	// Return the reachable blocks, each one before its successors (except along the back edges of loops)
+	public ArrayList<BasicBlock> getReversePostOrder() {
+		return reversePostOrder;
+	}
+	
+	// Return true if every path from the entry to block2 goes through block1.
+	// Every reachable block dominates itself.
+	public boolean dominates(BasicBlock block1, BasicBlock block2) {
+		if (!isReachable(block1) || !isReachable(block2)) {
+			return false;
+		}
+		return enterTime[block1.id] <= enterTime[block2.id] && leaveTime[block2.id] <= leaveTime[block1.id];
+	}
+	
+	// Return true if the first instruction is guaranteed to have run whenever the second instruction runs
+	// (or they are the same instruction).  Both must be in the function of this tree.
+	public boolean dominates(Instruction instr1, Instruction instr2) {
+		BasicBlock block1 = graph.getBlock(instr1);
+		BasicBlock block2 = graph.getBlock(instr2);
+		if (block1 == null || block2 == null) {
+			return false;
+		}
+		if (block1 == block2) {
+			return isReachable(block1) && graph.getPosition(instr1) <= graph.getPosition(instr2);
+		}
+		return dominates(block1, block2);
+	}
+}
@@ -0,0 +1,234 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import instructions.*;
+import parsing.IntStack;
+
+/* This pass finds the instructions that always compute the same value as an instruction that runs before them
+(common subexpressions), and makes their users use the earlier one instead.
+For example:
+
+while l <= r
+	int m = l + (r - l) / 2
+	if arr[m] = x
+		break
+	]
+	if arr[m] < x
+		l = m + 1
+	...
+
+25  | Loop Parent=0 'while loop start'
+...
+39  | | Add(int 78, int 38)->int Parent=25 'l + (r - l) / 2'
+43  | | GetElement(int[]* 3, int 39)->int* Parent=25 'arr[m]'
+44  | | Load(int* 43)->int Parent=25 'arr[m]'
+46  | | Equal(int 44, int 10)->bool Parent=25 'arr[m] = x'
+47  | | If(bool 46) End=52 Parent=25 'arr[m] = x'
+51  | | | Break Parent=47 'break'
+52  | | | EndBlock Parent=47 'end arr[m] = x'
+54  | | GetElement(int[]* 3, int 39)->int* Parent=25 'arr[m]'
+55  | | Load(int* 54)->int Parent=25 'arr[m]'
+57  | | Less(int 55, int 10)->bool Parent=25 'arr[m] < x'
+
+is converted to:
+
+25  | Loop Parent=0 'while loop start'
+...
+39  | | Add(int 78, int 38)->int Parent=25 'l + (r - l) / 2'
+43  | | GetElement(int[]* 3, int 39)->int* Parent=25 'arr[m]'
+44  | | Load(int* 43)->int Parent=25 'arr[m]'
+46  | | Equal(int 44, int 5)->bool Parent=25 'arr[m] = x'
+47  | | If(bool 46) End=52 Parent=25 'arr[m] = x'
+51  | | | Break Parent=47 'break'
+52  | | | EndBlock Parent=47 'end arr[m] = x'
+57  | | Less(int 44, int 5)->bool Parent=25 'arr[m] < x'
+
+Each instruction that only computes a result from its arguments is given a key made of its kind and its arguments
+(in a fixed order for operations like + and =, where the order doesn't matter).  The blocks of each function are
+visited so that a block comes after the blocks that dominate it, and an instruction is replaced by an earlier one
+with the same key when the earlier one dominates it (so it has always run first).  The arguments of an instruction
+have already been replaced by then, so instructions that compute the same thing in the same way get the same key.
+
+Loads, GetElements, and ArrLengths read memory, so their keys also have the version of memory that they read.
+A new version starts after each StoreInstr and each call to a function that may write memory, and at the start of
+each block where control may come from more than one place.  A block with one predecessor carries on with the version
+at the end of that predecessor.  Calls, phis from different blocks, and instructions with side effects are never replaced.
+*/
+
+public class GlobalValueNumberingPass {
+	
+	// Main call to this pass:
+	public static void eliminateCommonSubexpressions(ArrayList<Instruction> instructions) {
+		
+		Instruction.linkUsers(instructions);
+		SideEffectAnalysis.analyze(instructions);
+		
+		// The instructions that were replaced by an earlier one, to remove from the list at the end
+		HashSet<Instruction> replacedInstructions = new HashSet<Instruction>();
+		
+		IntStack functionRanges = ControlFlowGraph.findFunctionRanges(instructions);
+		for (int i = 0; i < functionRanges.size(); i += 2) {
+			ControlFlowGraph graph = ControlFlowGraph.build(instructions, functionRanges.get(i), functionRanges.get(i + 1));
+			numberValuesInFunction(graph, instructions, replacedInstructions);
+		}
+		
+		if (replacedInstructions.isEmpty()) {
+			return;
+		}
+		
+		// Remove the replaced instructions, keeping the rest in order
+		ArrayList<Instruction> newInstructions = new ArrayList<Instruction>(instructions.size());
+		for (Instruction instr : instructions) {
+			if (!replacedInstructions.contains(instr)) {
+				newInstructions.add(instr);
+			}
+		}
+		instructions.clear();
+		instructions.addAll(newInstructions);
+		
+		SSAConstructionPass.updatePhiEdges(instructions);
+	}
+	
+	// Replace the common subexpressions in the function of the given graph
+	private static void numberValuesInFunction(ControlFlowGraph graph, ArrayList<Instruction> instructions,
+			HashSet<Instruction> replacedInstructions) {
+		
+		DominatorTree dominatorTree = new DominatorTree(graph);
+		
+		// The instructions that have been seen with each key, which may be used in place of a later one
+		HashMap<String, ArrayList<Instruction>> instructionsWithKey = new HashMap<String, ArrayList<Instruction>>();
+		
+		// The version of memory at the end of each block (by id)
+		int[] memoryVersionAtEnd = new int[graph.blocks.size()];
+		int nextMemoryVersion = 0;
+		
+		for (BasicBlock block : dominatorTree.getReversePostOrder()) {
+			
+			// A block with one predecessor comes after it in reverse postorder (unless it is only reached by itself)
+			int memoryVersion;
+			if (block.predecessors.size() == 1 && block.predecessors.get(0) != block) {
+				memoryVersion = memoryVersionAtEnd[block.predecessors.get(0).id];
+			} else {
+				memoryVersion = nextMemoryVersion++;
+			}
+			
+			for (Instruction instr : block.instructions) {
+				if (instr instanceof StoreInstr || instr.hasGlobalSideEffect()) {
+					memoryVersion = nextMemoryVersion++;
+					continue;
+				}
+				
+				String key = getKey(instr, block, memoryVersion);
+				if (key == null) {
+					continue;
+				}
+				
+				ArrayList<Instruction> earlierInstructions = instructionsWithKey.get(key);
+				if (earlierInstructions == null) {
+					earlierInstructions = new ArrayList<Instruction>(1);
+					instructionsWithKey.put(key, earlierInstructions);
+				}
+				
+				Instruction earlierInstr = null;
+				for (Instruction candidate : earlierInstructions) {
+					if (dominatorTree.dominates(candidate, instr)) {
+						earlierInstr = candidate;
+						break;
+					}
+				}
+				
+				if (earlierInstr == null) {
+					earlierInstructions.add(instr);
+					continue;
+				}
+				
+				instr.replaceAllUsesWith(earlierInstr);
+				for (Instruction arg : instr.getAllArgs()) {
+					if (arg != null) {
+						arg.removeUser(instr);
+					}
+				}
+				replacedInstructions.add(instr);
+			}
+			
+			memoryVersionAtEnd[block.id] = memoryVersion;
+		}
+	}
+	
+	// Return the key of the value of the given instruction in the given block, when memory has the given version,
+	// or null if it may not be replaced by another instruction
+	private static String getKey(Instruction instr, BasicBlock block, int memoryVersion) {
+		String key = instr.getClass().getSimpleName();
+		
+		if (instr instanceof GivenInstr) {
+			GivenInstr given = (GivenInstr)instr;
+			if (given.rawValue == null) {
+				return null;
+			}
+			return key + " " + given.returnType + " " + given.rawValue;
+		}
+		
+		if (instr instanceof PhiInstr) {
+			
+			// Two phis only have the same value if they are at the same join
+			PhiInstr phi = (PhiInstr)instr;
+			key += " " + block.id;
+			for (int i = 0; i < phi.values.length; i++) {
+				key += " " + phi.values[i].id + "/" + ((phi.fromInstrs[i] == null) ? -1 : phi.fromInstrs[i].id);
+			}
+			return key;
+		}
+		
+		if (!isPure(instr) && !readsMemory(instr)) {
+			return null;
+		}
+		
+		Instruction[] args = instr.getAllArgs();
+		if (args.length == 2 && isCommutative(instr) && args[0].id > args[1].id) {
+			args = new Instruction[] {args[1], args[0]};
+		}
+		for (Instruction arg : args) {
+			key += " " + ((arg == null) ? -1 : arg.id);
+		}
+		
+		if (instr instanceof ArrLengthInstr && ((ArrLengthInstr)instr).getElementCount) {
+			key += " all";
+		}
+		if (readsMemory(instr)) {
+			key += " @" + memoryVersion;
+		}
+		return key;
+	}
+	
+	// Return true if the given instruction only computes a result from its arguments
+	private static boolean isPure(Instruction instr) {
+		return ConstantFoldingPass.isFoldable(instr) ||
+				instr instanceof IdentityInstr ||
+				instr instanceof RefEqualInstr ||
+				instr instanceof RefNotEqualInstr;
+	}
+	
+	// Return true if the result of the given instruction also depends on what is in memory
+	private static boolean readsMemory(Instruction instr) {
+		return instr instanceof LoadInstr ||
+				instr instanceof GetElementInstr ||
+				instr instanceof ArrLengthInstr;
+	}
+	
+	// Return true if the given two-argument instruction has the same result with its arguments swapped
+	private static boolean isCommutative(Instruction instr) {
+		return instr instanceof AddInstr ||
+				instr instanceof MultInstr ||
+				instr instanceof BoolAndInstr ||
+				instr instanceof BoolOrInstr ||
+				instr instanceof BitAndInstr ||
+				instr instanceof BitOrInstr ||
+				instr instanceof EqualInstr ||
+				instr instanceof NotEqualInstr ||
+				instr instanceof RefEqualInstr ||
+				instr instanceof RefNotEqualInstr;
+	}
+}
@@ -0,0 +1,38 @@
+package passes;
+
+import instructions.Instruction;
+import instructions.PhiInstr;
+
+// A basic induction variable of a loop, found by InductionVariables:
+// an integer phi at the start of the loop's header that starts at the same value each time the loop is started,
+// and only changes by the same constant step in each iteration (such as the counter of a for-loop).
+// On each edge back to the header, the phi's value is either its increment or the phi itself (when a Continue
+// is taken before the increment).
+
+public class InductionVariable {
+	
+	public final Loop loop;
+	
+	public final PhiInstr phi;
+	
+	// The value of the phi when the loop is started
+	public final Instruction initialValue;
+	
+	// The instruction that adds the step to the phi (an Add or Sub of the phi and a GivenInstr)
+	public final Instruction increment;
+	
+	// How much the increment adds to the phi (which may be negative)
+	public final long step;
+	
+	InductionVariable(Loop loop, PhiInstr phi, Instruction initialValue, Instruction increment, long step) {
+		this.loop = loop;
+		this.phi = phi;
+		this.initialValue = initialValue;
+		this.increment = increment;
+		this.step = step;
+	}
+	
+	public String toString() {
+		return "Induction variable " + phi.id + " = " + initialValue.id + " + " + step + " * n in " + loop;
+	}
+}
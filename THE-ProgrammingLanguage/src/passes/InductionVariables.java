@@ -0,0 +1,140 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import instructions.*;
+
+/* This class finds the basic induction variables of the loops of a function (see InductionVariable).
+Each phi at the start of a loop's header is looked at, and it is an induction variable if:
+- its type is an integer type,
+- its value is the same on every edge that comes from outside of the loop,
+- and on every edge from inside the loop (a back edge), its value is either the phi itself,
+  or one increment inside the loop that adds a constant to the phi (or subtracts one from it), and at least one is.
+
+For example, the lowering of "for int i = 0, n" gives:
+
+17  | | Loop Parent=13 'for-loop start'
+106 | | | Phi(int 111, int 67 from 69)->int Parent=17 'i'
+...
+67  | | | Add(int 106, int 66)->int Parent=17 'i + 1'
+69  | | | EndBlock Parent=17 'end for-loop start'
+
+where 106 is an induction variable that starts at 111 and has a step of 1.
+*/
+
+public class InductionVariables {
+	
+	public final LoopNest loopNest;
+	public final ControlFlowGraph graph;
+	
+	// Every induction variable of the function, by loop (in the order of LoopNest.loops) and then in the order of the phis
+	public final ArrayList<InductionVariable> variables = new ArrayList<InductionVariable>();
+	
+	// The induction variable of each phi that is one
+	private final HashMap<Instruction, InductionVariable> variablesByPhi = new HashMap<Instruction, InductionVariable>();
+	
+	public InductionVariables(LoopNest loopNest) {
+		this.loopNest = loopNest;
+		this.graph = loopNest.graph;
+		
+		for (Loop loop : loopNest.loops) {
+			for (Instruction instr : loop.header.instructions) {
+				if (instr instanceof PhiInstr) {
+					InductionVariable variable = findInductionVariable(loop, (PhiInstr)instr);
+					if (variable != null) {
+						variables.add(variable);
+						variablesByPhi.put(instr, variable);
+					}
+				}
+			}
+		}
+	}
+	
+	// Return the induction variable of the given phi, or null if it isn't one
+	public InductionVariable getInductionVariable(Instruction phi) {
+		return variablesByPhi.get(phi);
+	}
+	
+	// Return true if the edge to the header of the given loop that comes from the given instruction
+	// (as in PhiInstr.fromInstrs) comes from inside the loop
+	public boolean isBackEdge(Loop loop, Instruction fromInstr) {
+		for (BasicBlock predecessor : loop.header.predecessors) {
+			if (graph.getJumpInstruction(predecessor, loop.header) == fromInstr) {
+				return loop.contains(predecessor);
+			}
+		}
+		return false;
+	}
+	
+	// Return the induction variable of the given phi at the start of the given loop, or null if it isn't one
+	private InductionVariable findInductionVariable(Loop loop, PhiInstr phi) {
+		if (!phi.returnType.isIntegerType()) {
+			return null;
+		}
+		
+		Instruction initialValue = null;
+		Instruction increment = null;
+		for (int i = 0; i < phi.values.length; i++) {
+			Instruction value = phi.values[i];
+			
+			if (!isBackEdge(loop, phi.fromInstrs[i])) {
+				if (initialValue == null || isSameConstant(initialValue, value)) {
+					initialValue = value;
+				} else if (value != initialValue) {
+					return null;
+				}
+			} else if (value != phi) {
+				if (increment == null) {
+					increment = value;
+				} else if (value != increment) {
+					return null;
+				}
+			}
+		}
+		if (initialValue == null || increment == null) {
+			return null;
+		}
+		
+		BasicBlock incrementBlock = graph.getBlock(increment);
+		if (incrementBlock == null || !loop.contains(incrementBlock)) {
+			return null;
+		}
+		Long step = getStep(phi, increment);
+		if (step == null || step == 0) {
+			return null;
+		}
+		return new InductionVariable(loop, phi, initialValue, increment, step);
+	}
+	
+	// Return how much the given instruction adds to the given phi,
+	// or null if it isn't an Add or Sub of the phi and a constant
+	private static Long getStep(PhiInstr phi, Instruction increment) {
+		if (increment.returnType != phi.returnType) {
+			return null;
+		}
+		Instruction[] args = increment.getAllArgs();
+		
+		if (increment instanceof AddInstr) {
+			if (args[0] == phi && args[1] instanceof GivenInstr) {
+				return ((Number)((GivenInstr)args[1]).rawValue).longValue();
+			} else if (args[1] == phi && args[0] instanceof GivenInstr) {
+				return ((Number)((GivenInstr)args[0]).rawValue).longValue();
+			}
+		} else if (increment instanceof SubInstr) {
+			if (args[0] == phi && args[1] instanceof GivenInstr) {
+				return -((Number)((GivenInstr)args[1]).rawValue).longValue();
+			}
+		}
+		return null;
+	}
+	
+	// Return true if both instructions are constants with the same value
+	static boolean isSameConstant(Instruction instr1, Instruction instr2) {
+		if (!(instr1 instanceof GivenInstr) || !(instr2 instanceof GivenInstr) || instr1.returnType != instr2.returnType) {
+			return false;
+		}
+		Object value1 = ((GivenInstr)instr1).rawValue;
+		return value1 != null && value1.equals(((GivenInstr)instr2).rawValue);
+	}
+}
@@ -0,0 +1,354 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import instructions.*;
+import parsing.CompilationContext;
+import parsing.Function;
+import parsing.InstructionCopier;
+import parsing.IntStack;
+
+/* This pass replaces calls to small functions with a copy of the function's body (inlining),
+so that the later passes can optimize the body together with the code around the call.
+It runs before SSAConstructionPass, so the result is returned through a new variable:
+each Return in the copy stores its value to the variable, and the call is replaced with a Load of it.
+For example:
+
+int x = five()
+print(x + five())
+int five()
+	return 5
+]
+
+1   | FunctionCall()->int [five] Parent=0 'five()'
+2   | AllocVar->int* Parent=0 'int x' (x declared)
+3   | Store(int* 2, int 1) Parent=0 'x = five()'
+4   | Load(int* 2)->int Parent=0 'x'
+5   | FunctionCall()->int [five] Parent=0 'five()'
+6   | Add(int 4, int 5)->int Parent=0 'x + five()'
+...
+30  FunctionDef()->int [five] Parent=-1 'int five()'
+31  | Given->int [5] Parent=30 '5'
+32  | Return Parent=30 'return 5'
+33  | EndBlock Parent=30 'end int five()'
+
+is converted to:
+
+48  | AllocVar->int* Parent=0 'five()' (GENERATED_result1 declared)
+49  | StartBlock Parent=0 'inline five()'
+50  | | Given->int [5] Parent=49 '5'
+52  | | Store(int* 48, int 50) Parent=49 'return 5'
+53  | | EndBlock Parent=49 'end inline five()'
+54  | Load(int* 48)->int Parent=0 'five()'
+2   | AllocVar->int* Parent=0 'int x' (x declared)
+3   | Store(int* 2, int 54) Parent=0 'x = five()'
+...
+
+When a function returns from more than one place (or from inside an If or a Loop), the copy is put inside a Loop
+instead, and each Return also breaks out of it, so that the rest of the copy is skipped.
+Nothing breaks back to the start of that Loop, so it runs once.
+
+The arguments of a call are worked out before the call, so they are left where they are.
+(The body of a function can't read its parameters yet, so there is nothing in the copy to replace with them.)
+
+Whether a call is inlined depends on the cost of the function: the number of its instructions
+that do work (not counting constants, variables, and the ends of blocks).  A call is inlined if the cost is
+at most the budget, or a multiple of it inside loops, where the call would run the most times.
+Each function may only take in so much inlined code, so that it can't grow without limit.
+The functions are inlined into the functions that call them after their own calls were inlined,
+so a chain of small functions can be inlined all the way up.
+A function that can call itself (directly or through other functions) is never inlined,
+and neither is a function declared inside another function, since its body may use the other function's variables.
+*/
+
+public class InliningPass {
+	
+	// The largest cost of a function that is inlined outside of loops, unless the compiler is given another one
+	public static final int DEFAULT_BUDGET = 30;
+	
+	// A call inside n loops may inline a function that costs up to (n + 1) times the budget, up to this many loops
+	private static final int MAX_LOOP_DEPTH = 2;
+	
+	// The most that may be inlined into each function, as a multiple of the budget
+	private static final int MAX_GROWTH = 10;
+	
+	// Main call to this pass:
+	public static void inlineFunctions(ArrayList<Instruction> instructions, int budget) {
+		if (budget <= 0) {
+			return;
+		}
+		
+		// Number every function that is defined in this program
+		ArrayList<FunctionDefInstr> funcDefInstrs = new ArrayList<FunctionDefInstr>();
+		HashMap<FunctionDefInstr, Integer> funcDefIndices = new HashMap<FunctionDefInstr, Integer>();
+		for (Instruction instr : instructions) {
+			if (instr instanceof FunctionDefInstr) {
+				funcDefIndices.put((FunctionDefInstr)instr, funcDefInstrs.size());
+				funcDefInstrs.add((FunctionDefInstr)instr);
+			}
+		}
+		
+		// Find the functions that each function calls
+		ArrayList<IntStack> calledFunctions = new ArrayList<IntStack>(funcDefInstrs.size());
+		for (int i = 0; i < funcDefInstrs.size(); i++) {
+			calledFunctions.add(new IntStack());
+		}
+		for (Instruction instr : instructions) {
+			if (instr instanceof FunctionCallInstr) {
+				FunctionDefInstr owner = findEnclosingFunction(instr);
+				Integer calledIndex = funcDefIndices.get(((FunctionCallInstr)instr).functionThatWasCalled.functionDefInstr);
+				if (owner != null && calledIndex != null) {
+					calledFunctions.get(funcDefIndices.get(owner)).push(calledIndex);
+				}
+			}
+		}
+		
+		// A function can call itself if it is in a component of the call graph with other functions,
+		// or if it calls itself directly
+		int[] components = SideEffectAnalysis.findComponents(calledFunctions);
+		int[] componentSizes = new int[funcDefInstrs.size()];
+		for (int i = 0; i < funcDefInstrs.size(); i++) {
+			componentSizes[components[i]]++;
+		}
+		HashSet<FunctionDefInstr> inlinableFunctions = new HashSet<FunctionDefInstr>();
+		for (int i = 0; i < funcDefInstrs.size(); i++) {
+			boolean isRecursive = componentSizes[components[i]] > 1;
+			IntStack calls = calledFunctions.get(i);
+			for (int j = 0; j < calls.size() && !isRecursive; j++) {
+				isRecursive = calls.get(j) == i;
+			}
+			if (!isRecursive && funcDefInstrs.get(i).parentInstruction == null) {
+				inlinableFunctions.add(funcDefInstrs.get(i));
+			}
+		}
+		
+		// Where each function is, as indices of its FunctionDefInstr and its EndBlock.
+		// The instructions aren't changed until every call is inlined, so these stay the same.
+		IntStack functionRanges = ControlFlowGraph.findFunctionRanges(instructions);
+		HashMap<Instruction, Integer> rangeIndices = new HashMap<Instruction, Integer>();
+		for (int i = 0; i < functionRanges.size(); i += 2) {
+			rangeIndices.put(instructions.get(functionRanges.get(i)), i);
+		}
+		Instruction.linkUsers(instructions);
+		
+		// The instructions to replace each call that is inlined with
+		HashMap<Instruction, ArrayList<Instruction>> inlinedCalls = new HashMap<Instruction, ArrayList<Instruction>>();
+		
+		// The body of each function that may be inlined, with the calls in it already inlined, and its cost.
+		// They are worked out when the function is first called, which is after its calls were inlined.
+		HashMap<Instruction, ArrayList<Instruction>> bodies = new HashMap<Instruction, ArrayList<Instruction>>();
+		HashMap<Instruction, Integer> costs = new HashMap<Instruction, Integer>();
+		
+		// Inline into each function after the functions it calls
+		IntStack order = SideEffectAnalysis.findCalleesFirstOrder(components);
+		for (int i = 0; i < order.size(); i++) {
+			FunctionDefInstr caller = funcDefInstrs.get(order.get(i));
+			final int rangeIndex = rangeIndices.get(caller);
+			int growth = 0;
+			
+			for (int j = functionRanges.get(rangeIndex) + 1; j < functionRanges.get(rangeIndex + 1); j++) {
+				Instruction instr = instructions.get(j);
+				if (!(instr instanceof FunctionCallInstr) || findEnclosingFunction(instr) != caller) {
+					continue;
+				}
+				FunctionCallInstr call = (FunctionCallInstr)instr;
+				FunctionDefInstr callee = call.functionThatWasCalled.functionDefInstr;
+				if (callee == caller || !inlinableFunctions.contains(callee)) {
+					continue;
+				}
+				
+				ArrayList<Instruction> body = bodies.get(callee);
+				if (body == null) {
+					final int calleeRangeIndex = rangeIndices.get(callee);
+					body = getBodyWithInlinedCalls(instructions, functionRanges.get(calleeRangeIndex),
+							functionRanges.get(calleeRangeIndex + 1), inlinedCalls);
+					bodies.put(callee, body);
+					costs.put(callee, getCost(callee, body));
+				}
+				final int cost = costs.get(callee);
+				
+				final int callBudget = budget * (1 + Math.min(getLoopDepth(call), MAX_LOOP_DEPTH));
+				if (cost < 0 || cost > callBudget || growth + cost > budget * MAX_GROWTH) {
+					continue;
+				}
+				growth += cost;
+				inlinedCalls.put(call, copyBody(call, callee, body));
+			}
+		}
+		
+		if (inlinedCalls.isEmpty()) {
+			return;
+		}
+		
+		// Put every inlined body in place of its call at once.
+		// (The bodies were copied with the calls in them already inlined, so they don't need to be looked at again.)
+		ArrayList<Instruction> newInstructions = new ArrayList<Instruction>(instructions.size());
+		for (Instruction instr : instructions) {
+			ArrayList<Instruction> inlined = inlinedCalls.get(instr);
+			if (inlined != null) {
+				newInstructions.addAll(inlined);
+			} else {
+				newInstructions.add(instr);
+			}
+		}
+		instructions.clear();
+		instructions.addAll(newInstructions);
+	}
+	
+	// Return the instructions between the given indices of a FunctionDefInstr and its EndBlock,
+	// with each call that was inlined replaced by the instructions it is replaced with
+	private static ArrayList<Instruction> getBodyWithInlinedCalls(ArrayList<Instruction> instructions,
+			int funcDefIndex, int endIndex, HashMap<Instruction, ArrayList<Instruction>> inlinedCalls) {
+		ArrayList<Instruction> body = new ArrayList<Instruction>(endIndex - funcDefIndex);
+		for (int i = funcDefIndex + 1; i < endIndex; i++) {
+			Instruction instr = instructions.get(i);
+			ArrayList<Instruction> inlined = inlinedCalls.get(instr);
+			if (inlined != null) {
+				body.addAll(inlined);
+			} else {
+				body.add(instr);
+			}
+		}
+		return body;
+	}
+	
+	// Return the cost of inlining the function with the given body (see the top of this file),
+	// or -1 if it can't be inlined: if its body uses an instruction from outside of it,
+	// declares a function, or returns a value of another type than the function's
+	private static int getCost(FunctionDefInstr funcDefInstr, ArrayList<Instruction> body) {
+		HashSet<Instruction> bodySet = new HashSet<Instruction>(body);
+		
+		int cost = 0;
+		for (Instruction instr : body) {
+			if (instr instanceof FunctionDefInstr) {
+				return -1;
+			}
+			for (Instruction arg : instr.getAllArgs()) {
+				if (arg != null && !bodySet.contains(arg)) {
+					return -1;
+				}
+			}
+			if (instr instanceof ReturnInstr) {
+				Instruction value = ((ReturnInstr)instr).arg0;
+				if (value != null && value.returnType != funcDefInstr.functionThatWasDefined.returnType) {
+					return -1;
+				}
+			}
+			
+			if (!(instr instanceof GivenInstr || instr instanceof AllocVarInstr || instr instanceof IdentityInstr ||
+					instr instanceof StartBlockInstr || instr instanceof EndBlockInstr)) {
+				cost++;
+			}
+		}
+		return cost;
+	}
+	
+	// Return the instructions to replace the given call with: a copy of the given body of the function,
+	// and the instructions that pass its result back to the users of the call
+	private static ArrayList<Instruction> copyBody(FunctionCallInstr call, FunctionDefInstr funcDefInstr,
+			ArrayList<Instruction> functionBody) {
+		
+		Function function = funcDefInstr.functionThatWasDefined;
+		Instruction parent = call.parentInstruction;
+		ArrayList<Instruction> body = InstructionCopier.copy(functionBody, 0, null);
+		
+		// The body only needs a Loop to break out of if it returns from somewhere other than its end
+		Instruction lastInstr = body.isEmpty() ? null : body.get(body.size() - 1);
+		boolean returnsAtEnd = lastInstr instanceof ReturnInstr && lastInstr.parentInstruction == funcDefInstr;
+		int returnCount = 0;
+		for (Instruction instr : body) {
+			if (instr instanceof ReturnInstr) {
+				returnCount++;
+			}
+		}
+		final boolean needsLoop = returnCount > (returnsAtEnd ? 1 : 0);
+		
+		ArrayList<Instruction> inlined = new ArrayList<Instruction>(body.size() + 5);
+		
+		// The variable to return the result in, if the result is used
+		AllocVarInstr resultVar = null;
+		if (function.returnType != null && !call.getUsers().isEmpty()) {
+			resultVar = new AllocVarInstr(parent, call.debugString, function.returnType, "GENERATED_result" + call.id);
+			resultVar.originalLineNumber = call.originalLineNumber;
+			inlined.add(resultVar);
+		}
+		
+		Instruction blockInstr;
+		if (needsLoop) {
+			blockInstr = new LoopInstr(parent, "inline " + call.debugString, false);
+		} else {
+			blockInstr = new StartBlockInstr(parent, "inline " + call.debugString);
+		}
+		blockInstr.originalLineNumber = call.originalLineNumber;
+		inlined.add(blockInstr);
+		
+		for (Instruction copy : body) {
+			copy.id = CompilationContext.getCurrent().takeNextInstructionNum();
+			if (copy.parentInstruction == funcDefInstr) {
+				copy.parentInstruction = blockInstr;
+			}
+			if (!(copy instanceof ReturnInstr)) {
+				inlined.add(copy);
+				continue;
+			}
+			
+			// Replace the Return with a Store of its value, and a Break out of the Loop
+			Instruction value = ((ReturnInstr)copy).arg0;
+			if (resultVar != null && value != null) {
+				StoreInstr storeInstr = new StoreInstr(copy.parentInstruction, copy.debugString, resultVar, value);
+				storeInstr.originalLineNumber = copy.originalLineNumber;
+				inlined.add(storeInstr);
+			}
+			if (needsLoop) {
+				BreakInstr breakInstr = new BreakInstr(copy.parentInstruction, copy.debugString, (LoopInstr)blockInstr);
+				breakInstr.originalLineNumber = copy.originalLineNumber;
+				inlined.add(breakInstr);
+			}
+		}
+		
+		// A function without a result may also return by reaching its end
+		if (needsLoop && function.returnType == null && !returnsAtEnd) {
+			BreakInstr breakInstr = new BreakInstr(blockInstr, "end of " + function.name, (LoopInstr)blockInstr);
+			breakInstr.originalLineNumber = call.originalLineNumber;
+			inlined.add(breakInstr);
+		}
+		
+		EndBlockInstr endInstr = new EndBlockInstr(blockInstr, "end inline " + call.debugString);
+		endInstr.originalLineNumber = call.originalLineNumber;
+		inlined.add(endInstr);
+		if (needsLoop) {
+			((LoopInstr)blockInstr).endInstr = endInstr;
+		}
+		
+		if (resultVar != null) {
+			LoadInstr loadInstr = new LoadInstr(parent, call.debugString, resultVar);
+			loadInstr.originalLineNumber = call.originalLineNumber;
+			inlined.add(loadInstr);
+			call.replaceAllUsesWith(loadInstr);
+		}
+		return inlined;
+	}
+	
+	// Return the number of loops that the given instruction is inside of, in its function
+	private static int getLoopDepth(Instruction instr) {
+		int depth = 0;
+		for (Instruction parent = instr.parentInstruction; parent != null && !(parent instanceof FunctionDefInstr);
+				parent = parent.parentInstruction) {
+			if (parent instanceof LoopInstr) {
+				depth++;
+			}
+		}
+		return depth;
+	}
+	
+	// Return the function whose body the given instruction is in, or null if it isn't in one
+	private static FunctionDefInstr findEnclosingFunction(Instruction instr) {
+		Instruction parent = instr.parentInstruction;
+		while (parent != null && !(parent instanceof FunctionDefInstr)) {
+			parent = parent.parentInstruction;
+		}
+		return (FunctionDefInstr)parent;
+	}
+}
@@ -0,0 +1,75 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import instructions.Instruction;
+import instructions.LoopInstr;
+
+// A loop in a function's ControlFlowGraph, found by LoopNest.
+// The header is the block that starts each iteration, and it dominates every block of the loop.
+// The loop's blocks include the blocks of the loops nested inside it.
+
+public class Loop {
+	
+	public final BasicBlock header;
+	
+	// The LoopInstr that starts the header (every loop in this language starts with one)
+	public final LoopInstr loopInstr;
+	
+	// The loop that this loop is nested directly inside, or null if it is not inside a loop
+	public final Loop parent;
+	
+	// The loops nested directly inside this loop
+	public final ArrayList<Loop> children = new ArrayList<Loop>();
+	
+	// Every block of the loop, in the order of their ids, starting with the header
+	public final ArrayList<BasicBlock> blocks = new ArrayList<BasicBlock>();
+	
+	// The blocks inside the loop that jump back to the header
+	public final ArrayList<BasicBlock> backEdgeBlocks = new ArrayList<BasicBlock>(2);
+	
+	// 1 for a loop that is not inside a loop, 2 for a loop inside that, and so on
+	public final int depth;
+	
+	// The ids of the blocks of the loop
+	private final BitSet blockIds = new BitSet();
+	
+	Loop(BasicBlock header, Loop parent) {
+		this.header = header;
+		Instruction firstInstr = header.getFirstInstruction();
+		this.loopInstr = (firstInstr instanceof LoopInstr) ? (LoopInstr)firstInstr : null;
+		this.parent = parent;
+		this.depth = (parent == null) ? 1 : parent.depth + 1;
+	}
+	
+	// Add the blocks with the given ids to the loop
+	void setBlocks(BitSet ids, ControlFlowGraph graph) {
+		blockIds.or(ids);
+		for (int id = blockIds.nextSetBit(0); id >= 0; id = blockIds.nextSetBit(id + 1)) {
+			blocks.add(graph.blocks.get(id));
+		}
+	}
+	
+	// Return true if the given block is in this loop (or a loop nested in it)
+	public boolean contains(BasicBlock block) {
+		return blockIds.get(block.id);
+	}
+	
+	// Return the blocks outside the loop that a block in the loop may go to
+	public ArrayList<BasicBlock> getExitBlocks() {
+		ArrayList<BasicBlock> exitBlocks = new ArrayList<BasicBlock>();
+		for (BasicBlock block : blocks) {
+			for (BasicBlock successor : block.successors) {
+				if (!contains(successor) && !exitBlocks.contains(successor)) {
+					exitBlocks.add(successor);
+				}
+			}
+		}
+		return exitBlocks;
+	}
+	
+	public String toString() {
+		return "Loop at " + header + " (depth " + depth + ", " + blocks.size() + " blocks)";
+	}
+}
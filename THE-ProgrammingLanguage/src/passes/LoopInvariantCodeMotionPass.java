@@ -0,0 +1,280 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import instructions.*;
+import parsing.Function;
+import parsing.IntStack;
+import parsing.SideEffect;
+
+/* This pass moves the instructions inside a loop that compute the same value in every iteration
+(loop invariants) to just before the loop, so that they are only worked out once.
+For example:
+
+int i = 0
+while i < #arr - 1
+	sum = sum + arr[i] * (n * n)
+	i++
+]
+
+8   | Given->int [0] Parent=0 '0'
+14  | Loop Parent=0 'while loop start'
+45  | | Phi(int 8, int 33 from 40)->int Parent=14 'sum'
+46  | | Phi(int 8, int 38 from 40)->int Parent=14 'i'
+16  | | Identity(int[]* 3)->int[]* Parent=14 'arr'
+17  | | ArrLength(int[]* 16)->int Parent=14 '#arr' (all elements)
+18  | | Given->int [1] Parent=14 '1'
+19  | | Sub(int 17, int 18)->int Parent=14 '#arr - 1'
+20  | | Less(int 46, int 19)->bool Parent=14 'i < #arr - 1'
+21  | | BoolNot(bool 20)->bool Parent=14 '!(i < #arr - 1)'
+22  | | If(bool 21) End=24 Parent=14 'if !(i < #arr - 1)'
+23  | | | Break Parent=22 'break while'
+24  | | | EndBlock Parent=22 'end if'
+27  | | GetElement(int[]* 3, int 46)->int* Parent=14 'arr[i]'
+28  | | Load(int* 27)->int Parent=14 'arr[i]'
+47  | | Given->int [9] Parent=14 'n * n'
+32  | | Mult(int 28, int 47)->int Parent=14 'arr[i] * (n * n)'
+33  | | Add(int 45, int 32)->int Parent=14 'sum + arr[i] * (n * n)'
+38  | | Add(int 46, int 18)->int Parent=14 'i + 1'
+40  | | EndBlock Parent=14 'end while loop start'
+
+is converted to:
+
+8   | Given->int [0] Parent=0 '0'
+16  | Identity(int[]* 3)->int[]* Parent=0 'arr'
+17  | ArrLength(int[]* 16)->int Parent=0 '#arr' (all elements)
+18  | Given->int [1] Parent=0 '1'
+19  | Sub(int 17, int 18)->int Parent=0 '#arr - 1'
+47  | Given->int [9] Parent=0 'n * n'
+14  | Loop Parent=0 'while loop start'
+45  | | Phi(int 8, int 33 from 40)->int Parent=14 'sum'
+46  | | Phi(int 8, int 38 from 40)->int Parent=14 'i'
+20  | | Less(int 46, int 19)->bool Parent=14 'i < #arr - 1'
+21  | | BoolNot(bool 20)->bool Parent=14 '!(i < #arr - 1)'
+22  | | If(bool 21) End=24 Parent=14 'if !(i < #arr - 1)'
+23  | | | Break Parent=22 'break while'
+24  | | | EndBlock Parent=22 'end if'
+27  | | GetElement(int[]* 3, int 46)->int* Parent=14 'arr[i]'
+28  | | Load(int* 27)->int Parent=14 'arr[i]'
+32  | | Mult(int 28, int 47)->int Parent=14 'arr[i] * (n * n)'
+33  | | Add(int 45, int 32)->int Parent=14 'sum + arr[i] * (n * n)'
+38  | | Add(int 46, int 18)->int Parent=14 'i + 1'
+40  | | EndBlock Parent=14 'end while loop start'
+
+An instruction is invariant in a loop if each of its arguments is worked out outside of the loop
+(or is itself moved out of it), and it is moved out of the outermost loop that it is invariant in.
+Instructions with side effects, phis, and instructions that jump or start a block are never moved.
+
+An instruction that is moved runs once each time the loop is started, even if the loop's condition is false at once,
+or the instruction would only have run in some iterations.  So this is only done when running it can't change what
+the program does: pure operations that can't fail (such as + and <, and / by a constant that isn't 0 or -1).
+Loads, GetElements, ArrLengths, calls to pure functions, and operations that may fail (such as / by a variable)
+are only moved when they are in the header block of the loop, which runs every time the loop is started
+and dominates every exit of the loop, and nothing before them in the header prints, stores, or calls a function.
+Instructions that read memory are also only moved out of loops that don't store anything or call a function
+that may write memory.
+*/
+
+public class LoopInvariantCodeMotionPass {
+	
+	// Main call to this pass:
+	public static void hoistLoopInvariants(ArrayList<Instruction> instructions) {
+		
+		SideEffectAnalysis.analyze(instructions);
+		
+		// The instructions to move to before each LoopInstr, in the order that they are in now
+		HashMap<Instruction, ArrayList<Instruction>> instructionsBeforeLoop = new HashMap<Instruction, ArrayList<Instruction>>();
+		
+		IntStack functionRanges = ControlFlowGraph.findFunctionRanges(instructions);
+		for (int i = 0; i < functionRanges.size(); i += 2) {
+			ControlFlowGraph graph = ControlFlowGraph.build(instructions, functionRanges.get(i), functionRanges.get(i + 1));
+			hoistInFunction(graph, instructionsBeforeLoop);
+		}
+		
+		if (instructionsBeforeLoop.isEmpty()) {
+			return;
+		}
+		
+		// Move the instructions, keeping the rest in order
+		ArrayList<Instruction> movedInstructions = new ArrayList<Instruction>();
+		for (ArrayList<Instruction> moved : instructionsBeforeLoop.values()) {
+			movedInstructions.addAll(moved);
+		}
+		HashSet<Instruction> isMoved = new HashSet<Instruction>(movedInstructions);
+		
+		ArrayList<Instruction> newInstructions = new ArrayList<Instruction>(instructions.size());
+		for (Instruction instr : instructions) {
+			ArrayList<Instruction> moved = instructionsBeforeLoop.get(instr);
+			if (moved != null) {
+				newInstructions.addAll(moved);
+			}
+			if (!isMoved.contains(instr)) {
+				newInstructions.add(instr);
+			}
+		}
+		instructions.clear();
+		instructions.addAll(newInstructions);
+		
+		// A Break from a loop just before another loop now goes to the first instruction that was moved
+		SSAConstructionPass.updatePhiEdges(instructions);
+	}
+	
+	// Find the instructions to move out of the loops of the function of the given graph
+	private static void hoistInFunction(ControlFlowGraph graph, HashMap<Instruction, ArrayList<Instruction>> instructionsBeforeLoop) {
+		
+		LoopNest loopNest = new LoopNest(new DominatorTree(graph));
+		if (loopNest.loops.isEmpty()) {
+			return;
+		}
+		
+		// Whether each loop (by its header's id) may write memory
+		boolean[] doesWriteMemory = new boolean[graph.blocks.size()];
+		for (Loop loop : loopNest.loops) {
+			for (BasicBlock block : loop.blocks) {
+				for (Instruction instr : block.instructions) {
+					if (instr instanceof StoreInstr || (instr instanceof FunctionCallInstr && instr.hasGlobalSideEffect())) {
+						doesWriteMemory[loop.header.id] = true;
+					}
+				}
+			}
+		}
+		
+		// The innermost loop that each instruction will be in, for the instructions that are moved
+		HashMap<Instruction, Loop> newLoops = new HashMap<Instruction, Loop>();
+		
+		// The blocks are in the order of their instructions, so the arguments of an instruction are looked at before it
+		ArrayList<Loop> enclosingLoops = new ArrayList<Loop>();
+		for (BasicBlock block : graph.blocks) {
+			Loop innermostLoop = loopNest.getLoop(block);
+			if (innermostLoop == null || !loopNest.dominatorTree.isReachable(block)) {
+				continue;
+			}
+			
+			// The loops around the block, from the outermost one in
+			enclosingLoops.clear();
+			for (Loop loop = innermostLoop; loop != null; loop = loop.parent) {
+				enclosingLoops.add(0, loop);
+			}
+			
+			for (Instruction instr : block.instructions) {
+				if (!isMovable(instr)) {
+					continue;
+				}
+				
+				for (Loop loop : enclosingLoops) {
+					if (loop.loopInstr != null && isInvariant(instr, loop, graph, loopNest, newLoops) &&
+							isSafeToMove(instr, block, loop, doesWriteMemory, newLoops)) {
+						
+						ArrayList<Instruction> moved = instructionsBeforeLoop.get(loop.loopInstr);
+						if (moved == null) {
+							moved = new ArrayList<Instruction>();
+							instructionsBeforeLoop.put(loop.loopInstr, moved);
+						}
+						moved.add(instr);
+						newLoops.put(instr, loop.parent);
+						instr.parentInstruction = loop.loopInstr.parentInstruction;
+						break;
+					}
+				}
+			}
+		}
+	}
+	
+	// Return true if the given instruction only computes a result, so it may be moved
+	private static boolean isMovable(Instruction instr) {
+		if (instr instanceof GivenInstr ||
+				instr instanceof IdentityInstr ||
+				instr instanceof RefEqualInstr ||
+				instr instanceof RefNotEqualInstr ||
+				ConstantFoldingPass.isFoldable(instr) ||
+				readsMemory(instr)) {
+			return true;
+		}
+		return isPureCall(instr);
+	}
+	
+	// Return true if the given instruction calls a function that only computes a result from its arguments
+	private static boolean isPureCall(Instruction instr) {
+		if (!(instr instanceof FunctionCallInstr)) {
+			return false;
+		}
+		Function calledFunction = ((FunctionCallInstr)instr).functionThatWasCalled;
+		return calledFunction.sideEffect == SideEffect.Pure;
+	}
+	
+	// Return true if the result of the given instruction also depends on what is in memory
+	private static boolean readsMemory(Instruction instr) {
+		return instr instanceof LoadInstr ||
+				instr instanceof GetElementInstr ||
+				instr instanceof ArrLengthInstr;
+	}
+	
+	// Return true if every argument of the given instruction is worked out outside of the given loop
+	private static boolean isInvariant(Instruction instr, Loop loop, ControlFlowGraph graph, LoopNest loopNest,
+			HashMap<Instruction, Loop> newLoops) {
+		for (Instruction arg : instr.getAllArgs()) {
+			if (arg == null) {
+				continue;
+			}
+			Loop argLoop;
+			if (newLoops.containsKey(arg)) {
+				argLoop = newLoops.get(arg);
+			} else {
+				BasicBlock argBlock = graph.getBlock(arg);
+				argLoop = (argBlock == null) ? null : loopNest.getLoop(argBlock);
+			}
+			if (argLoop != null && loop.contains(argLoop.header)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// Return true if running the given instruction (in the given block) before the given loop
+	// can't change what the program does
+	private static boolean isSafeToMove(Instruction instr, BasicBlock block, Loop loop, boolean[] doesWriteMemory,
+			HashMap<Instruction, Loop> newLoops) {
+		
+		if (readsMemory(instr) && doesWriteMemory[loop.header.id]) {
+			return false;
+		}
+		if (!readsMemory(instr) && !isPureCall(instr) && !mayFail(instr)) {
+			return true;
+		}
+		
+		// It must run every time the loop is started, before anything that the program does
+		if (block != loop.header) {
+			return false;
+		}
+		for (Instruction headerInstr : block.instructions) {
+			if (headerInstr == instr) {
+				return true;
+			}
+			if (headerInstr instanceof StoreInstr || headerInstr instanceof PrintInstr ||
+					(headerInstr instanceof FunctionCallInstr && !newLoops.containsKey(headerInstr))) {
+				return false;
+			}
+		}
+		return false;
+	}
+	
+	// Return true if the given operation may stop the program with an error, for some values of its arguments.
+	// Integer division and modulo fail when dividing by 0, and an integer power fails with a negative exponent.
+	private static boolean mayFail(Instruction instr) {
+		if (!(instr instanceof DivideInstr || instr instanceof ModuloInstr || instr instanceof PowerInstr) ||
+				!instr.returnType.isIntegerType()) {
+			return false;
+		}
+		Instruction arg2 = instr.getAllArgs()[1];
+		if (!(arg2 instanceof GivenInstr)) {
+			return true;
+		}
+		final long value = ((Number)((GivenInstr)arg2).rawValue).longValue();
+		if (instr instanceof PowerInstr) {
+			return value < 0;
+		}
+		return value == 0 || value == -1;
+	}
+}
@@ -0,0 +1,103 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import parsing.IntStack;
+
+/* This class finds the loops of a function's ControlFlowGraph, and how they are nested in each other.
+
+An edge from a block to a block that dominates it is a back edge, and the block it goes to is the header of a loop.
+The loop is every block that can reach the back edge without going through the header (a "natural loop").
+In this language, the back edges come from the EndBlock of a Loop and from each Continue, and the header is
+the block that starts with the LoopInstr.  Loops with the same header are one loop.
+
+Each loop is found after every loop it is nested in (a header comes after the headers of the loops around it
+in reverse postorder), so the loop each block is directly inside is the last loop found that contains it.
+*/
+
+public class LoopNest {
+	
+	public final ControlFlowGraph graph;
+	public final DominatorTree dominatorTree;
+	
+	// Every loop in the function, each one after the loops it is nested in
+	public final ArrayList<Loop> loops = new ArrayList<Loop>();
+	
+	// The loops that are not nested inside another loop
+	public final ArrayList<Loop> topLevelLoops = new ArrayList<Loop>();
+	
+	// The innermost loop that each block (by id) is in, or null if it isn't in a loop
+	private final Loop[] innermostLoops;
+	
+	public LoopNest(DominatorTree dominatorTree) {
+		this.dominatorTree = dominatorTree;
+		this.graph = dominatorTree.graph;
+		this.innermostLoops = new Loop[graph.blocks.size()];
+		
+		BitSet loopBlocks = new BitSet();
+		IntStack blockStack = new IntStack();
+		
+		for (BasicBlock header : dominatorTree.getReversePostOrder()) {
+			
+			// Find the back edges to this block
+			ArrayList<BasicBlock> backEdgeBlocks = new ArrayList<BasicBlock>(2);
+			for (BasicBlock predecessor : header.predecessors) {
+				if (dominatorTree.dominates(header, predecessor)) {
+					backEdgeBlocks.add(predecessor);
+				}
+			}
+			if (backEdgeBlocks.isEmpty()) {
+				continue;
+			}
+			
+			// Find the blocks of the loop, by walking backward from each back edge until the header
+			loopBlocks.clear();
+			blockStack.clear();
+			loopBlocks.set(header.id);
+			for (BasicBlock block : backEdgeBlocks) {
+				if (!loopBlocks.get(block.id)) {
+					loopBlocks.set(block.id);
+					blockStack.push(block.id);
+				}
+			}
+			while (!blockStack.isEmpty()) {
+				BasicBlock block = graph.blocks.get(blockStack.pop());
+				for (BasicBlock predecessor : block.predecessors) {
+					if (!loopBlocks.get(predecessor.id) && dominatorTree.isReachable(predecessor)) {
+						loopBlocks.set(predecessor.id);
+						blockStack.push(predecessor.id);
+					}
+				}
+			}
+			
+			// The loops around this one were already found, so the innermost loop of the header is its parent
+			Loop parent = innermostLoops[header.id];
+			Loop loop = new Loop(header, parent);
+			loop.backEdgeBlocks.addAll(backEdgeBlocks);
+			loop.setBlocks(loopBlocks, graph);
+			
+			if (parent == null) {
+				topLevelLoops.add(loop);
+			} else {
+				parent.children.add(loop);
+			}
+			loops.add(loop);
+			
+			for (BasicBlock block : loop.blocks) {
+				innermostLoops[block.id] = loop;
+			}
+		}
+	}
+	
+	// Return the innermost loop that the given block is in, or null if it isn't in a loop
+	public Loop getLoop(BasicBlock block) {
+		return innermostLoops[block.id];
+	}
+	
+	// Return how many loops the given block is in (0 if it isn't in a loop)
+	public int getLoopDepth(BasicBlock block) {
+		Loop loop = innermostLoops[block.id];
+		return (loop == null) ? 0 : loop.depth;
+	}
+}
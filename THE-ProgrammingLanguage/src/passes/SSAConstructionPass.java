@@ -0,0 +1,594 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import instructions.*;
+import parsing.BaseType;
+import parsing.IntStack;
+import parsing.Type;
+
+/* This pass puts each function into static single assignment (SSA) form.
+Each variable whose address is only used to load and store it (not an array, and not used by an inner function)
+is replaced by the values that were stored to it, and its AllocVar, Loads, and Stores are removed.
+Where the value of a variable depends on which way control came, a PhiInstr is added.
+For example:
+
+int x = 1
+while x < 10
+	x = x + 1
+]
+print(x)
+
+0   FunctionDef() [main] Parent=-1 'int main()'
+1   | Given->int [1] Parent=0 '1'
+2   | AllocVar->int* Parent=0 'int x' (x declared)
+3   | Store(int* 2, int 1) Parent=0 'x = 1'
+4   | Loop Parent=0 'while loop start'
+5   | | Load(int* 2)->int Parent=4 'x'
+6   | | Given->int [10] Parent=4 '10'
+7   | | Less(int 5, int 6)->bool Parent=4 'x < 10'
+...
+12  | | Load(int* 2)->int Parent=4 'x'
+13  | | Given->int [1] Parent=4 '1'
+14  | | Add(int 12, int 13)->int Parent=4 'x + 1'
+15  | | Load(int* 2)->int Parent=4 'x'
+16  | | Store(int* 2, int 14) Parent=4 'x = x + 1'
+17  | | EndBlock Parent=4 'end while loop start'
+18  | Load(int* 2)->int Parent=0 'x'
+19  | ToString(int 18)->string Parent=0 'x'
+
+is converted to:
+
+0   FunctionDef() [main] Parent=-1 'int main()'
+1   | Given->int [1] Parent=0 '1'
+4   | Loop Parent=0 'while loop start'
+22  | | Phi(int 1, int 14 from 17)->int Parent=4 'x'
+6   | | Given->int [10] Parent=4 '10'
+7   | | Less(int 22, int 6)->bool Parent=4 'x < 10'
+...
+13  | | Given->int [1] Parent=4 '1'
+14  | | Add(int 22, int 13)->int Parent=4 'x + 1'
+17  | | EndBlock Parent=4 'end while loop start'
+19  | ToString(int 22)->string Parent=0 'x'
+
+The phi is x at the start of each iteration: 1 when control runs on into the Loop,
+and the value of 14 when it jumps back from the EndBlock 17.
+
+The phis are placed with the algorithm of Cytron et al.: a variable that is stored in a block needs a phi
+in each block of that block's dominance frontier (and in the frontiers of those phis, and so on).
+Then the dominator tree is walked from the entry, keeping the current value of each variable,
+to replace each Load with the current value and to fill in the values of the phis.
+Phis that turn out to have only one value, or that are never used, are removed again.
+
+Phis only go where control flow joins, so each one goes at the start of a Loop,
+just after the EndBlock of an If or Else, or after the EndBlock of a Loop that is broken out of.
+A variable that is read where it may not have been stored yet gets the default value of its type.
+*/
+
+public class SSAConstructionPass {
+	
+	// Main call to this pass:
+	public static void convertToSSA(ArrayList<Instruction> instructions) {
+		
+		Instruction.linkUsers(instructions);
+		
+		// The instructions to remove, the phis to add before or after each instruction,
+		// and the default values to add after each FunctionDefInstr
+		HashSet<Instruction> deletedInstructions = new HashSet<Instruction>();
+		HashMap<Instruction, ArrayList<Instruction>> instructionsBefore = new HashMap<Instruction, ArrayList<Instruction>>();
+		HashMap<Instruction, ArrayList<Instruction>> instructionsAfter = new HashMap<Instruction, ArrayList<Instruction>>();
+		
+		IntStack functionRanges = ControlFlowGraph.findFunctionRanges(instructions);
+		for (int i = 0; i < functionRanges.size(); i += 2) {
+			ControlFlowGraph graph = ControlFlowGraph.build(instructions, functionRanges.get(i), functionRanges.get(i + 1));
+			new SSAConstructionPass(graph, deletedInstructions, instructionsBefore, instructionsAfter).convertFunction();
+		}
+		
+		// Rebuild the list of instructions, keeping the rest in order
+		ArrayList<Instruction> newInstructions = new ArrayList<Instruction>(instructions.size());
+		for (Instruction instr : instructions) {
+			ArrayList<Instruction> before = instructionsBefore.get(instr);
+			if (before != null) {
+				newInstructions.addAll(before);
+			}
+			if (!deletedInstructions.contains(instr)) {
+				newInstructions.add(instr);
+			}
+			ArrayList<Instruction> after = instructionsAfter.get(instr);
+			if (after != null) {
+				newInstructions.addAll(after);
+			}
+		}
+		instructions.clear();
+		instructions.addAll(newInstructions);
+		
+		updatePhiEdges(instructions);
+	}
+	
+	// Match the values of each phi to the edges into its block again, after instructions were removed from the program.
+	// When every instruction that a jump goes to is removed (such as the Loads and Stores after a Loop that a Break goes to),
+	// the jump goes to the next instruction that is left instead, which may be the start of a block that was
+	// only run on into before.  And when a jump is removed, the instruction before where it went may now run on into it.
+	// The value along such an edge is the value along the edge it replaced.
+	static void updatePhiEdges(ArrayList<Instruction> instructions) {
+		boolean hasPhis = false;
+		for (Instruction instr : instructions) {
+			if (instr instanceof PhiInstr) {
+				hasPhis = true;
+				break;
+			}
+		}
+		if (!hasPhis) {
+			return;
+		}
+		
+		for (ControlFlowGraph graph : ControlFlowGraph.buildAll(instructions)) {
+			BitSet isReachable = graph.findReachableBlocks();
+			for (BasicBlock block : graph.blocks) {
+				for (Instruction instr : block.instructions) {
+					if (instr instanceof PhiInstr) {
+						updatePhiEdges((PhiInstr)instr, block, graph, isReachable.get(block.id));
+					}
+				}
+			}
+		}
+	}
+	
+	// (A phi in code that can no longer be reached, such as after a Break that is now always taken,
+	// may be given any of its values.)
+	// If the edges can't be matched up, a pass removed instructions that it shouldn't have, which is a compiler bug.
+	private static void updatePhiEdges(PhiInstr phi, BasicBlock block, ControlFlowGraph graph, boolean isReachable) {
+		
+		// The edges into the block that the phi has no value for
+		ArrayList<Instruction> newFromInstrs = new ArrayList<Instruction>(0);
+		for (BasicBlock predecessor : block.predecessors) {
+			Instruction fromInstr = graph.getJumpInstruction(predecessor, block);
+			if (phi.getValueFrom(fromInstr) == null) {
+				newFromInstrs.add(fromInstr);
+			}
+		}
+		
+		// The value of the phi along the edges that are gone
+		Instruction oldValue = null;
+		for (int i = phi.values.length - 1; i >= 0; i--) {
+			if (isEdgeLeft(phi.fromInstrs[i], block, graph)) {
+				continue;
+			}
+			if (isReachable && !newFromInstrs.isEmpty() && oldValue != null && oldValue != phi.values[i]) {
+				throw new IllegalStateException("Phi " + phi + " has different values from the edges that were removed");
+			}
+			oldValue = phi.values[i];
+			phi.removeIncoming(i);
+		}
+		
+		if (!newFromInstrs.isEmpty() && oldValue == null) {
+			if (isReachable || phi.values.length == 0) {
+				throw new IllegalStateException("Phi " + phi + " has no value for the edges that were added");
+			}
+			oldValue = phi.values[0];
+		}
+		for (Instruction fromInstr : newFromInstrs) {
+			phi.addIncoming(oldValue, fromInstr);
+		}
+	}
+	
+	// Return true if the given block can still be reached from the given instruction (as in PhiInstr.fromInstrs)
+	private static boolean isEdgeLeft(Instruction fromInstr, BasicBlock block, ControlFlowGraph graph) {
+		for (BasicBlock predecessor : block.predecessors) {
+			if (graph.getJumpInstruction(predecessor, block) == fromInstr) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private final ControlFlowGraph graph;
+	private final DominatorTree dominatorTree;
+	
+	private final HashSet<Instruction> deletedInstructions;
+	private final HashMap<Instruction, ArrayList<Instruction>> instructionsBefore;
+	private final HashMap<Instruction, ArrayList<Instruction>> instructionsAfter;
+	
+	// The variables of the function that are being replaced, and the number of each one
+	private final ArrayList<AllocVarInstr> variables = new ArrayList<AllocVarInstr>();
+	private final HashMap<Instruction, Integer> variableNumbers = new HashMap<Instruction, Integer>();
+	
+	// The phis at the start of each block (by id), and the variable (by number) and block of each phi
+	private final ArrayList<ArrayList<PhiInstr>> phisOfBlock = new ArrayList<ArrayList<PhiInstr>>();
+	private final LinkedHashMap<PhiInstr, Integer> phiVariables = new LinkedHashMap<PhiInstr, Integer>();
+	private final HashMap<PhiInstr, BasicBlock> phiBlocks = new HashMap<PhiInstr, BasicBlock>();
+	
+	// The default value of each type that has been needed in this function
+	private final LinkedHashMap<Type, GivenInstr> defaultValues = new LinkedHashMap<Type, GivenInstr>();
+	
+	private SSAConstructionPass(ControlFlowGraph graph, HashSet<Instruction> deletedInstructions,
+			HashMap<Instruction, ArrayList<Instruction>> instructionsBefore,
+			HashMap<Instruction, ArrayList<Instruction>> instructionsAfter) {
+		this.graph = graph;
+		this.dominatorTree = new DominatorTree(graph);
+		this.deletedInstructions = deletedInstructions;
+		this.instructionsBefore = instructionsBefore;
+		this.instructionsAfter = instructionsAfter;
+		for (int i = 0; i < graph.blocks.size(); i++) {
+			phisOfBlock.add(new ArrayList<PhiInstr>(0));
+		}
+	}
+	
+	private void convertFunction() {
+		findVariables();
+		if (variables.isEmpty()) {
+			return;
+		}
+		placePhis();
+		renameVariables();
+		removeUnneededPhis();
+		addPhisAndDefaultValues();
+	}
+	
+	// Find the variables of the function that can be replaced by values:
+	// variables that aren't arrays, whose address is only used to load and store them in reachable code of this function.
+	private void findVariables() {
+		for (BasicBlock block : dominatorTree.getReversePostOrder()) {
+			for (Instruction instr : block.instructions) {
+				if (instr instanceof AllocVarInstr && canReplaceVariable((AllocVarInstr)instr)) {
+					variableNumbers.put(instr, variables.size());
+					variables.add((AllocVarInstr)instr);
+				}
+			}
+		}
+	}
+	
+	private boolean canReplaceVariable(AllocVarInstr allocInstr) {
+		if (allocInstr.varType.isArray) {
+			return false;
+		}
+		for (Instruction user : allocInstr.getUsers()) {
+			if (user instanceof LoadInstr) {
+				if (((LoadInstr)user).instrThatReturnedPointer != allocInstr) {
+					return false;
+				}
+			} else if (user instanceof StoreInstr) {
+				StoreInstr storeInstr = (StoreInstr)user;
+				if (storeInstr.instrThatReturnedPointer != allocInstr || storeInstr.valueToStore == allocInstr) {
+					return false;
+				}
+			} else {
+				return false;
+			}
+			
+			BasicBlock block = graph.getBlock(user);
+			if (block == null || !dominatorTree.isReachable(block)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// Add an empty phi for each variable to each block where two of its values may join
+	private void placePhis() {
+		final int blockCount = graph.blocks.size();
+		
+		// The last variable (by number, plus one) that each block (by id) was given a phi for,
+		// and that each block was added to the worklist for
+		int[] hasPhiFor = new int[blockCount];
+		int[] wasAddedFor = new int[blockCount];
+		
+		// The blocks that store to each variable
+		ArrayList<ArrayList<BasicBlock>> storeBlocks = new ArrayList<ArrayList<BasicBlock>>(variables.size());
+		for (int v = 0; v < variables.size(); v++) {
+			storeBlocks.add(new ArrayList<BasicBlock>(2));
+		}
+		for (BasicBlock block : dominatorTree.getReversePostOrder()) {
+			for (Instruction instr : block.instructions) {
+				if (instr instanceof StoreInstr) {
+					Integer v = variableNumbers.get(((StoreInstr)instr).instrThatReturnedPointer);
+					if (v != null) {
+						ArrayList<BasicBlock> blocks = storeBlocks.get(v);
+						if (blocks.isEmpty() || blocks.get(blocks.size() - 1) != block) {
+							blocks.add(block);
+						}
+					}
+				}
+			}
+		}
+		
+		ArrayList<BasicBlock> worklist = new ArrayList<BasicBlock>();
+		for (int v = 0; v < variables.size(); v++) {
+			AllocVarInstr allocInstr = variables.get(v);
+			
+			for (BasicBlock block : storeBlocks.get(v)) {
+				wasAddedFor[block.id] = v + 1;
+				worklist.add(block);
+			}
+			
+			while (!worklist.isEmpty()) {
+				BasicBlock block = worklist.remove(worklist.size() - 1);
+				for (BasicBlock frontierBlock : dominatorTree.getDominanceFrontier(block)) {
+					if (hasPhiFor[frontierBlock.id] == v + 1) {
+						continue;
+					}
+					hasPhiFor[frontierBlock.id] = v + 1;
+					
+					PhiInstr phi = new PhiInstr(null, allocInstr.varName, allocInstr.varType);
+					phisOfBlock.get(frontierBlock.id).add(phi);
+					phiVariables.put(phi, v);
+					phiBlocks.put(phi, frontierBlock);
+					
+					// The phi is a new value of the variable, so it needs phis of its own
+					if (wasAddedFor[frontierBlock.id] != v + 1) {
+						wasAddedFor[frontierBlock.id] = v + 1;
+						worklist.add(frontierBlock);
+					}
+				}
+			}
+		}
+	}
+	
+	// Walk the dominator tree, replacing each Load of a variable with its current value,
+	// and giving each phi the value of its variable at the end of each block that goes to it.
+	private void renameVariables() {
+		
+		// The current value of each variable (null if it hasn't been stored yet)
+		Instruction[] currentValues = new Instruction[variables.size()];
+		
+		// The variables changed by the blocks being walked and their values before, to undo when leaving each block
+		IntStack changedVariables = new IntStack();
+		ArrayList<Instruction> previousValues = new ArrayList<Instruction>();
+		
+		// The blocks being walked, the next child to walk from each, and the number of changes before each
+		IntStack walkStack = new IntStack();
+		IntStack nextChildStack = new IntStack();
+		IntStack changeCountStack = new IntStack();
+		
+		walkStack.push(graph.entry.id);
+		nextChildStack.push(0);
+		changeCountStack.push(0);
+		renameBlock(graph.entry, currentValues, changedVariables, previousValues);
+		
+		while (!walkStack.isEmpty()) {
+			BasicBlock block = graph.blocks.get(walkStack.peek());
+			final int nextChild = nextChildStack.peek();
+			ArrayList<BasicBlock> children = dominatorTree.getChildren(block);
+			
+			if (nextChild < children.size()) {
+				nextChildStack.set(nextChild + 1);
+				BasicBlock child = children.get(nextChild);
+				walkStack.push(child.id);
+				nextChildStack.push(0);
+				changeCountStack.push(changedVariables.size());
+				renameBlock(child, currentValues, changedVariables, previousValues);
+			} else {
+				walkStack.pop();
+				nextChildStack.pop();
+				
+				// Put back the values the variables had before this block
+				final int changeCount = changeCountStack.pop();
+				while (changedVariables.size() > changeCount) {
+					currentValues[changedVariables.pop()] = previousValues.remove(previousValues.size() - 1);
+				}
+			}
+		}
+	}
+	
+	private void renameBlock(BasicBlock block, Instruction[] currentValues,
+			IntStack changedVariables, ArrayList<Instruction> previousValues) {
+		
+		for (PhiInstr phi : phisOfBlock.get(block.id)) {
+			final int v = phiVariables.get(phi);
+			changedVariables.push(v);
+			previousValues.add(currentValues[v]);
+			currentValues[v] = phi;
+		}
+		
+		for (Instruction instr : block.instructions) {
+			if (instr instanceof LoadInstr) {
+				LoadInstr loadInstr = (LoadInstr)instr;
+				Integer v = variableNumbers.get(loadInstr.instrThatReturnedPointer);
+				if (v != null) {
+					loadInstr.replaceAllUsesWith(getCurrentValue(currentValues, v));
+					loadInstr.instrThatReturnedPointer.removeUser(loadInstr);
+					deletedInstructions.add(loadInstr);
+				}
+			
+			} else if (instr instanceof StoreInstr) {
+				StoreInstr storeInstr = (StoreInstr)instr;
+				Integer v = variableNumbers.get(storeInstr.instrThatReturnedPointer);
+				if (v != null) {
+					changedVariables.push(v);
+					previousValues.add(currentValues[v]);
+					currentValues[v] = storeInstr.valueToStore;
+					
+					storeInstr.instrThatReturnedPointer.removeUser(storeInstr);
+					storeInstr.valueToStore.removeUser(storeInstr);
+					deletedInstructions.add(storeInstr);
+				}
+			
+			} else if (instr instanceof AllocVarInstr && variableNumbers.containsKey(instr)) {
+				deletedInstructions.add(instr);
+			}
+		}
+		
+		for (BasicBlock successor : block.successors) {
+			Instruction jumpInstr = graph.getJumpInstruction(block, successor);
+			for (PhiInstr phi : phisOfBlock.get(successor.id)) {
+				Instruction value = getCurrentValue(currentValues, phiVariables.get(phi));
+				phi.addIncoming(value, jumpInstr);
+				value.addUser(phi);
+			}
+		}
+	}
+	
+	// Return the current value of the given variable, or its default value if it hasn't been stored yet
+	private Instruction getCurrentValue(Instruction[] currentValues, int v) {
+		if (currentValues[v] != null) {
+			return currentValues[v];
+		}
+		
+		Type type = variables.get(v).varType;
+		GivenInstr defaultValue = defaultValues.get(type);
+		if (defaultValue == null) {
+			Object rawValue = getDefaultRawValue(type);
+			defaultValue = new GivenInstr(graph.funcDefInstr, String.valueOf(rawValue), rawValue, type);
+			defaultValue.originalLineNumber = graph.funcDefInstr.originalLineNumber;
+			defaultValues.put(type, defaultValue);
+		}
+		return defaultValue;
+	}
+	
+	// Return the value that a variable of the given type has before it is stored to
+	private static Object getDefaultRawValue(Type type) {
+		if (type.isA(BaseType.Bool)) {
+			return false;
+		} else if (type.isA(BaseType.Long)) {
+			return 0L;
+		} else if (type.isA(BaseType.Float)) {
+			return 0f;
+		} else if (type.isA(BaseType.Double)) {
+			return 0.0;
+		} else if (type.isA(BaseType.String)) {
+			return "\"\"";
+		}
+		return 0;
+	}
+	
+	// Remove the phis whose values are all the same (other than the phi itself),
+	// and then the phis that are only used by phis that aren't needed
+	private void removeUnneededPhis() {
+		
+		// Replace each phi that only has one value with that value.
+		// The phis that used it may now only have one value too, so look at them again.
+		ArrayList<PhiInstr> worklist = new ArrayList<PhiInstr>(phiVariables.keySet());
+		HashSet<PhiInstr> removedPhis = new HashSet<PhiInstr>();
+		
+		while (!worklist.isEmpty()) {
+			PhiInstr phi = worklist.remove(worklist.size() - 1);
+			if (removedPhis.contains(phi)) {
+				continue;
+			}
+			
+			Instruction onlyValue = null;
+			boolean hasOneValue = true;
+			for (Instruction value : phi.values) {
+				if (value == phi || value == onlyValue) {
+					continue;
+				}
+				if (onlyValue != null) {
+					hasOneValue = false;
+					break;
+				}
+				onlyValue = value;
+			}
+			if (!hasOneValue || onlyValue == null) {
+				continue;
+			}
+			
+			for (Instruction user : phi.getUsers()) {
+				if (user instanceof PhiInstr && user != phi) {
+					worklist.add((PhiInstr)user);
+				}
+			}
+			phi.replaceAllUsesWith(onlyValue);
+			removePhi(phi);
+			removedPhis.add(phi);
+		}
+		
+		// Find the phis that are needed: those used by other instructions, and the phis they use
+		ArrayList<PhiInstr> neededPhis = new ArrayList<PhiInstr>();
+		HashSet<PhiInstr> isNeeded = new HashSet<PhiInstr>();
+		for (PhiInstr phi : phiVariables.keySet()) {
+			if (removedPhis.contains(phi)) {
+				continue;
+			}
+			for (Instruction user : phi.getUsers()) {
+				if (!(user instanceof PhiInstr)) {
+					isNeeded.add(phi);
+					neededPhis.add(phi);
+					break;
+				}
+			}
+		}
+		while (!neededPhis.isEmpty()) {
+			PhiInstr phi = neededPhis.remove(neededPhis.size() - 1);
+			for (Instruction value : phi.values) {
+				if (value instanceof PhiInstr && !isNeeded.contains(value)) {
+					isNeeded.add((PhiInstr)value);
+					neededPhis.add((PhiInstr)value);
+				}
+			}
+		}
+		
+		for (PhiInstr phi : phiVariables.keySet()) {
+			if (!removedPhis.contains(phi) && !isNeeded.contains(phi)) {
+				removePhi(phi);
+			}
+		}
+	}
+	
+	// Take the given phi out of the block it was placed in, and out of the users of its values
+	private void removePhi(PhiInstr phi) {
+		for (Instruction value : phi.values) {
+			value.removeUser(phi);
+		}
+		phisOfBlock.get(phiBlocks.get(phi).id).remove(phi);
+	}
+	
+	// Add the remaining phis at the start of their blocks, and the default values after the FunctionDefInstr
+	private void addPhisAndDefaultValues() {
+		if (!defaultValues.isEmpty()) {
+			ArrayList<Instruction> after = getInstructionList(instructionsAfter, graph.funcDefInstr);
+			after.addAll(0, defaultValues.values());
+		}
+		
+		for (BasicBlock block : graph.blocks) {
+			ArrayList<PhiInstr> phis = phisOfBlock.get(block.id);
+			if (phis.isEmpty()) {
+				continue;
+			}
+			
+			// A block that starts with a Loop, or with the end of a block that goes on to the next instruction,
+			// gets its phis after that instruction, in the block that contains it.
+			// Otherwise they go before the first instruction.
+			Instruction firstInstr = block.getFirstInstruction();
+			Instruction parent;
+			ArrayList<Instruction> phiList;
+			if (firstInstr instanceof LoopInstr) {
+				parent = firstInstr;
+				phiList = getInstructionList(instructionsAfter, firstInstr);
+			} else if (firstInstr instanceof EndBlockInstr && !doesEndBlockJump(firstInstr)) {
+				parent = firstInstr.parentInstruction.parentInstruction;
+				phiList = getInstructionList(instructionsAfter, firstInstr);
+			} else {
+				parent = firstInstr.parentInstruction;
+				phiList = getInstructionList(instructionsBefore, firstInstr);
+			}
+			
+			for (PhiInstr phi : phis) {
+				phi.parentInstruction = parent;
+				phi.originalLineNumber = firstInstr.originalLineNumber;
+				phiList.add(phi);
+			}
+		}
+	}
+	
+	// Return true if the given EndBlock jumps somewhere other than the next instruction
+	// (the end of a Loop, of an If with an Else, or of the function)
+	private static boolean doesEndBlockJump(Instruction endInstr) {
+		Instruction openingBlockInstr = endInstr.parentInstruction;
+		return openingBlockInstr instanceof LoopInstr ||
+				openingBlockInstr instanceof FunctionDefInstr ||
+				(openingBlockInstr instanceof IfInstr && ((IfInstr)openingBlockInstr).elseInstr != null);
+	}
+	
+	private static ArrayList<Instruction> getInstructionList(HashMap<Instruction, ArrayList<Instruction>> lists, Instruction instr) {
+		ArrayList<Instruction> list = lists.get(instr);
+		if (list == null) {
+			list = new ArrayList<Instruction>(2);
+			lists.put(instr, list);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,301 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import instructions.AllocVarInstr;
+import instructions.BreakInstr;
+import instructions.ContinueInstr;
+import instructions.EndBlockInstr;
+import instructions.FunctionCallInstr;
+import instructions.FunctionDefInstr;
+import instructions.GetElementInstr;
+import instructions.IdentityInstr;
+import instructions.Instruction;
+import instructions.LoadInstr;
+import instructions.LoopInstr;
+import instructions.PrintInstr;
+import instructions.ReturnInstr;
+import instructions.StoreInstr;
+import parsing.Function;
+import parsing.IntStack;
+import parsing.SideEffect;
+
+/* This analysis finds what calling each function in a program can do (see SideEffect),
+and stores it in the function, so later passes can look it up without reading the function's body.
+
+A function has the effects of every instruction in its body, and of every function that it calls.
+Functions that call each other (directly or through other functions) form a strongly-connected
+component of the call graph, and must all have the same effects.  So the components are found first
+(with Tarjan's algorithm), and then the effects of each component are found after the effects of
+every component it calls.  This looks at each instruction and each call once, even for recursive functions.
+
+A recursive function may never return, and neither may a function with a loop that can't be shown to end.
+The only loops shown to end are the ones that never go back to their start: they end by breaking out
+(or returning), and nothing continues them.  Inlining a function with several returns makes such a loop.
+For example, this function is MayNotReturn, so a call to it isn't removed even though it does nothing else:
+	void c()
+		c()
+	]
+
+The effects are only right for the instructions as they were when this ran, so each pass that
+looks them up runs this first, in case an earlier pass changed the instructions of a function.
+*/
+
+public class SideEffectAnalysis {
+	
+	// Main call to this analysis:
+	public static void analyze(ArrayList<Instruction> instructions) {
+		
+		// Number every function that is defined in this program
+		ArrayList<FunctionDefInstr> funcDefInstrs = new ArrayList<FunctionDefInstr>();
+		HashMap<FunctionDefInstr, Integer> funcDefIndices = new HashMap<FunctionDefInstr, Integer>();
+		for (Instruction instr : instructions) {
+			if (instr instanceof FunctionDefInstr) {
+				funcDefIndices.put((FunctionDefInstr)instr, funcDefInstrs.size());
+				funcDefInstrs.add((FunctionDefInstr)instr);
+			}
+		}
+		
+		final int functionCount = funcDefInstrs.size();
+		SideEffect[] ownEffects = new SideEffect[functionCount];
+		ArrayList<IntStack> calledFunctions = new ArrayList<IntStack>(functionCount);
+		for (int i = 0; i < functionCount; i++) {
+			ownEffects[i] = SideEffect.Pure;
+			calledFunctions.add(new IntStack());
+		}
+		
+		// The loops that a Continue goes back to the start of
+		HashSet<LoopInstr> continuedLoops = new HashSet<LoopInstr>();
+		
+		// Find the effects of each function's own instructions, and the functions it calls
+		for (int i = 0; i < instructions.size(); i++) {
+			final Instruction instr = instructions.get(i);
+			FunctionDefInstr owner = findEnclosingFunction(instr);
+			if (owner == null) {
+				continue;
+			}
+			final int ownerIndex = funcDefIndices.get(owner);
+			
+			ownEffects[ownerIndex] = ownEffects[ownerIndex].combine(getOwnEffect(instr, owner));
+			
+			if (instr instanceof ContinueInstr) {
+				continuedLoops.add(((ContinueInstr)instr).loopStartInstr);
+			} else if (instr instanceof EndBlockInstr && instr.parentInstruction instanceof LoopInstr &&
+					!doesLoopEnd((LoopInstr)instr.parentInstruction, instructions.get(i - 1), continuedLoops)) {
+				ownEffects[ownerIndex] = ownEffects[ownerIndex].combine(SideEffect.MayNotReturn);
+			}
+			
+			if (instr instanceof FunctionCallInstr) {
+				Function calledFunction = ((FunctionCallInstr)instr).functionThatWasCalled;
+				Integer calledIndex = funcDefIndices.get(calledFunction.functionDefInstr);
+				if (calledIndex != null) {
+					calledFunctions.get(ownerIndex).push(calledIndex);
+				} else {
+					calledFunction.sideEffect = SideEffect.Pure; // There is no body in this program to do anything
+				}
+			}
+		}
+		
+		SideEffect[] effects = findEffectsOfComponents(ownEffects, calledFunctions);
+		for (int i = 0; i < functionCount; i++) {
+			funcDefInstrs.get(i).functionThatWasDefined.sideEffect = effects[i];
+		}
+	}
+	
+	// Return the effect of the given instruction by itself (not counting any function that it calls),
+	// inside the body of the given function
+	public static SideEffect getOwnEffect(Instruction instr, FunctionDefInstr owner) {
+		if (instr instanceof PrintInstr) {
+			return SideEffect.IO;
+		}
+		if (instr instanceof StoreInstr) {
+			if (!isLocalVariable(((StoreInstr)instr).instrThatReturnedPointer, owner)) {
+				return SideEffect.WritesMemory;
+			}
+		}
+		if (instr instanceof LoadInstr) {
+			if (!isLocalVariable(((LoadInstr)instr).instrThatReturnedPointer, owner)) {
+				return SideEffect.ReadsMemory;
+			}
+		}
+		return SideEffect.Pure;
+	}
+	
+	// Return true if the given loop never goes back to its start, given the last instruction in it
+	// and every loop that a Continue before its end goes back to
+	private static boolean doesLoopEnd(LoopInstr loop, Instruction lastInstr, HashSet<LoopInstr> continuedLoops) {
+		return (lastInstr instanceof BreakInstr || lastInstr instanceof ReturnInstr) &&
+				lastInstr.parentInstruction == loop &&
+				!continuedLoops.contains(loop);
+	}
+	
+	// Return true if the given pointer is to a variable (or an element of an array variable)
+	// that was declared in the body of the given function
+	private static boolean isLocalVariable(Instruction pointer, FunctionDefInstr owner) {
+		while (pointer instanceof IdentityInstr) {
+			pointer = ((IdentityInstr)pointer).arg;
+		}
+		if (pointer instanceof GetElementInstr) {
+			pointer = ((GetElementInstr)pointer).declareInstr;
+		}
+		return pointer instanceof AllocVarInstr && owner.isAncestorOf(pointer);
+	}
+	
+	// Return the function whose body the given instruction is in, or null if it isn't in one
+	private static FunctionDefInstr findEnclosingFunction(Instruction instr) {
+		Instruction parent = instr.parentInstruction;
+		while (parent != null && !(parent instanceof FunctionDefInstr)) {
+			parent = parent.parentInstruction;
+		}
+		return (FunctionDefInstr)parent;
+	}
+	
+	// Given the effects of each function's own instructions and the functions each one calls,
+	// return the effects of calling each function.
+	// The effect of a component is the effect of each member, and of each function called from outside the component.
+	// A component that calls itself (with more than one member, or a member that calls itself) may not return.
+	// The components are looked at in order, so the effects of the components they call are already known.
+	private static SideEffect[] findEffectsOfComponents(SideEffect[] ownEffects, ArrayList<IntStack> calledFunctions) {
+		
+		final int functionCount = ownEffects.length;
+		int[] components = findComponents(calledFunctions);
+		IntStack order = findCalleesFirstOrder(components);
+		SideEffect[] componentEffects = new SideEffect[functionCount];
+		
+		int[] componentSizes = new int[functionCount];
+		for (int i = 0; i < functionCount; i++) {
+			componentSizes[components[i]]++;
+		}
+		
+		for (int i = 0; i < functionCount; i++) {
+			final int function = order.get(i);
+			final int component = components[function];
+			
+			SideEffect componentEffect = (componentEffects[component] == null) ? SideEffect.Pure : componentEffects[component];
+			componentEffect = componentEffect.combine(ownEffects[function]);
+			if (componentSizes[component] > 1) {
+				componentEffect = componentEffect.combine(SideEffect.MayNotReturn);
+			}
+			IntStack calls = calledFunctions.get(function);
+			for (int j = 0; j < calls.size(); j++) {
+				final int calledComponent = components[calls.get(j)];
+				if (calledComponent != component) {
+					componentEffect = componentEffect.combine(componentEffects[calledComponent]);
+				} else { // A recursive call
+					componentEffect = componentEffect.combine(SideEffect.MayNotReturn);
+				}
+			}
+			componentEffects[component] = componentEffect;
+		}
+		
+		SideEffect[] effects = new SideEffect[functionCount];
+		for (int i = 0; i < functionCount; i++) {
+			effects[i] = componentEffects[components[i]];
+		}
+		return effects;
+	}
+	
+	// Given the functions that each function calls, return the number of the strongly-connected component
+	// of the call graph that each function is in.  Each component is numbered after every component it calls.
+	// This is Tarjan's algorithm, with its own stacks instead of recursion, so long call chains can't overflow.
+	static int[] findComponents(ArrayList<IntStack> calledFunctions) {
+		
+		final int functionCount = calledFunctions.size();
+		int[] components = new int[functionCount];
+		int componentCount = 0;
+		
+		int[] visitIndex = new int[functionCount]; // The order each function was first visited, starting at 1 (0 if not visited)
+		int[] lowLink = new int[functionCount]; // The earliest visited function reachable that is still on the component stack
+		boolean[] isOnComponentStack = new boolean[functionCount];
+		IntStack componentStack = new IntStack();
+		int nextVisitIndex = 1;
+		
+		// The functions being visited, and the next call to follow from each
+		IntStack visitStack = new IntStack();
+		IntStack nextCallStack = new IntStack();
+		
+		for (int root = 0; root < functionCount; root++) {
+			if (visitIndex[root] != 0) {
+				continue;
+			}
+			
+			visitIndex[root] = lowLink[root] = nextVisitIndex++;
+			componentStack.push(root);
+			isOnComponentStack[root] = true;
+			visitStack.push(root);
+			nextCallStack.push(0);
+			
+			while (!visitStack.isEmpty()) {
+				final int function = visitStack.peek();
+				final int nextCall = nextCallStack.peek();
+				final IntStack calls = calledFunctions.get(function);
+				
+				if (nextCall < calls.size()) {
+					nextCallStack.set(nextCall + 1);
+					final int called = calls.get(nextCall);
+					
+					if (visitIndex[called] == 0) { // Visit the called function first
+						visitIndex[called] = lowLink[called] = nextVisitIndex++;
+						componentStack.push(called);
+						isOnComponentStack[called] = true;
+						visitStack.push(called);
+						nextCallStack.push(0);
+					} else if (isOnComponentStack[called]) {
+						lowLink[function] = Math.min(lowLink[function], visitIndex[called]);
+					}
+					continue;
+				}
+				
+				// Every call from this function has been followed
+				visitStack.pop();
+				nextCallStack.pop();
+				if (!visitStack.isEmpty()) {
+					final int caller = visitStack.peek();
+					lowLink[caller] = Math.min(lowLink[caller], lowLink[function]);
+				}
+				
+				// If this function started a component, then the component is finished
+				if (lowLink[function] == visitIndex[function]) {
+					int member;
+					do {
+						member = componentStack.pop();
+						isOnComponentStack[member] = false;
+						components[member] = componentCount;
+					} while (member != function);
+					componentCount++;
+				}
+			}
+		}
+		
+		return components;
+	}
+	
+	// Given the component of each function (see findComponents), return every function in an order where
+	// each one comes after the functions it calls (other than the ones in its own component).
+	// The functions of a component are next to each other, in the order they were defined.
+	static IntStack findCalleesFirstOrder(int[] components) {
+		final int functionCount = components.length;
+		
+		// Count the functions in each component, then find where each component starts
+		int[] componentStarts = new int[functionCount + 1];
+		for (int i = 0; i < functionCount; i++) {
+			componentStarts[components[i] + 1]++;
+		}
+		for (int i = 0; i < functionCount; i++) {
+			componentStarts[i + 1] += componentStarts[i];
+		}
+		
+		int[] order = new int[functionCount];
+		for (int i = 0; i < functionCount; i++) {
+			order[componentStarts[components[i]]++] = i;
+		}
+		
+		IntStack orderStack = new IntStack(functionCount);
+		for (int i = 0; i < functionCount; i++) {
+			orderStack.push(order[i]);
+		}
+		return orderStack;
+	}
+}
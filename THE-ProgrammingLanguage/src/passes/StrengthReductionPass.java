@@ -0,0 +1,382 @@
+package passes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import instructions.*;
+import parsing.IntStack;
+import parsing.Type;
+
+/* This pass uses the induction variables of each loop (see InductionVariables) to make the loop do less work
+in each iteration.  For example:
+
+int[] f = int[12]
+for int i = 0, 3
+	for int j = 0, 4
+		total = total + f[i * 4 + j]
+	]
+]
+
+17  | | Loop Parent=13 'for-loop start'
+105 | | | Phi(int 111, int 104 from 69)->int Parent=17 'total'
+106 | | | Phi(int 111, int 67 from 69)->int Parent=17 'i'
+20  | | | GreaterEqual(int 106, int 1)->bool Parent=17 'i >= (3)'
+23  | | | Less(int 106, int 111)->bool Parent=17 'i < (0)'
+24  | | | BoolOr(bool 20, bool 23)->bool Parent=17 '(i >= (3)) || (i < (0))'
+25  | | | If(bool 24) End=27 Parent=17 '(i >= (3)) || (i < (0))'
+26  | | | | Break Parent=25 'break for'
+27  | | | | EndBlock Parent=25 'end if'
+28  | | | StartBlock Parent=17 'for-loop scope start'
+...
+51  | | | | | Mult(int 106, int 2)->int Parent=32 'i * 4'
+53  | | | | | Add(int 51, int 107)->int Parent=32 'i * 4 + j'
+...
+67  | | | Add(int 106, int 66)->int Parent=17 'i + 1'
+69  | | | EndBlock Parent=17 'end for-loop start'
+
+is converted to:
+
+113 | | Given->int [0] Parent=13 'i * 4'
+17  | | Loop Parent=13 'for-loop start'
+105 | | | Phi(int 111, int 104 from 69)->int Parent=17 'total'
+106 | | | Phi(int 111, int 67 from 69)->int Parent=17 'i'
+114 | | | Phi(int 113, int 115 from 69)->int Parent=17 'i * 4'
+20  | | | GreaterEqual(int 106, int 1)->bool Parent=17 'i >= (3)'
+25  | | | If(bool 20) End=27 Parent=17 '(i >= (3)) || (i < (0))'
+26  | | | | Break Parent=25 'break for'
+27  | | | | EndBlock Parent=25 'end if'
+28  | | | StartBlock Parent=17 'for-loop scope start'
+...
+53  | | | | | Add(int 114, int 107)->int Parent=32 'i * 4 + j'
+...
+67  | | | Add(int 106, int 66)->int Parent=17 'i + 1'
+115 | | | Add(int 114, int 2)->int Parent=17 'i * 4'
+69  | | | EndBlock Parent=17 'end for-loop start'
+
+It makes three kinds of changes:
+- A multiplication of an induction variable (or its increment) by a value from outside the loop is replaced with
+  a new induction variable that starts at the product and adds the step times that value in each iteration.
+  Integers wrap around, so the two are always equal.
+- Two induction variables of a loop that start at the same value and change by the same step on the same edges
+  always have the same value, so the second one is replaced with the first one (such as a counter that is kept
+  next to the generated index of a for-each loop).
+- The check "i < start" that the lowering of "for int i = start, stop" adds next to "i >= stop" is removed,
+  when i starts at start and goes up by 1.  The rest of the loop only runs when i < stop, so adding 1 can't wrap around.
+Induction variables that are only used to work out their own next value are then removed.
+
+Multi-dimensional GetElements (such as m[i, j]) keep working out their own address,
+since the instructions have no way to add an offset to a pointer.
+*/
+
+public class StrengthReductionPass {
+	
+	// Main call to this pass:
+	public static void reduceStrength(ArrayList<Instruction> instructions) {
+		
+		Instruction.linkUsers(instructions);
+		
+		// The instructions to remove, and the new instructions to add before or after an instruction
+		HashSet<Instruction> deletedInstructions = new HashSet<Instruction>();
+		HashMap<Instruction, ArrayList<Instruction>> instructionsBefore = new HashMap<Instruction, ArrayList<Instruction>>();
+		HashMap<Instruction, ArrayList<Instruction>> instructionsAfter = new HashMap<Instruction, ArrayList<Instruction>>();
+		
+		IntStack functionRanges = ControlFlowGraph.findFunctionRanges(instructions);
+		for (int i = 0; i < functionRanges.size(); i += 2) {
+			ControlFlowGraph graph = ControlFlowGraph.build(instructions, functionRanges.get(i), functionRanges.get(i + 1));
+			new StrengthReductionPass(graph, deletedInstructions, instructionsBefore, instructionsAfter).reduceInFunction();
+		}
+		
+		if (deletedInstructions.isEmpty() && instructionsBefore.isEmpty() && instructionsAfter.isEmpty()) {
+			return;
+		}
+		
+		// Rebuild the list of instructions, keeping the rest in order
+		ArrayList<Instruction> newInstructions = new ArrayList<Instruction>(instructions.size());
+		for (Instruction instr : instructions) {
+			if (instructionsBefore.containsKey(instr)) {
+				newInstructions.addAll(instructionsBefore.get(instr));
+			}
+			if (!deletedInstructions.contains(instr)) {
+				newInstructions.add(instr);
+			}
+			if (instructionsAfter.containsKey(instr)) {
+				newInstructions.addAll(instructionsAfter.get(instr));
+			}
+		}
+		instructions.clear();
+		instructions.addAll(newInstructions);
+		
+		// A Break from a loop just before another loop now goes to the first instruction added before it
+		SSAConstructionPass.updatePhiEdges(instructions);
+	}
+	
+	private final ControlFlowGraph graph;
+	
+	private final HashSet<Instruction> deletedInstructions;
+	private final HashMap<Instruction, ArrayList<Instruction>> instructionsBefore;
+	private final HashMap<Instruction, ArrayList<Instruction>> instructionsAfter;
+	
+	private InductionVariables inductionVariables;
+	
+	private StrengthReductionPass(ControlFlowGraph graph, HashSet<Instruction> deletedInstructions,
+			HashMap<Instruction, ArrayList<Instruction>> instructionsBefore,
+			HashMap<Instruction, ArrayList<Instruction>> instructionsAfter) {
+		this.graph = graph;
+		this.deletedInstructions = deletedInstructions;
+		this.instructionsBefore = instructionsBefore;
+		this.instructionsAfter = instructionsAfter;
+	}
+	
+	private void reduceInFunction() {
+		LoopNest loopNest = new LoopNest(new DominatorTree(graph));
+		if (loopNest.loops.isEmpty()) {
+			return;
+		}
+		inductionVariables = new InductionVariables(loopNest);
+		
+		mergeSameVariables();
+		removeLowerBoundChecks();
+		for (InductionVariable variable : inductionVariables.variables) {
+			if (!deletedInstructions.contains(variable.phi)) {
+				reduceMultiplications(variable, variable.phi);
+				reduceMultiplications(variable, variable.increment);
+			}
+		}
+		removeUnusedVariables();
+	}
+	
+	// Replace each induction variable that always has the same value as an earlier one in its loop with that one
+	private void mergeSameVariables() {
+		ArrayList<InductionVariable> variables = inductionVariables.variables;
+		for (int i = 0; i < variables.size(); i++) {
+			InductionVariable first = variables.get(i);
+			if (deletedInstructions.contains(first.phi)) {
+				continue;
+			}
+			
+			for (int j = i + 1; j < variables.size(); j++) {
+				InductionVariable second = variables.get(j);
+				if (second.loop != first.loop || deletedInstructions.contains(second.phi) || second.step != first.step ||
+						!(second.initialValue == first.initialValue ||
+						InductionVariables.isSameConstant(second.initialValue, first.initialValue)) ||
+						!doChangeTogether(first, second)) {
+					continue;
+				}
+				
+				second.phi.replaceAllUsesWith(first.phi);
+				deleteInstruction(second.phi);
+				if (second.increment.getUsers().isEmpty()) {
+					deleteInstruction(second.increment);
+				}
+			}
+		}
+	}
+	
+	// Return true if the given induction variables (of the same loop) are incremented on the same back edges
+	private boolean doChangeTogether(InductionVariable first, InductionVariable second) {
+		PhiInstr secondPhi = second.phi;
+		for (int i = 0; i < secondPhi.values.length; i++) {
+			Instruction fromInstr = secondPhi.fromInstrs[i];
+			if (inductionVariables.isBackEdge(second.loop, fromInstr) &&
+					(secondPhi.values[i] == secondPhi) != (first.phi.getValueFrom(fromInstr) == first.phi)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// Remove "i < start" from the "(i >= stop) || (i < start)" check at the start of each lowered for-loop,
+	// when i is an induction variable that starts at start and goes up by 1
+	private void removeLowerBoundChecks() {
+		for (InductionVariable variable : inductionVariables.variables) {
+			BasicBlock header = variable.loop.header;
+			Instruction lastInstr = header.getLastInstruction();
+			if (variable.step != 1 || deletedInstructions.contains(variable.phi) || !(lastInstr instanceof IfInstr) ||
+					graph.getBlock(variable.increment) == header) {
+				continue;
+			}
+			
+			// The If must only break out of the loop, so the rest of the loop only runs when the check is false
+			IfInstr ifInstr = (IfInstr)lastInstr;
+			Instruction firstInstrInside = header.successors.get(0).getFirstInstruction();
+			if (ifInstr.elseInstr != null || !(firstInstrInside instanceof BreakInstr) ||
+					((BreakInstr)firstInstrInside).loopStartInstr != variable.loop.loopInstr) {
+				continue;
+			}
+			
+			if (!(ifInstr.conditionInstr instanceof BoolOrInstr)) {
+				continue;
+			}
+			BoolOrInstr check = (BoolOrInstr)ifInstr.conditionInstr;
+			if (!(check.arg1 instanceof GreaterEqualInstr) || !(check.arg2 instanceof LessInstr)) {
+				continue;
+			}
+			GreaterEqualInstr upperCheck = (GreaterEqualInstr)check.arg1;
+			LessInstr lowerCheck = (LessInstr)check.arg2;
+			if (upperCheck.arg1 != variable.phi || lowerCheck.arg1 != variable.phi ||
+					!(lowerCheck.arg2 == variable.initialValue ||
+					InductionVariables.isSameConstant(lowerCheck.arg2, variable.initialValue))) {
+				continue;
+			}
+			
+			check.replaceAllUsesWith(upperCheck);
+			deleteInstruction(check);
+			if (lowerCheck.getUsers().isEmpty()) {
+				deleteInstruction(lowerCheck);
+			}
+		}
+	}
+	
+	// Replace each multiplication in the loop of the given induction variable of the given value
+	// (its phi or its increment) by a value from outside of the loop with a new induction variable
+	private void reduceMultiplications(InductionVariable variable, Instruction value) {
+		Loop loop = variable.loop;
+		final Type type = variable.phi.returnType;
+		if (loop.loopInstr == null) {
+			return;
+		}
+		
+		for (Instruction user : new ArrayList<Instruction>(value.getUsers())) {
+			if (!(user instanceof MultInstr) || deletedInstructions.contains(user) || user.returnType != type) {
+				continue;
+			}
+			BasicBlock userBlock = graph.getBlock(user);
+			if (userBlock == null || !loop.contains(userBlock)) {
+				continue;
+			}
+			
+			MultInstr mult = (MultInstr)user;
+			Instruction factor = (mult.arg1 == value) ? mult.arg2 : mult.arg1;
+			BasicBlock factorBlock = graph.getBlock(factor);
+			if (factor == value || factor.returnType != type || factorBlock == null || loop.contains(factorBlock)) {
+				continue;
+			}
+			
+			// Work out the start and the step of the new variable just before the loop
+			LoopInstr loopInstr = loop.loopInstr;
+			ArrayList<Instruction> instructionsBeforeLoop = getList(instructionsBefore, loopInstr);
+			Instruction parent = loopInstr.parentInstruction;
+			Instruction start = makeProduct(variable.initialValue, factor, parent, mult, instructionsBeforeLoop);
+			Instruction step = factor;
+			if (variable.step != 1) {
+				GivenInstr stepInstr = new GivenInstr(parent, Long.toString(variable.step),
+						ConstantFoldingPass.castInteger(variable.step, type), type);
+				stepInstr.originalLineNumber = mult.originalLineNumber;
+				if (!(factor instanceof GivenInstr)) {
+					instructionsBeforeLoop.add(stepInstr);
+				}
+				step = makeProduct(stepInstr, factor, parent, mult, instructionsBeforeLoop);
+			}
+			
+			// The new variable goes next to the old one, and its increment next to the old increment
+			PhiInstr newPhi = new PhiInstr(loopInstr, mult.debugString, type);
+			newPhi.originalLineNumber = mult.originalLineNumber;
+			AddInstr newIncrement = new AddInstr(variable.increment.parentInstruction, mult.debugString, newPhi, step);
+			newIncrement.originalLineNumber = mult.originalLineNumber;
+			addUsers(newIncrement);
+			
+			PhiInstr phi = variable.phi;
+			for (int i = 0; i < phi.values.length; i++) {
+				Instruction newValue;
+				if (phi.values[i] == phi) {
+					newValue = newPhi;
+				} else if (phi.values[i] == variable.increment) {
+					newValue = newIncrement;
+				} else {
+					newValue = start;
+				}
+				newPhi.addIncoming(newValue, phi.fromInstrs[i]);
+				newValue.addUser(newPhi);
+			}
+			getList(instructionsAfter, phi).add(newPhi);
+			getList(instructionsAfter, variable.increment).add(newIncrement);
+			
+			mult.replaceAllUsesWith((value == phi) ? newPhi : newIncrement);
+			deleteInstruction(mult);
+		}
+	}
+	
+	// Return an instruction for the product of the given values, and add the new instructions for it
+	// to the given list, to run before the loop.  It is worked out now when it is 0, or both values are constants.
+	private static Instruction makeProduct(Instruction value1, Instruction value2, Instruction parent,
+			MultInstr mult, ArrayList<Instruction> newInstructions) {
+		
+		if (isConstant(value1, 1)) {
+			return value2;
+		}
+		
+		MultInstr product = new MultInstr(parent, mult.debugString, value1, value2);
+		product.originalLineNumber = mult.originalLineNumber;
+		Object result = null;
+		if (isConstant(value1, 0) || isConstant(value2, 0)) {
+			result = ConstantFoldingPass.castInteger(0, product.returnType);
+		} else if (value1 instanceof GivenInstr && value2 instanceof GivenInstr) {
+			result = ConstantFoldingPass.evaluate(product, ((GivenInstr)value1).rawValue, ((GivenInstr)value2).rawValue);
+		}
+		if (result != null) {
+			GivenInstr given = ConstantFoldingPass.makeGiven(product, result);
+			newInstructions.add(given);
+			return given;
+		}
+		
+		newInstructions.add(product);
+		addUsers(product);
+		return product;
+	}
+	
+	// Return true if the given instruction is the given integer constant
+	private static boolean isConstant(Instruction instr, long value) {
+		return instr instanceof GivenInstr && ((GivenInstr)instr).rawValue instanceof Number &&
+				((Number)((GivenInstr)instr).rawValue).longValue() == value;
+	}
+	
+	// Remove each induction variable that is only used to work out its own next value
+	private void removeUnusedVariables() {
+		for (InductionVariable variable : inductionVariables.variables) {
+			PhiInstr phi = variable.phi;
+			Instruction increment = variable.increment;
+			if (deletedInstructions.contains(phi) || deletedInstructions.contains(increment)) {
+				continue;
+			}
+			if (isOnlyUsedBy(phi, increment, phi) && isOnlyUsedBy(increment, phi, phi)) {
+				deleteInstruction(phi);
+				deleteInstruction(increment);
+			}
+		}
+	}
+	
+	// Return true if the given instruction is only used by the other two
+	private static boolean isOnlyUsedBy(Instruction instr, Instruction user1, Instruction user2) {
+		for (Instruction user : instr.getUsers()) {
+			if (user != user1 && user != user2) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void deleteInstruction(Instruction instr) {
+		deletedInstructions.add(instr);
+		for (Instruction arg : instr.getAllArgs()) {
+			if (arg != null) {
+				arg.removeUser(instr);
+			}
+		}
+	}
+	
+	private static void addUsers(Instruction instr) {
+		for (Instruction arg : instr.getAllArgs()) {
+			arg.addUser(instr);
+		}
+	}
+	
+	private static ArrayList<Instruction> getList(HashMap<Instruction, ArrayList<Instruction>> lists, Instruction instr) {
+		ArrayList<Instruction> list = lists.get(instr);
+		if (list == null) {
+			list = new ArrayList<Instruction>(2);
+			lists.put(instr, list);
+		}
+		return list;
+	}
+}